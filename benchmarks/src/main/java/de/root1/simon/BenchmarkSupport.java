@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import java.util.concurrent.Executors;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Gives the codec benchmarks access to the package private parts of SIMON they
+ * need to set up a session without a network connection.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates a server side dispatcher with a remote object bound to it, so
+     * that invoke requests for the object can be decoded
+     *
+     * @param remoteObjectName the name of the remote object
+     * @param remoteObject the remote object
+     * @return the dispatcher, to be shut down with {@link Dispatcher#shutdown()}
+     */
+    public static Dispatcher createDispatcher(String remoteObjectName, Object remoteObject) {
+        Dispatcher dispatcher = new Dispatcher(null, BenchmarkSupport.class.getClassLoader(), Executors.newSingleThreadExecutor());
+        dispatcher.getLookupTable().putRemoteBinding(remoteObjectName, remoteObject);
+        return dispatcher;
+    }
+
+    /**
+     * Attaches a dispatcher and its lookup table to a session, like the
+     * acceptor does for a new connection
+     *
+     * @param session the session
+     * @param dispatcher the dispatcher
+     */
+    public static void attach(IoSession session, Dispatcher dispatcher) {
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_DISPATCHER, dispatcher);
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE, dispatcher.getLookupTable());
+    }
+
+    /**
+     * Marks a session as if the handshake had negotiated all features this
+     * version supports
+     *
+     * @param session the session
+     */
+    public static void negotiateFeatures(IoSession session) {
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, ProtocolHandshake.getLocalFeatures());
+    }
+}
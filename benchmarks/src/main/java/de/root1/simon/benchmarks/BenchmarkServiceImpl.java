@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import de.root1.simon.annotation.SimonRemote;
+
+/**
+ * The remote object invoke requests are decoded for. Never called.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+@SimonRemote(value = {BenchmarkService.class})
+public class BenchmarkServiceImpl implements BenchmarkService {
+
+    @Override
+    public Object call(int id, long timestamp, Object payload) {
+        return payload;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.root1.simon.BenchmarkSupport;
+import de.root1.simon.Dispatcher;
+import de.root1.simon.codec.PooledBufferAllocator;
+import de.root1.simon.codec.base.SerializerSet;
+import de.root1.simon.codec.base.SimonProtocolCodecFactory;
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgRawChannelData;
+
+/**
+ * A client and a server codec connected by {@link DummySession}s, without
+ * filter chain and network. Requests are encoded with the client codec and
+ * decoded with the server codec, responses the other way round, like the
+ * factory registers the encoders and decoders.
+ * <p>
+ * Encoded buffers are freed and received raw channel data is released, so
+ * that {@link PooledBufferAllocator} can recycle them like in a real session.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+@State(Scope.Thread)
+public abstract class CodecState {
+
+    static final String REMOTE_OBJECT_NAME = "benchmark";
+
+    /**
+     * <code>legacy</code>: 9 byte headers, no fragments. <code>v2</code>: all
+     * features of this version, as negotiated by the handshake.
+     */
+    @Param({"legacy", "v2"})
+    public String protocol;
+
+    /**
+     * <code>simple</code>: MINA's default heap buffers. <code>pooled</code>:
+     * {@link PooledBufferAllocator}.
+     */
+    @Param({"simple", "pooled"})
+    public String allocator;
+
+    private Dispatcher dispatcher;
+    private IoSession clientSession;
+    private IoSession serverSession;
+    private ProtocolEncoder clientEncoder;
+    private ProtocolEncoder serverEncoder;
+    private ProtocolDecoder clientDecoder;
+    private ProtocolDecoder serverDecoder;
+
+    private final EncoderOutput encoderOutput = new EncoderOutput();
+    private final DecoderOutput decoderOutput = new DecoderOutput();
+
+    @Setup(Level.Trial)
+    public void setUpCodec() throws Exception {
+        if ("pooled".equals(allocator)) {
+            PooledBufferAllocator.install();
+        }
+
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+
+        clientSession = new DummySession();
+        serverSession = new DummySession();
+        if ("v2".equals(protocol)) {
+            BenchmarkSupport.negotiateFeatures(clientSession);
+            BenchmarkSupport.negotiateFeatures(serverSession);
+        }
+
+        dispatcher = BenchmarkSupport.createDispatcher(REMOTE_OBJECT_NAME, new BenchmarkServiceImpl());
+        BenchmarkSupport.attach(serverSession, dispatcher);
+
+        clientEncoder = clientCodec.getEncoder(clientSession);
+        clientDecoder = clientCodec.getDecoder(clientSession);
+        serverEncoder = serverCodec.getEncoder(serverSession);
+        serverDecoder = serverCodec.getDecoder(serverSession);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownCodec() throws Exception {
+        clientEncoder.dispose(clientSession);
+        clientDecoder.dispose(clientSession);
+        serverEncoder.dispose(serverSession);
+        serverDecoder.dispose(serverSession);
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Encodes a message and frees the encoded buffers
+     *
+     * @param message the message
+     * @param request true if the client sends the message, false if the server
+     * does
+     * @return the number of encoded bytes
+     * @throws Exception if encoding fails
+     */
+    int encode(AbstractMessage message, boolean request) throws Exception {
+        List<IoBuffer> buffers = encodeToBuffers(message, request);
+        int size = 0;
+        for (int i = 0; i < buffers.size(); i++) {
+            IoBuffer buffer = buffers.get(i);
+            size += buffer.remaining();
+            buffer.free();
+        }
+        buffers.clear();
+        return size;
+    }
+
+    /**
+     * Encodes a message into the bytes the peer receives, to prepare the
+     * input of a decode benchmark
+     *
+     * @param message the message
+     * @param request true if the client sends the message, false if the server
+     * does
+     * @return the encoded frames
+     * @throws Exception if encoding fails
+     */
+    byte[] encodeToBytes(AbstractMessage message, boolean request) throws Exception {
+        List<IoBuffer> buffers = encodeToBuffers(message, request);
+        IoBuffer all = IoBuffer.allocate(1024).setAutoExpand(true);
+        for (IoBuffer buffer : buffers) {
+            all.put(buffer);
+            buffer.free();
+        }
+        buffers.clear();
+        all.flip();
+        byte[] bytes = new byte[all.remaining()];
+        all.get(bytes);
+        all.free();
+        return bytes;
+    }
+
+    private List<IoBuffer> encodeToBuffers(AbstractMessage message, boolean request) throws Exception {
+        if (request) {
+            clientEncoder.encode(clientSession, message, encoderOutput);
+        } else {
+            serverEncoder.encode(serverSession, message, encoderOutput);
+        }
+        return encoderOutput.buffers;
+    }
+
+    /**
+     * Decodes received bytes. Received raw channel data is released again.
+     *
+     * @param bytes the encoded frames of one message
+     * @param request true if the server receives the bytes, false if the
+     * client does
+     * @return the decoded message
+     * @throws Exception if decoding fails
+     */
+    Object decode(byte[] bytes, boolean request) throws Exception {
+        // a wrapped array is never pooled, so the decoder may free it like a received buffer
+        IoBuffer in = IoBuffer.wrap(bytes);
+        if (request) {
+            serverDecoder.decode(serverSession, in, decoderOutput);
+        } else {
+            clientDecoder.decode(clientSession, in, decoderOutput);
+        }
+        List<Object> messages = decoderOutput.messages;
+        if (messages.size() != 1) {
+            throw new IllegalStateException("expected one decoded message, got " + messages);
+        }
+        Object message = messages.get(0);
+        messages.clear();
+        if (message instanceof MsgRawChannelData) {
+            ((MsgRawChannelData) message).release();
+        }
+        return message;
+    }
+
+    /**
+     * Checks that an encoded message decodes to a message of the same type,
+     * so that a benchmark doesn't silently measure the error path. The
+     * message is sent twice, the returned frames are those of the second
+     * time, when the classes of its user objects are already known to the
+     * peer.
+     *
+     * @param message the message
+     * @param request true if the client sends the message
+     * @return the encoded frames
+     * @throws Exception if the message doesn't survive the round trip
+     */
+    byte[] verify(AbstractMessage message, boolean request) throws Exception {
+        byte[] bytes = null;
+        for (int i = 0; i < 2; i++) {
+            bytes = encodeToBytes(message, request);
+            Object decoded = decode(bytes, request);
+            // a failed decode yields a MsgError
+            if (decoded.getClass() != message.getClass()) {
+                throw new IllegalStateException("round trip of " + message + " failed: " + decoded);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Collects the buffers written by an encoder
+     */
+    private static final class EncoderOutput implements ProtocolEncoderOutput {
+
+        private final List<IoBuffer> buffers = new ArrayList<IoBuffer>();
+
+        @Override
+        public void write(Object encodedMessage) {
+            buffers.add((IoBuffer) encodedMessage);
+        }
+
+        @Override
+        public void mergeAll() {
+        }
+
+        @Override
+        public WriteFuture flush() {
+            return null;
+        }
+    }
+
+    /**
+     * Collects the messages written by a decoder
+     */
+    private static final class DecoderOutput implements ProtocolDecoderOutput {
+
+        private final List<Object> messages = new ArrayList<Object>();
+
+        @Override
+        public void write(Object message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void flush(NextFilter nextFilter, IoSession session) {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.root1.simon.codec.messages.MsgInvoke;
+import de.root1.simon.codec.messages.MsgInvokeReturn;
+
+/**
+ * Encodes and decodes invoke requests and returns with payloads of different
+ * size, written either by a fast path of the serializer or as UNKNOWN user
+ * object.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokeCodecBenchmark extends CodecState {
+
+    /**
+     * The size of the payload argument and return value. LARGE exceeds the
+     * default fragment size, so it is sent in fragments with protocol v2.
+     */
+    public enum Size {
+
+        SMALL(16),
+        MEDIUM(4 * 1024),
+        LARGE(2 * 1024 * 1024);
+
+        final int bytes;
+
+        Size(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * How the payload is written
+     */
+    public enum Arguments {
+
+        /** a String, with a fast path */
+        PRIMITIVE {
+            @Override
+            Object createPayload(int bytes) {
+                char[] chars = new char[bytes];
+                Arrays.fill(chars, 'x');
+                return new String(chars);
+            }
+        },
+        /** a double[], bulk copied with protocol v2, Java serialized with legacy */
+        DOUBLE_ARRAY {
+            @Override
+            Object createPayload(int bytes) {
+                double[] values = new double[Math.max(1, bytes / 8)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = i * 0.5;
+                }
+                return values;
+            }
+        },
+        /** a {@link Payload}, written by Java serialization */
+        UNKNOWN {
+            @Override
+            Object createPayload(int bytes) {
+                return new Payload(bytes);
+            }
+        };
+
+        abstract Object createPayload(int bytes);
+    }
+
+    @Param
+    public Size size;
+
+    @Param
+    public Arguments arguments;
+
+    private MsgInvoke invoke;
+    private MsgInvokeReturn invokeReturn;
+    private byte[] encodedInvoke;
+    private byte[] encodedInvokeReturn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Object payload = arguments.createPayload(size.bytes);
+
+        invoke = new MsgInvoke();
+        invoke.setSequence(1);
+        invoke.setRemoteObjectName(REMOTE_OBJECT_NAME);
+        invoke.setMethod(BenchmarkService.class.getMethod("call", int.class, long.class, Object.class));
+        invoke.setArguments(new Object[]{42, 1234567890123L, payload});
+
+        invokeReturn = new MsgInvokeReturn();
+        invokeReturn.setSequence(1);
+        invokeReturn.setReturnValue(payload);
+
+        encodedInvoke = verify(invoke, true);
+        encodedInvokeReturn = verify(invokeReturn, false);
+    }
+
+    @Benchmark
+    public int encodeInvoke() throws Exception {
+        return encode(invoke, true);
+    }
+
+    @Benchmark
+    public Object decodeInvoke() throws Exception {
+        return decode(encodedInvoke, true);
+    }
+
+    @Benchmark
+    public int encodeInvokeReturn() throws Exception {
+        return encode(invokeReturn, false);
+    }
+
+    @Benchmark
+    public Object decodeInvokeReturn() throws Exception {
+        return decode(encodedInvokeReturn, false);
+    }
+}
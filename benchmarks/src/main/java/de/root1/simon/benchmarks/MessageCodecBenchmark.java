@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgAsyncComputationFinished;
+import de.root1.simon.codec.messages.MsgCloseRawChannel;
+import de.root1.simon.codec.messages.MsgCloseRawChannelReturn;
+import de.root1.simon.codec.messages.MsgEquals;
+import de.root1.simon.codec.messages.MsgEqualsReturn;
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.MsgHashCode;
+import de.root1.simon.codec.messages.MsgHashCodeReturn;
+import de.root1.simon.codec.messages.MsgHello;
+import de.root1.simon.codec.messages.MsgInterfaceLookup;
+import de.root1.simon.codec.messages.MsgInterfaceLookupReturn;
+import de.root1.simon.codec.messages.MsgInvokeReturnCompleted;
+import de.root1.simon.codec.messages.MsgNameLookup;
+import de.root1.simon.codec.messages.MsgNameLookupReturn;
+import de.root1.simon.codec.messages.MsgOpenRawChannel;
+import de.root1.simon.codec.messages.MsgOpenRawChannelReturn;
+import de.root1.simon.codec.messages.MsgPing;
+import de.root1.simon.codec.messages.MsgPong;
+import de.root1.simon.codec.messages.MsgRawChannelData;
+import de.root1.simon.codec.messages.MsgRawChannelDataReturn;
+import de.root1.simon.codec.messages.MsgReleaseRef;
+import de.root1.simon.codec.messages.MsgToString;
+import de.root1.simon.codec.messages.MsgToStringReturn;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Encodes and decodes one typical message of each type the codec factory
+ * registers an encoder/decoder pair for. Invoke requests and returns with
+ * varying payloads are measured by {@link InvokeCodecBenchmark}, raw channel
+ * data of varying size by {@link RawChannelCodecBenchmark}.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark extends CodecState {
+
+    /**
+     * A message of each type, created the way the dispatcher creates it
+     */
+    public enum MessageType {
+
+        NAME_LOOKUP(true) {
+            @Override
+            AbstractMessage create() {
+                MsgNameLookup msg = new MsgNameLookup();
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                return msg;
+            }
+        },
+        NAME_LOOKUP_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgNameLookupReturn msg = new MsgNameLookupReturn();
+                msg.setInterfaces(new String[]{BenchmarkService.class.getName()});
+                return msg;
+            }
+        },
+        INTERFACE_LOOKUP(true) {
+            @Override
+            AbstractMessage create() {
+                MsgInterfaceLookup msg = new MsgInterfaceLookup();
+                msg.setCanonicalInterfaceName(BenchmarkService.class.getCanonicalName());
+                return msg;
+            }
+        },
+        INTERFACE_LOOKUP_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgInterfaceLookupReturn msg = new MsgInterfaceLookupReturn();
+                msg.setInterfaces(new String[]{BenchmarkService.class.getName()});
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                return msg;
+            }
+        },
+        TOSTRING(true) {
+            @Override
+            AbstractMessage create() {
+                MsgToString msg = new MsgToString();
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                return msg;
+            }
+        },
+        TOSTRING_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgToStringReturn msg = new MsgToStringReturn();
+                msg.setReturnValue(BenchmarkServiceImpl.class.getName() + "@1b6d3586");
+                return msg;
+            }
+        },
+        HASHCODE(true) {
+            @Override
+            AbstractMessage create() {
+                MsgHashCode msg = new MsgHashCode();
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                return msg;
+            }
+        },
+        HASHCODE_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgHashCodeReturn msg = new MsgHashCodeReturn();
+                msg.setReturnValue(0x1b6d3586);
+                return msg;
+            }
+        },
+        EQUALS(true) {
+            @Override
+            AbstractMessage create() {
+                MsgEquals msg = new MsgEquals();
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                msg.setObjectToCompareWith(REMOTE_OBJECT_NAME);
+                return msg;
+            }
+        },
+        EQUALS_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgEqualsReturn msg = new MsgEqualsReturn();
+                msg.setEqualsResult(true);
+                return msg;
+            }
+        },
+        OPEN_RAW_CHANNEL(true) {
+            @Override
+            AbstractMessage create() {
+                MsgOpenRawChannel msg = new MsgOpenRawChannel();
+                msg.setChannelToken(1);
+                return msg;
+            }
+        },
+        OPEN_RAW_CHANNEL_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgOpenRawChannelReturn msg = new MsgOpenRawChannelReturn();
+                msg.setReturnValue(true);
+                return msg;
+            }
+        },
+        CLOSE_RAW_CHANNEL(true) {
+            @Override
+            AbstractMessage create() {
+                MsgCloseRawChannel msg = new MsgCloseRawChannel();
+                msg.setChannelToken(1);
+                return msg;
+            }
+        },
+        CLOSE_RAW_CHANNEL_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                MsgCloseRawChannelReturn msg = new MsgCloseRawChannelReturn();
+                msg.setReturnValue(true);
+                return msg;
+            }
+        },
+        RAW_CHANNEL_DATA(true) {
+            @Override
+            AbstractMessage create() {
+                MsgRawChannelData msg = new MsgRawChannelData();
+                msg.setChannelToken(1);
+                msg.setData(ByteBuffer.wrap(new byte[256]));
+                return msg;
+            }
+        },
+        RAW_CHANNEL_DATA_RETURN(false) {
+            @Override
+            AbstractMessage create() {
+                return new MsgRawChannelDataReturn();
+            }
+        },
+        PING(true) {
+            @Override
+            AbstractMessage create() {
+                return new MsgPing();
+            }
+        },
+        PONG(false) {
+            @Override
+            AbstractMessage create() {
+                return new MsgPong();
+            }
+        },
+        HELLO(false) {
+            @Override
+            AbstractMessage create() {
+                MsgHello msg = new MsgHello();
+                msg.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+                msg.setFeatures(SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_INVOKE_HANDLES | SimonMessageConstants.FEATURE_FRAGMENTS | SimonMessageConstants.FEATURE_CLASS_DICTIONARY);
+                return msg;
+            }
+        },
+        ERROR(false) {
+            @Override
+            AbstractMessage create() {
+                MsgError msg = new MsgError();
+                msg.setRemoteObjectName(REMOTE_OBJECT_NAME);
+                msg.setErrorMessage("Error while processing invoke request");
+                msg.setThrowable(new IllegalStateException("benchmark"));
+                return msg;
+            }
+        },
+        RELEASE_REF(true) {
+            @Override
+            AbstractMessage create() {
+                MsgReleaseRef msg = new MsgReleaseRef();
+                msg.setRefId(REMOTE_OBJECT_NAME + "@1b6d3586");
+                return msg;
+            }
+        },
+        ASYNC_FINISHED(false) {
+            @Override
+            AbstractMessage create() {
+                MsgAsyncComputationFinished msg = new MsgAsyncComputationFinished();
+                msg.setReturnValue(42);
+                return msg;
+            }
+        },
+        INVOKE_RETURN_COMPLETED(false) {
+            @Override
+            AbstractMessage create() {
+                MsgInvokeReturnCompleted msg = new MsgInvokeReturnCompleted();
+                msg.setReturnValue(42);
+                return msg;
+            }
+        };
+
+        /** true if the client sends the message */
+        final boolean request;
+
+        MessageType(boolean request) {
+            this.request = request;
+        }
+
+        abstract AbstractMessage create();
+    }
+
+    @Param
+    public MessageType type;
+
+    private AbstractMessage message;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        message = type.create();
+        message.setSequence(1);
+        encoded = verify(message, type.request);
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        return encode(message, type.request);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return decode(encoded, type.request);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A user object without a fast path in the serializer, so it is written with
+ * the UNKNOWN object code, i.e. by Java serialization.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class Payload implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final long timestamp;
+    private final int[] values;
+
+    /**
+     * Creates a payload of roughly the given encoded size
+     *
+     * @param size the number of bytes the values take
+     */
+    public Payload(int size) {
+        this.name = "payload-" + size;
+        this.timestamp = 1234567890123L;
+        this.values = new int[Math.max(1, size / 4)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 31;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Payload[name=" + name + " timestamp=" + timestamp + " values=" + Arrays.hashCode(values) + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.root1.simon.codec.messages.MsgRawChannelData;
+
+/**
+ * Encodes and decodes raw channel data frames of different size. Decoded data
+ * is a slice of the received buffer and released right away, like the
+ * dispatcher does after handing it to the listener.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawChannelCodecBenchmark extends CodecState {
+
+    /** the number of data bytes of a frame */
+    @Param({"64", "8192", "65536"})
+    public int frameSize;
+
+    private MsgRawChannelData message;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] data = new byte[frameSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        message = new MsgRawChannelData();
+        message.setSequence(1);
+        message.setChannelToken(1);
+        // the encoder rewinds the data, so the message can be encoded again and again
+        message.setData(ByteBuffer.wrap(data));
+        encoded = verify(message, true);
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        return encode(message, true);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return decode(encoded, true);
+    }
+}
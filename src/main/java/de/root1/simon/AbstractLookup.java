@@ -18,7 +18,10 @@
  */
 package de.root1.simon;
 
+import de.root1.simon.codec.BufferReleaseFilter;
+import de.root1.simon.codec.SimonProtocolCodecFilter;
 import de.root1.simon.codec.SimonProxyFilter;
+import de.root1.simon.codec.WriteCoalescingFilter;
 import de.root1.simon.codec.base.SerializerSet;
 import de.root1.simon.codec.base.SimonProtocolCodecFactory;
 import de.root1.simon.exceptions.EstablishConnectionFailed;
@@ -31,6 +34,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import javax.net.ssl.SSLContext;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
@@ -41,7 +45,6 @@ import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.service.IoConnector;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
-import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.logging.LoggingFilter;
 import org.apache.mina.filter.ssl.SslFilter;
 import org.apache.mina.transport.socket.nio.NioSocketConnector;
@@ -72,6 +75,11 @@ abstract class AbstractLookup implements Lookup {
 
     protected InetAddress sourceAddress;
 
+    /**
+     * the executor for new connections, <code>null</code> for SIMON's own pool
+     */
+    private Executor executor;
+
     /**
      * A simple container class that relates the dispatcher to a session
      */
@@ -99,6 +107,16 @@ abstract class AbstractLookup implements Lookup {
         this.sourceAddress = sourceAddress;
     }
 
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     @Override
     public boolean release(Object remoteObject) {
         logger.debug("begin");
@@ -212,7 +230,11 @@ abstract class AbstractLookup implements Lookup {
 
                 logger.debug("No ClientToServerConnection in list. Creating new one.");
 
-                dispatcher = new Dispatcher(serverString, getClassLoader(), Simon.getThreadPool());
+                if (executor != null) {
+                    dispatcher = new Dispatcher(serverString, getClassLoader(), executor, false);
+                } else {
+                    dispatcher = new Dispatcher(serverString, getClassLoader(), Simon.getThreadPool());
+                }
 
                 // an executor service for handling the message reading in a threadpool
                 ExecutorService filterchainWorkerPool = null;
@@ -269,7 +291,13 @@ abstract class AbstractLookup implements Lookup {
                 }
 
                 protocolFactory.setup(serializers, false);
-                filters.add(new FilterEntry(protocolFactory.getClass().getName(), new ProtocolCodecFilter(protocolFactory)));
+                if (Statics.DEFAULT_WRITE_COALESCING_WINDOW > 0) {
+                    filters.add(new FilterEntry(WriteCoalescingFilter.FILTER_NAME, new WriteCoalescingFilter(Statics.DEFAULT_WRITE_COALESCING_WINDOW, Statics.DEFAULT_WRITE_COALESCING_BYTES)));
+                }
+                if (Statics.DEFAULT_BUFFER_POOLING) {
+                    filters.add(new FilterEntry(BufferReleaseFilter.FILTER_NAME, new BufferReleaseFilter()));
+                }
+                filters.add(new FilterEntry(protocolFactory.getClass().getName(), new SimonProtocolCodecFilter(protocolFactory)));
 
                 // setup for proxy connection if necessary
                 String connectionTarget;
@@ -348,6 +376,9 @@ abstract class AbstractLookup implements Lookup {
                 session.getConfig().setIdleTime(IdleStatus.BOTH_IDLE, Statics.DEFAULT_IDLE_TIME);
                 session.getConfig().setWriteTimeout(Statics.DEFAULT_WRITE_TIMEOUT);
 
+                // negotiate protocol features, the session is usable right away with version 1 features
+                ProtocolHandshake.start(session, dispatcher.generateSequenceId());
+
                 // store this connection for later re-use
                 ClientToServerConnection ctsc = new ClientToServerConnection(serverString, dispatcher, session, connector, filterchainWorkerPool);
                 ctsc.addRef();
@@ -402,6 +433,8 @@ abstract class AbstractLookup implements Lookup {
                     ctsc.getDispatcher().shutdown();
                     ctsc.getDispatcher().setReleased();
 
+                    // closeOnFlush bypasses the filter chain, write what's still batched first
+                    WriteCoalescingFilter.flush(ctsc.getSession());
                     CloseFuture closeFuture = ctsc.getSession().closeOnFlush();
 
                     closeFuture.addListener(new IoFutureListener<IoFuture>() {
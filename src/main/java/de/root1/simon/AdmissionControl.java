@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import de.root1.simon.utils.Utils;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of requests a dispatcher has in flight, globally and per
+ * session. A request is in flight from the moment it's received until it is
+ * processed, or until it blocks waiting for a remote result.
+ * <p>
+ * When a limit is reached, the dispatcher either stops reading from the
+ * session ({@link OverloadPolicy#SUSPEND_READ}) or rejects further
+ * invocations ({@link OverloadPolicy#REJECT}). Suspended sessions are resumed
+ * as soon as the number of requests in flight dropped to half of the limit.
+ *
+ * @author achristian
+ */
+class AdmissionControl {
+
+    private static final ThreadLocal<Ticket> CURRENT_TICKET = new ThreadLocal<Ticket>();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * global limit, &lt;= 0 means unlimited
+     */
+    private volatile int maxInFlight = 0;
+    /**
+     * per session limit, &lt;= 0 means unlimited
+     */
+    private volatile int maxInFlightPerSession = 0;
+    private volatile OverloadPolicy overloadPolicy = OverloadPolicy.SUSPEND_READ;
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    /**
+     * sessions suspended by this admission control. Suspending and resuming is
+     * done while holding the lock of this set.
+     */
+    private final Set<IoSession> suspendedSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @return true, if at least one limit is set
+     */
+    boolean isEnabled() {
+        return maxInFlight > 0 || maxInFlightPerSession > 0;
+    }
+
+    /**
+     * Admits a received request.
+     *
+     * @param session the session the request was received on
+     * @param rejectable whether the request may be rejected
+     * @return the ticket that has to be released once the request is
+     * processed, or <code>null</code> if the request is rejected
+     */
+    Ticket admit(IoSession session, boolean rejectable) {
+        AtomicInteger sessionInFlight = getSessionInFlight(session);
+        int global = inFlight.incrementAndGet();
+        int local = sessionInFlight.incrementAndGet();
+
+        if (overloadPolicy == OverloadPolicy.REJECT) {
+            if (rejectable && (exceeds(global, maxInFlight) || exceeds(local, maxInFlightPerSession))) {
+                inFlight.decrementAndGet();
+                sessionInFlight.decrementAndGet();
+                logger.debug("rejecting request of session {}. inFlight={} sessionInFlight={}", Utils.longToHexString(session.getId()), global, local);
+                return null;
+            }
+        } else if (reaches(global, maxInFlight) || reaches(local, maxInFlightPerSession)) {
+            suspend(session);
+        }
+        return new Ticket(session, sessionInFlight);
+    }
+
+    /**
+     * Releases the ticket of the request the calling thread is processing, if
+     * any. Called before the thread blocks, waiting for a remote result.
+     */
+    static void releaseCurrentTicket() {
+        Ticket ticket = CURRENT_TICKET.get();
+        if (ticket != null) {
+            ticket.release();
+        }
+    }
+
+    /**
+     * Forgets about a closed session
+     *
+     * @param session the closed session
+     */
+    void sessionClosed(IoSession session) {
+        suspendedSessions.remove(session);
+    }
+
+    private void suspend(IoSession session) {
+        synchronized (suspendedSessions) {
+            if (suspendedSessions.add(session)) {
+                logger.debug("in-flight limit reached, suspending read on session {}", Utils.longToHexString(session.getId()));
+                session.suspendRead();
+            }
+            // requests may have been finished in the meantime
+            resumeIfBelowLowWater(session);
+        }
+    }
+
+    private void resumeSessions() {
+        synchronized (suspendedSessions) {
+            Iterator<IoSession> iterator = suspendedSessions.iterator();
+            while (iterator.hasNext()) {
+                IoSession session = iterator.next();
+                if (isBelowLowWater(session)) {
+                    iterator.remove();
+                    resume(session);
+                }
+            }
+        }
+    }
+
+    private void resumeIfBelowLowWater(IoSession session) {
+        if (isBelowLowWater(session) && suspendedSessions.remove(session)) {
+            resume(session);
+        }
+    }
+
+    private void resume(IoSession session) {
+        logger.debug("in-flight requests below low-water mark, resuming read on session {}", Utils.longToHexString(session.getId()));
+        if (!session.isClosing()) {
+            session.resumeRead();
+        }
+    }
+
+    private boolean isBelowLowWater(IoSession session) {
+        int limit = maxInFlight;
+        if (limit > 0 && inFlight.get() > limit / 2) {
+            return false;
+        }
+        limit = maxInFlightPerSession;
+        return limit <= 0 || getSessionInFlight(session).get() <= limit / 2;
+    }
+
+    private static boolean reaches(int count, int limit) {
+        return limit > 0 && count >= limit;
+    }
+
+    private static boolean exceeds(int count, int limit) {
+        return limit > 0 && count > limit;
+    }
+
+    private AtomicInteger getSessionInFlight(IoSession session) {
+        AtomicInteger sessionInFlight = (AtomicInteger) session.getAttribute(Statics.SESSION_ATTRIBUTE_INFLIGHT);
+        if (sessionInFlight == null) {
+            sessionInFlight = new AtomicInteger(0);
+            AtomicInteger present = (AtomicInteger) session.setAttributeIfAbsent(Statics.SESSION_ATTRIBUTE_INFLIGHT, sessionInFlight);
+            if (present != null) {
+                sessionInFlight = present;
+            }
+        }
+        return sessionInFlight;
+    }
+
+    /**
+     * @return the number of requests currently in flight
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    int getMaxInFlightPerSession() {
+        return maxInFlightPerSession;
+    }
+
+    void setMaxInFlightPerSession(int maxInFlightPerSession) {
+        this.maxInFlightPerSession = maxInFlightPerSession;
+    }
+
+    OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        if (overloadPolicy == null) {
+            throw new IllegalArgumentException("overloadPolicy must not be null");
+        }
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * The admission of one request. Releasing it more than once has no effect.
+     */
+    final class Ticket {
+
+        private final IoSession session;
+        private final AtomicInteger sessionInFlight;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Ticket(IoSession session, AtomicInteger sessionInFlight) {
+            this.session = session;
+            this.sessionInFlight = sessionInFlight;
+        }
+
+        /**
+         * Wraps the task so that the ticket is released when the task is done
+         *
+         * @param task the task processing the admitted request
+         * @return the wrapped task
+         */
+        Runnable wrap(final Runnable task) {
+            return new Runnable() {
+
+                @Override
+                public void run() {
+                    CURRENT_TICKET.set(Ticket.this);
+                    try {
+                        task.run();
+                    } finally {
+                        CURRENT_TICKET.remove();
+                        release();
+                    }
+                }
+            };
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                sessionInFlight.decrementAndGet();
+                if (!suspendedSessions.isEmpty()) {
+                    resumeSessions();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Ticket{session=" + Utils.longToHexString(session.getId()) + ", released=" + released.get() + "}";
+        }
+    }
+}
@@ -24,6 +24,7 @@ import de.root1.simon.exceptions.RawChannelException;
 import de.root1.simon.codec.messages.*;
 import de.root1.simon.exceptions.InvokeTimeoutException;
 import de.root1.simon.exceptions.LookupFailedException;
+import de.root1.simon.exceptions.ServerOverloadException;
 import de.root1.simon.exceptions.SessionException;
 import de.root1.simon.exceptions.SimonException;
 import de.root1.simon.exceptions.SimonRemoteException;
@@ -32,7 +33,9 @@ import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IdleStatus;
@@ -58,14 +61,6 @@ public class Dispatcher implements IoHandler {
      * a simple counter that is used for creating sequence IDs
      */
     private final AtomicInteger sequenceIdCounter = new AtomicInteger(0);
-    /**
-     * The map that holds the relation between the sequenceID and the received
-     * result. If a request is placed, the map contains the sequenceID and the
-     * corresponding monitor object. If the result is present, the monitor
-     * object is replaced with the result
-     */
-    private final Map<Integer, Object> requestMonitorAndResultMap = Collections.synchronizedMap(new HashMap<Integer, Object>());
-
     /**
      * The map that holds async results. TODO better docs
      */
@@ -73,14 +68,22 @@ public class Dispatcher implements IoHandler {
     // or ir you do, consider a proxy'd object with a signature of CompletableFuture<CompletableFuture<X>>
     private final Map<Integer, CompletableFuture<?>> asyncResultsMap = Collections.synchronizedMap(new HashMap<Integer, CompletableFuture<?>>());
     /**
-     * This map contains pairs of sessions and list of open requests This is
-     * needed to do a clean shutdown of a session
+     * the thread-pool where the worker-threads live in
      */
-    private final Map<IoSession, List<Integer>> sessionHasRequestPlaced = Collections.synchronizedMap(new HashMap<IoSession, List<Integer>>());
+    private Executor messageProcessorPool = null;
     /**
-     * the thread-pool where the worker-threads live in
+     * true, if the pool is owned by this dispatcher and has to be shut down
+     * together with it
+     */
+    private final boolean shutdownMessageProcessorPool;
+    /**
+     * the per-session lanes on top of the worker pool
      */
-    private ExecutorService messageProcessorPool = null;
+    private final SessionLaneExecutor laneExecutor;
+    /**
+     * bounds the requests in flight
+     */
+    private final AdmissionControl admissionControl = new AdmissionControl();
     /**
      * Shutdown flag. If set to true, the dispatcher is going to shutdown itself
      * and all related stuff
@@ -198,6 +201,23 @@ public class Dispatcher implements IoHandler {
         }
     }
 
+    /**
+     *
+     * Creates a packet dispatcher which delegates the packet-reading to
+     * {@link ProcessMessageRunnable}'s which run in the given
+     * <code>threadPool</code>
+     *
+     * @param serverString an identifier string to determine to which server
+     * this dispatcher is connected to. this must be set to <code>null</code> if
+     * this dispatcher is a server dispatcher.
+     * @param threadPool the pool where the {@link ProcessMessageRunnable}'s run
+     * in. If it's an {@link ExecutorService}, it's shut down together with the
+     * dispatcher.
+     */
+    public Dispatcher(String serverString, /* See: http://dev.root1.de/issues/127 */ ClassLoader classLoader, Executor threadPool) {
+        this(serverString, classLoader, threadPool, true);
+    }
+
     /**
      *
      * Creates a packet dispatcher which delegates the packet-reading to
@@ -209,8 +229,11 @@ public class Dispatcher implements IoHandler {
      * this dispatcher is a server dispatcher.
      * @param threadPool the pool where the {@link ProcessMessageRunnable}'s run
      * in
+     * @param shutdownThreadPool whether an {@link ExecutorService} pool is shut
+     * down together with the dispatcher. Pass <code>false</code> for pools
+     * that are managed by the application.
      */
-    public Dispatcher(String serverString, /* See: http://dev.root1.de/issues/127 */ ClassLoader classLoader, ExecutorService threadPool) {
+    public Dispatcher(String serverString, ClassLoader classLoader, Executor threadPool, boolean shutdownThreadPool) {
         logger.debug("begin");
 
         isRunning = true;
@@ -221,6 +244,14 @@ public class Dispatcher implements IoHandler {
         this.lookupTable = new LookupTable(this);
 
         this.messageProcessorPool = threadPool;
+        this.shutdownMessageProcessorPool = shutdownThreadPool && threadPool instanceof ExecutorService;
+        this.laneExecutor = new SessionLaneExecutor(threadPool, Statics.DEFAULT_MAX_ACTIVE_LANES, new SessionLaneExecutor.RejectionHandler() {
+
+            @Override
+            public void rejected(IoSession session, Runnable task, RejectedExecutionException cause) {
+                rejectReceivedMessage(session, (ReceivedMessageTask) task);
+            }
+        });
 
         this.pingWatchdog = new PingWatchdog(this);
 
@@ -246,8 +277,8 @@ public class Dispatcher implements IoHandler {
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgNameLookup msgNameLookup = new MsgNameLookup();
         msgNameLookup.setSequence(sequenceId);
@@ -257,8 +288,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgNameLookupReturn result = (MsgNameLookupReturn) getRequestResult(sequenceId);
+        MsgNameLookupReturn result = (MsgNameLookupReturn) getRequestResult(waitForResult(session, pendingCall));
 
         logger.debug("got answer for sequenceId={}", sequenceId);
         logger.trace("end sequenceId={}", sequenceId);
@@ -282,8 +312,8 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgInterfaceLookup msgInterfaceLookup = new MsgInterfaceLookup();
         msgInterfaceLookup.setSequence(sequenceId);
@@ -293,8 +323,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgInterfaceLookupReturn result = (MsgInterfaceLookupReturn) getRequestResult(sequenceId);
+        MsgInterfaceLookupReturn result = (MsgInterfaceLookupReturn) getRequestResult(waitForResult(session, pendingCall));
 
         logger.debug("got answer for sequenceId={}", sequenceId);
         logger.trace("end sequenceId={}", sequenceId);
@@ -316,19 +345,135 @@ public class Dispatcher implements IoHandler {
      */
     protected Object invokeMethod(IoSession session, String remoteObjectName, Method method, Object[] args) throws SimonRemoteException {
 
-        checkForInvalidState(session, method.toString());
+        final InvocationPlan plan = InvocationPlan.of(method);
+        final PendingCall pendingCall = sendInvoke(session, remoteObjectName, plan, args);
+        final int sequenceId = pendingCall.getSequenceId();
+
+        logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
+
+        MsgInvokeReturn result = (MsgInvokeReturn) getRequestResult(waitForResult(session, pendingCall, plan.getInvokeTimeout()));
+
+        logger.debug("end sequenceId={}", sequenceId);
+        return result.getReturnValue();
+
+    }
+
+    /**
+     * Sends a method invocation request for a method that returns a
+     * {@link CompletableFuture} to the remote host. In contrast to
+     * {@link #invokeMethod(IoSession, String, Method, Object[])} this method
+     * does not wait for the invocation result, but returns a future that is
+     * completed once the remote future has completed.
+     *
+     * @param session the related session over which the invoke request comes
+     * @param remoteObjectName the remote object
+     * @param method the method to invoke on the remote
+     * @param args the arguments for the method
+     * @return the future for the result of the remote future
+     * @throws SimonRemoteException if the request could not be sent
+     */
+    protected CompletableFuture<Object> invokeMethodAsync(final IoSession session, String remoteObjectName, Method method, Object[] args) throws SimonRemoteException {
+
+        final InvocationPlan plan = InvocationPlan.of(method);
+        final PendingCall pendingCall = sendInvoke(session, remoteObjectName, plan, args);
+        final int sequenceId = pendingCall.getSequenceId();
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        final InvokeTimeoutScheduler.Timeout invokeTimeout = scheduleInvokeTimeout(session, sequenceId, plan.getInvokeTimeout());
+
+        // results arrive on the I/O thread, the caller's continuations must not run there
+        pendingCall.getFuture().whenCompleteAsync((o, never) -> {
+            invokeTimeout.cancel();
+            completeAsyncInvocation(o, future);
+        }, this::executeCompletion);
+
+        logger.debug("end. data send, not waiting for answer for sequenceId={}", sequenceId);
+        return future;
+    }
+
+    /**
+     * Runs the completion of an asynchronous invocation on the worker pool. If
+     * the pool is already shut down, the completion runs on the calling thread,
+     * the caller would wait forever otherwise.
+     *
+     * @param completion the completion to run
+     */
+    private void executeCompletion(Runnable completion) {
+        try {
+            messageProcessorPool.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    /**
+     * Builds and sends the {@link MsgInvoke} for a method invocation.
+     *
+     * @param session the related session over which the invoke request comes
+     * @param remoteObjectName the remote object
+     * @param plan the plan of the method to invoke on the remote
+     * @param args the arguments for the method
+     * @return the pending call the result will be placed into
+     * @throws SimonRemoteException
+     */
+    private PendingCall sendInvoke(IoSession session, String remoteObjectName, InvocationPlan plan, Object[] args) throws SimonRemoteException {
+
+        checkForInvalidState(session, plan.getMethodString());
 
         final int sequenceId = generateSequenceId();
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
+
+        writeInvoke(session, sequenceId, remoteObjectName, plan, args);
+
+        return pendingCall;
+    }
+
+    /**
+     * Sends a request for a one-way method invocation to the remote host. The
+     * remote host does not answer, so there is neither a sequence id nor a
+     * pending call, this method returns as soon as the request is written.
+     *
+     * @param session the related session over which the invoke request comes
+     * @param remoteObjectName the remote object
+     * @param method the method to invoke on the remote
+     * @param args the arguments for the method
+     * @throws SimonRemoteException
+     */
+    protected void invokeMethodOneWay(IoSession session, String remoteObjectName, Method method, Object[] args) throws SimonRemoteException {
+
+        InvocationPlan plan = InvocationPlan.of(method);
+        checkForInvalidState(session, plan.getMethodString());
+
+        logger.debug("begin one-way session={}", session);
+
+        writeInvoke(session, Statics.ONE_WAY_SEQUENCE, remoteObjectName, plan, args);
+
+        logger.debug("end. data send.");
+    }
+
+    /**
+     * Wraps the arguments and writes the {@link MsgInvoke} to the session.
+     *
+     * @param session the related session over which the invoke request comes
+     * @param sequenceId the sequence id of the request
+     * @param remoteObjectName the remote object
+     * @param plan the plan of the method to invoke on the remote
+     * @param args the arguments for the method
+     */
+    private void writeInvoke(IoSession session, int sequenceId, String remoteObjectName, InvocationPlan plan, Object[] args) {
 
         // register remote instance objects in the lookup-table
         if (args != null) {
             for (int i = 0; i < args.length; i++) {
 
+                if (args[i] == null || !plan.argumentMayBeRemote(i)) {
+                    // plain data, nothing to wrap
+                    continue;
+                }
+
                 // prevent sending a client callback-proxy from server back to client
                 if (Utils.isSimonProxy(args[i])) {
   
@@ -351,9 +496,9 @@ public class Dispatcher implements IoHandler {
                     lookupTable.putRemoteInstance(session.getId(), sri, args[i]);
                     args[i] = sri; // overwrite arg with wrapped remote instance-interface
                 }
-                else if (Utils.isRemoteArgument(method.getParameters()[i])) {
+                else if (plan.isRemoteParameter(i)) {
 
-                    SimonRemoteInstance sri = new SimonRemoteInstance(session, args[i], method.getParameters()[i]);
+                    SimonRemoteInstance sri = new SimonRemoteInstance(session, args[i], plan.getParameter(i));
 
                     logger.debug("SimonRemoteInstance found! id={}", sri.getId());
 
@@ -366,25 +511,14 @@ public class Dispatcher implements IoHandler {
         MsgInvoke msgInvoke = new MsgInvoke();
         msgInvoke.setSequence(sequenceId);
         msgInvoke.setRemoteObjectName(remoteObjectName);
-        msgInvoke.setMethod(method);
+        msgInvoke.setMethod(plan.getMethod());
         msgInvoke.setArguments(args);
 
-        session.write(msgInvoke);
-
-        logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
-        int customWaitTimeout = Simon.getCustomInvokeTimeout(method);
-        
-        if (customWaitTimeout>0) {
-            waitForResult(session, monitor, customWaitTimeout);
-        } else {        
-            waitForResult(session, monitor);
+        if (ProtocolHandshake.isEnabled(session, SimonMessageConstants.FEATURE_INVOKE_HANDLES)) {
+            InvokeHandles.of(session).write(session, msgInvoke);
+        } else {
+            session.write(msgInvoke);
         }
-
-        MsgInvokeReturn result = (MsgInvokeReturn) getRequestResult(sequenceId);
-
-        logger.debug("end sequenceId={}", sequenceId);
-        return result.getReturnValue();
-
     }
 
     /**
@@ -403,8 +537,8 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgToString msgInvoke = new MsgToString();
         msgInvoke.setSequence(sequenceId);
@@ -414,8 +548,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgToStringReturn result = (MsgToStringReturn) getRequestResult(sequenceId);
+        MsgToStringReturn result = (MsgToStringReturn) getRequestResult(waitForResult(session, pendingCall));
 
         if (result.hasError()) {
             throw new SimonRemoteException(result.getErrorMsg());
@@ -444,8 +577,8 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgHashCode msgInvoke = new MsgHashCode();
         msgInvoke.setSequence(sequenceId);
@@ -455,8 +588,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgHashCodeReturn result = (MsgHashCodeReturn) getRequestResult(sequenceId);
+        MsgHashCodeReturn result = (MsgHashCodeReturn) getRequestResult(waitForResult(session, pendingCall));
 
         if (result.hasError()) {
             throw new SimonRemoteException(result.getErrorMsg());
@@ -487,8 +619,8 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgEquals msgEquals = new MsgEquals();
         msgEquals.setSequence(sequenceId);
@@ -499,8 +631,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgEqualsReturn result = (MsgEqualsReturn) getRequestResult(sequenceId);
+        MsgEqualsReturn result = (MsgEqualsReturn) getRequestResult(waitForResult(session, pendingCall));
 
         if (result.hasError()) {
             throw new SimonRemoteException(result.getErrorMsg());
@@ -514,60 +645,73 @@ public class Dispatcher implements IoHandler {
 
     /**
      * Waits at most one hour for the result of request described by the
-     * monitor. If result is not present within this time, a
+     * pending call. If result is not present within this time, a
      * SimonRemoteException will be placed as the result. This is to ensure that
      * the client cannot wait forever for a result.
      *
      * @param session the session on which the request was placed
-     * @param monitor the monitor related to the request
+     * @param pendingCall the pending call related to the request
+     * @return the result of the request
      */
-    private void waitForResult(IoSession session, final SequenceMonitor monitor) {
-        // wait at most 1hr
-        // 60min: 60min * 60sec * 1000ms = 3600000ms
-        waitForResult(session, monitor, 3600000);
+    private Object waitForResult(IoSession session, final PendingCall pendingCall) {
+        return waitForResult(session, pendingCall, Statics.DEFAULT_INVOKE_TIMEOUT);
     }
     
     /**
      * Waits at most <code>timeout</code> ms for the result of request described by the
-     * monitor. If result is not present within this time, a
+     * pending call. If result is not present within this time, a
      * SimonRemoteException will be placed as the result. This is to ensure that
      * the client cannot wait forever for a result.
+     * <p>
+     * The timeout is fired by the shared {@link InvokeTimeoutScheduler}, the
+     * waiting thread itself is only woken up when the result is present.
      *
      * @param session the session on which the request was placed
-     * @param monitor the monitor related to the request
+     * @param pendingCall the pending call related to the request
      * @param timeout timeout for waiting for result
+     * @return the result of the request
      */
-    private void waitForResult(IoSession session, final SequenceMonitor monitor, int timeout) {
-        int sequenceId = monitor.getSequenceId();
-        int counter = 0;
-
-        // wait for result
-        long startWaiting = System.currentTimeMillis();
-        
-        // just make sure that the while-loop cannot wait forever for the result
-        long waitLoopCount = timeout / Statics.MONITOR_WAIT_TIMEOUT;
-        
-        while (!isRequestResultPresent(sequenceId)) {
-
-            if (counter++ == waitLoopCount) {
-                putResultToQueue(session, sequenceId, new InvokeTimeoutException("Waited too long for invocation result."));
+    private Object waitForResult(IoSession session, PendingCall pendingCall, int timeout) {
+        InvokeTimeoutScheduler.Timeout invokeTimeout = scheduleInvokeTimeout(session, pendingCall.getSequenceId(), timeout);
+        try {
+            if (!pendingCall.isDone()) {
+                // a request the peer sends while serving this one must not queue up behind us
+                SessionLaneExecutor.releaseCurrentLane();
+                AdmissionControl.releaseCurrentTicket();
             }
+            return pendingCall.awaitResult();
+        } finally {
+            invokeTimeout.cancel();
+        }
+    }
 
-            if (monitor.waitForSignal(Statics.MONITOR_WAIT_TIMEOUT)) {
-                return;
-            }
+    /**
+     * Schedules the timeout for a placed request on the shared
+     * {@link InvokeTimeoutScheduler}. On expiry, an
+     * {@link InvokeTimeoutException} is placed as the result.
+     *
+     * @param session the session on which the request was placed
+     * @param sequenceId the sequence id of the request
+     * @param timeout timeout in milliseconds
+     * @return the handle for cancelling the timeout once the result is present
+     */
+    private InvokeTimeoutScheduler.Timeout scheduleInvokeTimeout(final IoSession session, final int sequenceId, final int timeout) {
+        return InvokeTimeoutScheduler.getShared().schedule(new Runnable() {
 
-            if (logger.isTraceEnabled()) { // used IF to avoid calculating if no trace enabled
-                logger.trace("still waiting for result for sequenceId={}. Waiting since {}ms.", sequenceId, (System.currentTimeMillis() - startWaiting));
+            @Override
+            public void run() {
+                logger.debug("no result for sequenceId={} within {}ms", sequenceId, timeout);
+                InvokeHandles.unanswered(session, sequenceId);
+                putResultToQueue(session, sequenceId, new InvokeTimeoutException("Waited too long for invocation result."));
             }
-        }
+        }, timeout);
     }
 
     /**
      * This method is called from worker-threads which processed an invocation
-     * and have data ready that has to be returned to the "caller". after adding
-     * the result to the map (means: replacing the monitor with the result), the
-     * waiting request-method is waked.
+     * and have data ready that has to be returned to the "caller". The result
+     * is placed into the pending call of the request, which directly wakes the
+     * waiting request-method.
      *
      * @param session the underlying session
      * @param sequenceId the sequence id that is waiting for the result
@@ -578,47 +722,9 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("sequenceId={} msg={}", sequenceId, o);
 
-        
-        boolean isResultForOutstandingRequest=false;
-        
-        // remove the sequenceId from the map/list of open requests
-        synchronized (sessionHasRequestPlaced) {
-
-            assert sessionHasRequestPlaced.containsKey(session);
-
-            // check if there is already a list with requests for this session
-            List<Integer> requestListForSession = sessionHasRequestPlaced.get(session);
-
-            if (requestListForSession!=null) {
-                
-                synchronized (requestListForSession) {
-                    
-                    if (requestListForSession.contains(sequenceId)) {
-                        requestListForSession.remove((Integer) sequenceId);
-
-                        // if there is no more request open, remove the session from the list
-                        if (requestListForSession.isEmpty()) {
-                            sessionHasRequestPlaced.remove(session);
-                        }
-                        isResultForOutstandingRequest=true;
-                    } else {
-                        logger.debug("Session {} and sequenceId {} do currently not wait for a result.", Utils.longToHexString(session.getId()), sequenceId);
-                    }
-                    
-                }
-                
-            } else {
-                logger.warn("Session {} has no outstanding requests. Result no longer awaited?", Utils.longToHexString(session.getId()));
-            }
+        PendingCallTable pendingCalls = (PendingCallTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_PENDINGCALLS);
 
-        }
-        if (isResultForOutstandingRequest) {
-            // retrieve monitor
-            SequenceMonitor monitor = (SequenceMonitor) requestMonitorAndResultMap.get(sequenceId);
-            // replace monitor with result
-            requestMonitorAndResultMap.put(sequenceId, o);
-            monitor.signal();
-        } else {
+        if (pendingCalls == null || !pendingCalls.complete(sequenceId, o)) {
             logger.warn("Result '{}' for session {} and sequenceId {} dropped.", new Object[]{o,Utils.longToHexString(session.getId()),sequenceId});
         }
         logger.debug("end");
@@ -644,14 +750,17 @@ public class Dispatcher implements IoHandler {
         simonRefQueue.cleanup();
 
         shutdownInProgress = true;
-        messageProcessorPool.shutdown();
-
-        while (!messageProcessorPool.isShutdown()) {
-            logger.debug("waiting for messageProcessorPool to shutdown...");
-            try {
-                Thread.sleep(Statics.WAIT_FOR_SHUTDOWN_SLEEPTIME);
-            } catch (InterruptedException e) {
-                // nothing to do
+        if (shutdownMessageProcessorPool) {
+            ExecutorService pool = (ExecutorService) messageProcessorPool;
+            pool.shutdown();
+
+            while (!pool.isShutdown()) {
+                logger.debug("waiting for messageProcessorPool to shutdown...");
+                try {
+                    Thread.sleep(Statics.WAIT_FOR_SHUTDOWN_SLEEPTIME);
+                } catch (InterruptedException e) {
+                    // nothing to do
+                }
             }
         }
         
@@ -714,59 +823,78 @@ public class Dispatcher implements IoHandler {
 
     /**
      *
-     * create a monitor that waits for the request-result that is associated
-     * with the given request-id
+     * registers a pending call that receives the request-result that is
+     * associated with the given request-id
      *
+     * @param session the session on which the request is placed
      * @param sequenceId
-     * @return the monitor used for waiting for the result
+     * @return the pending call used for waiting for the result
      */
-    private SequenceMonitor createMonitor(final IoSession session, final int sequenceId) {
+    private PendingCall createPendingCall(final IoSession session, final int sequenceId) {
         logger.debug("begin");
 
-        final SequenceMonitor monitor = new SequenceMonitor(sequenceId);
+        PendingCallTable pendingCalls = getPendingCallTable(session);
+        final PendingCall pendingCall = pendingCalls.register(sequenceId);
 
-        synchronized (sessionHasRequestPlaced) {
-            // check if there is already a list with requests for this session
-            if (!sessionHasRequestPlaced.containsKey(session)) {
-                List<Integer> requestListForSession = new ArrayList<Integer>();
-                requestListForSession.add(sequenceId);
-                sessionHasRequestPlaced.put(session, requestListForSession);
-            } else {
-                // .. otherwise, get the list and add the sequenceId
-                sessionHasRequestPlaced.get(session).add(sequenceId);
-            }
-
-        }
-
-        // put the monitor in the result-map
-        requestMonitorAndResultMap.put(sequenceId, monitor);
-
-        logger.debug("created monitor for sequenceId={}", sequenceId);
+        logger.debug("created pending call for sequenceId={}", sequenceId);
 
         logger.debug("end");
-        return monitor;
+        return pendingCall;
     }
 
     /**
-     * Returns the result of the already placed request. Make sure that you
-     * where notified about the received result. Checks if the request result is
-     * an {@link SimonRemoteException}. If yes, the exception is thrown, if not,
-     * the result is returned
+     * Returns the table of outstanding requests of the given session. The
+     * table is attached in {@link #sessionCreated(IoSession)}, but is created
+     * on demand if it's not yet present.
      *
-     * @param sequenceId the sequence-id related to the result
-     * @return the result of the request. May be null if there is no result yet.
-     * @throws SimonRemoteException
+     * @param session the related session
+     * @return the session's pending call table
      */
-    private Object getRequestResult(final int sequenceId) throws SimonRemoteException {
-        logger.debug("getting result for sequenceId={}", sequenceId);
+    private PendingCallTable getPendingCallTable(IoSession session) {
+        PendingCallTable pendingCalls = (PendingCallTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_PENDINGCALLS);
+        if (pendingCalls == null) {
+            PendingCallTable newTable = new PendingCallTable();
+            pendingCalls = (PendingCallTable) session.setAttributeIfAbsent(Statics.SESSION_ATTRIBUTE_PENDINGCALLS, newTable);
+            if (pendingCalls == null) {
+                pendingCalls = newTable;
+            }
+        }
+        return pendingCalls;
+    }
 
-        Object o = requestMonitorAndResultMap.remove(sequenceId);
+    /**
+     * Processes the result of the already completed request. Checks if the
+     * request result is an {@link SimonRemoteException}. If yes, the exception
+     * is thrown, if not, the result is returned
+     *
+     * @param o the result as returned by the pending call
+     * @return the result of the request
+     * @throws SimonRemoteException
+     */
+    private Object getRequestResult(final Object o) throws SimonRemoteException {
 
         if (o instanceof SimonRemoteException) {
             logger.debug("result is an exception, throwing it ...");
             throw ((SimonRemoteException) o);
         }
 
+        if (o instanceof MsgInvokeReturnCompleted) {
+
+            // the caller expects a future, hand over an already completed one
+            MsgInvokeReturnCompleted msgCompleted = (MsgInvokeReturnCompleted) o;
+            CompletableFuture<Object> result = new CompletableFuture<Object>();
+            if (msgCompleted.getThrown() != null) {
+                result.completeExceptionally(msgCompleted.getThrown());
+            } else {
+                result.complete(msgCompleted.getReturnValue());
+            }
+
+            MsgInvokeReturn msgInvokeReturn = new MsgInvokeReturn();
+            msgInvokeReturn.setSequence(msgCompleted.getSequence());
+            msgInvokeReturn.setReturnValue(result);
+            return msgInvokeReturn;
+        }
+
         if(o instanceof MsgInvokeReturn) {
 
             MsgInvokeReturn msgInvokeReturn = (MsgInvokeReturn) o;
@@ -775,21 +903,7 @@ public class Dispatcher implements IoHandler {
             if(existingReturnValue instanceof CompletableFutureSurrogate){
                 CompletableFutureSurrogate actual = (CompletableFutureSurrogate) existingReturnValue;
 
-                int id = actual.getOutstandingId();
-
-                CompletableFuture result;
-
-                synchronized (asyncResultsMap){
-                    if(asyncResultsMap.containsKey(id)){
-                        result = asyncResultsMap.get(id);
-                    }
-                    else {
-                        result = new CompletableFuture();
-                        asyncResultsMap.put(id, result);
-                    }
-                }
-
-                msgInvokeReturn.setReturnValue(result);
+                msgInvokeReturn.setReturnValue(getAsyncResult(actual.getOutstandingId()));
             }
         }
 
@@ -797,20 +911,71 @@ public class Dispatcher implements IoHandler {
     }
 
     /**
-     * Returns whether the given sequenceId already has a result present or not
+     * Returns the future that is completed by the
+     * {@link MsgAsyncComputationFinished} with the given id. The future is
+     * created if the message has not yet been received.
      *
-     * @param sequenceId the sequence-id related to the result
-     * @return true, if the result is present, false if not
-     */
-    private boolean isRequestResultPresent(final int sequenceId) {
-        boolean present = false;
-        // if the contained object is NOT an instance of Monitor, present=true
-        logger.trace("result={}", requestMonitorAndResultMap.get(sequenceId));
-        if (!(requestMonitorAndResultMap.get(sequenceId) instanceof SequenceMonitor)) {
-            present = true;
+     * @param outstandingId the id of the remote future
+     * @return the local future
+     */
+    private CompletableFuture<?> getAsyncResult(int outstandingId) {
+        synchronized (asyncResultsMap){
+            CompletableFuture<?> result = asyncResultsMap.get(outstandingId);
+            if(result == null) {
+                result = new CompletableFuture<Object>();
+                asyncResultsMap.put(outstandingId, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Completes the future handed out by
+     * {@link #invokeMethodAsync(IoSession, String, Method, Object[])} with the
+     * result of the request.
+     *
+     * @param o the result as returned by the pending call
+     * @param future the future to complete
+     */
+    private void completeAsyncInvocation(Object o, final CompletableFuture<Object> future) {
+        logger.debug("completing async invocation with {}", o);
+
+        if (o instanceof MsgInvokeReturnCompleted) {
+
+            MsgInvokeReturnCompleted msgCompleted = (MsgInvokeReturnCompleted) o;
+            if (msgCompleted.getThrown() != null) {
+                future.completeExceptionally(msgCompleted.getThrown());
+            } else {
+                future.complete(msgCompleted.getReturnValue());
+            }
+
+        } else if (o instanceof MsgInvokeReturn) {
+
+            Object returnValue = ((MsgInvokeReturn) o).getReturnValue();
+
+            if (returnValue instanceof CompletableFutureSurrogate) {
+                int outstandingId = ((CompletableFutureSurrogate) returnValue).getOutstandingId();
+                getAsyncResult(outstandingId).whenComplete((value, thrown) -> {
+                    if (thrown != null) {
+                        future.completeExceptionally(thrown);
+                    } else {
+                        future.complete(value);
+                    }
+                });
+            } else if (returnValue instanceof Throwable) {
+                // the remote method threw instead of returning a future
+                future.completeExceptionally((Throwable) returnValue);
+            } else {
+                // the remote method returned null instead of a future
+                future.complete(returnValue);
+            }
+
+        } else if (o instanceof Throwable) {
+            // timeout or closed session
+            future.completeExceptionally((Throwable) o);
+        } else {
+            future.completeExceptionally(new SimonRemoteException("Unexpected result for async invocation: " + o));
         }
-        logger.debug("Result for sequenceId={} present: {}", sequenceId, present);
-        return present;
     }
 
     /**
@@ -846,13 +1011,11 @@ public class Dispatcher implements IoHandler {
      * @param session the session which requests to be interrupted
      */
     private void interruptWaitingRequests(IoSession session) {
-        List<Integer> remove = sessionHasRequestPlaced.get(session);
-        // if there is a list with objects to remove
-        if (remove != null) {
-            List<Integer> removeCopy = new ArrayList<Integer>(remove);
-            for (Integer sequenceId : removeCopy) {
-                putResultToQueue(session, sequenceId, new SimonRemoteException("session was closed. sessionId=" + Utils.longToHexString(session.getId()) + " sequenceId=" + sequenceId));
-            }
+        PendingCallTable pendingCalls = getPendingCallTable(session);
+        // requests placed from now on fail immediately
+        List<PendingCall> outstanding = pendingCalls.close(new SimonRemoteException("session was closed. sessionId=" + Utils.longToHexString(session.getId())));
+        for (PendingCall pendingCall : outstanding) {
+            pendingCall.complete(new SimonRemoteException("session was closed. sessionId=" + Utils.longToHexString(session.getId()) + " sequenceId=" + pendingCall.getSequenceId()));
         }
     }
 
@@ -878,7 +1041,128 @@ public class Dispatcher implements IoHandler {
     public void messageReceived(IoSession session, Object message) throws Exception {
         logger.debug("Received message from session {}", Utils.longToHexString(session.getId()));
         AbstractMessage abstractMessage = (AbstractMessage) message;
-        messageProcessorPool.execute(new ProcessMessageRunnable(this, session, abstractMessage));
+        ProcessMessageRunnable runnable = new ProcessMessageRunnable(this, session, abstractMessage);
+        if (runnable.processInline()) {
+            return;
+        }
+        AdmissionControl.Ticket ticket = null;
+        if (admissionControl.isEnabled()) {
+            ticket = admissionControl.admit(session, abstractMessage.getMsgType() == SimonMessageConstants.MSG_INVOKE);
+            if (ticket == null) {
+                rejectInvoke(session, (MsgInvoke) abstractMessage, "Server has too many invocations in progress, invocation of " + ((MsgInvoke) abstractMessage).getMethod() + " rejected.");
+                return;
+            }
+        }
+        ReceivedMessageTask task = new ReceivedMessageTask(abstractMessage, ticket == null ? runnable : ticket.wrap(runnable), ticket);
+        if (isOrdered(abstractMessage)) {
+            laneExecutor.execute(session, task);
+        } else {
+            laneExecutor.executeUnordered(session, task);
+        }
+    }
+
+    /**
+     * Answers an invocation that was not admitted or could not be handed to
+     * the worker pool with a {@link ServerOverloadException}.
+     *
+     * @param session the session the invocation was received on
+     * @param msgInvoke the rejected invocation
+     * @param reason the message of the exception
+     */
+    private void rejectInvoke(IoSession session, MsgInvoke msgInvoke, String reason) {
+        if (msgInvoke.getSequence() == Statics.ONE_WAY_SEQUENCE) {
+            logger.warn("dropping one-way invocation of {} on session {}: {}", new Object[]{msgInvoke.getMethod(), Utils.longToHexString(session.getId()), reason});
+            return;
+        }
+        MsgInvokeReturn returnMsg = new MsgInvokeReturn();
+        returnMsg.setSequence(msgInvoke.getSequence());
+        returnMsg.setReturnValue(new ServerOverloadException(reason));
+        session.write(returnMsg);
+    }
+
+    /**
+     * Handles a received message the worker pool did not accept, f.i. because
+     * it's shut down or saturated. Invocations are answered with an error,
+     * every other request would leave its caller waiting for an answer, so the
+     * session is closed instead.
+     *
+     * @param session the session the message was received on
+     * @param task the rejected task
+     */
+    private void rejectReceivedMessage(IoSession session, ReceivedMessageTask task) {
+        if (task.ticket != null) {
+            task.ticket.release();
+        }
+        AbstractMessage abstractMessage = task.message;
+        if (abstractMessage.getMsgType() == SimonMessageConstants.MSG_INVOKE && !((MsgInvoke) abstractMessage).hasError()) {
+            rejectInvoke(session, (MsgInvoke) abstractMessage, "Server worker pool rejected the invocation of " + ((MsgInvoke) abstractMessage).getMethod() + ".");
+            return;
+        }
+        logger.warn("worker pool rejected {} on session {}, closing the session", abstractMessage, Utils.longToHexString(session.getId()));
+        session.closeNow();
+    }
+
+    /**
+     * A received message on its way to a worker
+     */
+    private static final class ReceivedMessageTask implements Runnable {
+
+        private final AbstractMessage message;
+        private final Runnable task;
+        /** the admission of the message, <code>null</code> if admission control is disabled */
+        private final AdmissionControl.Ticket ticket;
+
+        private ReceivedMessageTask(AbstractMessage message, Runnable task, AdmissionControl.Ticket ticket) {
+            this.message = message;
+            this.task = task;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * for internal use only
+     * @return the admission control of this dispatcher
+     */
+    AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Requests are processed in the order they were received on their session.
+     * Messages that are not processed inline (errors, finished async
+     * computations) bypass the lanes: they never have to wait for a request,
+     * and the request that waits for them might block the lane.
+     * Invocations on remote objects marked as
+     * {@link de.root1.simon.annotation.SimonRemote#concurrent()} bypass the
+     * lanes too.
+     *
+     * @param abstractMessage the received message
+     * @return true, if the message has to be processed on the session's lane
+     */
+    private boolean isOrdered(AbstractMessage abstractMessage) {
+        switch (abstractMessage.getMsgType()) {
+            case SimonMessageConstants.MSG_INVOKE:
+                // unknown names are ordered, the lane reports the failed lookup
+                String remoteObjectName = ((MsgInvoke) abstractMessage).getRemoteObjectName();
+                return remoteObjectName == null || !lookupTable.isConcurrent(remoteObjectName);
+            case SimonMessageConstants.MSG_NAME_LOOKUP:
+            case SimonMessageConstants.MSG_INTERFACE_LOOKUP:
+            case SimonMessageConstants.MSG_TOSTRING:
+            case SimonMessageConstants.MSG_EQUALS:
+            case SimonMessageConstants.MSG_HASHCODE:
+            case SimonMessageConstants.MSG_OPEN_RAW_CHANNEL:
+            case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL:
+            case SimonMessageConstants.MSG_RAW_CHANNEL_DATA:
+            case SimonMessageConstants.MSG_RELEASE_REF:
+                return true;
+            default:
+                return false;
+        }
     }
 
     /*
@@ -903,6 +1187,7 @@ public class Dispatcher implements IoHandler {
 
         lookupTable.unreference(session.getId());
         interruptWaitingRequests(session);
+        admissionControl.sessionClosed(session);
 
         // remove attached references
         logger.debug("{} ######## Removing session attributes ...", id);
@@ -969,6 +1254,7 @@ public class Dispatcher implements IoHandler {
         logger.debug("session created. session={}", session);
         session.setAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE, lookupTable); // attach the lookup table to the session
         session.setAttribute(Statics.SESSION_ATTRIBUTE_DISPATCHER, this); // attach a reference to the dispatcher.
+        session.setAttributeIfAbsent(Statics.SESSION_ATTRIBUTE_PENDINGCALLS, new PendingCallTable()); // attach the table of outstanding requests
 
     }
 
@@ -1043,8 +1329,8 @@ public class Dispatcher implements IoHandler {
         logger.debug("begin sequenceId={} session={} token={}", new Object[]{sequenceId, session, channelToken});
 
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgOpenRawChannel msgOpenRawChannel = new MsgOpenRawChannel();
         msgOpenRawChannel.setSequence(sequenceId);
@@ -1054,8 +1340,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgOpenRawChannelReturn result = (MsgOpenRawChannelReturn) getRequestResult(sequenceId);
+        MsgOpenRawChannelReturn result = (MsgOpenRawChannelReturn) getRequestResult(waitForResult(session, pendingCall));
 
         logger.debug("got answer for sequenceId={}", sequenceId);
         logger.debug("end sequenceId={}", sequenceId);
@@ -1166,8 +1451,8 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("begin sequenceId={} session={}", sequenceId, session);
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgRawChannelData msgRawChannelData = new MsgRawChannelData();
         msgRawChannelData.setSequence(sequenceId);
@@ -1178,10 +1463,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-
-        //retrieve the return msg to remove the monitor etc.
-        MsgRawChannelDataReturn requestResult = (MsgRawChannelDataReturn) getRequestResult(sequenceId); 
+        MsgRawChannelDataReturn requestResult = (MsgRawChannelDataReturn) getRequestResult(waitForResult(session, pendingCall));
         
         if (requestResult.hasError()) {
             throw new RawChannelException(requestResult.getErrorMsg());
@@ -1204,8 +1486,8 @@ public class Dispatcher implements IoHandler {
         logger.debug("begin sequenceId={} session={} token={}", new Object[]{sequenceId, session, channelToken});
 
 
-        // create a monitor that waits for the request-result
-        final SequenceMonitor monitor = createMonitor(session, sequenceId);
+        // register the request, the result will be placed into the pending call
+        final PendingCall pendingCall = createPendingCall(session, sequenceId);
 
         MsgCloseRawChannel msgCloseRawChannel = new MsgCloseRawChannel();
         msgCloseRawChannel.setSequence(sequenceId);
@@ -1215,8 +1497,7 @@ public class Dispatcher implements IoHandler {
 
         logger.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
-        waitForResult(session, monitor);
-        MsgCloseRawChannelReturn result = (MsgCloseRawChannelReturn) getRequestResult(sequenceId);
+        MsgCloseRawChannelReturn result = (MsgCloseRawChannelReturn) getRequestResult(waitForResult(session, pendingCall));
 
         logger.debug("got answer for sequenceId={}", sequenceId);
         logger.debug("end sequenceId={}", sequenceId);
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Describes the remote call the current thread is processing. The context is
+ * bound to the thread only for the duration of the call, so it works with any
+ * {@link java.util.concurrent.Executor} the dispatcher is run on, including
+ * virtual threads.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class InvocationContext {
+
+    private static final ThreadLocal<InvocationContext> CURRENT = new ThreadLocal<InvocationContext>();
+
+    private final IoSession session;
+
+    private InvocationContext(IoSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns the context of the remote call the current thread is processing.
+     *
+     * @return the current context, or <code>null</code> if called from outside
+     * a remote call
+     */
+    public static InvocationContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds a new context for the given session to the current thread.
+     *
+     * @param session the session the call was received on
+     * @return the context that was bound before, to be passed to
+     * {@link #restore(InvocationContext)}
+     */
+    static InvocationContext enter(IoSession session) {
+        InvocationContext previous = CURRENT.get();
+        CURRENT.set(new InvocationContext(session));
+        return previous;
+    }
+
+    /**
+     * Restores the context that was bound before {@link #enter(IoSession)}.
+     *
+     * @param previous the previous context, may be <code>null</code>
+     */
+    static void restore(InvocationContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return the SIMON internal id of the session the call was received on
+     */
+    public long getSessionId() {
+        return session.getId();
+    }
+
+    @Override
+    public String toString() {
+        return "InvocationContext{sessionId=" + session.getId() + "}";
+    }
+}
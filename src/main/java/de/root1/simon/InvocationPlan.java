@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import de.root1.simon.utils.Utils;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Everything about a remote method that's needed to invoke it, or to answer
+ * its invocation, and that does not change from call to call. A plan is built
+ * once per method and cached, so the per-call work for plain data arguments
+ * and results shrinks to a few flag checks.
+ * <p>
+ * The plans are cached per declaring class with a {@link ClassValue}, like
+ * {@link Utils#isRemoteAnnotated(java.lang.reflect.AnnotatedElement)} does, so they don't keep the classes
+ * of an unloaded class loader reachable.
+ *
+ * @author achristian
+ */
+final class InvocationPlan {
+
+    private static final ClassValue<ConcurrentMap<Method, InvocationPlan>> plans = new ClassValue<ConcurrentMap<Method, InvocationPlan>>() {
+
+        @Override
+        protected ConcurrentMap<Method, InvocationPlan> computeValue(Class<?> declaringClass) {
+            return new ConcurrentHashMap<Method, InvocationPlan>();
+        }
+    };
+
+    private final Method method;
+    private final String methodString;
+    /**
+     * per parameter: the argument may have to be replaced by a remote
+     * reference
+     */
+    private final boolean[] argumentMayBeRemote;
+    /**
+     * per parameter: the parameter is annotated with
+     * {@link de.root1.simon.annotation.SimonRemote}
+     */
+    private final boolean[] remoteParameter;
+    private final Parameter[] parameters;
+    private final boolean oneWay;
+    private final boolean futureReturning;
+    private final boolean mayReturnFuture;
+    private final boolean voidReturning;
+    private final boolean resultMayBeRemote;
+    /**
+     * custom invoke timeout, &lt;= 0 for the default
+     */
+    private volatile int customInvokeTimeout = 0;
+
+    private InvocationPlan(Method method) {
+        this.method = method;
+        this.methodString = method.toString();
+        this.parameters = method.getParameters();
+        this.argumentMayBeRemote = new boolean[parameters.length];
+        this.remoteParameter = new boolean[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            remoteParameter[i] = Utils.isRemoteArgument(parameters[i]);
+            argumentMayBeRemote[i] = remoteParameter[i] || mayBeRemote(parameters[i].getType());
+        }
+
+        Class<?> returnType = method.getReturnType();
+        this.oneWay = Utils.isOneWay(method);
+        this.voidReturning = returnType == void.class;
+        this.futureReturning = returnType != Object.class && returnType.isAssignableFrom(CompletableFuture.class);
+        this.mayReturnFuture = returnType.isAssignableFrom(CompletableFuture.class);
+        this.resultMayBeRemote = !voidReturning && mayBeRemote(returnType);
+    }
+
+    /**
+     * Values of primitive types and of final classes that are not remote
+     * annotated can never be remote objects, proxies or callbacks.
+     */
+    private static boolean mayBeRemote(Class<?> type) {
+        if (type.isPrimitive()) {
+            return false;
+        }
+        return !Modifier.isFinal(type.getModifiers()) || Utils.isRemoteAnnotated(type);
+    }
+
+    /**
+     * Returns the plan of the given method, builds it on first use
+     *
+     * @param method the remote method
+     * @return the plan
+     */
+    static InvocationPlan of(Method method) {
+        ConcurrentMap<Method, InvocationPlan> classPlans = plans.get(method.getDeclaringClass());
+        InvocationPlan plan = classPlans.get(method);
+        if (plan == null) {
+            plan = new InvocationPlan(method);
+            InvocationPlan present = classPlans.putIfAbsent(method, plan);
+            if (present != null) {
+                plan = present;
+            }
+        }
+        return plan;
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the cached <code>toString()</code> of the method
+     */
+    String getMethodString() {
+        return methodString;
+    }
+
+    /**
+     * @param index parameter index
+     * @return false, if the argument is plain data in any case
+     */
+    boolean argumentMayBeRemote(int index) {
+        // varargs calls via reflection may pass more arguments than declared
+        return index >= argumentMayBeRemote.length || argumentMayBeRemote[index];
+    }
+
+    /**
+     * @param index parameter index
+     * @return true, if the parameter is annotated with
+     * {@link de.root1.simon.annotation.SimonRemote}
+     */
+    boolean isRemoteParameter(int index) {
+        return index < remoteParameter.length && remoteParameter[index];
+    }
+
+    /**
+     * @param index parameter index
+     * @return the parameter
+     */
+    Parameter getParameter(int index) {
+        return parameters[index];
+    }
+
+    /**
+     * @return true, if the method is invoked without waiting for a return
+     * @see Utils#isOneWay(Method)
+     */
+    boolean isOneWay() {
+        return oneWay;
+    }
+
+    /**
+     * Checks whether the method's declared return type can be satisfied with a
+     * {@link CompletableFuture}, f.i. <code>CompletableFuture</code> or
+     * <code>CompletionStage</code>
+     *
+     * @return true, if the caller is handed a future instead of waiting for the
+     * result
+     */
+    boolean isFutureReturning() {
+        return futureReturning;
+    }
+
+    /**
+     * @return true, if the implementation may return a
+     * {@link CompletableFuture}
+     */
+    boolean mayReturnFuture() {
+        return mayReturnFuture;
+    }
+
+    boolean isVoidReturning() {
+        return voidReturning;
+    }
+
+    /**
+     * @return false, if the result is plain data in any case
+     */
+    boolean resultMayBeRemote() {
+        return resultMayBeRemote;
+    }
+
+    int getCustomInvokeTimeout() {
+        return customInvokeTimeout;
+    }
+
+    void setCustomInvokeTimeout(int customInvokeTimeout) {
+        this.customInvokeTimeout = customInvokeTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for the result
+     */
+    int getInvokeTimeout() {
+        int timeout = customInvokeTimeout;
+        return timeout > 0 ? timeout : Statics.DEFAULT_INVOKE_TIMEOUT;
+    }
+
+    @Override
+    public String toString() {
+        return "InvocationPlan{method=" + method + ", oneWay=" + oneWay + ", futureReturning=" + futureReturning + ", resultMayBeRemote=" + resultMayBeRemote + "}";
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import de.root1.simon.codec.messages.MsgInvoke;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The invoke handles of a session: the first invocation of a method on a
+ * remote object binds the pair to a small id, all following invocations
+ * only transfer that id instead of the remote object name and method hash.
+ * <p>
+ * Only the thread that assigned a handle sends the binding message, always
+ * with a request that is answered. The handle is used by itself once the
+ * answer to that request has arrived, which tells that the remote has decoded
+ * the binding. Until then all threads keep sending the full form, and a
+ * binding whose request failed is sent again with the next invocation.
+ *
+ * @author achristian
+ */
+class InvokeHandles {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * A handle and the state of its binding.
+     */
+    private static final class Handle {
+
+        final int id;
+        final AtomicBoolean binding = new AtomicBoolean(false);
+        volatile boolean bound = false;
+
+        Handle(int id) {
+            this.id = id;
+        }
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<Method, Handle>> handles = new ConcurrentHashMap<String, ConcurrentMap<Method, Handle>>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    /** handles whose binding is on its way, by the sequence of the binding request */
+    private final ConcurrentMap<Integer, Handle> unacknowledged = new ConcurrentHashMap<Integer, Handle>();
+
+    /**
+     * Returns the invoke handles of the given session, creates them if
+     * necessary.
+     *
+     * @param session the session
+     * @return the handles of the session
+     */
+    static InvokeHandles of(IoSession session) {
+        InvokeHandles invokeHandles = (InvokeHandles) session.getAttribute(Statics.SESSION_ATTRIBUTE_INVOKE_HANDLES);
+        if (invokeHandles == null) {
+            invokeHandles = new InvokeHandles();
+            InvokeHandles existing = (InvokeHandles) session.setAttributeIfAbsent(Statics.SESSION_ATTRIBUTE_INVOKE_HANDLES, invokeHandles);
+            if (existing != null) {
+                invokeHandles = existing;
+            }
+        }
+        return invokeHandles;
+    }
+
+    /**
+     * Called with the sequence of each received invoke result. If the request
+     * bound a handle, the remote knows the handle from now on.
+     *
+     * @param session the session the result was received from
+     * @param sequence the sequence of the answered request
+     */
+    static void acknowledged(IoSession session, int sequence) {
+        InvokeHandles invokeHandles = (InvokeHandles) session.getAttribute(Statics.SESSION_ATTRIBUTE_INVOKE_HANDLES);
+        if (invokeHandles != null && !invokeHandles.unacknowledged.isEmpty()) {
+            Handle handle = invokeHandles.unacknowledged.remove(sequence);
+            if (handle != null) {
+                handle.bound = true;
+            }
+        }
+    }
+
+    /**
+     * Called if the request with the given sequence won't be answered, f.i.
+     * because it timed out. A binding it carried is sent again with the next
+     * invocation, binding a handle again is harmless for the remote.
+     *
+     * @param session the session the request was written to
+     * @param sequence the sequence of the request
+     */
+    static void unanswered(IoSession session, int sequence) {
+        InvokeHandles invokeHandles = (InvokeHandles) session.getAttribute(Statics.SESSION_ATTRIBUTE_INVOKE_HANDLES);
+        if (invokeHandles != null && !invokeHandles.unacknowledged.isEmpty()) {
+            Handle handle = invokeHandles.unacknowledged.remove(sequence);
+            if (handle != null) {
+                handle.binding.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the invoke request to the session, referring to its target by
+     * handle where possible.
+     *
+     * @param session the session to write to
+     * @param msgInvoke the invoke request
+     */
+    void write(IoSession session, MsgInvoke msgInvoke) {
+
+        Handle handle = acquire(msgInvoke.getRemoteObjectName(), msgInvoke.getMethod());
+
+        if (handle == null) {
+            // handles exhausted
+            session.write(msgInvoke);
+
+        } else if (handle.bound) {
+            msgInvoke.setHandle(handle.id, false);
+            session.write(msgInvoke);
+
+        } else if (msgInvoke.getSequence() != Statics.ONE_WAY_SEQUENCE && handle.binding.compareAndSet(false, true)) {
+            int sequence = msgInvoke.getSequence();
+            msgInvoke.setHandle(handle.id, true);
+            logger.trace("binding handle {} to {}#{}", new Object[]{handle.id, msgInvoke.getRemoteObjectName(), msgInvoke.getMethod()});
+            unacknowledged.put(sequence, handle);
+            boolean written = false;
+            try {
+                session.write(msgInvoke);
+                written = true;
+            } finally {
+                if (!written) {
+                    unacknowledged.remove(sequence);
+                    handle.binding.set(false);
+                }
+            }
+
+        } else {
+            // the binding is on its way, or a one-way request that can't tell whether it arrived
+            session.write(msgInvoke);
+        }
+    }
+
+    private Handle acquire(String remoteObjectName, Method method) {
+        ConcurrentMap<Method, Handle> methods = handles.get(remoteObjectName);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<Method, Handle>();
+            ConcurrentMap<Method, Handle> existing = handles.putIfAbsent(remoteObjectName, methods);
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+
+        Handle handle = methods.get(method);
+        if (handle == null && nextId.get() < SimonMessageConstants.MAX_INVOKE_HANDLES) {
+            handle = methods.computeIfAbsent(method, m -> {
+                int id = nextId.getAndIncrement();
+                return id < SimonMessageConstants.MAX_INVOKE_HANDLES ? new Handle(id) : null;
+            });
+        }
+        return handle;
+    }
+}
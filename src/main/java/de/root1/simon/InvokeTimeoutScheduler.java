@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed-wheel timer that fires the invoke timeouts of all outstanding
+ * requests. There is only one thread for all timeouts, which advances the
+ * wheel every {@link #getTickDuration()} ms and expires the timeouts in the
+ * current bucket. Waiting callers are never woken up just to check whether
+ * their time is over.
+ * <p>
+ * Timeouts are not fired before their deadline, but may be fired up to one
+ * tick late. If there is no outstanding timeout, the thread parks until a new
+ * one is scheduled.
+ *
+ * @author achr
+ */
+class InvokeTimeoutScheduler implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvokeTimeoutScheduler.class);
+    /**
+     * number of buckets, must be a power of two
+     */
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    /**
+     * the instance shared by all dispatchers
+     */
+    private static InvokeTimeoutScheduler shared;
+
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+    /**
+     * timeouts scheduled since the last tick, transferred into the wheel by the worker
+     */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    /**
+     * timeouts cancelled since the last tick, unlinked from the wheel by the worker
+     */
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    /**
+     * number of timeouts that are either queued or still linked into the wheel
+     */
+    private final AtomicInteger pendingTimeouts = new AtomicInteger(0);
+    private volatile long tickNanos;
+    private Thread worker;
+
+    /**
+     * Creates a new scheduler. The worker thread is started with the first
+     * scheduled timeout.
+     *
+     * @param tickDuration the precision in milliseconds
+     */
+    InvokeTimeoutScheduler(int tickDuration) {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Bucket();
+        }
+        setTickDuration(tickDuration);
+    }
+
+    /**
+     * Returns the scheduler that is shared by all dispatchers
+     *
+     * @return the shared scheduler
+     */
+    static synchronized InvokeTimeoutScheduler getShared() {
+        if (shared == null) {
+            shared = new InvokeTimeoutScheduler(Statics.DEFAULT_INVOKE_TIMEOUT_PRECISION);
+        }
+        return shared;
+    }
+
+    /**
+     * Sets the tick duration, which is the precision with which timeouts are
+     * fired. Already scheduled timeouts are re-arranged with the next tick.
+     *
+     * @param tickDuration the precision in milliseconds, must be &gt; 0
+     */
+    final void setTickDuration(int tickDuration) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tick duration must be > 0");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+    }
+
+    /**
+     * Returns the tick duration in milliseconds
+     *
+     * @return the precision in milliseconds
+     */
+    int getTickDuration() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /**
+     * Schedules the given task to run after <code>delay</code> ms. The task is
+     * executed on the scheduler thread, so it has to be short and must not
+     * block.
+     *
+     * @param task the task to run on expiry
+     * @param delay the delay in milliseconds
+     * @return a handle for cancelling the timeout
+     */
+    Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        newTimeouts.add(timeout);
+        if (pendingTimeouts.getAndIncrement() == 0) {
+            // worker might be parked without deadline
+            LockSupport.unpark(startWorker());
+        }
+        return timeout;
+    }
+
+    private synchronized Thread startWorker() {
+        if (worker == null) {
+            worker = new Thread(this, "Simon.InvokeTimeoutScheduler");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        return worker;
+    }
+
+    @Override
+    public void run() {
+        logger.debug("begin");
+        long appliedTickNanos = tickNanos;
+        long startTime = System.nanoTime();
+        long tick = 0;
+
+        while (true) {
+
+            if (pendingTimeouts.get() == 0) {
+                // nothing to wait for. sleep until the next timeout is scheduled
+                LockSupport.park(this);
+                startTime = System.nanoTime();
+                tick = 0;
+                continue;
+            }
+
+            // wait for the end of the current tick
+            long deadline = startTime + (tick + 1) * appliedTickNanos;
+            long now;
+            while ((now = System.nanoTime()) - deadline < 0) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+
+            processCancelledTimeouts();
+
+            if (tickNanos != appliedTickNanos) {
+                logger.debug("tick duration changed to {}ms", getTickDuration());
+                appliedTickNanos = tickNanos;
+                startTime = now;
+                tick = 0;
+                rehash(appliedTickNanos, startTime);
+            }
+
+            transferNewTimeouts(appliedTickNanos, startTime, tick);
+            wheel[(int) (tick & MASK)].expireTimeouts();
+            tick++;
+        }
+    }
+
+    private void processCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferNewTimeouts(long tickNanos, long startTime, long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                pendingTimeouts.decrementAndGet();
+                continue;
+            }
+            place(timeout, tickNanos, startTime, currentTick);
+        }
+    }
+
+    private void rehash(long tickNanos, long startTime) {
+        List<Timeout> all = new ArrayList<Timeout>();
+        for (Bucket bucket : wheel) {
+            bucket.drainTo(all);
+        }
+        for (Timeout timeout : all) {
+            place(timeout, tickNanos, startTime, 0);
+        }
+    }
+
+    private void place(Timeout timeout, long tickNanos, long startTime, long currentTick) {
+        long calculated = (timeout.deadline - startTime) / tickNanos;
+        timeout.remainingRounds = (calculated - currentTick) / WHEEL_SIZE;
+        // timeouts already in the past are expired with the current tick
+        long ticks = Math.max(calculated, currentTick);
+        wheel[(int) (ticks & MASK)].add(timeout);
+    }
+
+    /**
+     * A scheduled timeout
+     */
+    static final class Timeout {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final InvokeTimeoutScheduler scheduler;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // the following fields are only accessed by the worker thread
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(InvokeTimeoutScheduler scheduler, Runnable task, long deadline) {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout. The task will not run afterwards.
+         *
+         * @return true, if the timeout was cancelled, false if it already
+         * expired or was cancelled before
+         */
+        boolean cancel() {
+            if (state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                scheduler.cancelledTimeouts.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.warn("invoke timeout task threw an exception", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A bucket of the wheel, a doubly linked list of timeouts
+     */
+    private final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            pendingTimeouts.decrementAndGet();
+        }
+
+        private void expireTimeouts() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void drainTo(List<Timeout> list) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.bucket = null;
+                list.add(timeout);
+                timeout = next;
+            }
+            head = tail = null;
+        }
+    }
+}
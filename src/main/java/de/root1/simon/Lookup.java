@@ -10,6 +10,7 @@ import de.root1.simon.exceptions.LookupFailedException;
 import de.root1.simon.ssl.SslContextFactory;
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -51,6 +52,30 @@ public interface Lookup {
     ClassLoader getClassLoader();
 
     void setClassLoader(ClassLoader classLoader);
+
+    /**
+     * Returns the executor the callbacks received from the server are
+     * processed on.
+     * @return the executor, or <code>null</code> if SIMON's own worker pool is
+     * used
+     */
+    default Executor getExecutor() {
+        return null;
+    }
+
+    /**
+     * Sets the executor the callbacks received from the server are processed
+     * on. Any executor can be used, f.i. a virtual thread per task executor.
+     * It's used for connections that are established after this call and is
+     * not shut down by SIMON.
+     * @param executor the executor to use, <code>null</code> to use SIMON's
+     * own worker pool
+     * @throws UnsupportedOperationException if this lookup always uses SIMON's
+     * own worker pool
+     */
+    default void setExecutor(Executor executor) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support a custom executor");
+    }
     
     /**
      * Sets the address that is used as the source address for the lookup-request.
@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,7 +62,7 @@ public class LookupTable implements LookupTableMBean {
      * been registered with the Registry.bind() method are added to this map.
      *
      */
-    private final HashMap<String, RemoteObjectContainer> bindings = new HashMap<String, RemoteObjectContainer>();
+    private final Map<String, RemoteObjectContainer> bindings = new ConcurrentHashMap<String, RemoteObjectContainer>();
     
     /**
      * A Map that holds a list of remote object names for each socket connection.
@@ -305,7 +306,7 @@ public class LookupTable implements LookupTableMBean {
     RemoteObjectContainer getRemoteObjectContainer(String remoteObjectName) throws LookupFailedException {
         logger.debug("begin");
         synchronized (bindings) {
-            if (!bindings.containsKey(remoteObjectName)) {
+            if (remoteObjectName == null || !bindings.containsKey(remoteObjectName)) {
                 logger.debug("remote object name=[{}] not found in LookupTable!", remoteObjectName);
                 throw new LookupFailedException("remoteobject with name [" + remoteObjectName + "] not found in lookup table.");
             }
@@ -317,6 +318,19 @@ public class LookupTable implements LookupTableMBean {
         }
     }
 
+    /**
+     * Checks without locking whether invocations on the remote object may be
+     * processed concurrently. Called for each received invocation.
+     *
+     * @param remoteObjectName the name of the remote object
+     * @return true, if the object is bound and marked as concurrent
+     * @see RemoteObjectContainer#isConcurrent()
+     */
+    boolean isConcurrent(String remoteObjectName) {
+        RemoteObjectContainer container = bindings.get(remoteObjectName);
+        return container != null && container.isConcurrent();
+    }
+
     /**
      *
      * Frees a saved remote object. After a remote object is freed, it cannot be
@@ -30,7 +30,7 @@ public class NameLookup extends AbstractLookup {
     private final InetAddress serverAddress;
     private final int serverPort;
 
-    private SerializerSet serializers;
+    private SerializerSet serializers = SerializerSet.Default;
     private SslContextFactory sslContextFactory;
     private SimonProxyConfig proxyConfig;
     private ClassLoader classLoader;
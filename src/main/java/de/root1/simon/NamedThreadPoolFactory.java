@@ -47,6 +47,7 @@ public class NamedThreadPoolFactory implements ThreadFactory {
 	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
 	 */
         @Override
+        @SuppressWarnings("deprecation")
 	public Thread newThread(Runnable r) {
 		if ((i++)==Long.MAX_VALUE) i=0;
                 StringBuilder sb = new StringBuilder();
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+/**
+ * Describes how a {@link Registry} behaves when one of its in-flight limits, or
+ * its inbound byte limit, is reached.
+ *
+ * @author achristian
+ * @since 1.3.1
+ * @see Registry#setMaxInFlight(int)
+ * @see Registry#setMaxInFlightPerSession(int)
+ * @see Registry#setMaxInboundBytes(long)
+ */
+public enum OverloadPolicy {
+
+    /**
+     * Stops reading from the session that hit the limit, until the number of
+     * invocations in progress, or the buffered inbound bytes, dropped to the
+     * low-water mark. The client is slowed down by TCP flow control.
+     */
+    SUSPEND_READ,
+
+    /**
+     * Answers invocations that exceed the limit with a
+     * {@link de.root1.simon.exceptions.ServerOverloadException} without
+     * processing them. A message that exceeds the inbound byte limit is
+     * rejected with a decoding error, which closes the session.
+     */
+    REJECT
+}
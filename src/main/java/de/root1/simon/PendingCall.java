@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single request that has been sent to the remote side and is still waiting
+ * for its result. The caller parks on the call and is woken up directly as soon
+ * as the result is completed, there is no polling involved.
+ *
+ * @author achr
+ */
+class PendingCall {
+
+    /**
+     * the associated sequence id
+     */
+    private final int sequenceId;
+    /**
+     * the slot the result is put into
+     */
+    private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+    /**
+     * Creates a pending call
+     *
+     * @param sequenceId the associated sequence id
+     */
+    PendingCall(int sequenceId) {
+        this.sequenceId = sequenceId;
+    }
+
+    /**
+     * Returns the associated sequence id
+     *
+     * @return the id
+     */
+    int getSequenceId() {
+        return sequenceId;
+    }
+
+    /**
+     * Places the result and wakes up the waiting caller.
+     *
+     * @param o the result
+     * @return true, if this call completed the pending call, false if a result
+     * was already present
+     */
+    boolean complete(Object o) {
+        return result.complete(o);
+    }
+
+    /**
+     * Returns whether a result is present or not
+     *
+     * @return true, if the result is present
+     */
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * Returns the future that is completed with the result of this call
+     *
+     * @return the result future
+     */
+    CompletableFuture<Object> getFuture() {
+        return result;
+    }
+
+    /**
+     * Waits for the result. Interrupts do not abort the wait, but the interrupt
+     * status is restored before returning. There is no timeout here, the call
+     * is completed by the {@link InvokeTimeoutScheduler} if it takes too long.
+     *
+     * @return the result
+     */
+    Object awaitResult() {
+        // join() is not interruptible and restores the interrupt status itself
+        return result.join();
+    }
+
+    @Override
+    public String toString() {
+        return "PendingCall{sequenceId=" + sequenceId + ", done=" + result.isDone() + "}";
+    }
+}
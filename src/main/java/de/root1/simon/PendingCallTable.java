@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the outstanding requests of a single session, keyed by sequence id.
+ * One instance is attached to each session (see
+ * {@link Statics#SESSION_ATTRIBUTE_PENDINGCALLS}), so placing and completing
+ * requests does not need any global lock.
+ *
+ * @author achr
+ */
+class PendingCallTable {
+
+    private final ConcurrentMap<Integer, PendingCall> calls = new ConcurrentHashMap<Integer, PendingCall>();
+    /**
+     * the result every call gets that is placed after the table has been closed
+     */
+    private volatile Object closedResult = null;
+
+    /**
+     * Registers a new outstanding request. If the table is already closed, the
+     * returned call is completed immediately with the close result.
+     *
+     * @param sequenceId the sequence id of the request
+     * @return the pending call to wait on
+     */
+    PendingCall register(int sequenceId) {
+        PendingCall call = new PendingCall(sequenceId);
+        calls.put(sequenceId, call);
+        // close() may have drained the table in the meantime
+        Object closed = closedResult;
+        if (closed != null && calls.remove(sequenceId, call)) {
+            call.complete(closed);
+        }
+        return call;
+    }
+
+    /**
+     * Completes the outstanding request with the given result and removes it
+     * from the table.
+     *
+     * @param sequenceId the sequence id of the request
+     * @param o the result
+     * @return true, if there was a request waiting for this result
+     */
+    boolean complete(int sequenceId, Object o) {
+        PendingCall call = calls.remove(sequenceId);
+        return call != null && call.complete(o);
+    }
+
+    /**
+     * Removes the request from the table without completing it.
+     *
+     * @param sequenceId the sequence id of the request
+     * @return the removed call, or null if there was none
+     */
+    PendingCall remove(int sequenceId) {
+        return calls.remove(sequenceId);
+    }
+
+    /**
+     * Closes the table and removes all currently outstanding requests. The
+     * caller is responsible for completing the returned calls. Requests that
+     * are placed after the table has been closed are completed immediately
+     * with <code>lateResult</code>.
+     *
+     * @param lateResult the result for requests placed after closing
+     * @return the calls that were outstanding
+     */
+    List<PendingCall> close(Object lateResult) {
+        closedResult = lateResult;
+        List<PendingCall> outstanding = new ArrayList<PendingCall>();
+        for (Integer sequenceId : calls.keySet()) {
+            PendingCall call = calls.remove(sequenceId);
+            if (call != null) {
+                outstanding.add(call);
+            }
+        }
+        return outstanding;
+    }
+
+    /**
+     * Returns the number of outstanding requests
+     *
+     * @return number of requests
+     */
+    int size() {
+        return calls.size();
+    }
+}
@@ -123,15 +123,26 @@ public class PingWatchdog {
         pingWatchdogPool.execute(runnable);
     }
 
-    protected void notifyPongReceived(IoSession session) {
-        logger.debug("Pong received for session: {}", Utils.longToHexString(session.getId()));
+    /**
+     * Notifies the waiting watchdog about the received pong, without waiting
+     * for it to appear.
+     *
+     * @param session the session the pong was received on
+     * @return true, if a watchdog was waiting for the pong
+     */
+    protected boolean tryNotifyPongReceived(IoSession session) {
         WaitRunnable waitRunnable = sessionWaitrunnableMap.remove(session);
-
         if (waitRunnable != null) {
-
             waitRunnable.pongReceived();
+            return true;
+        }
+        return false;
+    }
+
+    protected void notifyPongReceived(IoSession session) {
+        logger.debug("Pong received for session: {}", Utils.longToHexString(session.getId()));
 
-        } else {
+        if (!tryNotifyPongReceived(session)) {
 
             // wait for WaitRunnable ..
             logger.warn("waitRunnable for session {} not present. Waiting for it ...", Utils.longToHexString(session.getId()));
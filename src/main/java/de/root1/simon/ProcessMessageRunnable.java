@@ -34,7 +34,9 @@ import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.mina.core.future.CloseFuture;
 import org.apache.mina.core.session.IoSession;
@@ -67,14 +69,79 @@ public class ProcessMessageRunnable implements Runnable {
         this.abstractMessage = abstractMessage;
     }
 
+    /**
+     * Processes the message right away on the calling thread, if it's a cheap
+     * one: results are just handed to the waiting caller, pings and pongs only
+     * answer or notify the watchdog. Such messages don't call any user code and
+     * never block, so they can be processed on the I/O thread that decoded
+     * them.
+     *
+     * @return true, if the message was processed, false if it has to be
+     * {@link #run() run} on a worker
+     */
+    protected boolean processInline() {
+        switch (abstractMessage.getMsgType()) {
+
+            case SimonMessageConstants.MSG_INVOKE_RETURN:
+            case SimonMessageConstants.MSG_INVOKE_RETURN_COMPLETED:
+                // the remote has decoded the request, including a handle binding it carried
+                InvokeHandles.acknowledged(session, abstractMessage.getSequence());
+                dispatcher.putResultToQueue(session, abstractMessage.getSequence(), abstractMessage);
+                return true;
+
+            case SimonMessageConstants.MSG_NAME_LOOKUP_RETURN:
+            case SimonMessageConstants.MSG_INTERFACE_LOOKUP_RETURN:
+            case SimonMessageConstants.MSG_TOSTRING_RETURN:
+            case SimonMessageConstants.MSG_EQUALS_RETURN:
+            case SimonMessageConstants.MSG_HASHCODE_RETURN:
+            case SimonMessageConstants.MSG_OPEN_RAW_CHANNEL_RETURN:
+            case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL_RETURN:
+            case SimonMessageConstants.MSG_RAW_CHANNEL_DATA_RETURN:
+                logger.debug("put result to queue={}", abstractMessage);
+                dispatcher.putResultToQueue(session, abstractMessage.getSequence(), abstractMessage);
+                return true;
+
+            case SimonMessageConstants.MSG_PING:
+                processPing();
+                return true;
+
+            case SimonMessageConstants.MSG_PONG:
+                if (ProtocolHandshake.pongReceived(session)) {
+                    // a version 1 peer answered the handshake
+                    return true;
+                }
+                // the watchdog may not be waiting yet, waiting for it blocks
+                return dispatcher.getPingWatchdog().tryNotifyPongReceived(session);
+
+            case SimonMessageConstants.MSG_HELLO:
+                ProtocolHandshake.helloReceived(session, (MsgHello) abstractMessage);
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
     @Override
+    @SuppressWarnings("deprecation")
     public void run() {
 
         logger.debug("ProcessMessageRunnable: {} on sessionId {}", abstractMessage, Utils.longToHexString(session.getId()));
 
-        ProcessMessageThread currentThread = (ProcessMessageThread) Thread.currentThread();
-        currentThread.setSessionId(session.getId());
+        Thread currentThread = Thread.currentThread();
+        if (currentThread instanceof ProcessMessageThread) {
+            // keep the session id on SIMON's own worker threads for code still reading it from there
+            ((ProcessMessageThread) currentThread).setSessionId(session.getId());
+        }
+        InvocationContext previousContext = InvocationContext.enter(session);
+        try {
+            processMessage();
+        } finally {
+            InvocationContext.restore(previousContext);
+        }
+    }
 
+    private void processMessage() {
         int msgType = abstractMessage.getMsgType();
 
         switch (msgType) {
@@ -87,75 +154,36 @@ public class ProcessMessageRunnable implements Runnable {
                 processInterfaceLookup();
                 break;
 
-            case SimonMessageConstants.MSG_NAME_LOOKUP_RETURN:
-                processNameLookupReturn();
-                break;
-
-            case SimonMessageConstants.MSG_INTERFACE_LOOKUP_RETURN:
-                processInterfaceLookupReturn();
-                break;
-
             case SimonMessageConstants.MSG_INVOKE:
                 processInvoke();
                 break;
 
-            case SimonMessageConstants.MSG_INVOKE_RETURN:
-                processInvokeReturn();
-                break;
-
             case SimonMessageConstants.MSG_TOSTRING:
                 processToString();
                 break;
 
-            case SimonMessageConstants.MSG_TOSTRING_RETURN:
-                processToStringReturn();
-                break;
-
             case SimonMessageConstants.MSG_EQUALS:
                 processEquals();
                 break;
 
-            case SimonMessageConstants.MSG_EQUALS_RETURN:
-                processEqualsReturn();
-                break;
-
             case SimonMessageConstants.MSG_HASHCODE:
                 processHashCode();
                 break;
 
-            case SimonMessageConstants.MSG_HASHCODE_RETURN:
-                processHashCodeReturn();
-                break;
-
             case SimonMessageConstants.MSG_OPEN_RAW_CHANNEL:
                 processOpenRawChannel();
                 break;
 
-            case SimonMessageConstants.MSG_OPEN_RAW_CHANNEL_RETURN:
-                processOpenRawChannelReturn();
-                break;
-
             case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL:
                 processCloseRawChannel();
                 break;
 
-            case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL_RETURN:
-                processCloseRawChannelReturn();
-                break;
-
             case SimonMessageConstants.MSG_RAW_CHANNEL_DATA:
                 processRawChannelData();
                 break;
 
-            case SimonMessageConstants.MSG_RAW_CHANNEL_DATA_RETURN:
-                processRawChannelDataReturn();
-                break;
-
-            case SimonMessageConstants.MSG_PING:
-                processPing();
-                break;
-
             case SimonMessageConstants.MSG_PONG:
+                // only if the watchdog was not yet waiting when processInline() got the pong
                 processPong();
                 break;
 
@@ -180,22 +208,18 @@ public class ProcessMessageRunnable implements Runnable {
 
     }
 
-    private void processRawChannelDataReturn() {
-        logger.debug("begin");
-
-        logger.debug("processing MsgRawChannelDataReturn...");
-        MsgRawChannelDataReturn msg = (MsgRawChannelDataReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("put result to queue={}", msg);
-
-        logger.debug("end");
-    }
-
     private void processPing() {
         logger.debug("begin");
         logger.debug("processing MsgPing...");
 
+        MsgPing msgPing = (MsgPing) abstractMessage;
+        if (msgPing.getProtocolVersion() >= SimonMessageConstants.PROTOCOL_VERSION) {
+            logger.debug("replying hello");
+            ProtocolHandshake.pingReceived(session, msgPing);
+            logger.debug("end");
+            return;
+        }
+
         logger.debug("replying pong");
         try {
             dispatcher.sendPong(session);
@@ -228,15 +252,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    private void processOpenRawChannelReturn() {
-        logger.debug("begin");
-        logger.debug("processing MsgOpenRawChannelReturn...");
-        MsgOpenRawChannelReturn msg = (MsgOpenRawChannelReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-        logger.debug("put result to queue={}", msg);
-        logger.debug("end");
-    }
-
     private void processCloseRawChannel() {
         MsgCloseRawChannelReturn returnMsg = new MsgCloseRawChannelReturn();
         try {
@@ -258,22 +273,13 @@ public class ProcessMessageRunnable implements Runnable {
         }
     }
 
-    private void processCloseRawChannelReturn() {
-        logger.debug("begin");
-        logger.debug("processing MsgCloseRawChannelReturn...");
-        MsgCloseRawChannelReturn msg = (MsgCloseRawChannelReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-        logger.debug("put result to queue={}", msg);
-        logger.debug("end");
-    }
-
     private void processRawChannelData() {
         MsgRawChannelDataReturn returnMsg = new MsgRawChannelDataReturn();
+        MsgRawChannelData msg = (MsgRawChannelData) abstractMessage;
         try {
             logger.debug("begin");
 
             logger.debug("processing MsgRawChannelData...");
-            MsgRawChannelData msg = (MsgRawChannelData) abstractMessage;
 
             RawChannelDataListener rawChannelDataListener = dispatcher.getRawChannelDataListener(msg.getChannelToken());
             if (rawChannelDataListener != null) {
@@ -291,6 +297,8 @@ public class ProcessMessageRunnable implements Runnable {
             logger.warn("Error occured during RawChannelDataListener#write()", ex);
             returnMsg.setErrorMsg(ex.getMessage());
         } finally {
+            // the data may be a slice of the received buffer, which can be reused now
+            msg.release();
             session.write(returnMsg);
             logger.debug("end");
         }
@@ -382,30 +390,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    private void processNameLookupReturn() {
-        logger.debug("begin");
-
-        logger.debug("processing MsgNameLookupReturn...");
-        MsgNameLookupReturn msg = (MsgNameLookupReturn) abstractMessage;
-
-        logger.debug("Forward result to waiting monitor");
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("end");
-    }
-
-    private void processInterfaceLookupReturn() {
-        logger.debug("begin");
-
-        logger.debug("processing MsgInterfaceLookupReturn...");
-        MsgInterfaceLookupReturn msg = (MsgInterfaceLookupReturn) abstractMessage;
-
-        logger.debug("Forward result to waiting monitor");
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("end");
-    }
-
     /**
      * This method is processed on the remote end (where the object to call
      * lives) that finally calls the method and returns the result to the
@@ -419,9 +403,16 @@ public class ProcessMessageRunnable implements Runnable {
         Object result = null;
 
         MsgInvoke msg = (MsgInvoke) abstractMessage;
+        // the caller decides, the remote interface may differ on this side
+        boolean oneWay = msg.getSequence() == Statics.ONE_WAY_SEQUENCE;
 
         // if received msg has an error
         if (msg.hasError()) {
+            if (oneWay) {
+                logger.warn("Received one-way MsgInvoke had errors. Cannot process invocation. error msg: {}", msg.getErrorMsg());
+                logger.debug("end. one-way, nothing to return");
+                return;
+            }
             result = new SimonRemoteException("Received MsgInvoke had errors. Cannot process invocation. error msg: " + msg.getErrorMsg());
 
             MsgInvokeReturn returnMsg = new MsgInvokeReturn();
@@ -437,6 +428,7 @@ public class ProcessMessageRunnable implements Runnable {
         }
 
         Method method = msg.getMethod();
+        InvocationPlan plan = InvocationPlan.of(method);
         Object[] arguments = msg.getArguments();
         String remoteObjectName = msg.getRemoteObjectName();
 
@@ -524,7 +516,7 @@ public class ProcessMessageRunnable implements Runnable {
             }
 
             // check for re-transmitting callback
-            if (Utils.isSimonProxy(result)) {
+            if (plan.resultMayBeRemote() && Utils.isSimonProxy(result)) {
 
 
                 SimonProxy sp = Simon.getSimonProxy(result);
@@ -535,16 +527,36 @@ public class ProcessMessageRunnable implements Runnable {
             }
 
             // check for normal remote objects?!
-            if (dispatcher.getLookupTable().isSimonRemoteRegistered(result)) {
+            if (plan.resultMayBeRemote() && dispatcher.getLookupTable().isSimonRemoteRegistered(result)) {
                 throw new SimonException("Result '" + result + "' of method '" + method + "' is a registered remote object. Endpoints can not be transferred.");
             }
 
-            if (method.getReturnType() == void.class) {
+            if (plan.isVoidReturning()) {
                 result = new SimonVoid();
             }
 
             // check for "standard" asynchrony components
-            if(result instanceof CompletableFuture){
+            if(!oneWay && plan.mayReturnFuture() && result instanceof CompletableFuture && ((CompletableFuture<?>) result).isDone()
+                    && ProtocolHandshake.isEnabled(session, SimonMessageConstants.FEATURE_INVOKE_RETURN_COMPLETED)){
+                // no need for a surrogate and a separate async-finished message, send both in one go.
+                // Older peers get the surrogate below, followed by the async-finished message.
+                MsgInvokeReturnCompleted returnMsg = new MsgInvokeReturnCompleted();
+                returnMsg.setSequence(msg.getSequence());
+                try {
+                    returnMsg.setReturnValue(((CompletableFuture<?>) result).join());
+                } catch (CompletionException e) {
+                    returnMsg.setThrown(e.getCause());
+                } catch (CancellationException e) {
+                    returnMsg.setThrown(e);
+                }
+
+                logger.debug("Sending result={}", returnMsg);
+
+                session.write(returnMsg);
+                logger.debug("end");
+                return;
+            }
+            else if(!oneWay && plan.mayReturnFuture() && result instanceof CompletableFuture){
                 int outstandingId = dispatcher.generateSequenceId();
 
                 ((CompletableFuture<?>) result).whenComplete((value, exception) -> {
@@ -555,7 +567,7 @@ public class ProcessMessageRunnable implements Runnable {
             }
 
             // register "SimonCallback"-results in lookup-table
-            if (Utils.isValidRemote(result)) {
+            if (plan.resultMayBeRemote() && Utils.isValidRemote(result)) {
 
                 logger.debug("Result of method '{}' is SimonRemote: {}", method, result);
 
@@ -587,6 +599,15 @@ public class ProcessMessageRunnable implements Runnable {
 //            result = new SimonRemoteException("Result of method '" + method + "' must be serializable and therefore implement 'java.io.Serializable' or 'de.root1.simon.SimonRemote'");
 //        }
 
+        if (oneWay) {
+            // the caller does not wait for anything
+            if (result instanceof Throwable) {
+                logger.warn("One-way invocation of '" + remoteObjectName + "#" + method + "' failed", (Throwable) result);
+            }
+            logger.debug("end. one-way, nothing to return");
+            return;
+        }
+
         MsgInvokeReturn returnMsg = new MsgInvokeReturn();
         returnMsg.setSequence(msg.getSequence());
 
@@ -598,21 +619,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    /**
-     * This method is triggered on caller end to retrieve the invocation result,
-     * pass it to the result map and wake the caller thread
-     */
-    private void processInvokeReturn() {
-        logger.debug("begin");
-
-        logger.debug("processing MsgInvokeReturn...");
-        MsgInvokeReturn msg = (MsgInvokeReturn) abstractMessage;
-        logger.debug("put result to queue={}", msg);
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("end");
-    }
-
     private void processToString() {
         logger.debug("begin");
 
@@ -635,17 +641,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    private void processToStringReturn() {
-        logger.debug("begin");
-        logger.debug("processing MsgToStringReturn...");
-        MsgToStringReturn msg = (MsgToStringReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("put result to queue={}", msg);
-
-        logger.debug("end");
-    }
-
     private void processEquals() {
         logger.debug("begin");
 
@@ -685,17 +680,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    private void processEqualsReturn() {
-        logger.debug("begin");
-        logger.debug("processing MsgEqualsReturn...");
-        MsgEqualsReturn msg = (MsgEqualsReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("put result to queue={}", msg);
-
-        logger.debug("end");
-    }
-
     private void processHashCode() {
         logger.debug("begin");
 
@@ -719,17 +703,6 @@ public class ProcessMessageRunnable implements Runnable {
         logger.debug("end");
     }
 
-    private void processHashCodeReturn() {
-        logger.debug("begin");
-        logger.debug("processing MsgHashCodeReturn...");
-        MsgHashCodeReturn msg = (MsgHashCodeReturn) abstractMessage;
-        dispatcher.putResultToQueue(session, msg.getSequence(), msg);
-
-        logger.debug("put result to queue={}", msg);
-
-        logger.debug("end");
-    }
-
     private void processError() {
         logger.debug("begin");
 
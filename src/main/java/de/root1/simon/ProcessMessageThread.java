@@ -22,7 +22,10 @@ package de.root1.simon;
  * Enhances a thread with an session id
  * @author achristian
  * @since 1.2.0
+ * @deprecated the session id is no longer stored on the worker thread. Use
+ * {@link Simon#getSessionId()} or {@link InvocationContext#current()} instead.
  */
+@Deprecated
 public class ProcessMessageThread extends Thread {
     
     private long sessionId = 0;
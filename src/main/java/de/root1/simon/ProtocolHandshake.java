@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import de.root1.simon.codec.messages.MsgHello;
+import de.root1.simon.codec.messages.MsgPing;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+import de.root1.simon.utils.Utils;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Negotiates protocol version and features of a session, without breaking
+ * version 1 peers, which know nothing about a handshake:
+ * <ol>
+ * <li>the connecting side sends a {@link MsgPing} carrying its protocol
+ * version. A version 1 peer ignores the version and answers with a plain
+ * pong, which ends the handshake, the session stays at version 1.</li>
+ * <li>a newer peer answers with a {@link MsgHello} announcing its
+ * features</li>
+ * <li>the connecting side replies with its own hello</li>
+ * </ol>
+ * Each side uses a feature as soon as it knows that both sides announced it.
+ * Until then, and for the whole session with a version 1 peer, everything is
+ * sent as in version 1. Decoders accept both framings at any time, so the
+ * sides don't have to switch at the same moment.
+ *
+ * @author achristian
+ */
+final class ProtocolHandshake {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProtocolHandshake.class);
+
+    /** marks a session whose handshake has been started by this side */
+    private static final String SESSION_ATTRIBUTE_PENDING = ProtocolHandshake.class.getName() + ".pending";
+
+    private ProtocolHandshake() {
+    }
+
+    /**
+     * @return the features this side announces
+     */
+    static int getLocalFeatures() {
+        int features = SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_FRAGMENTS | SimonMessageConstants.FEATURE_CLASS_DICTIONARY
+                | SimonMessageConstants.FEATURE_INVOKE_RETURN_COMPLETED | SimonMessageConstants.FEATURE_BINARY_SERIALIZERS
+                | SimonMessageConstants.FEATURE_VALUE_CODES;
+        if (Statics.DEFAULT_INVOKE_HANDLES) {
+            features |= SimonMessageConstants.FEATURE_INVOKE_HANDLES;
+        }
+        return features;
+    }
+
+    /**
+     * @param session the session
+     * @param feature a <code>FEATURE_*</code> bit of
+     * {@link SimonMessageConstants}
+     * @return true if both sides of the session announced the feature
+     */
+    static boolean isEnabled(IoSession session, int feature) {
+        Integer features = (Integer) session.getAttribute(Statics.SESSION_ATTRIBUTE_FEATURES);
+        return features != null && (features & feature) != 0;
+    }
+
+    /**
+     * Starts the handshake on a freshly connected session.
+     *
+     * @param session the session
+     * @param sequenceId the sequence for the ping
+     */
+    static void start(IoSession session, int sequenceId) {
+        logger.debug("starting handshake on session {}", Utils.longToHexString(session.getId()));
+        session.setAttribute(SESSION_ATTRIBUTE_PENDING, Boolean.TRUE);
+
+        MsgPing msgPing = new MsgPing();
+        msgPing.setSequence(sequenceId);
+        msgPing.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+        session.write(msgPing);
+    }
+
+    /**
+     * Answers a ping that carries a protocol version with a hello.
+     *
+     * @param session the session
+     * @param msgPing the ping
+     */
+    static void pingReceived(IoSession session, MsgPing msgPing) {
+        logger.debug("peer on session {} speaks protocol version {}", Utils.longToHexString(session.getId()), msgPing.getProtocolVersion());
+        session.write(createHello(msgPing.getSequence()));
+    }
+
+    /**
+     * Ends a pending handshake if the peer answered with a plain pong.
+     *
+     * @param session the session
+     * @return true if the pong answered the handshake and must not be passed
+     * to the ping watchdog
+     */
+    static boolean pongReceived(IoSession session) {
+        if (session.removeAttribute(SESSION_ATTRIBUTE_PENDING) != null) {
+            logger.debug("peer on session {} speaks protocol version 1", Utils.longToHexString(session.getId()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replies with the own hello if this side started the handshake, and
+     * enables the features both sides announced.
+     * <p>
+     * The hello is written first, so it is encoded as in version 1 and
+     * nothing encoded with a feature gets ahead of it. The peer may still
+     * receive such messages before it has processed the hello, its decoder
+     * handles them without knowing the features.
+     *
+     * @param session the session
+     * @param msgHello the hello of the peer
+     */
+    static void helloReceived(IoSession session, MsgHello msgHello) {
+        if (session.removeAttribute(SESSION_ATTRIBUTE_PENDING) != null) {
+            session.write(createHello(msgHello.getSequence()));
+        }
+
+        int features = getLocalFeatures() & msgHello.getFeatures();
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+        logger.debug("negotiated protocol version {} with features 0x{} on session {}", new Object[]{Math.min(SimonMessageConstants.PROTOCOL_VERSION, msgHello.getProtocolVersion()), Integer.toHexString(features), Utils.longToHexString(session.getId())});
+    }
+
+    private static MsgHello createHello(int sequenceId) {
+        MsgHello msgHello = new MsgHello();
+        msgHello.setSequence(sequenceId);
+        msgHello.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+        msgHello.setFeatures(getLocalFeatures());
+        return msgHello;
+    }
+}
@@ -31,6 +31,10 @@ public interface RawChannelDataListener {
     /**
      * Called by SIMON when data is received through a RawChannel.
      * Implementation is responsible for processing/storing/... received data.
+     * <p>
+     * The data may be a read-only slice of SIMON's receive buffer, which is
+     * reused once this method returns. Implementations that need the data
+     * later on have to copy it.
      * 
      * @param data ByteBuffer with received data
      * @throws RawChannelException if an error occurs while writing data
@@ -18,6 +18,10 @@
  */
 package de.root1.simon;
 
+import de.root1.simon.codec.BufferReleaseFilter;
+import de.root1.simon.codec.SimonProtocolCodecFilter;
+import de.root1.simon.codec.WriteCoalescingFilter;
+import de.root1.simon.codec.base.InboundBudget;
 import de.root1.simon.codec.base.SerializerSet;
 import de.root1.simon.codec.base.SimonProtocolCodecFactory;
 import de.root1.simon.exceptions.LookupFailedException;
@@ -29,11 +33,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import javax.net.ssl.SSLContext;
 import org.apache.mina.core.service.IoAcceptor;
 import org.apache.mina.core.session.IdleStatus;
-import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.logging.LoggingFilter;
 import org.apache.mina.filter.ssl.SslFilter;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
@@ -80,7 +84,10 @@ public final class Registry {
     private IoAcceptor acceptor;
     
     /** The pool in which the dispatcher, acceptor and registry lives */
-    private ExecutorService threadPool;
+    private Executor threadPool;
+    
+    /** true, if the pool was provided by the application via {@link #setExecutor(Executor)} */
+    private boolean customThreadPool;
     
     /**
      * A thread pool for the filterchain => more performance
@@ -96,6 +103,18 @@ public final class Registry {
     // See: http://dev.root1.de/issues/127
     private ClassLoader classLoader = getClass().getClassLoader();
     
+    /**
+     * in-flight limits, applied to the dispatcher on start
+     */
+    private int maxInFlight = 0;
+    private int maxInFlightPerSession = 0;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.SUSPEND_READ;
+
+    /**
+     * limits for incompletely received messages, enforced by the decoder
+     */
+    private final InboundBudget inboundBudget = new InboundBudget();
+    
     /**
      * started flag
      * @since 1.2.0
@@ -117,7 +136,7 @@ public final class Registry {
      * @param protocolFactoryClassName the full classname of the class that describes to network protocol
      * @throws IOException if there are problems with creating the mina socketserver
      */
-    protected Registry(InetAddress address, int port, ExecutorService threadPool, String protocolFactoryClassName) throws IOException {
+    protected Registry(InetAddress address, int port, Executor threadPool, String protocolFactoryClassName) throws IOException {
         this(address, port, threadPool, protocolFactoryClassName, null, SerializerSet.Default);
     }
 
@@ -131,7 +150,7 @@ public final class Registry {
      * @param sslContextFactory the factory which is used to get the server ssl context
      * @throws IOException if there are problems with creating the mina socketserver
      */
-    protected Registry(InetAddress address, int port, ExecutorService threadPool, String protocolFactoryClassName, SslContextFactory sslContextFactory, SerializerSet serializers) throws IOException {
+    protected Registry(InetAddress address, int port, Executor threadPool, String protocolFactoryClassName, SslContextFactory sslContextFactory, SerializerSet serializers) throws IOException {
         logger.debug("begin");
         this.address = address;
         this.port = port;
@@ -164,7 +183,8 @@ public final class Registry {
             started = true;
             logger.debug("begin");
 
-            dispatcher = new Dispatcher(null, classLoader, threadPool);
+            dispatcher = new Dispatcher(null, classLoader, threadPool, !customThreadPool);
+            applyAdmissionLimits();
             logger.debug("dispatcher created");
 
             acceptor = new NioSocketAcceptor();
@@ -237,8 +257,15 @@ public final class Registry {
                 throw new IllegalArgumentException(e);
             }
 
+            protocolFactory.setInboundBudget(inboundBudget);
             protocolFactory.setup(serializers, true);
-            acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(protocolFactory));
+            if (Statics.DEFAULT_WRITE_COALESCING_WINDOW > 0) {
+                acceptor.getFilterChain().addLast(WriteCoalescingFilter.FILTER_NAME, new WriteCoalescingFilter(Statics.DEFAULT_WRITE_COALESCING_WINDOW, Statics.DEFAULT_WRITE_COALESCING_BYTES));
+            }
+            if (Statics.DEFAULT_BUFFER_POOLING) {
+                acceptor.getFilterChain().addLast(BufferReleaseFilter.FILTER_NAME, new BufferReleaseFilter());
+            }
+            acceptor.getFilterChain().addLast("codec", new SimonProtocolCodecFilter(protocolFactory));
 
 
             acceptor.setHandler(dispatcher);
@@ -499,6 +526,178 @@ public final class Registry {
         this.classLoader = classLoader;
     }
 
+    /**
+     * The executor the remote calls received by this registry are processed on.
+     * @return Executor
+     */
+    public Executor getExecutor(){
+        return threadPool;
+    }
+
+    /**
+     * Sets the executor the remote calls received by this registry are
+     * processed on. Any executor can be used, f.i. a virtual thread per task
+     * executor for remote objects that block a lot. The executor is owned by
+     * the application and is not shut down when the registry stops.
+     * @param executor the executor to use
+     * @throws IllegalStateException if the registry is already started
+     */
+    public void setExecutor(Executor executor){
+        if (started) {
+            throw new IllegalStateException("Executor cannot be changed after the registry has been started.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (!customThreadPool && threadPool instanceof ExecutorService) {
+            // the default pool has not been used yet
+            ((ExecutorService) threadPool).shutdown();
+        }
+        this.threadPool = executor;
+        this.customThreadPool = true;
+    }
+
+    /**
+     * Returns the max. number of invocations that may be in progress on this
+     * registry at the same time.
+     * @return the limit, 0 if unlimited
+     * @since 1.3.1
+     */
+    public int getMaxInFlight(){
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the max. number of invocations that may be in progress on this
+     * registry at the same time. This includes invocations that are received
+     * but still wait for a worker thread. When the limit is reached, the
+     * {@link #setOverloadPolicy(OverloadPolicy) overload policy} applies.
+     * @param maxInFlight the limit, 0 for unlimited (default)
+     * @since 1.3.1
+     */
+    public void setMaxInFlight(int maxInFlight){
+        this.maxInFlight = Math.max(0, maxInFlight);
+        applyAdmissionLimits();
+    }
+
+    /**
+     * Returns the max. number of invocations that may be in progress for a
+     * single client session at the same time.
+     * @return the limit, 0 if unlimited
+     * @since 1.3.1
+     */
+    public int getMaxInFlightPerSession(){
+        return maxInFlightPerSession;
+    }
+
+    /**
+     * Sets the max. number of invocations that may be in progress for a
+     * single client session at the same time. When the limit is reached, the
+     * {@link #setOverloadPolicy(OverloadPolicy) overload policy} applies.
+     * @param maxInFlightPerSession the limit, 0 for unlimited (default)
+     * @since 1.3.1
+     */
+    public void setMaxInFlightPerSession(int maxInFlightPerSession){
+        this.maxInFlightPerSession = Math.max(0, maxInFlightPerSession);
+        applyAdmissionLimits();
+    }
+
+    /**
+     * Returns the max. body size of a message this registry accepts.
+     * @return the limit in bytes, 0 if unlimited
+     * @since 1.3.1
+     */
+    public int getMaxFrameSize(){
+        return inboundBudget.getMaxFrameSize();
+    }
+
+    /**
+     * Sets the max. body size of a message this registry accepts. A message
+     * with a larger body, in one frame or in fragments, is rejected as soon as
+     * its header has been read, without buffering it. The rejection closes
+     * the session.
+     * @param maxFrameSize the limit in bytes, 0 for unlimited (default)
+     * @since 1.3.1
+     */
+    public void setMaxFrameSize(int maxFrameSize){
+        inboundBudget.setMaxFrameSize(maxFrameSize);
+    }
+
+    /**
+     * Returns the max. number of bytes of incompletely received messages a
+     * single client session may hold.
+     * @return the limit in bytes, 0 if unlimited
+     * @since 1.3.1
+     */
+    public long getMaxInboundBytesPerSession(){
+        return inboundBudget.getMaxBytesPerSession();
+    }
+
+    /**
+     * Sets the max. number of bytes of incompletely received messages a
+     * single client session may hold. A message that can never fit is
+     * rejected, which closes the session. Fragmented messages that don't fit
+     * are collected in a temporary file.
+     * @param maxBytes the limit in bytes, 0 for unlimited (default)
+     * @since 1.3.1
+     */
+    public void setMaxInboundBytesPerSession(long maxBytes){
+        inboundBudget.setMaxBytesPerSession(maxBytes);
+    }
+
+    /**
+     * Returns the max. number of bytes of incompletely received messages all
+     * client sessions together may hold.
+     * @return the limit in bytes, 0 if unlimited
+     * @since 1.3.1
+     */
+    public long getMaxInboundBytes(){
+        return inboundBudget.getMaxBytes();
+    }
+
+    /**
+     * Sets the max. number of bytes of incompletely received messages all
+     * client sessions together may hold. When a message doesn't fit, the
+     * {@link #setOverloadPolicy(OverloadPolicy) overload policy} applies.
+     * @param maxBytes the limit in bytes, 0 for unlimited (default)
+     * @since 1.3.1
+     */
+    public void setMaxInboundBytes(long maxBytes){
+        inboundBudget.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @return the policy that applies when an in-flight limit is reached
+     * @since 1.3.1
+     */
+    public OverloadPolicy getOverloadPolicy(){
+        return overloadPolicy;
+    }
+
+    /**
+     * Sets the policy that applies when an in-flight limit or the inbound
+     * byte limit is reached. Default is {@link OverloadPolicy#SUSPEND_READ}.
+     * @param overloadPolicy the policy
+     * @since 1.3.1
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy){
+        if (overloadPolicy == null) {
+            throw new IllegalArgumentException("overloadPolicy must not be null");
+        }
+        this.overloadPolicy = overloadPolicy;
+        inboundBudget.setOverloadPolicy(overloadPolicy);
+        applyAdmissionLimits();
+    }
+
+    private void applyAdmissionLimits(){
+        if (dispatcher != null) {
+            AdmissionControl admissionControl = dispatcher.getAdmissionControl();
+            admissionControl.setMaxInFlight(maxInFlight);
+            admissionControl.setMaxInFlightPerSession(maxInFlightPerSession);
+            admissionControl.setOverloadPolicy(overloadPolicy);
+        }
+    }
+
     public SerializerSet getSerializers(){
         return serializers;
     }
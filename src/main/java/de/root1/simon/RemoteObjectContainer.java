@@ -18,6 +18,7 @@
  */
 package de.root1.simon;
 
+import de.root1.simon.annotation.SimonRemote;
 import java.util.Arrays;
 
 /**
@@ -34,11 +35,21 @@ public class RemoteObjectContainer {
     private Object remoteObject;
     private String remoteObjectName;
     private Class<?>[] remoteObjectInterfaces;
+    private volatile boolean concurrent;
 
     public RemoteObjectContainer(Object remoteObject, String remoteObjectName, Class<?>[] remoteObjectInterfaces) {
         this.remoteObject = remoteObject;
         this.remoteObjectName = remoteObjectName;
         this.remoteObjectInterfaces = remoteObjectInterfaces;
+        this.concurrent = isConcurrent(remoteObject);
+    }
+
+    private static boolean isConcurrent(Object remoteObject) {
+        if (remoteObject == null) {
+            return false;
+        }
+        SimonRemote annotation = remoteObject.getClass().getAnnotation(SimonRemote.class);
+        return annotation != null && annotation.concurrent();
     }
 
     /**
@@ -53,6 +64,16 @@ public class RemoteObjectContainer {
      */
     public void setRemoteObject(Object remoteObject) {
         this.remoteObject = remoteObject;
+        this.concurrent = isConcurrent(remoteObject);
+    }
+
+    /**
+     * @return true, if invocations on the remote object may be processed
+     * concurrently
+     * @see SimonRemote#concurrent()
+     */
+    public boolean isConcurrent() {
+        return concurrent;
     }
 
     /**
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import de.root1.simon.utils.Utils;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the incoming requests of a session one after another in the order they
+ * were received, while all sessions share the same underlying thread pool.
+ * <p>
+ * Each session gets its own serial lane. A lane occupies at most one pool
+ * thread at a time and hands its thread back to the pool after
+ * {@link #LANE_BATCH_SIZE} tasks, so a busy session cannot starve the others.
+ * At most <code>maxActiveLanes</code> lanes run at the same time, further
+ * lanes wait for a free slot in the order they became ready. This bounds the
+ * number of pool threads used for the lanes, even on an unbounded pool.
+ * <p>
+ * A task that blocks on a remote result (f.i. a callback to the calling
+ * client) has to release its lane via {@link #releaseCurrentLane()}, otherwise
+ * a request the peer sends while serving that call would wait behind the
+ * blocked task forever. A released lane frees its slot.
+ * <p>
+ * Tasks that can't be run because the pool rejects their lane are handed to
+ * the {@link RejectionHandler}.
+ *
+ * @author achristian
+ */
+class SessionLaneExecutor {
+
+    /**
+     * max. number of tasks a lane runs before it re-queues itself on the pool
+     */
+    protected static final int LANE_BATCH_SIZE = 16;
+
+    private static final ThreadLocal<Lane> CURRENT_LANE = new ThreadLocal<Lane>();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Executor executor;
+    private final int maxActiveLanes;
+    private final RejectionHandler rejectionHandler;
+    /**
+     * number of lanes currently handed to the pool
+     */
+    private final AtomicInteger activeLanes = new AtomicInteger(0);
+    /**
+     * lanes that have tasks, but wait for a free slot
+     */
+    private final Queue<Lane> readyLanes = new ConcurrentLinkedQueue<Lane>();
+
+    /**
+     * Receives the tasks the pool did not accept
+     */
+    interface RejectionHandler {
+
+        /**
+         * Called for each task that is dropped because the pool rejected it
+         * or its lane
+         *
+         * @param session the session the task belongs to
+         * @param task the dropped task
+         * @param cause the rejection
+         */
+        void rejected(IoSession session, Runnable task, RejectedExecutionException cause);
+    }
+
+    /**
+     * Creates a lane executor on top of the given pool
+     *
+     * @param executor the pool the lanes are run on
+     * @param maxActiveLanes max. number of lanes running at the same time
+     * @param rejectionHandler receives the tasks the pool did not accept
+     */
+    SessionLaneExecutor(Executor executor, int maxActiveLanes, RejectionHandler rejectionHandler) {
+        if (maxActiveLanes < 1) {
+            throw new IllegalArgumentException("maxActiveLanes must be >= 1");
+        }
+        this.executor = executor;
+        this.maxActiveLanes = maxActiveLanes;
+        this.rejectionHandler = rejectionHandler;
+    }
+
+    /**
+     * Queues the task on the lane of the given session. The task runs after
+     * all tasks queued on this session before.
+     *
+     * @param session the session the task belongs to
+     * @param task the task to run
+     */
+    void execute(IoSession session, Runnable task) {
+        getLane(session).add(task);
+    }
+
+    /**
+     * Runs the task directly on the pool, without any ordering.
+     *
+     * @param session the session the task belongs to
+     * @param task the task to run
+     */
+    void executeUnordered(IoSession session, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectionHandler.rejected(session, task, e);
+        }
+    }
+
+    /**
+     * Releases the lane the calling thread currently runs, so that the lane
+     * continues with its next task on another pool thread. The current task
+     * keeps on running, but is no longer ordered with regard to the following
+     * tasks. Does nothing if the calling thread is not running a lane.
+     */
+    static void releaseCurrentLane() {
+        Lane lane = CURRENT_LANE.get();
+        if (lane != null) {
+            lane.release();
+        }
+    }
+
+    /**
+     * @return the number of lanes currently running or handed to the pool
+     */
+    int getActiveLanes() {
+        return activeLanes.get();
+    }
+
+    private Lane getLane(IoSession session) {
+        Lane lane = (Lane) session.getAttribute(Statics.SESSION_ATTRIBUTE_LANE);
+        if (lane == null) {
+            lane = new Lane(session);
+            Lane present = (Lane) session.setAttributeIfAbsent(Statics.SESSION_ATTRIBUTE_LANE, lane);
+            if (present != null) {
+                lane = present;
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * Hands ready lanes to the pool as long as there are free slots. Called
+     * whenever a lane becomes ready or a slot is freed, so no ready lane is
+     * left behind.
+     */
+    private void startReadyLanes() {
+        while (!readyLanes.isEmpty()) {
+            int active = activeLanes.get();
+            if (active >= maxActiveLanes) {
+                return;
+            }
+            if (!activeLanes.compareAndSet(active, active + 1)) {
+                continue;
+            }
+            Lane lane = readyLanes.poll();
+            if (lane == null) {
+                activeLanes.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(lane);
+            } catch (RejectedExecutionException e) {
+                activeLanes.decrementAndGet();
+                lane.reject(e);
+            }
+        }
+    }
+
+    /**
+     * The serial lane of one session
+     */
+    private final class Lane implements Runnable {
+
+        private final IoSession session;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        /**
+         * set while the lane is ready or running
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        /**
+         * the thread that currently runs this lane, reset on release
+         */
+        private volatile Thread owner;
+
+        private Lane(IoSession session) {
+            this.session = session;
+        }
+
+        private void add(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                readyLanes.add(this);
+                startReadyLanes();
+            }
+        }
+
+        /**
+         * Gives up the slot of the lane and schedules it again if tasks are
+         * left.
+         */
+        private void giveUpSlot() {
+            owner = null;
+            CURRENT_LANE.remove();
+            scheduled.set(false);
+            activeLanes.decrementAndGet();
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+            startReadyLanes();
+        }
+
+        private void release() {
+            if (owner != Thread.currentThread()) {
+                return;
+            }
+            logger.trace("releasing lane of session {}", Utils.longToHexString(session.getId()));
+            giveUpSlot();
+        }
+
+        /**
+         * Drops the queued tasks, because the pool did not accept the lane
+         */
+        private void reject(RejectedExecutionException cause) {
+            logger.debug("pool rejected lane of session {}, dropping {} queued tasks", Utils.longToHexString(session.getId()), tasks.size());
+            scheduled.set(false);
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                rejectionHandler.rejected(session, task, cause);
+            }
+        }
+
+        @Override
+        public void run() {
+            Thread currentThread = Thread.currentThread();
+            owner = currentThread;
+            CURRENT_LANE.set(this);
+            for (int i = 0; i < LANE_BATCH_SIZE; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.error("task on lane of session {} failed", Utils.longToHexString(session.getId()), t);
+                }
+                if (owner != currentThread) {
+                    // lane was released during the task and runs elsewhere by now
+                    return;
+                }
+            }
+            giveUpSlot();
+        }
+    }
+}
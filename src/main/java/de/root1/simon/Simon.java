@@ -18,6 +18,8 @@
  */
 package de.root1.simon;
 
+import de.root1.simon.codec.PooledBufferAllocator;
+import de.root1.simon.codec.base.MessageFragments;
 import de.root1.simon.codec.base.SerializerSet;
 import de.root1.simon.codec.base.SimonProtocolCodecFactory;
 import de.root1.simon.exceptions.*;
@@ -34,9 +36,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
@@ -64,11 +64,6 @@ public class Simon {
      */
     public final static int DEFAULT_PORT = 4753;
     
-    /**
-     * Map holding custom invoke timeouts for specific remote methods (including callbacks).
-     */
-    private static final Map<Method, Integer> customInvokeTimeoutMap = new HashMap<Method, Integer>();
-
     static {
         String property = System.getProperty("de.root1.simon.debug", "false");
         boolean debugEnabled = Boolean.parseBoolean(property);
@@ -408,7 +403,14 @@ public class Simon {
      * @return the threadPool
      */
     protected static ExecutorService getThreadPool() {
-        if (poolSize == -1) {
+        if (poolSize == 0) {
+            ExecutorService virtualThreadPool = newVirtualThreadPerTaskExecutor();
+            if (virtualThreadPool != null) {
+                return virtualThreadPool;
+            }
+            logger.warn("virtual threads are not supported by this JVM, falling back to a cached thread pool");
+            return Executors.newCachedThreadPool(new NamedThreadPoolFactory(Statics.DISPATCHER_WORKERPOOL_NAME));
+        } else if (poolSize == -1) {
             return Executors.newCachedThreadPool(new NamedThreadPoolFactory(Statics.DISPATCHER_WORKERPOOL_NAME));
         } else if (poolSize == 1) {
             return Executors.newSingleThreadExecutor(new NamedThreadPoolFactory(Statics.DISPATCHER_WORKERPOOL_NAME));
@@ -417,6 +419,26 @@ public class Simon {
         }
     }
 
+    /**
+     * Creates an executor that starts a new virtual thread for each task. Virtual
+     * threads are available since Java 21, the executor is looked up
+     * reflectively so that SIMON still runs on older JVMs.
+     *
+     * @return the executor, or <code>null</code> if the JVM doesn't support
+     * virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (Exception ex) {
+            logger.warn("not able to create virtual thread executor", ex);
+            return null;
+        }
+    }
+
     /**
      * Sets the size of the worker thread pool.<br> This will setting only
      * affect new pool that have to be created in future. If given size has
@@ -426,7 +448,12 @@ public class Simon {
      * pools will typically improve the performance of programs that execute
      * many short-lived asynchronous tasks. See documentation of {@link Executors#newCachedThreadPool()}<br>
      *
-     * If size has value >=1, a new pool has a fixed size by the given value
+     * If size has value >=1, a new pool has a fixed size by the given value<br>
+     *
+     * If size has value 0, a new virtual thread is started for each remote
+     * call, given the JVM supports virtual threads (Java 21+). Otherwise the
+     * pool behaves like with value -1. Use this if the remote objects block a
+     * lot, f.i. on I/O.
      *
      * @param size the size of the used worker thread pool
      */
@@ -434,6 +461,34 @@ public class Simon {
         poolSize = size;
     }
 
+    /**
+     * Sets the max. number of sessions whose requests are processed at the
+     * same time. The requests of a session are processed one after another,
+     * so each such session occupies one thread of the worker pool. Requests of
+     * further sessions wait until a thread is handed back. Requests blocked on
+     * a remote result don't count. This will setting only affect dispatchers
+     * that are created in future.
+     *
+     * @param maxActiveLanes max. number of sessions processed at the same
+     * time, default is 64
+     * @since 1.3.1
+     */
+    public static void setMaxActiveLanes(int maxActiveLanes) {
+        if (maxActiveLanes < 1) {
+            throw new IllegalArgumentException("maxActiveLanes must be >= 1");
+        }
+        Statics.DEFAULT_MAX_ACTIVE_LANES = maxActiveLanes;
+    }
+
+    /**
+     * @return the max. number of sessions whose requests are processed at the
+     * same time
+     * @since 1.3.1
+     */
+    public static int getMaxActiveLanes() {
+        return Statics.DEFAULT_MAX_ACTIVE_LANES;
+    }
+
     /**
      * Sets the DGC's interval time in milliseconds
      *
@@ -473,6 +528,140 @@ public class Simon {
         return Statics.DEFAULT_CONNECT_TIMEOUT;
     }
     
+    /**
+     * Enables write coalescing for all new connections. Messages written to a
+     * connection within <code>windowMicros</code> microseconds are gathered and
+     * written to the socket at once, a batch of at least <code>maxBytes</code>
+     * bytes is written right away. This trades a little latency for far fewer
+     * socket writes and TCP packets when many threads call through the same
+     * connection.
+     *
+     * @param windowMicros max. time in microseconds a message is held back, 0
+     * disables write coalescing (default)
+     * @param maxBytes number of bytes at which a batch is written without
+     * waiting
+     * @since 1.3.1
+     */
+    public static void setWriteCoalescing(int windowMicros, int maxBytes) {
+        if (windowMicros < 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("windowMicros must be >= 0 and maxBytes > 0");
+        }
+        logger.debug("setting write coalescing to {} us / {} bytes.", windowMicros, maxBytes);
+        Statics.DEFAULT_WRITE_COALESCING_WINDOW = windowMicros;
+        Statics.DEFAULT_WRITE_COALESCING_BYTES = maxBytes;
+    }
+
+    /**
+     * @return the write coalescing window in microseconds, 0 if disabled
+     * @since 1.3.1
+     */
+    public static int getWriteCoalescingWindow() {
+        return Statics.DEFAULT_WRITE_COALESCING_WINDOW;
+    }
+
+    /**
+     * @return the number of bytes at which a coalesced batch is written
+     * without waiting
+     * @since 1.3.1
+     */
+    public static int getWriteCoalescingBytes() {
+        return Statics.DEFAULT_WRITE_COALESCING_BYTES;
+    }
+
+    /**
+     * Enables or disables releasing of received network buffers. If enabled,
+     * the next registry or connection that is started frees each received
+     * buffer once it has been decoded, so that a pooling allocator can reuse
+     * it. SIMON doesn't install an allocator, as MINA's allocator is a JVM
+     * wide setting. To pool buffers, the application installs a
+     * {@link PooledBufferAllocator} itself:
+     * <pre>
+     * IoBuffer.setAllocator(new PooledBufferAllocator());
+     * Simon.setBufferPooling(true);
+     * </pre>
+     *
+     * @param enabled true to free received buffers, false to leave them to
+     * the garbage collector (default)
+     * @since 1.3.1
+     */
+    public static void setBufferPooling(boolean enabled) {
+        logger.debug("setting buffer pooling to {}", enabled);
+        Statics.DEFAULT_BUFFER_POOLING = enabled;
+    }
+
+    /**
+     * @return true if received network buffers are freed after decoding
+     * @since 1.3.1
+     */
+    public static boolean isBufferPooling() {
+        return Statics.DEFAULT_BUFFER_POOLING;
+    }
+
+    /**
+     * Enables or disables invoke handles. If enabled, the first invocation
+     * of a method on a remote object binds the remote object name and method
+     * to a small, session scoped handle. Further invocations only transfer
+     * the handle, and the remote resolves the target without looking up the
+     * name and method again. Handles are only used on sessions where the
+     * remote announced them in the protocol handshake, so older peers keep
+     * working. The setting applies to sessions opened afterwards.
+     *
+     * @param enabled true to use invoke handles (default), false to always
+     * transfer remote object name and method hash
+     * @since 1.3.1
+     */
+    public static void setInvokeHandles(boolean enabled) {
+        logger.debug("setting invoke handles to {}", enabled);
+        Statics.DEFAULT_INVOKE_HANDLES = enabled;
+    }
+
+    /**
+     * @return true if invocations refer to their target by handle
+     * @since 1.3.1
+     */
+    public static boolean isInvokeHandles() {
+        return Statics.DEFAULT_INVOKE_HANDLES;
+    }
+
+    /**
+     * Configures how large messages are transferred. A message body larger
+     * than <code>fragmentSize</code> bytes is sent in fragments of that size,
+     * if the remote announced support for it in the protocol handshake. The
+     * receiver collects the fragments on the heap, or in a temporary file if
+     * the body is larger than <code>spillThreshold</code> bytes, and decodes
+     * the message once it is complete. So a huge argument doesn't need a
+     * contiguous receive buffer of its size. The settings are JVM wide and
+     * apply to messages encoded or received afterwards.
+     *
+     * @param fragmentSize body size above which messages are fragmented, and
+     * size of each fragment, at least 1024 bytes (default 1 MB)
+     * @param spillThreshold body size above which received fragments go to a
+     * temporary file (default 32 MB)
+     * @since 1.3.1
+     */
+    public static void setLargeMessages(int fragmentSize, int spillThreshold) {
+        logger.debug("setting fragment size to {} bytes and spill threshold to {} bytes", fragmentSize, spillThreshold);
+        MessageFragments.setFragmentSize(fragmentSize);
+        MessageFragments.setSpillThreshold(spillThreshold);
+    }
+
+    /**
+     * @return the body size above which messages are sent in fragments
+     * @since 1.3.1
+     */
+    public static int getFragmentSize() {
+        return MessageFragments.getFragmentSize();
+    }
+
+    /**
+     * @return the body size above which received fragments are collected in
+     * a temporary file
+     * @since 1.3.1
+     */
+    public static int getSpillThreshold() {
+        return MessageFragments.getSpillThreshold();
+    }
+
     /**
      * Sets the keep alive default interval time in seconds. This value is used
      * as a default value for all new connections.
@@ -880,10 +1069,9 @@ public class Simon {
      * @throws IllegalStateException if called from outside a remote call
      */
     public static long getSessionId() {
-        Thread currentThread = Thread.currentThread();
-        if (currentThread instanceof ProcessMessageThread) {
-            ProcessMessageThread thread = (ProcessMessageThread) currentThread;
-            return thread.getSessionId();
+        InvocationContext context = InvocationContext.current();
+        if (context != null) {
+            return context.getSessionId();
         }
         throw new IllegalStateException("Method must be invoked within a remote-call-implementation!");
     }
@@ -895,11 +1083,8 @@ public class Simon {
      * @param timeout timeout in milliseconds. A value &lt;= 0 resets to default.
      */
     public static void setCustomInvokeTimeout(Method method, int timeout) {
-        if (timeout>0) {
-            customInvokeTimeoutMap.put(method, timeout);
-        } else {
-            customInvokeTimeoutMap.remove(method);
-        }
+        // the timeout is kept in the method's invocation plan, where invocations look it up anyway
+        InvocationPlan.of(method).setCustomInvokeTimeout(timeout > 0 ? timeout : 0);
     }
     
     /**
@@ -909,11 +1094,29 @@ public class Simon {
      * @return value &gt; 0 defines custome timeout in milliseconds, value &lt;=0 defines default timeout
      */
     static int getCustomInvokeTimeout(Method method) {
-        Integer customTimeout = customInvokeTimeoutMap.get(method);
-        if (customTimeout==null || customTimeout.intValue()<=0)
-            return 0;
-        
-        return customTimeout.intValue();
+        return InvocationPlan.of(method).getCustomInvokeTimeout();
+    }
+
+    /**
+     * Sets the precision with which invoke timeouts are detected. All
+     * outstanding requests share one timer that checks for expired requests
+     * once per interval. A smaller value makes timeouts more accurate but wakes
+     * the timer more often. Default is 100ms.
+     *
+     * @param millis precision in milliseconds, must be &gt; 0
+     */
+    public static void setInvokeTimeoutPrecision(int millis) {
+        logger.debug("setting invoke timeout precision to {} ms.", millis);
+        InvokeTimeoutScheduler.getShared().setTickDuration(millis);
+    }
+
+    /**
+     * Gets the precision with which invoke timeouts are detected.
+     *
+     * @return precision in milliseconds
+     */
+    public static int getInvokeTimeoutPrecision() {
+        return InvokeTimeoutScheduler.getShared().getTickDuration();
     }
 
 
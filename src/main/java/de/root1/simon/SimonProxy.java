@@ -18,6 +18,7 @@
  */
 package de.root1.simon;
 
+import de.root1.simon.exceptions.ServerOverloadException;
 import de.root1.simon.exceptions.SimonRemoteException;
 import de.root1.simon.utils.SimonClassLoaderHelper;
 import de.root1.simon.utils.Utils;
@@ -29,6 +30,7 @@ import java.lang.reflect.Proxy;
 import java.net.SocketAddress;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -169,12 +171,32 @@ public class SimonProxy implements InvocationHandler {
          * server gets according to the method name and parameter types the method
          * and invokes the method. the result is communicated back to the client
          */
+        InvocationPlan plan = InvocationPlan.of(method);
+
+        if (plan.isOneWay()) {
+            // fire and forget, there is no result to wait for
+            dispatcher.invokeMethodOneWay(session, remoteObjectName, method, args);
+            logger.debug("end");
+            return null;
+        }
+
+        if (plan.isFutureReturning()) {
+            // don't block the caller, hand out a future that is completed by the result
+            CompletableFuture<Object> future = dispatcher.invokeMethodAsync(session, remoteObjectName, method, args);
+            future.whenComplete((value, thrown) -> {
+                if (thrown instanceof SimonRemoteException && !(thrown instanceof ServerOverloadException)) {
+                    shutdownServerConnection(method);
+                }
+            });
+            return future;
+        }
+
         Object result = dispatcher.invokeMethod(session, remoteObjectName, method, args);
 
         // Check for exceptions ...
         if (result instanceof Throwable) {
             logger.debug("return value: {}", result);
-            if (result instanceof SimonRemoteException) {
+            if (result instanceof SimonRemoteException && !(result instanceof ServerOverloadException)) {
                 shutdownServerConnection(method);
             } else {
                 logger.debug("Forwarding exception to application: {}", ((Throwable) result).getMessage());
@@ -220,6 +242,10 @@ public class SimonProxy implements InvocationHandler {
     }
 
     private void shutdownServerConnection(Method method) {
+        if (dispatcher == null) {
+            // already shut down, f.i. by another failed async invocation
+            return;
+        }
         logger.error("Problematic error while invoking '{}#{}'. Shutting down server connection.", remoteObjectName, method);
         AbstractLookup.releaseDispatcher(dispatcher);
         dispatcher = null;
@@ -36,12 +36,38 @@ public class Statics {
 
     public static final String SESSION_ATTRIBUTE_DISPATCHER = Dispatcher.class.getName();
     public static final String SESSION_ATTRIBUTE_LOOKUPTABLE = LookupTable.class.getName();
+    public static final String SESSION_ATTRIBUTE_PENDINGCALLS = PendingCallTable.class.getName();
+    public static final String SESSION_ATTRIBUTE_LANE = SessionLaneExecutor.class.getName();
+    public static final String SESSION_ATTRIBUTE_INFLIGHT = AdmissionControl.class.getName();
+    public static final String SESSION_ATTRIBUTE_INVOKE_HANDLES = InvokeHandles.class.getName();
+    public static final String SESSION_ATTRIBUTE_FEATURES = ProtocolHandshake.class.getName();
+
+    /**
+     * sequence id of one-way invocations. generated sequence ids are never negative.
+     */
+    protected static final int ONE_WAY_SEQUENCE = -1;
 
     // values in milliseconds
     protected static final int DEFAULT_SOCKET_TIMEOUT = 100;
     protected static final long MONITOR_WAIT_TIMEOUT = 200;
     protected static final int WAIT_FOR_SHUTDOWN_SLEEPTIME = 50;
     protected static int DEFAULT_CONNECT_TIMEOUT = 20000;
+    // 60min: 60min * 60sec * 1000ms = 3600000ms
+    protected static final int DEFAULT_INVOKE_TIMEOUT = 3600000;
+    protected static final int DEFAULT_INVOKE_TIMEOUT_PRECISION = 100;
+
+    // write coalescing: window in microseconds (0 disables), max. batch size in bytes
+    protected static int DEFAULT_WRITE_COALESCING_WINDOW = 0;
+    protected static int DEFAULT_WRITE_COALESCING_BYTES = 64 * 1024;
+
+    // free received buffers after decoding, for an application installed pooling allocator
+    protected static boolean DEFAULT_BUFFER_POOLING = false;
+
+    // max. number of session lanes running on the worker pool at the same time
+    protected static int DEFAULT_MAX_ACTIVE_LANES = 64;
+
+    // refer to remote object name and method by a session scoped handle, if the peer supports it
+    protected static boolean DEFAULT_INVOKE_HANDLES = true;
 
     // values in seconds
     protected static int DEFAULT_IDLE_TIME = 30;
@@ -38,4 +38,14 @@ public @interface SimonRemote {
      */
     public abstract java.lang.Class[] value() default {};
 
+    /**
+     * By default, the invocations a session places on remote objects are
+     * processed one after another, in the order they were sent. When set to
+     * <code>true</code>, invocations on this remote object are processed
+     * concurrently on the worker pool instead and may overtake each other.
+     * The implementation then has to be thread safe.
+     * @return true, if invocations may run concurrently
+     */
+    public abstract boolean concurrent() default false;
+
 }
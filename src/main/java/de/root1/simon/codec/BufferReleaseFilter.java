@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Frees received buffers once the protocol codec has decoded them, so that a
+ * pooling allocator like {@link PooledBufferAllocator} can reuse them.
+ * <p>
+ * Written buffers are not freed: MINA resets and repositions a buffer after
+ * completing its write future and passing it to <code>messageSent</code>.
+ * <p>
+ * The filter has to be placed directly before the protocol codec. The codec
+ * copies any incomplete message it has to keep. If a decoder handed out
+ * slices of a received buffer instead, the codec takes the buffer over with
+ * {@link #keep(IoSession, IoBuffer)} and frees it once the last slice is
+ * released, see {@link ReferenceCountedBuffer}.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class BufferReleaseFilter extends IoFilterAdapter {
+
+    public static final String FILTER_NAME = BufferReleaseFilter.class.getName();
+
+    private static final String SESSION_ATTRIBUTE_KEPT = BufferReleaseFilter.class.getName() + ".kept";
+
+    /**
+     * Tells the filter not to free the buffer that is currently being
+     * received, because the caller takes care of it. Only to be called while
+     * the buffer is decoded.
+     *
+     * @param session the session the buffer was received from
+     * @param buffer the received buffer
+     */
+    public static void keep(IoSession session, IoBuffer buffer) {
+        session.setAttribute(SESSION_ATTRIBUTE_KEPT, buffer);
+    }
+
+    @Override
+    public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+        nextFilter.messageReceived(session, message);
+        if (message instanceof IoBuffer && session.removeAttribute(SESSION_ATTRIBUTE_KEPT) != message) {
+            ((IoBuffer) message).free();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.AbstractIoBuffer;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
+
+/**
+ * An {@link IoBufferAllocator} that recycles heap and direct buffers.
+ * <p>
+ * Buffers are handed out in power of two size classes between
+ * {@value #MIN_POOLED_SIZE} and {@value #MAX_POOLED_SIZE} bytes, heap and
+ * direct buffers are pooled separately. A buffer released by the thread that
+ * allocated it is kept in a small per thread cache. Buffers released by
+ * another thread and buffers that don't fit into the cache go to a bounded
+ * shared pool. Larger buffers are left to the garbage collector.
+ * <p>
+ * A buffer only goes back to the pool if {@link IoBuffer#free()} is called
+ * and no duplicate, slice or read-only view of it has been created. Buffers
+ * that are never freed are simply garbage collected.
+ * <p>
+ * MINA's allocator is a JVM wide setting, and MINA 2.0 also sets it whenever
+ * an allocator creates a buffer. SIMON therefore never installs this
+ * allocator itself. An application that wants pooled buffers installs it
+ * with {@link IoBuffer#setAllocator(IoBufferAllocator)} and enables
+ * {@link de.root1.simon.Simon#setBufferPooling(boolean)}, so that SIMON frees
+ * the received buffers it has decoded. Written buffers are never freed, MINA
+ * still accesses them after their write future has been completed.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class PooledBufferAllocator implements IoBufferAllocator {
+
+    /** smallest pooled buffer size */
+    public static final int MIN_POOLED_SIZE = 128;
+    /** largest pooled buffer size */
+    public static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+    /** buffers per size class kept by a single thread */
+    private static final int THREAD_CACHE_SIZE = 8;
+    /** bytes per size class kept in the shared pool */
+    private static final int SHARED_POOL_BYTES = 4 * 1024 * 1024;
+
+    /** pool index of heap buffers */
+    private static final int HEAP = 0;
+    /** pool index of direct buffers */
+    private static final int DIRECT = 1;
+
+    /** per kind and size class */
+    private final Queue<ByteBuffer>[][] sharedPool;
+    private final AtomicInteger[][] sharedPoolCount;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[][]> threadCache = new ThreadLocal<ArrayDeque<ByteBuffer>[][]>() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected ArrayDeque<ByteBuffer>[][] initialValue() {
+            return new ArrayDeque[2][SIZE_CLASSES];
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong unpooled = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Creates a new allocator
+     */
+    @SuppressWarnings("unchecked")
+    public PooledBufferAllocator() {
+        sharedPool = new Queue[2][SIZE_CLASSES];
+        sharedPoolCount = new AtomicInteger[2][SIZE_CLASSES];
+        for (int kind = HEAP; kind <= DIRECT; kind++) {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                sharedPool[kind][i] = new ConcurrentLinkedQueue<ByteBuffer>();
+                sharedPoolCount[kind][i] = new AtomicInteger();
+            }
+        }
+    }
+
+    @Override
+    public IoBuffer allocate(int capacity, boolean direct) {
+        return new PooledBuffer(allocateNioBuffer(capacity, direct));
+    }
+
+    @Override
+    public ByteBuffer allocateNioBuffer(int capacity, boolean direct) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            unpooled.incrementAndGet();
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        int kind = direct ? DIRECT : HEAP;
+        ByteBuffer buffer = null;
+        ArrayDeque<ByteBuffer> cache = threadCache.get()[kind][sizeClass];
+        if (cache != null) {
+            buffer = cache.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = sharedPool[kind][sizeClass].poll();
+            if (buffer != null) {
+                sharedPoolCount[kind][sizeClass].decrementAndGet();
+            }
+        }
+
+        if (buffer == null) {
+            misses.incrementAndGet();
+            int size = MIN_POOLED_SIZE << sizeClass;
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        } else {
+            hits.incrementAndGet();
+            buffer.clear();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        }
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    @Override
+    public IoBuffer wrap(ByteBuffer nioBuffer) {
+        return new PooledBuffer(nioBuffer, false);
+    }
+
+    /**
+     * Does nothing. MINA 2.0 calls this on the installed allocator each time
+     * a buffer is created (the buffer constructor re-installs its allocator),
+     * so the pool must not be dropped here. Unused buffers are left to the
+     * garbage collector together with the allocator.
+     */
+    @Override
+    public void dispose() {
+    }
+
+    /**
+     * @return number of allocations served from a pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of allocations that needed a new pooled buffer
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of allocations too large to be pooled
+     */
+    public long getUnpooled() {
+        return unpooled.get();
+    }
+
+    /**
+     * @return number of buffers that have been given back to a pool
+     */
+    public long getReleased() {
+        return released.get();
+    }
+
+    /**
+     * @return number of freed buffers that were dropped because the pool was
+     * full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledBufferAllocator[hits=" + hits + " misses=" + misses + " unpooled=" + unpooled + " released=" + released + " discarded=" + discarded + "]";
+    }
+
+    /**
+     * @return the size class index for the given capacity, or -1 if buffers
+     * of this capacity are not pooled
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        if (capacity <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return whether the given buffer has been handed out by this pool
+     */
+    private static boolean isPooled(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        return capacity >= MIN_POOLED_SIZE && capacity <= MAX_POOLED_SIZE
+                && Integer.bitCount(capacity) == 1;
+    }
+
+    /**
+     * Gives a buffer back to the pool
+     *
+     * @param buffer the buffer
+     * @param owner the thread that allocated the buffer
+     */
+    private void release(ByteBuffer buffer, Thread owner) {
+        int sizeClass = sizeClass(buffer.capacity());
+        int kind = buffer.isDirect() ? DIRECT : HEAP;
+
+        if (owner == Thread.currentThread()) {
+            ArrayDeque<ByteBuffer>[] caches = threadCache.get()[kind];
+            ArrayDeque<ByteBuffer> cache = caches[sizeClass];
+            if (cache == null) {
+                cache = new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE);
+                caches[sizeClass] = cache;
+            }
+            if (cache.size() < THREAD_CACHE_SIZE) {
+                cache.addFirst(buffer);
+                released.incrementAndGet();
+                return;
+            }
+        }
+
+        int limit = Math.max(THREAD_CACHE_SIZE, SHARED_POOL_BYTES / buffer.capacity());
+        if (sharedPoolCount[kind][sizeClass].incrementAndGet() <= limit) {
+            sharedPool[kind][sizeClass].offer(buffer);
+            released.incrementAndGet();
+        } else {
+            sharedPoolCount[kind][sizeClass].decrementAndGet();
+            discarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * A buffer which returns its memory to the pool when freed
+     */
+    private class PooledBuffer extends AbstractIoBuffer {
+
+        private ByteBuffer buf;
+        /** whether buf may go back to the pool */
+        private boolean recyclable;
+        /** the thread that allocated buf */
+        private Thread owner = Thread.currentThread();
+        /** set once a view shares buf, which then must not be recycled anymore */
+        private boolean shared;
+
+        private PooledBuffer(ByteBuffer buf) {
+            this(buf, true);
+        }
+
+        private PooledBuffer(ByteBuffer buf, boolean fromPool) {
+            super(PooledBufferAllocator.this, buf.capacity());
+            this.buf = buf;
+            this.recyclable = fromPool && isPooled(buf);
+            buf.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        private PooledBuffer(PooledBuffer parent, ByteBuffer buf) {
+            super(parent);
+            this.buf = buf;
+            this.recyclable = false;
+            parent.shared = true;
+        }
+
+        @Override
+        public ByteBuffer buf() {
+            return buf;
+        }
+
+        @Override
+        protected void buf(ByteBuffer newBuf) {
+            // called with a buffer from allocateNioBuffer() after the content has been copied
+            ByteBuffer oldBuf = buf;
+            boolean oldRecyclable = recyclable && !shared;
+            Thread oldOwner = owner;
+            buf = newBuf;
+            owner = Thread.currentThread();
+            recyclable = isPooled(newBuf);
+            shared = false;
+            if (oldRecyclable && oldBuf != newBuf) {
+                release(oldBuf, oldOwner);
+            }
+        }
+
+        @Override
+        protected IoBuffer duplicate0() {
+            return new PooledBuffer(this, buf.duplicate());
+        }
+
+        @Override
+        protected IoBuffer slice0() {
+            return new PooledBuffer(this, buf.slice());
+        }
+
+        @Override
+        protected IoBuffer asReadOnlyBuffer0() {
+            return new PooledBuffer(this, buf.asReadOnlyBuffer());
+        }
+
+        @Override
+        public byte[] array() {
+            return buf.array();
+        }
+
+        @Override
+        public int arrayOffset() {
+            return buf.arrayOffset();
+        }
+
+        @Override
+        public boolean hasArray() {
+            return buf.hasArray();
+        }
+
+        @Override
+        public void free() {
+            if (recyclable && !shared) {
+                recyclable = false;
+                release(buf, owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * A received {@link IoBuffer} shared by read-only slices that decoders hand
+ * out instead of copying bytes.
+ * <p>
+ * The buffer starts with one reference, held by the decoder. Every slice
+ * retains another one. Once the last reference is released, the buffer is
+ * freed, so a pooling allocator like {@link PooledBufferAllocator} can reuse
+ * it. Slices must not be used after they have been released. A slice that is
+ * never released only keeps the buffer from being recycled, it is garbage
+ * collected like any other buffer.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class ReferenceCountedBuffer {
+
+    private final IoBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Creates a new reference counted buffer with one reference
+     *
+     * @param buffer the buffer which is freed with the last reference
+     */
+    public ReferenceCountedBuffer(IoBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns a read-only view of a region of the buffer and retains a
+     * reference for it, which has to be given back by {@link #release()}
+     *
+     * @param index the absolute index of the first byte
+     * @param length the number of bytes
+     * @return the view, positioned at 0 with its limit at <code>length</code>
+     */
+    public ByteBuffer slice(int index, int length) {
+        retain();
+        // the nio buffer is used directly: a view created via the IoBuffer would keep a pooled buffer from being recycled
+        ByteBuffer view = buffer.buf().duplicate();
+        view.limit(index + length);
+        view.position(index);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Adds a reference
+     *
+     * @throws IllegalStateException if the buffer has already been freed
+     */
+    public void retain() {
+        for (;;) {
+            int count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference. The buffer is freed with the last one.
+     *
+     * @return true, if this was the last reference
+     */
+    public boolean release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            buffer.free();
+            return true;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("buffer released too often");
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a reference besides the initial one is held
+     */
+    public boolean isShared() {
+        return references.get() > 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceCountedBuffer[references=" + references.get() + " buffer=" + buffer + "]";
+    }
+}
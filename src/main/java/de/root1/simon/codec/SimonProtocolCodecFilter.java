@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+
+import de.root1.simon.codec.base.ClassDictionary;
+
+/**
+ * The protocol codec filter of SIMON sessions. A message written to a session
+ * is encoded and its frames are handed on to the next filter under a lock per
+ * session, so the frames of concurrently written messages don't overtake
+ * each other.
+ * <p>
+ * MINA keeps one encoder output per session, and any thread writing to the
+ * session forwards whatever is queued in it. Without the lock, a thread could
+ * forward the frames another thread just encoded, after frames of its own.
+ * The encoders rely on their frames being on their way once they flushed the
+ * output, see {@link ClassDictionary}.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class SimonProtocolCodecFilter extends ProtocolCodecFilter {
+
+    private static final String SESSION_ATTRIBUTE_WRITE_LOCK = SimonProtocolCodecFilter.class.getName() + ".writeLock";
+
+    /**
+     * Creates a new filter
+     *
+     * @param factory the factory of the session's encoders and decoders
+     */
+    public SimonProtocolCodecFilter(ProtocolCodecFactory factory) {
+        super(factory);
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        synchronized (getWriteLock(session)) {
+            super.filterWrite(nextFilter, session, writeRequest);
+        }
+    }
+
+    private static Object getWriteLock(IoSession session) {
+        Object lock = session.getAttribute(SESSION_ATTRIBUTE_WRITE_LOCK);
+        if (lock == null) {
+            lock = new Object();
+            Object existing = session.setAttributeIfAbsent(SESSION_ATTRIBUTE_WRITE_LOCK, lock);
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+}
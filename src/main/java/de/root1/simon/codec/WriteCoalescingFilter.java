@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gathers the encoded messages written to a session within a short time
+ * window into one buffer, so that many small messages end up in one socket
+ * write and in fewer TCP packets.
+ * <p>
+ * The filter has to be placed between the protocol codec and the socket. A
+ * batch is written once the window elapsed since its first message, or
+ * immediately once it holds at least <code>maxBytes</code> bytes. The write
+ * futures of the gathered messages are completed when the batch is written.
+ * <p>
+ * The timer thread is shared by all instances. It's started with the first
+ * session that uses the filter and stopped when the last one is closed.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class WriteCoalescingFilter extends IoFilterAdapter {
+
+    public static final String FILTER_NAME = WriteCoalescingFilter.class.getName();
+
+    private static final String SESSION_ATTRIBUTE_BATCH = WriteCoalescingFilter.class.getName() + ".batch";
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescingFilter.class);
+
+    private static ScheduledExecutorService flushScheduler;
+    private static int flushSchedulerUsers = 0;
+
+    private final long windowNanos;
+    private final int maxBytes;
+
+    /**
+     * Creates a new filter
+     *
+     * @param windowMicros the max. time in microseconds a message is held back
+     * @param maxBytes the number of bytes at which a batch is written without
+     * waiting for the window to elapse
+     */
+    public WriteCoalescingFilter(int windowMicros, int maxBytes) {
+        if (windowMicros <= 0) {
+            throw new IllegalArgumentException("windowMicros must be > 0");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Writes the pending batch of the session right away. Has to be called
+     * before {@link IoSession#closeOnFlush()}, which does not pass the filter
+     * chain.
+     *
+     * @param session the session to flush
+     */
+    public static void flush(IoSession session) {
+        Batch batch = (Batch) session.getAttribute(SESSION_ATTRIBUTE_BATCH);
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getFlushScheduler() {
+        if (flushScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Simon.WriteCoalescingFilter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            flushScheduler = scheduler;
+        }
+        return flushScheduler;
+    }
+
+    private static synchronized void acquireFlushScheduler() {
+        flushSchedulerUsers++;
+    }
+
+    /**
+     * Stops the timer thread once no session uses the filter anymore. Flushes
+     * that are already scheduled still run before the thread ends.
+     */
+    private static synchronized void releaseFlushScheduler() {
+        if (--flushSchedulerUsers == 0 && flushScheduler != null) {
+            logger.debug("no more sessions, shutting down the flush scheduler");
+            flushScheduler.shutdown();
+            flushScheduler = null;
+        }
+    }
+
+    /**
+     * Returns whether the timer thread shared by all instances is running
+     *
+     * @return true, if the flush scheduler is running
+     */
+    static synchronized boolean isFlushSchedulerRunning() {
+        return flushScheduler != null;
+    }
+
+    @Override
+    public void onPostAdd(IoFilterChain parent, String name, NextFilter nextFilter) throws Exception {
+        acquireFlushScheduler();
+    }
+
+    @Override
+    public void onPostRemove(IoFilterChain parent, String name, NextFilter nextFilter) throws Exception {
+        // the chain of a session is cleared when the session is closed
+        releaseFlushScheduler();
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        if (!(writeRequest.getMessage() instanceof IoBuffer)) {
+            // f.i. a file region, keep the order with what's already batched
+            flush(session);
+            nextFilter.filterWrite(session, writeRequest);
+            return;
+        }
+        getBatch(session, nextFilter).add(writeRequest);
+    }
+
+    @Override
+    public void filterClose(NextFilter nextFilter, IoSession session) throws Exception {
+        flush(session);
+        nextFilter.filterClose(session);
+    }
+
+    @Override
+    public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+        session.removeAttribute(SESSION_ATTRIBUTE_BATCH);
+        nextFilter.sessionClosed(session);
+    }
+
+    private Batch getBatch(IoSession session, NextFilter nextFilter) {
+        Batch batch = (Batch) session.getAttribute(SESSION_ATTRIBUTE_BATCH);
+        if (batch == null) {
+            batch = new Batch(session, nextFilter);
+            Batch present = (Batch) session.setAttributeIfAbsent(SESSION_ATTRIBUTE_BATCH, batch);
+            if (present != null) {
+                batch = present;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * The messages of one session that wait for being written
+     */
+    private final class Batch implements Runnable {
+
+        private final IoSession session;
+        private final NextFilter nextFilter;
+        private final List<WriteRequest> requests = new ArrayList<WriteRequest>();
+        private int bytes = 0;
+        private boolean flushScheduled = false;
+
+        private Batch(IoSession session, NextFilter nextFilter) {
+            this.session = session;
+            this.nextFilter = nextFilter;
+        }
+
+        private synchronized void add(WriteRequest writeRequest) {
+            requests.add(writeRequest);
+            bytes += ((IoBuffer) writeRequest.getMessage()).remaining();
+            if (bytes >= maxBytes) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                getFlushScheduler().schedule(this, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+        /**
+         * Writes the batch. Runs while holding the lock, so that batches of
+         * concurrent writers can't overtake each other.
+         */
+        private synchronized void flush() {
+            flushScheduled = false;
+            if (requests.isEmpty()) {
+                return;
+            }
+
+            List<WriteRequest> data = new ArrayList<WriteRequest>(requests.size());
+            List<WriteRequest> markers = new ArrayList<WriteRequest>(requests.size());
+            for (WriteRequest request : requests) {
+                if (((IoBuffer) request.getMessage()).hasRemaining()) {
+                    data.add(request);
+                } else {
+                    // the codec's empty requests that complete the written messages
+                    markers.add(request);
+                }
+            }
+
+            if (data.size() == 1) {
+                nextFilter.filterWrite(session, data.get(0));
+            } else if (data.size() > 1) {
+                IoBuffer buffer = IoBuffer.allocate(bytes);
+                for (WriteRequest request : data) {
+                    IoBuffer message = (IoBuffer) request.getMessage();
+                    buffer.put(message);
+                }
+                buffer.flip();
+                logger.trace("writing {} messages with {} bytes at once to session {}", data.size(), bytes, session.getId());
+                nextFilter.filterWrite(session, new CoalescedWriteRequest(session, buffer, data));
+            }
+            for (WriteRequest marker : markers) {
+                nextFilter.filterWrite(session, marker);
+            }
+
+            requests.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * A buffer gathered from several write requests. Completes their futures
+     * once it's written. Being encoded, MINA doesn't pass it to the
+     * <code>messageSent</code> of the filters.
+     */
+    private static final class CoalescedWriteRequest extends DefaultWriteRequest {
+
+        private CoalescedWriteRequest(IoSession session, IoBuffer buffer, final List<WriteRequest> requests) {
+            super(buffer, new DefaultWriteFuture(session));
+            getFuture().addListener(new IoFutureListener<WriteFuture>() {
+
+                @Override
+                public void operationComplete(WriteFuture future) {
+                    for (WriteRequest request : requests) {
+                        if (future.isWritten()) {
+                            request.getFuture().setWritten();
+                        } else {
+                            request.getFuture().setException(future.getException());
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isEncoded() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.root1.simon.codec.ReferenceCountedBuffer;
+import de.root1.simon.codec.messages.MsgError;
+
+/**
+ * A {@link MessageDecoder} for the frames of one message type. Reads the
+ * header and passes the complete body to
+ * {@link #decodeMessage(IoSession, IoBuffer, int, int, ProtocolDecoderOutput)}.
+ * <p>
+ * Most frames carry exactly one message and are decoded by an
+ * {@link AbstractMessageDecoder}. A frame that only carries a part of a
+ * message, like a fragment, extends this class directly.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+abstract class AbstractFrameDecoder implements MessageDecoder {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** the buffer the current message of this thread is decoded from, if it may be shared */
+    private static final ThreadLocal<ReferenceCountedBuffer> receivedBuffer = new ThreadLocal<ReferenceCountedBuffer>();
+
+    private final byte msgType;
+    private int sequence;
+    private int bodysize;
+
+    private boolean readHeader;
+
+    /**
+     * Creates a new frame decoder
+     * @param msgType specifies a unique ID for the type of message
+     */
+    AbstractFrameDecoder(byte msgType) {
+        this.msgType = msgType;
+    }
+
+    /**
+     * @return the type of message this decoder decodes
+     */
+    byte getMsgType() {
+        return msgType;
+    }
+
+    @Override
+    public MessageDecoderResult decodable(IoSession session, IoBuffer in) {
+
+        // Return NEED_DATA if the whole header is not yet available
+        int[] header = new int[3];
+        if (FrameHeader.peek(in, header) == 0) {
+            logger.trace("Header not received completely. Right now we have {} bytes", in.remaining());
+            return MessageDecoderResult.NEED_DATA;
+        }
+        // Return OK if THIS decoder is correct type to decode the message
+        if (msgType == header[0]) {
+            return MessageDecoderResult.OK;
+        }
+
+        // Return NOT_OK if THIS decoder isn't able to decode THIS message
+        return MessageDecoderResult.NOT_OK;
+    }
+
+    @Override
+    public MessageDecoderResult decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+        // Try to skip header if not read.
+        if (!readHeader) {
+            int[] header = new int[3];
+            in.skip(FrameHeader.peek(in, header)); // Skip the header, decodable() made sure it is complete
+            sequence = header[1];
+            bodysize = header[2];
+            readHeader = true;
+        }
+
+        // check if the complete message body is available
+        if (in.remaining()<bodysize) {
+            logger.trace("Message type [{}] with sequence [{}] needs [{}] bytes. Right now we only have [{}]. Waiting for more ...", new Object[]{msgType, sequence, bodysize, in.remaining()});
+            return MessageDecoderResult.NEED_DATA;
+        }
+
+        int end = in.position() + bodysize;
+        int limit = in.limit();
+        in.limit(end); // the body decoder must not read into the next message
+        MessageDecoderResult result;
+        try {
+            result = decodeMessage(session, in, sequence, bodysize, out);
+        } finally {
+            in.limit(limit);
+        }
+        if (result != MessageDecoderResult.NEED_DATA) {
+            in.position(end); // skip what the body decoder didn't read, e.g. fields of a newer protocol version
+            readHeader = false; // reset readHeader for the next decode
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the completely available body of a frame whose header has
+     * already been read
+     *
+     * @param session the session the message was received from
+     * @param in the buffer, positioned at the begin of the body
+     * @param sequence the sequence from the header
+     * @param bodysize the body size from the header
+     * @param out the output for the decoded message
+     * @return OK if the frame was decoded, NOT_OK if decoding failed and
+     * an error message has been written instead, or NEED_DATA if the body
+     * decoder wants more data
+     */
+    abstract MessageDecoderResult decodeMessage(IoSession session, IoBuffer in, int sequence, int bodysize, ProtocolDecoderOutput out);
+
+    /**
+     * Gathers all available information about a message that could not be
+     * decoded, to inform the remote side about the problem
+     *
+     * @param sequence the sequence of the message
+     * @param bodysize the body size of the message
+     * @param msgType the type of the message
+     * @param t the cause
+     * @return the error message
+     */
+    static MsgError createDecodingError(int sequence, int bodysize, byte msgType, Throwable t) {
+        MsgError m = new MsgError();
+        m.setErrorMessage("Error while decoding message. sequence="+sequence+" bodySize="+bodysize+" type="+(msgType==-1?"{unknown}":msgType));
+        m.setRemoteObjectName(null);
+        m.setThrowable(t);
+        return m;
+    }
+
+    /**
+     * Sets the buffer the following bodies of this thread are decoded from
+     *
+     * @param buffer the buffer, or <code>null</code> if it may not be shared
+     */
+    static void setReceivedBuffer(ReferenceCountedBuffer buffer) {
+        if (buffer == null) {
+            receivedBuffer.remove();
+        } else {
+            receivedBuffer.set(buffer);
+        }
+    }
+
+    /**
+     * @return the buffer the current body of this thread is decoded from, or
+     * <code>null</code> if it may not be shared
+     */
+    static ReferenceCountedBuffer currentReceivedBuffer() {
+        return receivedBuffer.get();
+    }
+}
@@ -26,71 +26,66 @@ import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.root1.simon.codec.ReferenceCountedBuffer;
 import de.root1.simon.codec.messages.AbstractMessage;
 import de.root1.simon.codec.messages.MsgError;
-import de.root1.simon.codec.messages.SimonMessageConstants;
 
 /**
  * A {@link MessageDecoder} that decodes message header and forwards
  * the decoding of body to a subclass.
+ * <p>
+ * Within the SIMON codec the header is read by {@link SimonProtocolDecoder},
+ * which passes complete bodies to {@link #decodeBody(IoSession, IoBuffer)}.
+ * The header of the message being decoded is kept per thread, so one decoder
+ * instance can serve all sessions. It also provides the received buffer a body
+ * is decoded from, so payload bytes can be handed on as slices instead of
+ * copies, see {@link #getReceivedBuffer()}.
  *
  * @author achr
  */
-public abstract class AbstractMessageDecoder implements MessageDecoder {
+public abstract class AbstractMessageDecoder extends AbstractFrameDecoder {
 	
     @SuppressWarnings("unused")
     private final Logger logger = LoggerFactory.getLogger(getClass());
-	
-    private final byte msgType;
-    private int sequence;
-    private int bodysize;
 
-    private boolean readHeader;
+    /** header of the message that is currently decoded by this thread */
+    private static final ThreadLocal<int[]> currentHeader = new ThreadLocal<int[]>() {
+
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
     
     /**
      * Creates a new message decoder
      * @param msgType specifies a unique ID for the type of message
      */
     protected AbstractMessageDecoder(byte msgType) {
-        this.msgType = msgType;
-    }
-
-    @Override
-    public MessageDecoderResult decodable(IoSession session, IoBuffer in) {
-
-        // Return NEED_DATA if the whole header is not yet available
-        if (in.remaining() < SimonMessageConstants.HEADER_LEN) {
-            logger.trace("Header not received completely. Right now we have {} of {} bytes", in.remaining(), SimonMessageConstants.HEADER_LEN);
-            return MessageDecoderResult.NEED_DATA;
-        }
-        // Return OK if THIS decoder is correct type to decode the message
-        int type = in.get();
-        if (msgType == type) {
-            return MessageDecoderResult.OK;
-        }
-
-        // Return NOT_OK if THIS decoder isn't able to decode THIS message
-        return MessageDecoderResult.NOT_OK;
+        super(msgType);
     }
 
+    /**
+     * Decodes the completely available body of a message whose header has
+     * already been read
+     * 
+     * @param session the session the message was received from
+     * @param in the buffer, positioned at the begin of the body
+     * @param sequence the sequence from the header
+     * @param bodysize the body size from the header
+     * @param out the output for the decoded message
+     * @return OK if the message was decoded, NOT_OK if decoding failed and 
+     * an error message has been written instead, or NEED_DATA if the body
+     * decoder wants more data
+     */
     @Override
-    public MessageDecoderResult decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
-        // Try to skip header if not read.
-        if (!readHeader) {
-            in.get(); // Skip 'msgType'.
-            sequence = in.getInt(); // Get 'sequence'.
-            bodysize = in.getInt(); // Get the body's size
-            readHeader = true;
-        }
-
-        // check if the complete message body is available
-        if (in.remaining()<bodysize) {
-            logger.trace("Message type [{}] with sequence [{}] needs [{}] bytes. Right now we only have [{}]. Waiting for more ...", new Object[]{msgType, sequence, bodysize, in.remaining()});
-            return MessageDecoderResult.NEED_DATA;
-        } else {
-            logger.trace("Message type [{}] with sequence [{}] with [{}] bytes body size is available. Now decoding ...", new Object[]{msgType, sequence, bodysize});
-        }
+    MessageDecoderResult decodeMessage(IoSession session, IoBuffer in, int sequence, int bodysize, ProtocolDecoderOutput out) {
+        logger.trace("Message type [{}] with sequence [{}] with [{}] bytes body size is available. Now decoding ...", new Object[]{getMsgType(), sequence, bodysize});
 
+        int[] header = currentHeader.get();
+        header[0] = sequence;
+        header[1] = bodysize;
+        
         // catch all errors/exceptions/problems which are not handled by decodeBody
         try {
             // Try to decode body
@@ -98,8 +93,6 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
             // Return NEED_DATA if the body is not fully read.
             if (m == null) {
                 return MessageDecoderResult.NEED_DATA;
-            } else {
-                readHeader = false; // reset readHeader for the next decode
             }
             m.setSequence(sequence);
             logger.trace("finished decoding complete message: {}. Forwarding to next layer ...",m);
@@ -107,11 +100,7 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
             return MessageDecoderResult.OK;
         } catch (Throwable t) {
             logger.trace("Error while decoding message. Forwarding/returning error.", t);
-            // gather all available information an inform the remote side about the problem
-            MsgError m = new MsgError();
-            m.setErrorMessage("Error while decoding message. sequence="+sequence+" bodySize="+bodysize+" type="+(msgType==-1?"{unknown}":msgType));
-            m.setRemoteObjectName(null);
-            m.setThrowable(t);
+            MsgError m = createDecodingError(sequence, bodysize, getMsgType(), t);
 //            try {
 //                session.write(m);
 //            } catch (Throwable tt) {
@@ -132,10 +121,24 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
     protected abstract AbstractMessage decodeBody(IoSession session, IoBuffer in);
     
     protected int getCurrentSequence(){
-    	return sequence;
+    	return currentHeader.get()[0];
     }
 
     protected int getBodySize(){
-        return bodysize;
+        return currentHeader.get()[1];
+    }
+
+    /**
+     * Returns the buffer the current body is decoded from, so that parts of it
+     * can be passed on via {@link ReferenceCountedBuffer#slice(int, int)}
+     * instead of being copied. Each slice holds its own reference and has to
+     * be released once it has been processed.
+     *
+     * @return the buffer, or <code>null</code> if the body has to be copied
+     * because the decoder doesn't own the buffer, f.i. when used by MINA's
+     * demultiplexing decoder
+     */
+    protected ReferenceCountedBuffer getReceivedBuffer() {
+        return currentReceivedBuffer();
     }
 }
@@ -42,6 +42,19 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
     @SuppressWarnings("unused")
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private MsgError msgError = null;
+    
+    /** smallest initial body capacity */
+    private static final int MIN_SIZE_HINT = 16;
+    /** largest initial body capacity, bigger bodies are handled by auto expanding the buffer */
+    private static final int MAX_SIZE_HINT = 64*1024;
+    
+    /**
+     * The body size learned from previously encoded messages of this type. 
+     * Used as initial capacity so that the buffer does not have to grow while 
+     * the body is encoded. Races between sessions only affect the hint, not 
+     * the encoded data.
+     */
+    private volatile int sizeHint = MIN_SIZE_HINT;
 
     @Override
     public final void encode(IoSession session, T message, ProtocolEncoderOutput out) throws Exception {
@@ -56,6 +69,7 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
             if (buf!=null) {
                 buf.clear();
             }
+            ClassDictionary.discard();
 
             // form an error message
             MsgError error = new MsgError();
@@ -71,8 +85,20 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
             msgError = error;
         }
         
-        // send the buffer
-        out.write(buf);
+        // send the buffer, large bodies in fragments that are decoded as one message
+        if (MessageFragments.isFragmented(session, buf.limit() - FrameHeader.MAX_LEN)) {
+            buf.position(FrameHeader.MAX_LEN);
+            MessageFragments.write(session, message.getMsgType(), message.getSequence(), buf, out);
+        } else {
+            out.write(buf);
+        }
+        
+        // classes defined by this message may be referred to by id once it is on its way, see ClassDictionary.
+        // Flushing hands all frames to the next filter, SimonProtocolCodecFilter keeps other writers out meanwhile
+        if (ClassDictionary.hasPending()) {
+            out.flush();
+            ClassDictionary.commit();
+        }
         
         if (msgError!=null) {
             session.closeOnFlush();
@@ -93,7 +119,11 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
     }
     
     /**
-     * put message + message header into a single enclosed buffer
+     * put message + message header into a single enclosed buffer. Room for
+     * the header is reserved up front, the body is encoded directly behind it
+     * and the header is written in front of the body afterwards, when the
+     * body length is known. So no intermediate body buffer has to be copied.
+     * The returned buffer starts at the first header byte.
      * 
      * @param session
      * @param message
@@ -101,26 +131,42 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
      */
     private IoBuffer putMessageToBuffer(IoSession session, T message) {
         
-        // Encode the message body
-        IoBuffer msgBuffer = IoBuffer.allocate(16);
-        msgBuffer.setAutoExpand(true);
-        encodeBody(session, message, msgBuffer);
-
-        IoBuffer buf = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN+msgBuffer.position() /* position = length of message in this case */);
+        IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN+sizeHint);
+        buf.setAutoExpand(true);
         
-        // Encode the header
-        buf.put(message.getMsgType()); // header contains message type
-        buf.putInt(message.getSequence()); // header contains sequence
-        buf.putInt(msgBuffer.position()); // and header contains length of message
-        logger.trace("Sending msg type [{}] with sequence [{}] and bodysize [{}] to next layer ...", new Object[]{message.getMsgType(), message.getSequence(),msgBuffer.position()});
-
-        msgBuffer.flip();
-        buf.put(msgBuffer); // after the header, the message is sent
+        // Encode the message body behind the space reserved for the header
+        buf.position(FrameHeader.MAX_LEN);
+        encodeBody(session, message, buf);
         
-        buf.flip();
+        int end = buf.position();
+        int bodySize = end-FrameHeader.MAX_LEN;
+        int start = FrameHeader.put(buf, FrameHeader.MAX_LEN, message.getMsgType(), message.getSequence(), bodySize, FrameHeader.isCompact(session));
+        logger.trace("Sending msg type [{}] with sequence [{}] and bodysize [{}] to next layer ...", new Object[]{message.getMsgType(), message.getSequence(), bodySize});
+        
+        learnSize(bodySize);
+        
+        buf.limit(end);
+        buf.position(start);
         
         return buf;
     }
+    
+    /**
+     * Adjusts the size hint for the next message of this type: grows
+     * immediately to the largest body seen and slowly decays towards smaller
+     * bodies, so that one oversized message does not pin a large allocation.
+     * 
+     * @param bodySize the size of the body that has just been encoded
+     */
+    private void learnSize(int bodySize) {
+        int hint = sizeHint;
+        int size = Math.min(Math.max(bodySize, MIN_SIZE_HINT), MAX_SIZE_HINT);
+        if (size > hint) {
+            sizeHint = size;
+        } else if (size < hint) {
+            sizeHint = hint - ((hint - size) >> 4);
+        }
+    }
 
     /**
      * Encodes the body of the message.
@@ -135,7 +181,7 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
      * This method is called by an Encoder class in case of an exception:
      * The encoder class gathers all available error information, put them into an 
      * {@link MsgError} message and calls this method.
-     * This method clean the buffer and replaces the content with the error message
+     * This method discards the body written so far and replaces it with the error message
      * 
      * @param out the "out" buffer used by the encoder class to store data to be sent
      * @param session the assiciated session
@@ -143,6 +189,7 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
      */
     void sendEncodingError(IoBuffer out, IoSession session, MsgError error) {
         out.clear();
+        out.position(FrameHeader.MAX_LEN);
         MsgErrorEncoder mee = new MsgErrorEncoder();
         mee.encodeBody(session, error, out);
         msgError = error;
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import de.root1.simon.codec.SimonProtocolCodecFilter;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * The classes of the user objects transferred over a session. The first time
+ * a class is written, it is assigned a small id and sent along with it, all
+ * following objects of that class only carry the id. There are two tables:
+ * the types of user objects, sent as class name, and the class descriptors
+ * within their serialized form, sent as full descriptor. Serialized objects
+ * also go without the stream header.
+ * <p>
+ * A reference is a varint <code>id &lt;&lt; 1 | define</code>. If the define
+ * bit is set, the class follows and the receiver stores it under the id. Id
+ * 0 is never stored, it is used once a table is full, and by senders without
+ * dictionary, see {@link #writeUnstoredType(Class, IoBuffer)}.
+ * <p>
+ * A class is defined by every message written until the frames of the first
+ * message defining it have been handed on to the next filter, see
+ * {@link #commit()}. The writers of a session encode and hand on their frames
+ * one at a time, see {@link SimonProtocolCodecFilter}, so the receiver never
+ * sees an id before its definition, also if the defining message is sent in
+ * fragments. A definition is stored before its class is resolved, so a class
+ * that can't be loaded only fails the messages that refer to it.
+ * <p>
+ * Senders only use the dictionary on sessions where both sides announced
+ * {@link SimonMessageConstants#FEATURE_CLASS_DICTIONARY}, see
+ * {@link #of(IoSession)}. The user objects written with it are marked as such,
+ * so receivers decode them with {@link #forReading(IoSession)} whether or not
+ * they already know about the feature.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class ClassDictionary {
+
+    private static final String SESSION_ATTRIBUTE_DICTIONARY = ClassDictionary.class.getName();
+
+    /** upper bound of classes per table and direction */
+    static final int MAX_CLASSES = 4096;
+
+    /** definitions written by the message the current thread is encoding */
+    private static final ThreadLocal<List<Entry>> pending = new ThreadLocal<List<Entry>>() {
+        @Override
+        protected List<Entry> initialValue() {
+            return new ArrayList<Entry>();
+        }
+    };
+
+    private final Table types = new Table();
+    private final Table descriptors = new Table();
+
+    /**
+     * Creates a dictionary that is not bound to a session, for user objects
+     * read without one
+     */
+    ClassDictionary() {
+    }
+
+    /**
+     * Returns the dictionary to write user objects to the given session with,
+     * creates it if necessary
+     *
+     * @param session the session
+     * @return the dictionary, or <code>null</code> if the peer doesn't
+     * support it
+     */
+    public static ClassDictionary of(IoSession session) {
+        if (!FrameHeader.hasFeature(session, SimonMessageConstants.FEATURE_CLASS_DICTIONARY)) {
+            return null;
+        }
+        return forReading(session);
+    }
+
+    /**
+     * Returns the dictionary to read user objects received from the given
+     * session with, creates it if necessary. Available before the handshake
+     * is done, a peer may use the dictionary as soon as it knows about the
+     * feature.
+     *
+     * @param session the session
+     * @return the dictionary
+     */
+    public static ClassDictionary forReading(IoSession session) {
+        ClassDictionary dictionary = (ClassDictionary) session.getAttribute(SESSION_ATTRIBUTE_DICTIONARY);
+        if (dictionary == null) {
+            dictionary = new ClassDictionary();
+            ClassDictionary existing = (ClassDictionary) session.setAttributeIfAbsent(SESSION_ATTRIBUTE_DICTIONARY, dictionary);
+            if (existing != null) {
+                dictionary = existing;
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Writes the type of a user object
+     *
+     * @param type the type
+     * @param out the buffer to write to
+     * @throws BufferDataException if the class name can't be encoded
+     */
+    public void writeType(Class<?> type, IoBuffer out) {
+        Entry entry = types.acquire(type);
+        boolean define = isDefinition(entry);
+        VarInt.put(out, reference(entry, define));
+        if (define) {
+            try {
+                StringCodec.putPrefixedString(out, type.getName());
+            } catch (IOException e) {
+                throw new BufferDataException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes a type the way {@link #writeType(Class, IoBuffer)} does, but
+     * without assigning an id, for senders without dictionary
+     *
+     * @param type the type
+     * @param out the buffer to write to
+     * @throws BufferDataException if the class name can't be encoded
+     */
+    public static void writeUnstoredType(Class<?> type, IoBuffer out) {
+        VarInt.put(out, reference(null, true));
+        try {
+            StringCodec.putPrefixedString(out, type.getName());
+        } catch (IOException e) {
+            throw new BufferDataException(e);
+        }
+    }
+
+    /**
+     * Reads a type written by {@link #writeType(Class, IoBuffer)} or
+     * {@link #writeUnstoredType(Class, IoBuffer)}
+     *
+     * @param in the buffer to read from
+     * @return the type
+     * @throws BufferDataException if the reference is undefined
+     * @throws ClassNotFoundException if the type can't be loaded
+     */
+    public Class<?> readType(IoBuffer in) throws ClassNotFoundException {
+        try {
+            int reference = VarInt.get(in);
+            int id = reference >>> 1;
+            Object type;
+            if ((reference & 1) == 0) {
+                type = types.get(id);
+            } else {
+                type = StringCodec.getPrefixedString(in);
+                // stored before it's resolved, later references must not depend on this message
+                types.put(id, type);
+            }
+            if (type instanceof Class) {
+                return (Class<?>) type;
+            }
+            Class<?> resolved = Class.forName((String) type);
+            types.resolved(id, resolved);
+            return resolved;
+        } catch (IOException e) {
+            throw new BufferDataException(e);
+        }
+    }
+
+    /**
+     * Writes a serializable object with a length prefix, like
+     * {@link IoBuffer#putObject(Object)}, but refers to its classes by id
+     *
+     * @param value the object
+     * @param out the buffer to write to
+     * @throws BufferDataException if the object can't be serialized
+     */
+    public void writeObject(Object value, IoBuffer out) {
+        int start = out.position();
+        out.skip(4); // room for the length
+        try {
+            ObjectOutputStream stream = new DictionaryOutputStream(out.asOutputStream());
+            stream.writeObject(value);
+            stream.flush();
+        } catch (IOException e) {
+            throw new BufferDataException(e);
+        }
+        int end = out.position();
+        out.putInt(start, end - start - 4);
+    }
+
+    /**
+     * Reads an object written by {@link #writeObject(Object, IoBuffer)}
+     *
+     * @param in the buffer to read from
+     * @return the object
+     * @throws BufferDataException if the object can't be deserialized
+     * @throws ClassNotFoundException if a class of the object can't be loaded
+     */
+    public Object readObject(IoBuffer in) throws ClassNotFoundException {
+        int length = in.getInt();
+        if (length <= 0 || length > in.remaining()) {
+            throw new BufferDataException("invalid object length: " + length);
+        }
+        int end = in.position() + length;
+        int limit = in.limit();
+        in.limit(end);
+        try {
+            ObjectInputStream stream = new DictionaryInputStream(in.asInputStream(), Thread.currentThread().getContextClassLoader());
+            return stream.readObject();
+        } catch (IOException e) {
+            throw new BufferDataException(e);
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+    }
+
+    /**
+     * Marks the definitions written by the current thread as received by the
+     * peer. To be called once all frames of the message carrying them have
+     * been handed on to the next filter, while the session's write lock of
+     * {@link SimonProtocolCodecFilter} is still held.
+     */
+    static void commit() {
+        List<Entry> entries = pending.get();
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).committed = true;
+        }
+        entries.clear();
+    }
+
+    /**
+     * Forgets the definitions written by the current thread, because the
+     * message carrying them is not sent
+     */
+    static void discard() {
+        pending.get().clear();
+    }
+
+    /**
+     * @return whether the current thread wrote definitions that are not
+     * committed yet
+     */
+    static boolean hasPending() {
+        return !pending.get().isEmpty();
+    }
+
+    private static boolean isDefinition(Entry entry) {
+        if (entry == null) {
+            return true;
+        }
+        if (entry.committed) {
+            return false;
+        }
+        pending.get().add(entry);
+        return true;
+    }
+
+    private static int reference(Entry entry, boolean define) {
+        int id = entry == null ? 0 : entry.id;
+        return id << 1 | (define ? 1 : 0);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < VarInt.MAX_BYTES; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new StreamCorruptedException("end of stream within class reference");
+            }
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("class reference longer than " + VarInt.MAX_BYTES + " bytes");
+    }
+
+    /**
+     * An id assigned by the sender
+     */
+    private static final class Entry {
+
+        private final int id;
+        /** set once a message defining the id has been handed on to the session */
+        private volatile boolean committed;
+
+        private Entry(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The ids of one table, for both directions
+     */
+    private static final class Table {
+
+        /** sent classes. Accessed by all threads encoding for the session. */
+        private final ConcurrentMap<Class<?>, Entry> sent = new ConcurrentHashMap<Class<?>, Entry>();
+        private final AtomicInteger nextId = new AtomicInteger(1);
+        /** received classes, indexed by id. Only accessed by the session's I/O thread. */
+        private final List<Object> received = new ArrayList<Object>();
+
+        /**
+         * @return the entry of the class, or <code>null</code> if the table
+         * is full
+         */
+        private Entry acquire(Class<?> type) {
+            Entry entry = sent.get(type);
+            if (entry == null && nextId.get() < MAX_CLASSES) {
+                entry = sent.computeIfAbsent(type, t -> {
+                    int id = nextId.getAndIncrement();
+                    return id < MAX_CLASSES ? new Entry(id) : null;
+                });
+            }
+            return entry;
+        }
+
+        /**
+         * Replaces a received class name by its class, unless the id is
+         * never stored
+         */
+        private void resolved(int id, Class<?> type) {
+            if (id > 0) {
+                received.set(id, type);
+            }
+        }
+
+        private void put(int id, Object value) throws StreamCorruptedException {
+            if (id >= MAX_CLASSES) {
+                throw new StreamCorruptedException("class id " + id + " exceeds " + MAX_CLASSES);
+            }
+            if (id == 0) {
+                return;
+            }
+            while (received.size() <= id) {
+                received.add(null);
+            }
+            received.set(id, value);
+        }
+
+        private Object get(int id) throws StreamCorruptedException {
+            Object value = id > 0 && id < received.size() ? received.get(id) : null;
+            if (value == null) {
+                throw new StreamCorruptedException("undefined class id " + id);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Writes the class descriptors of an object as references
+     */
+    private final class DictionaryOutputStream extends ObjectOutputStream {
+
+        private DictionaryOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+            // the stream is always read by a DictionaryInputStream
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Class<?> type = desc.forClass();
+            Entry entry = descriptors.acquire(type);
+            boolean define = isDefinition(entry);
+            writeVarInt(this, reference(entry, define));
+            if (define) {
+                // the full descriptor lets the receiver skip objects of classes it can't load
+                super.writeClassDescriptor(desc);
+            }
+        }
+    }
+
+    /**
+     * Resolves the class references written by a DictionaryOutputStream
+     */
+    private final class DictionaryInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        private DictionaryInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected void readStreamHeader() {
+            // see DictionaryOutputStream
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int reference = readVarInt(this);
+            int id = reference >>> 1;
+            if ((reference & 1) == 0) {
+                return (ObjectStreamClass) descriptors.get(id);
+            }
+            // the class is resolved afterwards by resolveClass()
+            ObjectStreamClass desc = super.readClassDescriptor();
+            descriptors.put(id, desc);
+            return desc;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> type = desc.forClass();
+            if (type != null) {
+                return type;
+            }
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
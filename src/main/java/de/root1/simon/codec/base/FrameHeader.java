@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Reads and writes the header of a frame. There are two forms:
+ * <ul>
+ * <li>the fixed header of protocol version 1: <code>type(1) sequence(4)
+ * bodysize(4)</code></li>
+ * <li>the compact header: <code>type|0x80(1) sequence(varint, zigzag)
+ * bodysize(varint)</code></li>
+ * </ul>
+ * Message types are below 0x80, so the first byte tells the forms apart and
+ * a decoder accepts both at any time. A compact header is only sent after the
+ * peer announced {@link SimonMessageConstants#FEATURE_COMPACT_FRAMING} in the
+ * handshake, version 1 peers never see one.
+ *
+ * @author achristian
+ */
+final class FrameHeader {
+
+    /** marks the type byte of a compact header */
+    private static final int COMPACT_FLAG = 0x80;
+
+    /**
+     * The maximum length of a header in either form. Encoders reserve this
+     * many bytes in front of the body and write the header right-aligned to
+     * it once the body size is known.
+     */
+    static final int MAX_LEN = SimonMessageConstants.TYPE_LEN + 2 * VarInt.MAX_BYTES;
+
+    private FrameHeader() {
+    }
+
+    /**
+     * @param session the session
+     * @return true if frames sent to the session use the compact header
+     */
+    static boolean isCompact(IoSession session) {
+        return hasFeature(session, SimonMessageConstants.FEATURE_COMPACT_FRAMING);
+    }
+
+    /**
+     * @param session the session
+     * @param feature a <code>FEATURE_*</code> bit of
+     * {@link SimonMessageConstants}
+     * @return true if both sides of the session announced the feature
+     */
+    static boolean hasFeature(IoSession session, int feature) {
+        return (getFeatures(session) & feature) != 0;
+    }
+
+    /**
+     * @param session the session
+     * @return the <code>FEATURE_*</code> bits both sides of the session
+     * announced, 0 until the handshake is done
+     */
+    static int getFeatures(IoSession session) {
+        Integer features = (Integer) session.getAttribute(Statics.SESSION_ATTRIBUTE_FEATURES);
+        return features != null ? features : 0;
+    }
+
+    /**
+     * Writes the header in front of a body that starts at
+     * <code>bodyStart</code>. The buffer position is left untouched.
+     *
+     * @param buf the buffer holding the body
+     * @param bodyStart the position of the body, at least {@link #MAX_LEN}
+     * @param msgType the message type
+     * @param sequence the sequence
+     * @param bodySize the size of the body
+     * @param compact true to write the compact header
+     * @return the position of the first header byte
+     */
+    static int put(IoBuffer buf, int bodyStart, byte msgType, int sequence, int bodySize, boolean compact) {
+        int position = buf.position();
+        int start;
+        if (compact) {
+            int zigzag = (sequence << 1) ^ (sequence >> 31);
+            start = bodyStart - SimonMessageConstants.TYPE_LEN - VarInt.size(zigzag) - VarInt.size(bodySize);
+            buf.position(start);
+            buf.put((byte) (msgType | COMPACT_FLAG));
+            VarInt.put(buf, zigzag);
+            VarInt.put(buf, bodySize);
+        } else {
+            start = bodyStart - SimonMessageConstants.HEADER_LEN;
+            buf.position(start);
+            buf.put(msgType);
+            buf.putInt(sequence);
+            buf.putInt(bodySize);
+        }
+        buf.position(position);
+        return start;
+    }
+
+    /**
+     * Reads the header at the current position, without moving it.
+     *
+     * @param in the buffer
+     * @param header receives type, sequence and body size
+     * @return the length of the header, or 0 if it's not completely available
+     */
+    static int peek(IoBuffer in, int[] header) {
+        int position = in.position();
+        int limit = in.limit();
+        if (position >= limit) {
+            return 0;
+        }
+
+        int type = in.get(position);
+        if ((type & COMPACT_FLAG) == 0) {
+            if (limit - position < SimonMessageConstants.HEADER_LEN) {
+                return 0;
+            }
+            header[0] = type;
+            header[1] = in.getInt(position + SimonMessageConstants.TYPE_LEN);
+            header[2] = in.getInt(position + SimonMessageConstants.TYPE_LEN + SimonMessageConstants.SEQUENCE_LEN);
+            return SimonMessageConstants.HEADER_LEN;
+        }
+
+        // both varints have to be complete before one of them is read
+        int end = position + SimonMessageConstants.TYPE_LEN;
+        for (int varints = 0; varints < 2; varints++) {
+            do {
+                if (end >= limit) {
+                    return 0;
+                }
+            } while ((in.get(end++) & 0x80) != 0 && end - position < MAX_LEN);
+        }
+
+        in.position(position + SimonMessageConstants.TYPE_LEN);
+        try {
+            int zigzag = VarInt.get(in);
+            header[0] = type & ~COMPACT_FLAG & 0xFF;
+            header[1] = (zigzag >>> 1) ^ -(zigzag & 1);
+            header[2] = VarInt.get(in);
+            return in.position() - position;
+        } finally {
+            in.position(position);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.root1.simon.OverloadPolicy;
+import de.root1.simon.utils.Utils;
+
+/**
+ * Bounds the memory the decoder spends on messages that are not completely
+ * received yet, so that a peer can't make it buffer whatever it announces.
+ * <ul>
+ * <li>a message whose body exceeds the max. frame size is rejected as soon as
+ * its header, or the first of its fragments, is read</li>
+ * <li>a session may buffer at most its budget: its incomplete message plus
+ * fragmented bodies collected on the heap. A message that doesn't fit at all
+ * is rejected, fragmented bodies that don't fit are spilled to a temporary
+ * file.</li>
+ * <li>all sessions together may buffer at most the global budget. A session
+ * whose next message doesn't fit either stops reading
+ * ({@link OverloadPolicy#SUSPEND_READ}) until the buffered bytes dropped to
+ * half of the budget, or gets the message rejected
+ * ({@link OverloadPolicy#REJECT})</li>
+ * </ul>
+ * A rejected message is answered by the decoder with a {@link
+ * de.root1.simon.codec.messages.MsgError}, which closes the session. A
+ * session that already holds part of the budget is never suspended, because
+ * only its own progress can give that part back. It may then exceed its
+ * budget by one message.
+ * <p>
+ * The budget is enforced by {@link SimonProtocolDecoder}, not by MINA's
+ * demultiplexing decoder. All limits are off by default.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class InboundBudget {
+
+    private static final String SESSION_ATTRIBUTE_ACCOUNT = InboundBudget.class.getName();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** &lt;= 0 means unlimited */
+    private volatile int maxFrameSize = 0;
+    /** &lt;= 0 means unlimited */
+    private volatile long maxBytesPerSession = 0;
+    /** &lt;= 0 means unlimited */
+    private volatile long maxBytes = 0;
+    private volatile OverloadPolicy overloadPolicy = OverloadPolicy.SUSPEND_READ;
+
+    private final AtomicLong bytes = new AtomicLong();
+    /**
+     * sessions suspended by this budget. Suspending and resuming is done
+     * while holding the lock of this set.
+     */
+    private final Set<IoSession> suspendedSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The result of a reservation
+     */
+    enum Reservation {
+        /** the bytes are reserved */
+        GRANTED,
+        /** the bytes are not reserved, the session has been suspended */
+        SUSPENDED,
+        /** the bytes are not reserved, the message has to be rejected */
+        REJECTED
+    }
+
+    /**
+     * @param bodySize the body size of a message
+     * @return true if the message exceeds the max. frame size or can never
+     * fit into a budget
+     */
+    boolean isTooLarge(int bodySize) {
+        return exceedsMaxFrameSize(bodySize) || exceeds(bodySize, maxBytesPerSession) || exceeds(bodySize, maxBytes);
+    }
+
+    /**
+     * The only limit for a fragmented body: one that doesn't fit into the
+     * budget is spilled instead, see {@link #tryReserve(IoSession, int)}
+     *
+     * @param bodySize the body size of a message
+     * @return true if the message exceeds the max. frame size
+     */
+    boolean exceedsMaxFrameSize(int bodySize) {
+        return exceeds(bodySize, maxFrameSize);
+    }
+
+    /**
+     * Reserves the bytes for a message that has to be buffered until it is
+     * complete
+     *
+     * @param session the session
+     * @param size the body size of the message
+     * @return the outcome
+     */
+    Reservation reserve(IoSession session, int size) {
+        if (isTooLarge(size)) {
+            return Reservation.REJECTED;
+        }
+        Account account = getAccount(session);
+        if (tryReserve(account, size)) {
+            return Reservation.GRANTED;
+        }
+        if (overloadPolicy == OverloadPolicy.REJECT) {
+            logger.debug("inbound budget exceeded, rejecting message with {} bytes of session {}. bytes={} sessionBytes={}", new Object[]{size, Utils.longToHexString(session.getId()), bytes.get(), account.bytes});
+            return Reservation.REJECTED;
+        }
+        if (account.bytes > 0) {
+            // only the session itself can free its share, it has to go on
+            account.bytes += size;
+            bytes.addAndGet(size);
+            return Reservation.GRANTED;
+        }
+        suspend(session);
+        return Reservation.SUSPENDED;
+    }
+
+    /**
+     * Reserves the bytes for a fragmented body collected on the heap, if they
+     * fit into the budget
+     *
+     * @param session the session
+     * @param size the body size
+     * @return true if reserved, false if the body has to be spilled
+     */
+    boolean tryReserve(IoSession session, int size) {
+        return tryReserve(getAccount(session), size);
+    }
+
+    private boolean tryReserve(Account account, int size) {
+        long limit = maxBytesPerSession;
+        if (limit > 0 && account.bytes + size > limit) {
+            return false;
+        }
+        limit = maxBytes;
+        long total = bytes.addAndGet(size);
+        if (limit > 0 && total > limit) {
+            bytes.addAndGet(-size);
+            return false;
+        }
+        account.bytes += size;
+        return true;
+    }
+
+    /**
+     * Gives back reserved bytes
+     *
+     * @param session the session
+     * @param size the number of bytes
+     */
+    void release(IoSession session, int size) {
+        Account account = getAccount(session);
+        account.bytes -= size;
+        bytes.addAndGet(-size);
+        if (!suspendedSessions.isEmpty()) {
+            resumeSessions();
+        }
+    }
+
+    /**
+     * Gives back everything a closed session holds
+     *
+     * @param session the session
+     */
+    void dispose(IoSession session) {
+        Account account = (Account) session.removeAttribute(SESSION_ATTRIBUTE_ACCOUNT);
+        suspendedSessions.remove(session);
+        if (account != null && account.bytes != 0) {
+            bytes.addAndGet(-account.bytes);
+            account.bytes = 0;
+            if (!suspendedSessions.isEmpty()) {
+                resumeSessions();
+            }
+        }
+    }
+
+    private void suspend(IoSession session) {
+        synchronized (suspendedSessions) {
+            if (suspendedSessions.add(session)) {
+                logger.debug("inbound budget exhausted, suspending read on session {}", Utils.longToHexString(session.getId()));
+                session.suspendRead();
+            }
+            // the budget may have been released in the meantime
+            if (isBelowLowWater() && suspendedSessions.remove(session)) {
+                resume(session);
+            }
+        }
+    }
+
+    private void resumeSessions() {
+        synchronized (suspendedSessions) {
+            if (!isBelowLowWater()) {
+                return;
+            }
+            Iterator<IoSession> iterator = suspendedSessions.iterator();
+            while (iterator.hasNext()) {
+                IoSession session = iterator.next();
+                iterator.remove();
+                resume(session);
+            }
+        }
+    }
+
+    private void resume(IoSession session) {
+        logger.debug("inbound bytes below low-water mark, resuming read on session {}", Utils.longToHexString(session.getId()));
+        if (!session.isClosing()) {
+            session.resumeRead();
+        }
+    }
+
+    private boolean isBelowLowWater() {
+        long limit = maxBytes;
+        return limit <= 0 || bytes.get() <= limit / 2;
+    }
+
+    private static boolean exceeds(long size, long limit) {
+        return limit > 0 && size > limit;
+    }
+
+    private static Account getAccount(IoSession session) {
+        Account account = (Account) session.getAttribute(SESSION_ATTRIBUTE_ACCOUNT);
+        if (account == null) {
+            account = new Account();
+            session.setAttribute(SESSION_ATTRIBUTE_ACCOUNT, account);
+        }
+        return account;
+    }
+
+    /**
+     * @return the number of bytes currently reserved by all sessions
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @param maxFrameSize the max. body size of a message, 0 for unlimited
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = Math.max(0, maxFrameSize);
+    }
+
+    public long getMaxBytesPerSession() {
+        return maxBytesPerSession;
+    }
+
+    /**
+     * @param maxBytesPerSession the max. number of bytes a session may
+     * buffer, 0 for unlimited
+     */
+    public void setMaxBytesPerSession(long maxBytesPerSession) {
+        this.maxBytesPerSession = Math.max(0, maxBytesPerSession);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param maxBytes the max. number of bytes all sessions together may
+     * buffer, 0 for unlimited
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        if (!suspendedSessions.isEmpty()) {
+            resumeSessions();
+        }
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * @param overloadPolicy what happens to a session whose message doesn't
+     * fit into the global budget
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        if (overloadPolicy == null) {
+            throw new IllegalArgumentException("overloadPolicy must not be null");
+        }
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * The bytes reserved by one session. Only modified by the session's I/O
+     * thread.
+     */
+    private static final class Account {
+
+        private long bytes;
+    }
+}
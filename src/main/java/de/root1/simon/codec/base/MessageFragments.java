@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Splits large message bodies into {@link SimonMessageConstants#MSG_FRAGMENT}
+ * frames, so that the receiver never has to buffer more than one fragment in
+ * its receive buffer and can spill the body to a temporary file, see
+ * {@link MsgFragmentDecoder}.
+ * <p>
+ * The body of a fragment frame is
+ * <pre>
+ * type (1 byte) | flags (1 byte) | [total body size (varint), first fragment only] | data
+ * </pre>
+ * where type is the type of the fragmented message. All fragments of a
+ * message carry its sequence. Bodies are only fragmented on sessions where
+ * both sides announced {@link SimonMessageConstants#FEATURE_FRAGMENTS}.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public final class MessageFragments {
+
+    /** flag: the fragment starts a message and carries its total body size */
+    static final int FLAG_FIRST = 0x01;
+    /** flag: the fragment completes a message */
+    static final int FLAG_LAST = 0x02;
+
+    /** length of type and flags in front of the data of a fragment */
+    static final int PREFIX_LEN = 2;
+
+    private static volatile int fragmentSize = 1024 * 1024;
+    private static volatile int spillThreshold = 32 * 1024 * 1024;
+
+    private MessageFragments() {
+    }
+
+    /**
+     * Sets the size above which a body is sent in fragments, which is also
+     * the size of the data of each fragment
+     *
+     * @param size the size in bytes, at least 1024
+     */
+    public static void setFragmentSize(int size) {
+        if (size < 1024) {
+            throw new IllegalArgumentException("fragment size must be at least 1024 bytes");
+        }
+        fragmentSize = size;
+    }
+
+    /**
+     * @return the size above which a body is sent in fragments
+     */
+    public static int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Sets the size above which a received fragmented body is collected in a
+     * temporary file instead of on the heap
+     *
+     * @param size the size in bytes, {@link Integer#MAX_VALUE} to keep all
+     * bodies on the heap
+     */
+    public static void setSpillThreshold(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("spill threshold must not be negative");
+        }
+        spillThreshold = size;
+    }
+
+    /**
+     * @return the size above which a received fragmented body is collected
+     * in a temporary file
+     */
+    public static int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * @param session the session
+     * @param bodySize the size of an encoded body
+     * @return whether the body has to be sent in fragments
+     */
+    static boolean isFragmented(IoSession session, int bodySize) {
+        return bodySize > fragmentSize && FrameHeader.hasFeature(session, SimonMessageConstants.FEATURE_FRAGMENTS);
+    }
+
+    /**
+     * Writes an encoded body as fragments. The data of the fragments are
+     * slices of the body, only the fragment headers are newly allocated.
+     *
+     * @param session the session
+     * @param msgType the type of the message
+     * @param sequence the sequence of the message
+     * @param body the buffer holding the body between position and limit
+     * @param out the output to write the fragments to
+     */
+    static void write(IoSession session, byte msgType, int sequence, IoBuffer body, ProtocolEncoderOutput out) {
+        boolean compact = FrameHeader.isCompact(session);
+        int size = fragmentSize;
+        int bodySize = body.remaining();
+        int position = body.position();
+        int end = body.limit();
+
+        while (position < end) {
+            int length = Math.min(size, end - position);
+            int flags = 0;
+            if (position == body.position()) {
+                flags |= FLAG_FIRST;
+            }
+            if (position + length == end) {
+                flags |= FLAG_LAST;
+            }
+
+            int prefixLength = PREFIX_LEN + ((flags & FLAG_FIRST) != 0 ? VarInt.size(bodySize) : 0);
+            IoBuffer header = IoBuffer.allocate(FrameHeader.MAX_LEN + prefixLength);
+            header.position(FrameHeader.MAX_LEN);
+            header.put(msgType);
+            header.put((byte) flags);
+            if ((flags & FLAG_FIRST) != 0) {
+                VarInt.put(header, bodySize);
+            }
+            int start = FrameHeader.put(header, FrameHeader.MAX_LEN, SimonMessageConstants.MSG_FRAGMENT, sequence, prefixLength + length, compact);
+            header.flip();
+            header.position(start);
+
+            out.write(header);
+            out.write(body.getSlice(position, length));
+            position += length;
+        }
+    }
+}
@@ -13,23 +13,32 @@ public class MsgAsyncComputationFinishedDecoder extends AbstractMessageDecoder {
     private final SerializerSet serializers;
 
     public MsgAsyncComputationFinishedDecoder(SerializerSet serializers) {
-        super(SimonMessageConstants.MSG_ASYNC_FINISHED);
+        this(SimonMessageConstants.MSG_ASYNC_FINISHED, serializers);
+    }
+
+    protected MsgAsyncComputationFinishedDecoder(byte msgType, SerializerSet serializers) {
+        super(msgType);
         this.serializers = serializers;
     }
 
+    protected MsgAsyncComputationFinished createMessage() {
+        return new MsgAsyncComputationFinished();
+    }
+
     @Override
     protected AbstractMessage decodeBody(IoSession session, IoBuffer in) {
 
-        MsgAsyncComputationFinished m = new MsgAsyncComputationFinished();
+        MsgAsyncComputationFinished m = createMessage();
         try {
-            Object exception = UserObjectSerializer.readUserObject(serializers, in);
+            ClassDictionary classes = ClassDictionary.forReading(session);
+            Object exception = UserObjectSerializer.readUserObject(serializers, in, classes);
             if(exception != null && !(exception instanceof Throwable)){
                 MsgError error = new MsgError();
                 error.setErrorMessage("Error while async result: thrown exception is not instance of Throwable");
                 error.setRemoteObjectName(null);
                 exception = new ClassCastException("cannot cast "+exception+" to java.lang.Throwable");
             }
-            Object returnValue = UserObjectSerializer.readUserObject(serializers, in);
+            Object returnValue = UserObjectSerializer.readUserObject(serializers, in, classes);
             m.setThrown((Throwable) exception);
             m.setReturnValue(returnValue);
         }
@@ -19,8 +19,10 @@ public class MsgAsyncComputationFinishedEncoder<T extends MsgAsyncComputationFin
     protected void encodeBody(IoSession session, MsgAsyncComputationFinished message, IoBuffer out) {
         logger.trace("begin. message={}", message);
 
-        UserObjectSerializer.writeUserObject(serializers, message.getThrown(), out);
-        UserObjectSerializer.writeUserObject(serializers, message.getReturnValue(), out);
+        ClassDictionary classes = ClassDictionary.of(session);
+        int features = FrameHeader.getFeatures(session);
+        UserObjectSerializer.writeUserObject(serializers, message.getThrown(), out, classes, features);
+        UserObjectSerializer.writeUserObject(serializers, message.getReturnValue(), out, classes, features);
 
         /*
          * There is no need to write the message.getErrorMsg() string back to the client
@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -53,7 +52,7 @@ public class MsgEqualsDecoder extends AbstractMessageDecoder {
         String remoteObjectName = null;
         try {
 
-            remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            remoteObjectName = StringCodec.getPrefixedString(in);
             Object objectToCompareWith = in.getObject();
             message.setRemoteObjectName(remoteObjectName);
             message.setObjectToCompareWith(objectToCompareWith);
@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -44,7 +43,7 @@ public class MsgEqualsEncoder<T extends MsgEquals> extends AbstractMessageEncode
 
         logger.trace("begin. message={}", message);
         try {
-            out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getRemoteObjectName());
             out.putObject(message.getObjectToCompareWith());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -58,8 +57,8 @@ public class MsgErrorDecoder extends AbstractMessageDecoder {
         
         try {
 
-            remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
-            errorMsg = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            remoteObjectName = StringCodec.getPrefixedString(in);
+            errorMsg = StringCodec.getPrefixedString(in);
             throwable = (Throwable) in.getObject();
             initSequenceId = in.getInt();
             isDecoderError = Utils.byteToBoolean(in.get());
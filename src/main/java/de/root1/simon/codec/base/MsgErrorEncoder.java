@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgError;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -60,8 +59,8 @@ public class MsgErrorEncoder<T extends MsgError> extends AbstractMessageEncoder<
         boolean isDecodeError = message.isDecodeError();
         
         try {
-            out.putPrefixedString(remoteObjectName, Charset.forName("UTF-8").newEncoder());
-            out.putPrefixedString(errorMsg, Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, remoteObjectName);
+            StringCodec.putPrefixedString(out, errorMsg);
         } catch (CharacterCodingException e) {
            // TODO what to do here?
         }
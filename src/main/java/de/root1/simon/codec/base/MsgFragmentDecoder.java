@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.root1.simon.codec.ReferenceCountedBuffer;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * A {@link MessageDecoder} that collects the fragments written by
+ * {@link MessageFragments} and decodes the completed body with the decoder
+ * registered for the type of the fragmented message.
+ * <p>
+ * Bodies up to {@link MessageFragments#getSpillThreshold()} bytes are
+ * collected in a heap buffer of exactly the body size, charged to the
+ * {@link InboundBudget} of the session. Larger bodies, and bodies that don't
+ * fit into the budget, are
+ * written to a temporary file as they arrive and decoded from a read-only
+ * mapping of it, so the heap only ever holds the fragment that is currently
+ * received. After decoding, the mapping is released and the file is deleted,
+ * so it doesn't outlive the message even on platforms that can't delete a
+ * mapped file. Incomplete bodies are deleted when the session is disposed.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class MsgFragmentDecoder extends AbstractFrameDecoder {
+
+    private static final String SESSION_ATTRIBUTE_ASSEMBLIES = MsgFragmentDecoder.class.getName() + ".assemblies";
+
+    private static final Logger logger = LoggerFactory.getLogger(MsgFragmentDecoder.class);
+
+    /** releases a mapping without waiting for the garbage collector, null if not supported by the JVM */
+    private static final Method UNMAP;
+    private static final Object UNMAP_TARGET;
+
+    static {
+        Method unmap = null;
+        Object target = null;
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            target = theUnsafe.get(null);
+            unmap = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            try {
+                // Java 8: the cleaner is invoked on each buffer, see unmap()
+                unmap = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                target = null;
+            } catch (Exception e2) {
+                logger.debug("mapped files can't be released explicitly on this JVM", e2);
+                unmap = null;
+            }
+        }
+        UNMAP = unmap;
+        UNMAP_TARGET = target;
+    }
+
+    /** the decoders of the codec, indexed by the unsigned message type */
+    private final AbstractFrameDecoder[] decoders;
+    private final InboundBudget budget;
+
+    /**
+     * Creates a new fragment decoder
+     *
+     * @param decoders the table the decoders of the fragmented messages are
+     * looked up in, indexed by the unsigned message type
+     * @param budget the budget bodies collected on the heap are charged to
+     */
+    MsgFragmentDecoder(AbstractFrameDecoder[] decoders, InboundBudget budget) {
+        super(SimonMessageConstants.MSG_FRAGMENT);
+        this.decoders = decoders;
+        this.budget = budget;
+    }
+
+    @Override
+    MessageDecoderResult decodeMessage(IoSession session, IoBuffer in, int sequence, int bodysize, ProtocolDecoderOutput out) {
+        byte msgType = in.get();
+        int flags = in.get();
+        long key = ((long) (msgType & 0xFF) << 32) | (sequence & 0xFFFFFFFFL);
+
+        Map<Long, Assembly> assemblies = getAssemblies(session);
+        Assembly assembly = assemblies.get(key);
+        try {
+            if ((flags & MessageFragments.FLAG_FIRST) != 0) {
+                if (assembly != null) {
+                    assembly.discard();
+                }
+                int size = VarInt.get(in);
+                AbstractFrameDecoder decoder = decoders[msgType & 0xFF];
+                if (decoder == null || decoder == this) {
+                    throw new IllegalArgumentException("No decoder for fragmented message type " + msgType);
+                }
+                if (size < 0 || budget.exceedsMaxFrameSize(size)) {
+                    throw new IllegalArgumentException("Fragmented message with " + size + " bytes body size exceeds the max. frame size");
+                }
+                logger.trace("receiving message type [{}] with sequence [{}] and [{}] bytes body size in fragments", new Object[]{msgType, sequence, size});
+                assembly = new Assembly(decoder, size);
+                if (size > MessageFragments.getSpillThreshold() || !budget.tryReserve(session, size)) {
+                    assembly.spill();
+                } else {
+                    assembly.collectOnHeap(session, budget);
+                }
+                assemblies.put(key, assembly);
+            } else if (assembly == null) {
+                throw new IllegalStateException("Fragment of message type " + msgType + " with sequence " + sequence + " without a first fragment");
+            }
+
+            assembly.append(in);
+
+            if ((flags & MessageFragments.FLAG_LAST) != 0) {
+                assemblies.remove(key);
+                complete(session, assembly, sequence, out);
+            }
+            return MessageDecoderResult.OK;
+
+        } catch (Throwable t) {
+            logger.trace("Error while collecting fragments. Forwarding error.", t);
+            if (assembly != null) {
+                assemblies.remove(key);
+                assembly.discard();
+            }
+            out.write(createDecodingError(sequence, bodysize, msgType, t));
+            return MessageDecoderResult.NOT_OK;
+        }
+    }
+
+    /**
+     * Decodes the completely received body
+     */
+    private void complete(IoSession session, Assembly assembly, int sequence, ProtocolDecoderOutput out) throws IOException {
+        IoBuffer body = assembly.getBody();
+        // the body is not part of the received buffer, it can't be sliced by the decoder
+        ReferenceCountedBuffer received = currentReceivedBuffer();
+        setReceivedBuffer(null);
+        try {
+            assembly.decoder.decodeMessage(session, body, sequence, assembly.size, out);
+        } finally {
+            setReceivedBuffer(received);
+            assembly.discard();
+        }
+    }
+
+    @Override
+    public void finishDecode(IoSession session, ProtocolDecoderOutput out) throws Exception {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, Assembly> getAssemblies(IoSession session) {
+        Map<Long, Assembly> assemblies = (Map<Long, Assembly>) session.getAttribute(SESSION_ATTRIBUTE_ASSEMBLIES);
+        if (assemblies == null) {
+            assemblies = new HashMap<Long, Assembly>();
+            session.setAttribute(SESSION_ATTRIBUTE_ASSEMBLIES, assemblies);
+        }
+        return assemblies;
+    }
+
+    /**
+     * Drops all incompletely received messages of the session and deletes
+     * their temporary files
+     *
+     * @param session the session
+     */
+    @SuppressWarnings("unchecked")
+    static void dispose(IoSession session) {
+        Map<Long, Assembly> assemblies = (Map<Long, Assembly>) session.removeAttribute(SESSION_ATTRIBUTE_ASSEMBLIES);
+        if (assemblies != null) {
+            for (Assembly assembly : assemblies.values()) {
+                assembly.discard();
+            }
+        }
+    }
+
+    /**
+     * Releases a mapping right away instead of when it is garbage collected.
+     * The buffer must not be accessed afterwards.
+     *
+     * @param mapping the mapping
+     * @return true if the mapping has been released
+     */
+    private static boolean unmap(MappedByteBuffer mapping) {
+        if (UNMAP == null) {
+            return false;
+        }
+        try {
+            if (UNMAP_TARGET != null) {
+                UNMAP.invoke(UNMAP_TARGET, mapping);
+            } else {
+                Method cleaner = mapping.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(mapping);
+                if (c != null) {
+                    UNMAP.invoke(c);
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            logger.debug("could not release mapping", e);
+            return false;
+        }
+    }
+
+    /**
+     * The body of a fragmented message being received. Only accessed by the
+     * session's I/O thread.
+     */
+    private static final class Assembly {
+
+        private final AbstractFrameDecoder decoder;
+        private final int size;
+        private int received;
+        private IoBuffer heap;
+        /** the session and budget the heap buffer is charged to */
+        private IoSession session;
+        private InboundBudget budget;
+        private File file;
+        private RandomAccessFile raf;
+        private FileChannel channel;
+        private MappedByteBuffer mapping;
+
+        private Assembly(AbstractFrameDecoder decoder, int size) {
+            this.decoder = decoder;
+            this.size = size;
+        }
+
+        /**
+         * Collects the body in a heap buffer whose size has been reserved in
+         * the budget
+         */
+        private void collectOnHeap(IoSession session, InboundBudget budget) {
+            this.session = session;
+            this.budget = budget;
+            heap = IoBuffer.allocate(size);
+        }
+
+        /**
+         * Collects the body in a temporary file
+         */
+        private void spill() throws IOException {
+            file = File.createTempFile("simon-", ".fragments");
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+
+        /**
+         * Appends the rest of the buffer
+         */
+        private void append(IoBuffer in) throws IOException {
+            int length = in.remaining();
+            if (received + length > size) {
+                throw new IllegalStateException("Fragments exceed the announced body size of " + size + " bytes");
+            }
+            if (heap != null) {
+                heap.put(in);
+            } else {
+                ByteBuffer data = in.buf().duplicate();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                in.position(in.limit());
+            }
+            received += length;
+        }
+
+        /**
+         * @return the complete body
+         */
+        private IoBuffer getBody() throws IOException {
+            if (received != size) {
+                throw new IllegalStateException("Received " + received + " bytes of a body with " + size + " bytes");
+            }
+            if (heap != null) {
+                heap.flip();
+                return heap;
+            }
+            // decoders copy what they keep, nothing refers to the mapping after decoding
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return IoBuffer.wrap(mapping);
+        }
+
+        /**
+         * Releases the memory or file holding the body
+         */
+        private void discard() {
+            if (heap != null) {
+                heap.free();
+                heap = null;
+                budget.release(session, size);
+            }
+            if (file != null) {
+                boolean unmapped = true;
+                if (mapping != null) {
+                    unmapped = unmap(mapping);
+                    mapping = null;
+                }
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing left to do with it
+                }
+                if (!file.delete()) {
+                    logger.warn("could not delete {}, {}", file, unmapped ? "deleting it on exit" : "it's still mapped until garbage collected");
+                    file.deleteOnExit();
+                }
+                file = null;
+            }
+        }
+    }
+}
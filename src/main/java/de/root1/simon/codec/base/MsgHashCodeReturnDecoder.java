@@ -18,7 +18,6 @@
  */
 package de.root1.simon.codec.base;
 
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -52,7 +51,7 @@ public class MsgHashCodeReturnDecoder extends AbstractMessageDecoder {
         MsgHashCodeReturn message = new MsgHashCodeReturn();
         try {
             message.setReturnValue(in.getInt());
-            message.setErrorMsg(in.getPrefixedString(Charset.forName("UTF-8").newDecoder()));
+            message.setErrorMsg(StringCodec.getPrefixedString(in));
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setErrorMessage("Error while decoding hashCode() return: Not able to read remote object name due to CharacterCodingException.");
@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgError;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -45,7 +44,7 @@ public class MsgHashCodeReturnEncoder<T extends MsgHashCodeReturn> extends Abstr
         logger.trace("begin. message={}", message);
         try {
             out.putInt(message.getReturnValue());
-            out.putPrefixedString(message.getErrorMsg(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getErrorMsg());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setEncodeError();
@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -56,7 +55,7 @@ public class MsgInterfaceLookupDecoder extends AbstractMessageDecoder {
         MsgInterfaceLookup m = new MsgInterfaceLookup();
 
         try {
-            String canonicalInterfaceName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            String canonicalInterfaceName = StringCodec.getPrefixedString(in);
             m.setCanonicalInterfaceName(canonicalInterfaceName);
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
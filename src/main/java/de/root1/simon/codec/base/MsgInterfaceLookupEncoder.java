@@ -21,7 +21,6 @@ package de.root1.simon.codec.base;
 import de.root1.simon.codec.messages.MsgError;
 import de.root1.simon.codec.messages.MsgInterfaceLookup;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -46,7 +45,7 @@ public class MsgInterfaceLookupEncoder<T extends MsgInterfaceLookup> extends Abs
         logger.trace("begin. message={}", message);
         logger.trace("position before: {}",out.position());
         try {
-            out.putPrefixedString(message.getCanonicalInterfaceName(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getCanonicalInterfaceName());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setEncodeError();
@@ -21,7 +21,6 @@ package de.root1.simon.codec.base;
 import de.root1.simon.codec.messages.MsgError;
 import de.root1.simon.codec.messages.MsgInterfaceLookupReturn;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -46,7 +45,7 @@ public class MsgInterfaceLookupReturnEncoder<T extends MsgInterfaceLookupReturn>
 
         String[] interfaces = message.getInterfacesString();
         try {
-            out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getRemoteObjectName());
         } catch (CharacterCodingException ex) {
             MsgError error = new MsgError();
             error.setEncodeError();
@@ -62,7 +61,7 @@ public class MsgInterfaceLookupReturnEncoder<T extends MsgInterfaceLookupReturn>
         for (String class1 : interfaces) {
             try {
                 logger.trace("interface={}", class1);
-                out.putPrefixedString(class1, Charset.forName("UTF-8").newEncoder());
+                StringCodec.putPrefixedString(out, class1);
             } catch (CharacterCodingException e) {
                 MsgError error = new MsgError();
                 error.setEncodeError();
@@ -76,7 +75,7 @@ public class MsgInterfaceLookupReturnEncoder<T extends MsgInterfaceLookupReturn>
         }
         try {
             logger.trace("sending erorMsg: '{}'", message.getErrorMsg());
-            out.putPrefixedString(message.getErrorMsg(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getErrorMsg());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setEncodeError();
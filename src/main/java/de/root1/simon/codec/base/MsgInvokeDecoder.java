@@ -26,7 +26,6 @@ import de.root1.simon.codec.messages.MsgInvoke;
 import de.root1.simon.codec.messages.SimonMessageConstants;
 
 import java.lang.reflect.Method;
-import java.nio.charset.Charset;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
@@ -45,7 +44,11 @@ public class MsgInvokeDecoder extends AbstractMessageDecoder {
     private final SerializerSet serializers;
 
     public MsgInvokeDecoder(SerializerSet serializers) {
-        super(SimonMessageConstants.MSG_INVOKE);
+        this(SimonMessageConstants.MSG_INVOKE, serializers);
+    }
+
+    MsgInvokeDecoder(byte msgType, SerializerSet serializers) {
+        super(msgType);
         this.serializers = serializers;
     }
 
@@ -59,7 +62,7 @@ public class MsgInvokeDecoder extends AbstractMessageDecoder {
             LookupTable lookupTable = (LookupTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
 
             logger.trace("start pos={} capacity={}", in.position(), in.capacity());
-            remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            remoteObjectName = StringCodec.getPrefixedString(in);
             msgInvoke.setRemoteObjectName(remoteObjectName);
             logger.trace("remote object name read ... remoteObjectName={} pos={}", remoteObjectName, in.position());
 
@@ -68,24 +71,7 @@ public class MsgInvokeDecoder extends AbstractMessageDecoder {
             Method method = lookupTable.getMethod(msgInvoke.getRemoteObjectName(), methodHash);
             logger.trace("method looked up ... pos={} method=[{}]", in.position(), method.toString());
 
-            int argsLength = in.getInt();
-            logger.trace("args len read read ... pos={}", in.position());
-            logger.trace("getting {} args", argsLength);
-            Object[] args = new Object[argsLength];
-            for (int i = 0; i < argsLength; i++) {
-                try {
-                    args[i] = UserObjectSerializer.readUserObject(serializers, in);
-                } catch (Exception ex) {
-                    Exception ex1 = new Exception("Problem reading method argument. Maybe argument isn't serializable?!");
-                    ex1.initCause(ex.getCause());
-                    ex1.setStackTrace(ex.getStackTrace());
-                    logger.error("Exception while reading arguments.", ex);
-                    throw ex1;
-                }
-                logger.trace("arg #{} read ... pos={} object={}", new Object[]{i, in.position(), args[i]});
-            }
-
-            msgInvoke.setArguments(args);
+            msgInvoke.setArguments(readArguments(session, in));
             msgInvoke.setRemoteObjectName(remoteObjectName);
             msgInvoke.setMethod(method);
 
@@ -101,6 +87,36 @@ public class MsgInvokeDecoder extends AbstractMessageDecoder {
         return msgInvoke;
     }
 
+    /**
+     * Reads the argument count and the arguments of an invoke request.
+     *
+     * @param session the session the request was received on
+     * @param in the buffer positioned at the argument count
+     * @return the arguments
+     * @throws Exception if an argument can't be read
+     */
+    Object[] readArguments(IoSession session, IoBuffer in) throws Exception {
+        int argsLength = in.getInt();
+        logger.trace("args len read read ... pos={}", in.position());
+        logger.trace("getting {} args", argsLength);
+        Object[] args = new Object[argsLength];
+        ClassDictionary classes = ClassDictionary.forReading(session);
+        for (int i = 0; i < argsLength; i++) {
+            try {
+                args[i] = UserObjectSerializer.readUserObject(serializers, in, classes);
+            } catch (Exception ex) {
+                Exception ex1 = new Exception("Problem reading method argument. Maybe argument isn't serializable?!");
+                ex1.initCause(ex.getCause());
+                ex1.setStackTrace(ex.getStackTrace());
+                logger.error("Exception while reading arguments.", ex);
+                throw ex1;
+            }
+            logger.trace("arg #{} read ... pos={} object={}", new Object[]{i, in.position(), args[i]});
+        }
+
+        return args;
+    }
+
     @Override
     public void finishDecode(IoSession session, ProtocolDecoderOutput out) throws Exception {
     }
@@ -24,7 +24,6 @@ import de.root1.simon.codec.messages.MsgInvoke;
 import de.root1.simon.codec.messages.MsgInvokeReturn;
 import de.root1.simon.exceptions.SimonRemoteException;
 import de.root1.simon.utils.Utils;
-import java.nio.charset.Charset;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
@@ -51,8 +50,18 @@ public class MsgInvokeEncoder<T extends MsgInvoke> extends AbstractMessageEncode
         logger.trace("begin. message={}", message);
         try {
 
-            out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
-            out.putLong(Utils.computeMethodHash(message.getMethod()));
+            int handle = message.getHandle();
+            if (handle < 0) {
+                StringCodec.putPrefixedString(out, message.getRemoteObjectName());
+                out.putLong(Utils.computeMethodHash(message.getMethod()));
+            } else {
+                // see MsgInvokeHandleDecoder: name and method only travel with the binding
+                VarInt.put(out, handle << 1 | (message.isBindHandle() ? 1 : 0));
+                if (message.isBindHandle()) {
+                    StringCodec.putPrefixedString(out, message.getRemoteObjectName());
+                    out.putLong(Utils.computeMethodHash(message.getMethod()));
+                }
+            }
 
             int argsLen = 0;
 
@@ -64,14 +73,18 @@ public class MsgInvokeEncoder<T extends MsgInvoke> extends AbstractMessageEncode
 
             out.putInt(argsLen);
 
+            ClassDictionary classes = ClassDictionary.of(session);
+            int features = FrameHeader.getFeatures(session);
             for (int i = 0; i < argsLen; i++) {
                 Object argument = message.getArguments()[i];
                 logger.trace("args[{}]={}", i, argument);
-                UserObjectSerializer.writeUserObject(serializers, argument, out);
+                UserObjectSerializer.writeUserObject(serializers, argument, out, classes, features);
             }
 
         } catch (Exception e) {
 
+            // the classes defined so far may not have made it into the body
+            ClassDictionary.discard();
             String errorMsg = "Failed to transfer invoke command to the server. error=" + e.getMessage();
             logger.warn(errorMsg);
             Dispatcher dispatcher = (Dispatcher) session.getAttribute(Statics.SESSION_ATTRIBUTE_DISPATCHER);
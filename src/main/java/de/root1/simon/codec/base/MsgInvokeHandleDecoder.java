@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import de.root1.simon.LookupTable;
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.MsgInvoke;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+import de.root1.simon.exceptions.SimonException;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes an <code>INVOKE</code> that refers to the remote object name and
+ * method by a session scoped handle. The body starts with a varint holding
+ * <code>handle &lt;&lt; 1 | bind</code>. If the bind bit is set, the remote
+ * object name and method hash follow and are bound to the handle, else the
+ * target is resolved from the handles bound before. The arguments are the
+ * same as in a plain invoke. The result is a plain {@link MsgInvoke}.
+ * <p>
+ * The handles of a session live in a session attribute and are only touched
+ * by the thread that decodes the session's messages.
+ *
+ * @author achristian
+ */
+class MsgInvokeHandleDecoder extends MsgInvokeDecoder {
+
+    private static final String SESSION_ATTRIBUTE_HANDLES = MsgInvokeHandleDecoder.class.getName() + ".handles";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The remote object name and method bound to a handle.
+     */
+    private static final class Binding {
+
+        final String remoteObjectName;
+        final Method method;
+
+        Binding(String remoteObjectName, Method method) {
+            this.remoteObjectName = remoteObjectName;
+            this.method = method;
+        }
+    }
+
+    MsgInvokeHandleDecoder(SerializerSet serializers) {
+        super(SimonMessageConstants.MSG_INVOKE_HANDLE, serializers);
+    }
+
+    @Override
+    protected AbstractMessage decodeBody(IoSession session, IoBuffer in) {
+
+        MsgInvoke msgInvoke = new MsgInvoke();
+        String remoteObjectName = null;
+        try {
+
+            int value = VarInt.get(in);
+            int handle = value >>> 1;
+            boolean bind = (value & 1) != 0;
+            if (handle >= SimonMessageConstants.MAX_INVOKE_HANDLES) {
+                throw new SimonException("Invoke handle " + handle + " exceeds the limit of " + SimonMessageConstants.MAX_INVOKE_HANDLES);
+            }
+
+            List<Binding> handles = getHandles(session);
+            Binding binding;
+
+            if (bind) {
+                remoteObjectName = StringCodec.getPrefixedString(in);
+                long methodHash = in.getLong();
+                LookupTable lookupTable = (LookupTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
+                binding = new Binding(remoteObjectName, lookupTable.getMethod(remoteObjectName, methodHash));
+
+                while (handles.size() <= handle) {
+                    handles.add(null);
+                }
+                handles.set(handle, binding);
+                logger.trace("bound handle {} to {}#{}", new Object[]{handle, remoteObjectName, binding.method});
+            } else {
+                binding = handle < handles.size() ? handles.get(handle) : null;
+                if (binding == null) {
+                    throw new SimonException("Invoke handle " + handle + " is not bound");
+                }
+                remoteObjectName = binding.remoteObjectName;
+            }
+
+            msgInvoke.setRemoteObjectName(remoteObjectName);
+            msgInvoke.setMethod(binding.method);
+            msgInvoke.setArguments(readArguments(session, in));
+
+        } catch (Exception e) {
+            MsgError error = new MsgError();
+            error.setErrorMessage("Error while decoding invoke request");
+            error.setRemoteObjectName(remoteObjectName);
+            error.setThrowable(e);
+            return error;
+        }
+
+        logger.trace("message={}", msgInvoke);
+        return msgInvoke;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Binding> getHandles(IoSession session) {
+        List<Binding> handles = (List<Binding>) session.getAttribute(SESSION_ATTRIBUTE_HANDLES);
+        if (handles == null) {
+            handles = new ArrayList<Binding>();
+            session.setAttribute(SESSION_ATTRIBUTE_HANDLES, handles);
+        }
+        return handles;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import de.root1.simon.codec.messages.MsgAsyncComputationFinished;
+import de.root1.simon.codec.messages.MsgInvokeReturnCompleted;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+
+/**
+ * A {@link MessageDecoder} that decodes {@link MsgInvokeReturnCompleted}. The
+ * body has the same layout as {@link MsgAsyncComputationFinished}.
+ *
+ * @author ACHR
+ */
+public class MsgInvokeReturnCompletedDecoder extends MsgAsyncComputationFinishedDecoder {
+
+    public MsgInvokeReturnCompletedDecoder(SerializerSet serializers) {
+        super(SimonMessageConstants.MSG_INVOKE_RETURN_COMPLETED, serializers);
+    }
+
+    @Override
+    protected MsgAsyncComputationFinished createMessage() {
+        return new MsgInvokeReturnCompleted();
+    }
+}
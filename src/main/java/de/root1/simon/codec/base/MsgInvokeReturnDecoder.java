@@ -51,7 +51,7 @@ public class MsgInvokeReturnDecoder extends AbstractMessageDecoder {
 
         MsgInvokeReturn m = new MsgInvokeReturn();
         try {
-            Object returnValue = UserObjectSerializer.readUserObject(serializers, in);
+            Object returnValue = UserObjectSerializer.readUserObject(serializers, in, ClassDictionary.forReading(session));
             m.setReturnValue(returnValue);
         } catch (ClassNotFoundException e) {
             MsgError error = new MsgError();
@@ -44,7 +44,7 @@ public class MsgInvokeReturnEncoder<T extends MsgInvokeReturn> extends AbstractM
     protected void encodeBody(IoSession session, T message, IoBuffer out) {
         logger.trace("begin. message={}", message);
 
-        UserObjectSerializer.writeUserObject(serializers, message.getReturnValue(), out);
+        UserObjectSerializer.writeUserObject(serializers, message.getReturnValue(), out, ClassDictionary.of(session), FrameHeader.getFeatures(session));
 
         /*
          * There is no need to write the message.getErrorMsg() string back to the client
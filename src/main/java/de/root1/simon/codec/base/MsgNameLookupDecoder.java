@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -55,7 +54,7 @@ public class MsgNameLookupDecoder extends AbstractMessageDecoder {
         MsgNameLookup m = new MsgNameLookup();
 
         try {
-            String remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            String remoteObjectName = StringCodec.getPrefixedString(in);
             m.setRemoteObjectName(remoteObjectName);
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgError;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -46,7 +45,7 @@ public class MsgNameLookupEncoder<T extends MsgNameLookup> extends AbstractMessa
         logger.trace("begin. message={}", message);
         logger.trace("position before: {}",out.position());
         try {
-            out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getRemoteObjectName());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setEncodeError();
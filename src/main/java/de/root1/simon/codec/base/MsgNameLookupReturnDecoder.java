@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -57,12 +56,12 @@ public class MsgNameLookupReturnDecoder extends AbstractMessageDecoder {
             logger.trace("trying to read interfaces value. num of interfaces: {}", arraySize);
             String[] interfaces = new String[arraySize];
             for (int i = 0; i < arraySize; i++) {
-                String iface = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+                String iface = StringCodec.getPrefixedString(in);
                 logger.trace("Loading interface: [{}]",iface);
                 interfaces[i] = iface;
                 logger.trace("got interface=[{}]", iface);
             }
-            m.setErrorMsg(in.getPrefixedString(Charset.forName("UTF-8").newDecoder()));
+            m.setErrorMsg(StringCodec.getPrefixedString(in));
             m.setInterfaces(interfaces);
         } 
 //        catch (ClassNotFoundException e) {
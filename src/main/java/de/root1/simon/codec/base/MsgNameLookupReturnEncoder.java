@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgError;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -49,7 +48,7 @@ public class MsgNameLookupReturnEncoder<T extends MsgNameLookupReturn> extends A
         for (String class1 : interfaces) {
             try {
                 logger.trace("interface={}", class1);
-                out.putPrefixedString(class1, Charset.forName("UTF-8").newEncoder());
+                StringCodec.putPrefixedString(out, class1);
             } catch (CharacterCodingException e) {
                 MsgError error = new MsgError();
                 error.setEncodeError();
@@ -62,7 +61,7 @@ public class MsgNameLookupReturnEncoder<T extends MsgNameLookupReturn> extends A
         }
         try {
             logger.trace("sending erorMsg: '{}'", message.getErrorMsg());
-            out.putPrefixedString(message.getErrorMsg(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getErrorMsg());
         } catch (CharacterCodingException e) {
             MsgError error = new MsgError();
             error.setEncodeError();
@@ -52,6 +52,9 @@ public class MsgPingDecoder extends AbstractMessageDecoder {
             logger.trace("got {}", Utils.longToHexString(x));
         MsgPing ping = new MsgPing();
         ping.setSequence(getCurrentSequence());
+        if (x > 0) {
+            ping.setProtocolVersion(x);
+        }
         logger.trace("end");
         return ping;
     }
@@ -39,7 +39,8 @@ public class MsgPingEncoder<T extends MsgPing> extends AbstractMessageEncoder<T>
     protected void encodeBody(IoSession session, T message, IoBuffer out) {
 
         logger.trace("begin. message=" + message);
-        out.put((byte) 0xff);
+        // version 1 peers don't look at the byte, they always send 0xff
+        out.put(message.getProtocolVersion() != 0 ? message.getProtocolVersion() : (byte) 0xff);
         logger.trace("end");
     }
 
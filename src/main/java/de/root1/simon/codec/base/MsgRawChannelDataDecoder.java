@@ -27,6 +27,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.root1.simon.codec.ReferenceCountedBuffer;
 import de.root1.simon.codec.messages.AbstractMessage;
 import de.root1.simon.codec.messages.MsgRawChannelData;
 import de.root1.simon.codec.messages.SimonMessageConstants;
@@ -57,9 +58,19 @@ public class MsgRawChannelDataDecoder extends AbstractMessageDecoder {
         logger.trace("channelToken={}", channelToken);
         message.setChannelToken(channelToken);
 
-        byte[] b = new byte[dataSize];
-        in.get(b);
-        message.setData(ByteBuffer.allocate(dataSize).put(b));
+        ReferenceCountedBuffer received = getReceivedBuffer();
+        if (received != null) {
+            ByteBuffer data = received.slice(in.position(), dataSize);
+            in.skip(dataSize);
+            data.position(dataSize); // same state as after putting the bytes into a new buffer
+            message.setData(data, received);
+        } else {
+            byte[] b = new byte[dataSize];
+            in.get(b);
+            ByteBuffer data = ByteBuffer.wrap(b);
+            data.position(dataSize); // same state as after putting the bytes into a new buffer
+            message.setData(data);
+        }
         logger.trace("message={}", message);
             
         return message;
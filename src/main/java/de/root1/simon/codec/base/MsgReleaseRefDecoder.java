@@ -22,7 +22,6 @@ import de.root1.simon.codec.messages.AbstractMessage;
 import de.root1.simon.codec.messages.MsgReleaseRef;
 import de.root1.simon.codec.messages.SimonMessageConstants;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
@@ -50,7 +49,7 @@ public class MsgReleaseRefDecoder extends AbstractMessageDecoder {
         String refId;
         MsgReleaseRef msg = new MsgReleaseRef();
         try {
-            refId = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            refId = StringCodec.getPrefixedString(in);
             msg.setSequence(getCurrentSequence());
             msg.setRefId(refId);
         } catch (CharacterCodingException ex) {
@@ -20,7 +20,6 @@ package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgReleaseRef;
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
@@ -41,7 +40,7 @@ public class MsgReleaseRefEncoder<T extends MsgReleaseRef> extends AbstractMessa
 
         logger.trace("begin. message=" + message);
         try {
-            out.putPrefixedString(message.getRefId(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getRefId());
         } catch (CharacterCodingException ex) {
             String errorMsg = "Failed to transfer reference release. error=" + ex.getMessage();
             logger.warn(errorMsg);
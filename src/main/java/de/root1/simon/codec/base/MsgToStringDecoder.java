@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -53,7 +52,7 @@ public class MsgToStringDecoder extends AbstractMessageDecoder {
 
         try {
 
-            String remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            String remoteObjectName = StringCodec.getPrefixedString(in);
 
             message.setRemoteObjectName(remoteObjectName);
         } catch (CharacterCodingException e) {
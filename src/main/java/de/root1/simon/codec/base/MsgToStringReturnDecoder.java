@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -53,7 +52,7 @@ public class MsgToStringReturnDecoder extends AbstractMessageDecoder {
 
         try {
 
-            String returnValue = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+            String returnValue = StringCodec.getPrefixedString(in);
             message.setReturnValue(returnValue);
 
         } catch (CharacterCodingException e) {
@@ -19,7 +19,6 @@
 package de.root1.simon.codec.base;
 
 import de.root1.simon.codec.messages.MsgError;
-import java.nio.charset.Charset;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -43,7 +42,7 @@ public class MsgToStringReturnEncoder<T extends MsgToStringReturn> extends Abstr
 
         logger.trace("begin. message={}", message);
         try {
-            out.putPrefixedString(message.getReturnValue(), Charset.forName("UTF-8").newEncoder());
+            StringCodec.putPrefixedString(out, message.getReturnValue());
         } catch (Exception e) {
             MsgError error = new MsgError();
             error.setEncodeError();
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * A {@link BinarySerializer} for immutable value types, i.e. Java records and
+ * Kotlin data classes. The layout of the class is derived once, when the
+ * serializer is created: its components in declaration order, read by
+ * {@link MethodHandle}s of the accessors, and the constructor taking all of
+ * them. An object is written as its component values one after the other,
+ * each as a user object, so they take the built in encodings of
+ * {@link ObjectCode} and the class dictionary of the session. Nothing
+ * describing the class goes over the wire, so both sides have to register the
+ * same version of it.
+ * <p>
+ * Components that are records or data classes themselves are written by
+ * their own serializer, if one is registered, otherwise by Java
+ * serialization. Records are detected reflectively, so this also runs on
+ * Java 8, where only data classes are supported.
+ *
+ * @param <T> the value type
+ * @author achristian
+ * @since 1.3.1
+ * @see SerializerSet#plusSchemaSerializer(Class)
+ */
+public final class SchemaSerializer<T> implements BinarySerializer<T> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** the features components are written with outside of a session, all this version reads */
+    private static final int STANDALONE_FEATURES = SimonMessageConstants.FEATURE_BINARY_SERIALIZERS | SimonMessageConstants.FEATURE_VALUE_CODES;
+
+    /** Class.isRecord(), Class.getRecordComponents() and RecordComponent.getAccessor(), null before Java 16 */
+    private static final Method IS_RECORD;
+    private static final Method GET_RECORD_COMPONENTS;
+    private static final Method GET_ACCESSOR;
+
+    static {
+        Method isRecord;
+        Method getRecordComponents;
+        Method getAccessor;
+        try {
+            isRecord = Class.class.getMethod("isRecord");
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+            getAccessor = Class.forName("java.lang.reflect.RecordComponent").getMethod("getAccessor");
+        } catch (ReflectiveOperationException e) {
+            // no records on this VM
+            isRecord = null;
+            getRecordComponents = null;
+            getAccessor = null;
+        }
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = getRecordComponents;
+        GET_ACCESSOR = getAccessor;
+    }
+
+    private final Class<T> type;
+    private final SerializerSet serializers;
+    /** the accessors of the components, each of type (Object)Object */
+    private final MethodHandle[] accessors;
+    /** the constructor taking all components, of type (Object[])Object */
+    private final MethodHandle constructor;
+
+    private SchemaSerializer(Class<T> type, SerializerSet serializers, MethodHandle[] accessors, MethodHandle constructor) {
+        this.type = type;
+        this.serializers = serializers;
+        this.accessors = accessors;
+        this.constructor = constructor;
+    }
+
+    /**
+     * Derives the layout of a record or data class
+     *
+     * @param type the class
+     * @param serializers the serializers the components are written with
+     * @return the serializer
+     * @throws IllegalArgumentException if the class is neither a record nor a
+     * data class, or its accessors or constructor are not accessible
+     */
+    public static <T> SchemaSerializer<T> forClass(Class<T> type, SerializerSet serializers) {
+        List<Method> accessors = isRecord(type) ? getRecordAccessors(type) : getComponentMethods(type);
+        if (accessors.isEmpty()) {
+            throw new IllegalArgumentException(type.getName() + " is neither a record nor a Kotlin data class");
+        }
+        Class<?>[] componentTypes = new Class<?>[accessors.size()];
+        MethodHandle[] handles = new MethodHandle[accessors.size()];
+        try {
+            for (int i = 0; i < handles.length; i++) {
+                Method accessor = accessors.get(i);
+                componentTypes[i] = accessor.getReturnType();
+                handles[i] = LOOKUP.unreflect(accessible(accessor)).asType(MethodType.methodType(Object.class, Object.class));
+            }
+            Constructor<T> constructor = type.getDeclaredConstructor(componentTypes);
+            MethodHandle handle = LOOKUP.unreflectConstructor(accessible(constructor))
+                    .asType(MethodType.genericMethodType(handles.length))
+                    .asSpreader(Object[].class, handles.length);
+            return new SchemaSerializer<T>(type, serializers, handles, handle);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " has no constructor taking all of its components", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("components of " + type.getName() + " are not accessible", e);
+        } catch (SecurityException e) {
+            throw new IllegalArgumentException("components of " + type.getName() + " are not accessible", e);
+        }
+    }
+
+    private static boolean isRecord(Class<?> type) {
+        try {
+            return IS_RECORD != null && (Boolean) IS_RECORD.invoke(type);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static List<Method> getRecordAccessors(Class<?> type) {
+        List<Method> accessors = new ArrayList<Method>();
+        try {
+            for (Object component : (Object[]) GET_RECORD_COMPONENTS.invoke(type)) {
+                accessors.add((Method) GET_ACCESSOR.invoke(component));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("can't read the components of record " + type.getName(), e);
+        }
+        return accessors;
+    }
+
+    /**
+     * @return the <code>componentN()</code> methods Kotlin generates for the
+     * primary constructor properties of a data class, in order
+     */
+    private static List<Method> getComponentMethods(Class<?> type) {
+        List<Method> accessors = new ArrayList<Method>();
+        for (int i = 1;; i++) {
+            try {
+                accessors.add(type.getDeclaredMethod("component" + i));
+            } catch (NoSuchMethodException e) {
+                return accessors;
+            }
+        }
+    }
+
+    private static <A extends AccessibleObject> A accessible(A member) {
+        if (!member.isAccessible()) {
+            member.setAccessible(true);
+        }
+        return member;
+    }
+
+    @Override
+    public void write(T instance, IoBuffer output) {
+        writeFields(instance, output, null, STANDALONE_FEATURES);
+    }
+
+    @Override
+    public T read(IoBuffer input) {
+        try {
+            return readFields(input, null);
+        } catch (ClassNotFoundException e) {
+            throw new BufferDataException(e);
+        }
+    }
+
+    /**
+     * Writes the components of an object
+     *
+     * @param instance the object, an instance of the class of this serializer
+     * @param output the buffer
+     * @param classes the class dictionary of the session, may be null
+     * @param features the features of the session, see
+     * {@link FrameHeader#getFeatures(org.apache.mina.core.session.IoSession)}
+     */
+    void writeFields(Object instance, IoBuffer output, ClassDictionary classes, int features) {
+        for (MethodHandle accessor : accessors) {
+            Object value;
+            try {
+                value = (Object) accessor.invokeExact(instance);
+            } catch (Throwable t) {
+                throw new IllegalStateException("can't read a component of " + type.getName(), t);
+            }
+            UserObjectSerializer.writeUserObject(serializers, value, output, classes, features);
+        }
+    }
+
+    /**
+     * Reads the components written by {@link #writeFields(Object, IoBuffer,
+     * ClassDictionary, int)} and creates the object
+     *
+     * @param input the buffer
+     * @param classes the class dictionary of the session, may be null
+     * @return the object
+     * @throws ClassNotFoundException if the class of a component is unknown
+     */
+    @SuppressWarnings("unchecked")
+    T readFields(IoBuffer input, ClassDictionary classes) throws ClassNotFoundException {
+        Object[] values = new Object[accessors.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = UserObjectSerializer.readUserObject(serializers, input, classes);
+        }
+        try {
+            return (T) (Object) constructor.invokeExact(values);
+        } catch (Throwable t) {
+            throw new BufferDataException("can't create " + type.getName() + " from the received components", t);
+        }
+    }
+
+    /**
+     * @return the class this serializer writes
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "SchemaSerializer[" + type.getName() + " components=" + accessors.length + "]";
+    }
+}
@@ -18,18 +18,121 @@
  */
 package de.root1.simon.codec.base;
 import de.root1.simon.codec.messages.*;
+import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
 import org.apache.mina.filter.codec.demux.DemuxingProtocolCodecFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link ProtocolCodecFactory} that provides a protocol codec for
  * Simon Standard protocol. If one wants to create his own protocol, the new factory
  * has to extend this method and override the setup() method explicitly!
+ * <p>
+ * As long as all registered decoders are {@link AbstractMessageDecoder}s,
+ * incoming messages are decoded by a {@link SimonProtocolDecoder}, which
+ * selects the decoder by the message type instead of asking each decoder.
+ * Registering any other kind of decoder falls back to MINA's demultiplexing
+ * decoder.
  *
  * @author ACHR
  */
 public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
 
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** the registered decoders, indexed by the unsigned message type */
+    private final AbstractFrameDecoder[] decoders = new AbstractFrameDecoder[256];
+    private boolean demultiplexing = false;
+    private SimonProtocolDecoder decoder;
+    private InboundBudget inboundBudget = new InboundBudget();
+
+    @Override
+    public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+        if (demultiplexing) {
+            return super.getDecoder(session);
+        }
+        synchronized (this) {
+            if (decoder == null) {
+                decoder = new SimonProtocolDecoder(decoders.clone(), inboundBudget);
+            }
+            return decoder;
+        }
+    }
+
+    @Override
+    public void addMessageDecoder(Class<? extends MessageDecoder> decoderClass) {
+        super.addMessageDecoder(decoderClass);
+        if (AbstractMessageDecoder.class.isAssignableFrom(decoderClass)) {
+            try {
+                register((AbstractMessageDecoder) decoderClass.newInstance());
+            } catch (InstantiationException e) {
+                throw new IllegalArgumentException("The specified class doesn't have a public default constructor.", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("The specified class doesn't have a public default constructor.", e);
+            }
+        } else {
+            demultiplexing = true;
+        }
+    }
+
+    @Override
+    public void addMessageDecoder(MessageDecoder decoder) {
+        super.addMessageDecoder(decoder);
+        if (decoder instanceof AbstractFrameDecoder) {
+            register((AbstractFrameDecoder) decoder);
+        } else {
+            demultiplexing = true;
+        }
+    }
+
+    @Override
+    public void addMessageDecoder(MessageDecoderFactory factory) {
+        super.addMessageDecoder(factory);
+        demultiplexing = true;
+    }
+
+    /**
+     * Puts a decoder into the type table. As with the demultiplexing decoder,
+     * the first decoder registered for a type wins.
+     */
+    private synchronized void register(AbstractFrameDecoder messageDecoder) {
+        int index = messageDecoder.getMsgType() & 0xFF;
+        if (decoders[index] == null) {
+            decoders[index] = messageDecoder;
+            decoder = null;
+        } else {
+            logger.debug("ignoring {}, type {} is already decoded by {}", new Object[]{messageDecoder, messageDecoder.getMsgType(), decoders[index]});
+        }
+    }
+
+    /**
+     * Sets the budget that limits the memory spent on incompletely received
+     * messages. Has to be called before {@link #setup(SerializerSet, boolean)}.
+     *
+     * @param inboundBudget the budget
+     */
+    public void setInboundBudget(InboundBudget inboundBudget) {
+        if (inboundBudget == null) {
+            throw new IllegalArgumentException("inboundBudget must not be null");
+        }
+        synchronized (this) {
+            this.inboundBudget = inboundBudget;
+            decoder = null;
+        }
+    }
+
+    /**
+     * @return the budget that limits the memory spent on incompletely
+     * received messages, unlimited unless set
+     */
+    public InboundBudget getInboundBudget() {
+        return inboundBudget;
+    }
+
 	/**
 	 * Sets up the factory, either in server, or in client mode
 	 * @param isServer if true, setup for server mode, false for client mode
@@ -38,12 +141,12 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             if (isServer) { // **** SERVER ****
 
                 // incoming service lookup
-                super.addMessageDecoder(MsgNameLookupDecoder.class);
+                addMessageDecoder(MsgNameLookupDecoder.class);
                 // outgoing service lookup return
                 super.addMessageEncoder(MsgNameLookupReturn.class, MsgNameLookupReturnEncoder.class);
                 
                 // incoming interface lookup
-                super.addMessageDecoder(MsgInterfaceLookupDecoder.class);
+                addMessageDecoder(MsgInterfaceLookupDecoder.class);
                 // outgoing interface lookup return
                 super.addMessageEncoder(MsgInterfaceLookupReturn.class, MsgInterfaceLookupReturnEncoder.class);
 
@@ -53,12 +156,12 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
                     // outgoing service lookup
                     super.addMessageEncoder(MsgNameLookup.class, MsgNameLookupEncoder.class);
                     // incoming service lookup return
-                    super.addMessageDecoder(MsgNameLookupReturnDecoder.class);
+                    addMessageDecoder(MsgNameLookupReturnDecoder.class);
 
                     // outgoing interface lookup
                     super.addMessageEncoder(MsgInterfaceLookup.class, MsgInterfaceLookupEncoder.class);
                     // incoming interface lookup return
-                    super.addMessageDecoder(MsgInterfaceLookupReturnDecoder.class);
+                    addMessageDecoder(MsgInterfaceLookupReturnDecoder.class);
             }
         
             /* *****************************************
@@ -72,10 +175,12 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing invoke
             super.addMessageEncoder(MsgInvoke.class, new MsgInvokeEncoder<>(serializers));
             // incoming invoke return
-            super.addMessageDecoder(new MsgInvokeReturnDecoder(serializers));
+            addMessageDecoder(new MsgInvokeReturnDecoder(serializers));
 
             // incoming invoke
-            super.addMessageDecoder(new MsgInvokeDecoder(serializers));
+            addMessageDecoder(new MsgInvokeDecoder(serializers));
+            // incoming invoke that refers to its target by handle
+            addMessageDecoder(new MsgInvokeHandleDecoder(serializers));
             // outgoing invoke return
             super.addMessageEncoder(MsgInvokeReturn.class, new MsgInvokeReturnEncoder<>(serializers));
 
@@ -86,10 +191,10 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing toString
             super.addMessageEncoder(MsgToString.class, MsgToStringEncoder.class);
             // incoming toString return
-            super.addMessageDecoder(MsgToStringReturnDecoder.class);
+            addMessageDecoder(MsgToStringReturnDecoder.class);
 
             // incoming toString
-            super.addMessageDecoder(MsgToStringDecoder.class);
+            addMessageDecoder(MsgToStringDecoder.class);
             // outgoing toString return
             super.addMessageEncoder(MsgToStringReturn.class, MsgToStringReturnEncoder.class);
 
@@ -100,10 +205,10 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing hashCode
             super.addMessageEncoder(MsgHashCode.class, MsgHashCodeEncoder.class);
             // incoming hashCode return
-            super.addMessageDecoder(MsgHashCodeReturnDecoder.class);
+            addMessageDecoder(MsgHashCodeReturnDecoder.class);
 
             // incoming hashCode
-            super.addMessageDecoder(MsgHashCodeDecoder.class);
+            addMessageDecoder(MsgHashCodeDecoder.class);
             // outgoing hashCode return
             super.addMessageEncoder(MsgHashCodeReturn.class, MsgHashCodeReturnEncoder.class);
 
@@ -115,10 +220,10 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
         //TODO: this should use the serializer
             super.addMessageEncoder(MsgEquals.class, MsgEqualsEncoder.class);
             // incoming equals return
-            super.addMessageDecoder(MsgEqualsReturnDecoder.class);
+            addMessageDecoder(MsgEqualsReturnDecoder.class);
 
             // incoming equals
-            super.addMessageDecoder(MsgEqualsDecoder.class);
+            addMessageDecoder(MsgEqualsDecoder.class);
             // outgoing equals return
             super.addMessageEncoder(MsgEqualsReturn.class, MsgEqualsReturnEncoder.class);
 
@@ -130,10 +235,10 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing open channel
             super.addMessageEncoder(MsgOpenRawChannel.class, MsgOpenRawChannelEncoder.class);
             // incoming open channel return
-            super.addMessageDecoder(MsgOpenRawChannelReturnDecoder.class);
+            addMessageDecoder(MsgOpenRawChannelReturnDecoder.class);
 
             // incoming open channel
-            super.addMessageDecoder(MsgOpenRawChannelDecoder.class);
+            addMessageDecoder(MsgOpenRawChannelDecoder.class);
             // outgoing open channel return
             super.addMessageEncoder(MsgOpenRawChannelReturn.class, MsgOpenRawChannelReturnEncoder.class);
 
@@ -144,10 +249,10 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing close channel
             super.addMessageEncoder(MsgCloseRawChannel.class, MsgCloseRawChannelEncoder.class);
             // incoming close channel return
-            super.addMessageDecoder(MsgCloseRawChannelReturnDecoder.class);
+            addMessageDecoder(MsgCloseRawChannelReturnDecoder.class);
 
             // incoming close channel
-            super.addMessageDecoder(MsgCloseRawChannelDecoder.class);
+            addMessageDecoder(MsgCloseRawChannelDecoder.class);
             // outgoing close channel return
             super.addMessageEncoder(MsgCloseRawChannelReturn.class, MsgCloseRawChannelReturnEncoder.class);
 
@@ -158,12 +263,12 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing channel data
             super.addMessageEncoder(MsgRawChannelData.class, MsgRawChannelDataEncoder.class);
             // incoming channel data
-            super.addMessageDecoder(MsgRawChannelDataDecoder.class);
+            addMessageDecoder(MsgRawChannelDataDecoder.class);
 
             // outgoing channel data return
             super.addMessageEncoder(MsgRawChannelDataReturn.class, MsgRawChannelDataReturnEncoder.class);
             // incoming channel data return
-            super.addMessageDecoder(MsgRawChannelDataReturnDecoder.class);
+            addMessageDecoder(MsgRawChannelDataReturnDecoder.class);
 
             /*
              * ping/pong handling
@@ -172,12 +277,20 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing ping
             super.addMessageEncoder(MsgPing.class, MsgPingEncoder.class);
             // incoming ping
-            super.addMessageDecoder(MsgPingDecoder.class);
+            addMessageDecoder(MsgPingDecoder.class);
 
             // outgoing pong
             super.addMessageEncoder(MsgPong.class, MsgPongEncoder.class);
             // incoming pong
-            super.addMessageDecoder(MsgPongDecoder.class);
+            addMessageDecoder(MsgPongDecoder.class);
+
+            // incoming fragments of large messages, decoded with the decoders registered here
+            addMessageDecoder(new MsgFragmentDecoder(decoders, inboundBudget));
+
+            // outgoing handshake
+            super.addMessageEncoder(MsgHello.class, MsgHelloEncoder.class);
+            // incoming handshake
+            addMessageDecoder(MsgHelloDecoder.class);
             
             
             /*
@@ -188,7 +301,7 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
         //TODO here also, use serializers
             super.addMessageEncoder(MsgError.class, MsgErrorEncoder.class);
             // incoming error
-            super.addMessageDecoder(MsgErrorDecoder.class);
+            addMessageDecoder(MsgErrorDecoder.class);
             
             /*
              * DGC handling
@@ -197,14 +310,17 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
             // outgoing release ref
             super.addMessageEncoder(MsgReleaseRef.class, MsgReleaseRefEncoder.class);
             // incoming release ref
-            super.addMessageDecoder(MsgReleaseRefDecoder.class);
+            addMessageDecoder(MsgReleaseRefDecoder.class);
 
 
             /*
              * Async results
              */
             super.addMessageEncoder(MsgAsyncComputationFinished.class, new MsgAsyncComputationFinishedEncoder<>(serializers));
-            super.addMessageDecoder(new MsgAsyncComputationFinishedDecoder(serializers));
+            addMessageDecoder(new MsgAsyncComputationFinishedDecoder(serializers));
+            // invoke return with an already completed future
+            super.addMessageEncoder(MsgInvokeReturnCompleted.class, new MsgAsyncComputationFinishedEncoder<>(serializers));
+            addMessageDecoder(new MsgInvokeReturnCompletedDecoder(serializers));
 	}
 }
 
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoderResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.root1.simon.codec.BufferReleaseFilter;
+import de.root1.simon.codec.ReferenceCountedBuffer;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * The decoder of the SIMON protocol. Reads the message header once, in either
+ * form described by {@link FrameHeader}, and hands
+ * the body to the {@link AbstractFrameDecoder} registered for the message
+ * type, looked up in a table indexed by the type byte. Data of incomplete
+ * messages is accumulated per session.
+ * <p>
+ * Incomplete messages are charged to an {@link InboundBudget}, which may
+ * suspend reading or reject a message right after its header.
+ * <p>
+ * Decoders may pass parts of the buffer on as slices. Such a buffer is freed
+ * when the last slice is released and is neither compacted nor reused for the
+ * following data.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+final class SimonProtocolDecoder implements ProtocolDecoder {
+
+    private static final String SESSION_ATTRIBUTE_STATE = SimonProtocolDecoder.class.getName() + ".state";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AbstractFrameDecoder[] decoders;
+    private final InboundBudget budget;
+
+    /**
+     * Creates a new decoder
+     *
+     * @param decoders the body decoders, indexed by the unsigned message type
+     * @param budget the budget incomplete messages are charged to
+     */
+    SimonProtocolDecoder(AbstractFrameDecoder[] decoders, InboundBudget budget) {
+        this.decoders = decoders;
+        this.budget = budget;
+    }
+
+    @Override
+    public void decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+        DecoderState state = getState(session);
+        if (state.rejected) {
+            // the session is about to be closed, anything that still arrives is dropped
+            in.position(in.limit());
+            return;
+        }
+
+        IoBuffer buf = state.buffer;
+        if (buf == null) {
+            buf = in;
+        } else {
+            buf.put(in);
+            buf.flip();
+        }
+
+        ReferenceCountedBuffer received = new ReferenceCountedBuffer(buf);
+        AbstractFrameDecoder.setReceivedBuffer(received);
+        try {
+            while (decodeMessage(state, session, buf, out)) {
+                // next message
+            }
+        } finally {
+            AbstractFrameDecoder.setReceivedBuffer(null);
+            // decoders may have handed out slices, the buffer must stay untouched until they are released
+            boolean shared = received.isShared();
+            if (buf.hasRemaining()) {
+                if (buf == in || shared) {
+                    // keep the rest, sized for the whole message if its header has been read and its size is reserved
+                    int capacity = Math.max(buf.remaining(), state.reserved ? state.bodysize : SimonMessageConstants.HEADER_LEN);
+                    state.buffer = IoBuffer.allocate(capacity).setAutoExpand(true);
+                    state.buffer.put(buf);
+                } else {
+                    buf.compact();
+                }
+            } else if (buf != in) {
+                state.buffer = null;
+                if (!shared) {
+                    buf.free();
+                }
+            }
+            if (shared) {
+                if (buf == in) {
+                    BufferReleaseFilter.keep(session, in);
+                }
+                received.release();
+            }
+        }
+    }
+
+    /**
+     * Decodes the next message in the buffer, if completely available
+     *
+     * @return true if a message has been decoded
+     */
+    private boolean decodeMessage(DecoderState state, IoSession session, IoBuffer buf, ProtocolDecoderOutput out) throws ProtocolDecoderException {
+        if (!state.headerRead) {
+            int headerLength = FrameHeader.peek(buf, state.header);
+            if (headerLength == 0) {
+                return false;
+            }
+            int msgType = state.header[0];
+            state.decoder = decoders[msgType & 0xFF];
+            if (state.decoder == null) {
+                throw new ProtocolDecoderException("No decoder for message type " + msgType + " in session " + session.getId());
+            }
+            state.sequence = state.header[1];
+            state.bodysize = state.header[2];
+            if (state.bodysize < 0) {
+                throw new ProtocolDecoderException("Message with sequence " + state.sequence + " has a negative body size in session " + session.getId());
+            }
+            buf.skip(headerLength);
+            state.headerRead = true;
+            if (budget.isTooLarge(state.bodysize)) {
+                reject(state, session, buf, out, "exceeds the max. frame size");
+                return false;
+            }
+        }
+
+        if (buf.remaining() < state.bodysize) {
+            if (!state.reserved) {
+                // the rest of the body has to be buffered
+                switch (budget.reserve(session, state.bodysize)) {
+                    case GRANTED:
+                        state.reserved = true;
+                        break;
+                    case REJECTED:
+                        reject(state, session, buf, out, "exceeds the inbound budget");
+                        return false;
+                    default:
+                        // suspended, retried when reading is resumed and more data arrives
+                        break;
+                }
+            }
+            logger.trace("Message with sequence [{}] needs [{}] bytes. Right now we only have [{}]. Waiting for more ...", new Object[]{state.sequence, state.bodysize, buf.remaining()});
+            return false;
+        }
+
+        int limit = buf.limit();
+        int end = buf.position() + state.bodysize;
+        buf.limit(end);
+        try {
+            if (state.decoder.decodeMessage(session, buf, state.sequence, state.bodysize, out) == MessageDecoderResult.NEED_DATA) {
+                throw new ProtocolDecoderException("Message with sequence " + state.sequence + " not decodable from its complete body");
+            }
+        } finally {
+            // the body length from the header is authoritative for the start of the next message
+            buf.limit(limit);
+            buf.position(end);
+        }
+        if (state.reserved) {
+            budget.release(session, state.bodysize);
+            state.reserved = false;
+        }
+        state.headerRead = false;
+        state.decoder = null;
+        return true;
+    }
+
+    /**
+     * Rejects the message whose header has just been read. The decoding
+     * error closes the session, so the rest of its data is dropped.
+     */
+    private void reject(DecoderState state, IoSession session, IoBuffer buf, ProtocolDecoderOutput out, String reason) {
+        String message = "Message with sequence " + state.sequence + " and " + state.bodysize + " bytes body size " + reason;
+        logger.warn("{} in session {}, rejecting it", message, session.getId());
+        state.rejected = true;
+        buf.position(buf.limit());
+        out.write(AbstractFrameDecoder.createDecodingError(state.sequence, state.bodysize, (byte) state.header[0], new ProtocolDecoderException(message)));
+    }
+
+    private DecoderState getState(IoSession session) {
+        DecoderState state = (DecoderState) session.getAttribute(SESSION_ATTRIBUTE_STATE);
+        if (state == null) {
+            state = new DecoderState();
+            session.setAttribute(SESSION_ATTRIBUTE_STATE, state);
+        }
+        return state;
+    }
+
+    @Override
+    public void finishDecode(IoSession session, ProtocolDecoderOutput out) throws Exception {
+    }
+
+    @Override
+    public void dispose(IoSession session) throws Exception {
+        MsgFragmentDecoder.dispose(session);
+        budget.dispose(session);
+        DecoderState state = (DecoderState) session.removeAttribute(SESSION_ATTRIBUTE_STATE);
+        if (state != null && state.buffer != null) {
+            state.buffer.free();
+            state.buffer = null;
+        }
+    }
+
+    /**
+     * The decoding progress of one session. Only accessed by the session's
+     * I/O thread.
+     */
+    private static final class DecoderState {
+
+        private final int[] header = new int[3];
+        private IoBuffer buffer;
+        private boolean headerRead;
+        /** whether the body size of the current message is reserved in the budget */
+        private boolean reserved;
+        /** set once a message has been rejected */
+        private boolean rejected;
+        private AbstractFrameDecoder decoder;
+        private int sequence;
+        private int bodysize;
+    }
+}
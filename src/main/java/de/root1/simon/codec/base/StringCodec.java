@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Reads and writes length prefixed UTF-8 strings, wire compatible with
+ * {@link IoBuffer#putPrefixedString(CharSequence, int, java.nio.charset.CharsetEncoder)}
+ * and {@link IoBuffer#getPrefixedString(int, CharsetDecoder)}.
+ * <p>
+ * Strings are encoded without a {@link java.nio.charset.CharsetEncoder}
+ * directly into the buffer. Pure ASCII strings are read without a charset
+ * decoder, other strings are decoded by a decoder owned by the calling thread.
+ * All methods are thread safe.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+final class StringCodec {
+
+    /** default prefix length, as used by IoBuffer.putPrefixedString(CharSequence, CharsetEncoder) */
+    static final int DEFAULT_PREFIX_LENGTH = 2;
+
+    /** largest scratch array kept per thread */
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    private static final ThreadLocal<CharsetDecoder> utf8Decoder = new ThreadLocal<CharsetDecoder>() {
+
+        @Override
+        protected CharsetDecoder initialValue() {
+            return StandardCharsets.UTF_8.newDecoder();
+        }
+    };
+
+    private StringCodec() {
+    }
+
+    /**
+     * Writes a string with a 2 byte length prefix
+     *
+     * @param out the buffer to write to
+     * @param value the string
+     * @throws CharacterCodingException if the string contains an unpaired
+     * surrogate
+     */
+    static void putPrefixedString(IoBuffer out, String value) throws CharacterCodingException {
+        putPrefixedString(out, value, DEFAULT_PREFIX_LENGTH);
+    }
+
+    /**
+     * Writes a string with a length prefix
+     *
+     * @param out the buffer to write to
+     * @param value the string
+     * @param prefixLength the length of the prefix in bytes, 1, 2 or 4
+     * @throws CharacterCodingException if the string contains an unpaired
+     * surrogate
+     */
+    static void putPrefixedString(IoBuffer out, String value, int prefixLength) throws CharacterCodingException {
+        int chars = value.length();
+        int length = encodedLength(value);
+        if (length > maxLength(prefixLength)) {
+            throw new IllegalArgumentException("The specified string is too long.");
+        }
+
+        switch (prefixLength) {
+            case 1:
+                out.put((byte) length);
+                break;
+            case 2:
+                out.putShort((short) length);
+                break;
+            default:
+                out.putInt(length);
+        }
+        if (length == 0) {
+            return;
+        }
+
+        out.expand(length);
+        ByteBuffer buf = out.buf();
+        if (length == chars) {
+            for (int i = 0; i < chars; i++) {
+                buf.put((byte) value.charAt(i));
+            }
+            return;
+        }
+
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf.put((byte) (0xF0 | (codePoint >> 18)));
+                buf.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Reads a string with a 2 byte length prefix
+     *
+     * @param in the buffer to read from
+     * @return the string
+     * @throws CharacterCodingException if the data is no valid UTF-8
+     */
+    static String getPrefixedString(IoBuffer in) throws CharacterCodingException {
+        return getPrefixedString(in, DEFAULT_PREFIX_LENGTH);
+    }
+
+    /**
+     * Reads a string with a length prefix
+     *
+     * @param in the buffer to read from
+     * @param prefixLength the length of the prefix in bytes, 1, 2 or 4
+     * @return the string
+     * @throws CharacterCodingException if the data is no valid UTF-8
+     */
+    static String getPrefixedString(IoBuffer in, int prefixLength) throws CharacterCodingException {
+        int length;
+        switch (prefixLength) {
+            case 1:
+                length = in.getUnsigned();
+                break;
+            case 2:
+                length = in.getUnsignedShort();
+                break;
+            default:
+                length = in.getInt();
+        }
+        if (length == 0) {
+            return "";
+        }
+        if (length < 0) {
+            throw new BufferDataException("Negative string length: " + length);
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        byte[] bytes = scratch.get();
+        if (bytes.length < length) {
+            bytes = new byte[length];
+            if (length <= MAX_SCRATCH_SIZE) {
+                scratch.set(bytes);
+            }
+        }
+        in.get(bytes, 0, length);
+
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                CharsetDecoder decoder = utf8Decoder.get();
+                CharBuffer chars = decoder.reset().decode(ByteBuffer.wrap(bytes, 0, length));
+                return chars.toString();
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 representation
+     */
+    private static int encodedLength(String value) throws CharacterCodingException {
+        int chars = value.length();
+        int length = chars;
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (Character.isSurrogate(c)) {
+                    if (!Character.isHighSurrogate(c) || i + 1 == chars || !Character.isLowSurrogate(value.charAt(i + 1))) {
+                        throw new MalformedInputException(1);
+                    }
+                    // 2 chars, 4 bytes
+                    length += 2;
+                    i++;
+                } else {
+                    length += 2;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static int maxLength(int prefixLength) {
+        switch (prefixLength) {
+            case 1:
+                return 255;
+            case 2:
+                return 65535;
+            case 4:
+                return Integer.MAX_VALUE;
+            default:
+                throw new IllegalArgumentException("prefixLength: " + prefixLength);
+        }
+    }
+}
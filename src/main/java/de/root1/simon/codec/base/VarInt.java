@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Reads and writes ints as variable length quantities: seven bits per byte,
+ * least significant group first, the high bit marks that another byte
+ * follows. The int is treated as unsigned, so small non-negative values,
+ * like handles, need a single byte, negative ones five.
+ *
+ * @author achristian
+ */
+final class VarInt {
+
+    /** an int needs at most five groups of seven bits */
+    static final int MAX_BYTES = 5;
+
+    private VarInt() {
+    }
+
+    /**
+     * @param value the value
+     * @return the number of bytes {@link #put(IoBuffer, int)} writes for the
+     * value
+     */
+    static int size(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the given value.
+     *
+     * @param out the buffer to write to
+     * @param value the value
+     */
+    static void put(IoBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads a value written by {@link #put(IoBuffer, int)}.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     * @throws BufferDataException if the value is longer than five bytes or
+     * doesn't fit into an int
+     */
+    static int get(IoBuffer in) {
+        int value = 0;
+        for (int i = 0; i < MAX_BYTES; i++) {
+            int b = in.get();
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (i == MAX_BYTES - 1 && (b & 0x70) != 0) {
+                    throw new BufferDataException("varint exceeds int range");
+                }
+                return value;
+            }
+        }
+        throw new BufferDataException("varint longer than " + MAX_BYTES + " bytes");
+    }
+}
@@ -7,6 +7,8 @@ public class MsgAsyncComputationFinished extends AbstractMessage {
 
     public MsgAsyncComputationFinished() { super(SimonMessageConstants.MSG_ASYNC_FINISHED); }
 
+    protected MsgAsyncComputationFinished(byte msgType) { super(msgType); }
+
     // TODO: null has dual semantics here, it means unfinished ant it also means finished will null.
     // because this object is trying to act as a union-type, this is likely to result in a bug.
     // TODO: replace with some kind of sealed class hierarchy or at least explicit NULL and UNINITIALIZED values?
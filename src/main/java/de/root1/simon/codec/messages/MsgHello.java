@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.messages;
+
+/**
+ * <code>Hello</code> message. Exchanged once per session after a
+ * {@link MsgPing} carrying a protocol version: the answering side sends its
+ * hello first, the initiating side replies with its own. Each side then uses
+ * the features both of them announced.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class MsgHello extends AbstractMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    private byte protocolVersion;
+    private int features;
+
+    public MsgHello() {
+        super(SimonMessageConstants.MSG_HELLO);
+    }
+
+    public byte getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(byte protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * @return the <code>FEATURE_*</code> bits of
+     * {@link SimonMessageConstants} the sender supports
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(int features) {
+        this.features = features;
+    }
+
+    @Override
+    public String toString() {
+        // it is a good practice to create toString() method on message classes.
+        return getSequence() + ":MsgHello(version=" + protocolVersion + "|features=0x" + Integer.toHexString(features) + ")";
+    }
+}
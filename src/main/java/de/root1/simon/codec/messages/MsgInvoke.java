@@ -32,6 +32,8 @@ public class MsgInvoke extends AbstractMessage {
     private String remoteObjectName;
     private Method method;
     private Object[] args;
+    private int handle = -1;
+    private boolean bindHandle;
     
     public MsgInvoke() {
     	super(SimonMessageConstants.MSG_INVOKE);
@@ -66,4 +68,40 @@ public class MsgInvoke extends AbstractMessage {
     public Object[] getArguments(){
             return args;
     }
+
+    /**
+     * Lets the message refer to the remote object name and method by a
+     * session scoped handle. If <code>bind</code> is set, name and method
+     * are transferred once more and the remote binds them to the handle,
+     * otherwise only the handle is transferred.
+     *
+     * @param handle the handle, -1 to transfer name and method as usual
+     * @param bind true if the handle is used for the first time
+     * @since 1.3.1
+     */
+    public void setHandle(int handle, boolean bind) {
+        this.handle = handle;
+        this.bindHandle = bind;
+    }
+
+    /**
+     * @return the session scoped handle, or -1 if there is none
+     * @since 1.3.1
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return true if the handle is bound by this message
+     * @since 1.3.1
+     */
+    public boolean isBindHandle() {
+        return bindHandle;
+    }
+
+    @Override
+    public byte getMsgType() {
+        return handle < 0 ? super.getMsgType() : SimonMessageConstants.MSG_INVOKE_HANDLE;
+    }
 }
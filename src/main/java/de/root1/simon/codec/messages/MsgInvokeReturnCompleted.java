@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.messages;
+
+/**
+ * <code>INVOKE RETURN COMPLETED</code> message. Sent instead of a
+ * {@link MsgInvokeReturn} carrying a future surrogate plus a
+ * {@link MsgAsyncComputationFinished}, if the future returned by the invoked
+ * method is already completed. The sequence is the one of the invoke request.
+ *
+ * @author ACHR
+ */
+public class MsgInvokeReturnCompleted extends MsgAsyncComputationFinished {
+
+    private static final long serialVersionUID = 1L;
+
+    public MsgInvokeReturnCompleted() {
+        super(SimonMessageConstants.MSG_INVOKE_RETURN_COMPLETED);
+    }
+
+    @Override
+    public String toString() {
+        // it is a good practice to create toString() method on message classes.
+        return getSequence() + ":MsgInvokeReturnCompleted(" + (getThrown() != null ? getThrown() : getReturnValue()) + ')';
+    }
+}
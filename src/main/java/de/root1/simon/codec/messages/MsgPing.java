@@ -27,14 +27,37 @@ public class MsgPing extends AbstractMessage {
 	
     private static final long serialVersionUID = 1L;
 
+    private byte protocolVersion = 0;
+
     public MsgPing() {
     	super(SimonMessageConstants.MSG_PING);
     }
 
+    /**
+     * A ping carrying a protocol version starts the handshake: a peer that
+     * knows the version answers with a {@link MsgHello}, a version 1 peer
+     * ignores the version and answers with a plain {@link MsgPong}.
+     *
+     * @param protocolVersion the protocol version of the sender, 0 for a
+     * plain ping
+     * @since 1.3.1
+     */
+    public void setProtocolVersion(byte protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * @return the protocol version of the sender, 0 for a plain ping
+     * @since 1.3.1
+     */
+    public byte getProtocolVersion() {
+        return protocolVersion;
+    }
+
     @Override
     public String toString() {
         // it is a good practice to create toString() method on message classes.
-        return getSequence() + ":MsgPing()";
+        return getSequence() + ":MsgPing(" + (protocolVersion != 0 ? "version=" + protocolVersion : "") + ")";
     }
 
 }
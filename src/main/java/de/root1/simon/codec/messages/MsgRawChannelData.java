@@ -18,6 +18,7 @@
  */
 package de.root1.simon.codec.messages;
 
+import de.root1.simon.codec.ReferenceCountedBuffer;
 import java.nio.ByteBuffer;
 
 /**
@@ -36,6 +37,7 @@ public class MsgRawChannelData extends AbstractMessage {
      */
     private int channelToken = 1;
     private ByteBuffer data;
+    private transient ReferenceCountedBuffer dataOwner;
     
     public MsgRawChannelData() {
     	super(SimonMessageConstants.MSG_RAW_CHANNEL_DATA);
@@ -53,10 +55,35 @@ public class MsgRawChannelData extends AbstractMessage {
     	this.data = byteBuffer;
     }
     
+    /**
+     * Sets data which is a read-only slice of a received buffer
+     *
+     * @param byteBuffer the data
+     * @param owner the buffer the data is a slice of, holding a reference for
+     * the data
+     */
+    public void setData(ByteBuffer byteBuffer, ReferenceCountedBuffer owner){
+    	this.data = byteBuffer;
+    	this.dataOwner = owner;
+    }
+    
     public ByteBuffer getData(){
     	return data;
     }
 
+    /**
+     * Releases the received buffer the data is a slice of, if any. The data
+     * must not be used afterwards.
+     */
+    public void release() {
+        ReferenceCountedBuffer owner = dataOwner;
+        if (owner != null) {
+            dataOwner = null;
+            data = null;
+            owner.release();
+        }
+    }
+
     @Override
     public String toString() {
         // it is a good practice to create toString() method on message classes.
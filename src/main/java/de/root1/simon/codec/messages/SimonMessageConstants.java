@@ -67,6 +67,38 @@ public final class SimonMessageConstants {
     public static final byte MSG_RELEASE_REF = 0x15;
 
     public static final byte MSG_ASYNC_FINISHED = 0x16;
+
+    public static final byte MSG_INVOKE_RETURN_COMPLETED = 0x17;
+
+    public static final byte MSG_INVOKE_HANDLE = 0x18;
+
+    public static final byte MSG_HELLO = 0x19;
+
+    public static final byte MSG_FRAGMENT = 0x1A;
+
+    /**
+     * The protocol version announced in the handshake. Version 1 peers don't
+     * handshake at all.
+     */
+    public static final byte PROTOCOL_VERSION = 2;
+
+    /** feature bit: frames with a varint header, see <code>FrameHeader</code> */
+    public static final int FEATURE_COMPACT_FRAMING = 0x01;
+    /** feature bit: invocations may refer to their target by handle, see {@link #MSG_INVOKE_HANDLE} */
+    public static final int FEATURE_INVOKE_HANDLES = 0x02;
+    /** feature bit: large bodies may be split into {@link #MSG_FRAGMENT} frames */
+    public static final int FEATURE_FRAGMENTS = 0x04;
+    /** feature bit: user objects refer to their classes by a per session id, see <code>ClassDictionary</code> */
+    public static final int FEATURE_CLASS_DICTIONARY = 0x08;
+    /** feature bit: an already completed future may be returned as {@link #MSG_INVOKE_RETURN_COMPLETED} */
+    public static final int FEATURE_INVOKE_RETURN_COMPLETED = 0x10;
+    /** feature bit: user objects of a type with a binary serializer are written by it, see <code>BinarySerializer</code> */
+    public static final int FEATURE_BINARY_SERIALIZERS = 0x20;
+    /** feature bit: primitive arrays, enums and common value types have built in encodings, see <code>ObjectCode</code> */
+    public static final int FEATURE_VALUE_CODES = 0x40;
+
+    /** upper bound of invoke handles a peer may bind per session */
+    public static final int MAX_INVOKE_HANDLES = 4096;
 	
     private SimonMessageConstants() {
     }
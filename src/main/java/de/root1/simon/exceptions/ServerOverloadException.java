@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.exceptions;
+
+/**
+ * Exception thrown when the server rejected an invocation because it has
+ * already reached its limit of invocations in progress. The connection stays
+ * usable, the invocation may be retried later.
+ *
+ * @author achristian
+ * @since 1.3.1
+ */
+public class ServerOverloadException extends SimonRemoteException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ServerOverloadException(String msg) {
+        super(msg);
+    }
+}
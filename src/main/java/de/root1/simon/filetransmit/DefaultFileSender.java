@@ -22,6 +22,7 @@ import de.root1.simon.RawChannel;
 import de.root1.simon.Simon;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -104,12 +105,13 @@ public class DefaultFileSender {
             int token;
             long bytesSent = 0;
             RawChannel rawChannel = null;
+            FileChannel fc = null;
             try {
                 token = fileReceiver.requestChannelToken(f.getName(), f.length(), overwriteExisting);
                 logger.debug("FileReceiver provided token {} for file {}", token, f.getName());
                 rawChannel = Simon.openRawChannel(token, fileReceiver);
 
-                FileChannel fc = new FileInputStream(f).getChannel();
+                fc = new FileInputStream(f).getChannel();
 
                 // we send the file in 512byte packages through the RawChannel
                 ByteBuffer data = ByteBuffer.allocate(getTxBLockSize());
@@ -134,6 +136,13 @@ public class DefaultFileSender {
                     listener.aborted(id, f, ex);
                 }
             } finally {
+                if (fc != null) {
+                    try {
+                        fc.close();
+                    } catch (IOException ex) {
+                        logger.debug("ID={} Closing file failed: {}", id, ex.getMessage());
+                    }
+                }
             }
             logger.debug("ID={} Sending done", id);
         }
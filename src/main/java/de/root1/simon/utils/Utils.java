@@ -20,6 +20,7 @@ package de.root1.simon.utils;
 
 import de.root1.simon.SimonProxy;
 import de.root1.simon.SimonRemoteMarker;
+import de.root1.simon.annotation.OneWay;
 import de.root1.simon.annotation.SimonRemote;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -327,6 +328,26 @@ public class Utils {
      * @param annotatedElement
      */
     public static boolean isRemoteAnnotated(AnnotatedElement annotatedElement) {
+        if (annotatedElement instanceof Class) {
+            return remoteAnnotatedClasses.get((Class<?>) annotatedElement);
+        }
+        return lookupRemoteAnnotation(annotatedElement);
+    }
+
+    /**
+     * Caches per class whether it's annotated with <code>SimonRemote</code>.
+     * Looking it up is costly for classes that are not, as the annotation
+     * class is then loaded again via the class's classloader.
+     */
+    private static final ClassValue<Boolean> remoteAnnotatedClasses = new ClassValue<Boolean>() {
+
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return lookupRemoteAnnotation(type);
+        }
+    };
+
+    private static boolean lookupRemoteAnnotation(AnnotatedElement annotatedElement) {
 
         boolean isRemoteAnnotated = annotatedElement.isAnnotationPresent(de.root1.simon.annotation.SimonRemote.class);
 
@@ -399,6 +420,24 @@ public class Utils {
         return parameter.isAnnotationPresent(SimonRemote.class);
     }
 
+    /**
+     * Checks if given method is a one-way method. This is the case if the
+     * method returns <code>void</code> and is annotated with {@link OneWay}.
+     *
+     * @param method the method to check
+     * @return true, if the method is invoked without waiting for a return
+     */
+    public static boolean isOneWay(Method method) {
+        if (!method.isAnnotationPresent(OneWay.class)) {
+            return false;
+        }
+        if (method.getReturnType() != void.class) {
+            logger.warn("Method '{}' is annotated with @OneWay but does not return void. Invoking it as regular method.", method);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Checks if given object is a simon proxy.
      *
@@ -3,9 +3,15 @@
 package de.root1.simon.codec.base
 
 import de.root1.simon.codec.base.ObjectCode.*
+import de.root1.simon.codec.messages.SimonMessageConstants
 import jdk.nashorn.internal.ir.annotations.Immutable
+import org.apache.mina.core.buffer.BufferDataException
 import org.apache.mina.core.buffer.IoBuffer
 import java.io.Serializable
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.nio.ByteBuffer
+import java.time.*
 import java.util.*
 import kotlin.coroutines.experimental.buildSequence
 
@@ -16,6 +22,37 @@ interface Serializer<T>{
     fun deserialize(stream: String): T
 }
 
+/**
+ * Writes objects of one type directly into the message buffer and reads them
+ * back, without an intermediate String or Java serialization.
+ *
+ * [write] puts the object at the position of the buffer, which expands as
+ * needed. The codec prefixes the written bytes with their length, so [read]
+ * gets a buffer limited to exactly those bytes and doesn't have to consume
+ * all of them.
+ *
+ * Only used towards peers that announced
+ * [SimonMessageConstants.FEATURE_BINARY_SERIALIZERS]. Other peers get the
+ * object Java serialized, so the type has to stay [Serializable] for them.
+ */
+interface BinarySerializer<T> {
+    fun write(instance: T, output: IoBuffer)
+    fun read(input: IoBuffer): T
+}
+
+/**
+ * A String based encoder and decoder on top of [BinarySerializer]. The String
+ * is written as UTF-8 straight into the buffer. Peers without
+ * [SimonMessageConstants.FEATURE_BINARY_SERIALIZERS] get it as in version 1,
+ * as a Java serialized String.
+ */
+internal class StringSerializerAdapter<T>(private val encoder: Encoder<T>, private val decoder: Decoder<T>) : BinarySerializer<T> {
+    fun encode(instance: T): String = encoder(instance)
+    fun decode(encoded: String): T = decoder(encoded)
+    override fun write(instance: T, output: IoBuffer) = StringCodec.putPrefixedString(output, encode(instance), 4)
+    override fun read(input: IoBuffer): T = decode(StringCodec.getPrefixedString(input, 4))
+}
+
 
 //TODO: convert this to an injected object.
 // ok so then, what data type is the most resiliant to serialization? --as in, which serializer is most serializable?
@@ -33,18 +70,60 @@ interface Serializer<T>{
 // this doesnt cover bad configuration, but it does cover _forgetting_ to do configuration.
 
 @Immutable data class SerializerSet private constructor(
-        internal var UserDecoders: Map<Class<*>, Decoder<Any>> = emptyMap(),
-        internal var UserEncoders: Map<Class<*>, Encoder<Any>> = emptyMap()
+        internal var UserSerializers: Map<Class<*>, BinarySerializer<Any>> = emptyMap()
 ) {
 
+    /**
+     * the serializers resolved per class, replaced whenever a serializer is added.
+     * Not part of equals()/hashCode(), it only depends on the map.
+     */
+    @Volatile private var resolution = Resolution(UserSerializers)
+
     fun <T> plusSerializer(type: Class<T>, encoder: Encoder<T>, decoder: Decoder<T>) {
-        UserEncoders += (type to (encoder as Encoder<Any>))
-        UserDecoders += (type to (decoder as Decoder<Any>))
+        plusSerializer(type, StringSerializerAdapter(encoder, decoder))
     }
 
     fun <T> plusSerializer(type: Class<T>, serializer: Serializer<T>) {
-        UserEncoders += (type to { it -> serializer.serialize(it as T) })
-        UserDecoders += (type to { it -> serializer.deserialize(it) as Any }) //TODO: null semantics?
+        plusSerializer(type, StringSerializerAdapter<T>({ serializer.serialize(it) }, { serializer.deserialize(it) })) //TODO: null semantics?
+    }
+
+    fun <T> plusSerializer(type: Class<T>, serializer: BinarySerializer<T>) {
+        UserSerializers += (type to (serializer as BinarySerializer<Any>))
+        resolution = Resolution(UserSerializers)
+    }
+
+    /**
+     * Registers a [SchemaSerializer] for a Java record or Kotlin data class,
+     * which writes its components positionally instead of using Java
+     * serialization. Has to be registered on both sides.
+     *
+     * @throws IllegalArgumentException if the layout of [type] can't be derived
+     */
+    fun <T> plusSchemaSerializer(type: Class<T>) {
+        plusSerializer(type, SchemaSerializer.forClass(type, this))
+    }
+
+    /** the user serializer for the closest registered super type of [type], if any */
+    internal fun serializerFor(type: Class<*>): BinarySerializer<Any>? = resolution.serializer(type)
+
+    /**
+     * Caches [closestForType] per class for one state of the map, so the type
+     * hierarchy of a class is only searched the first time one of its
+     * objects is written or read.
+     */
+    private class Resolution(serializers: Map<Class<*>, BinarySerializer<Any>>) {
+
+        private val cache = object : ClassValue<Any>() {
+            override fun computeValue(type: Class<*>): Any = serializers.closestForType(type) ?: NONE
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        fun serializer(type: Class<*>): BinarySerializer<Any>? = cache.get(type).takeUnless { it === NONE } as BinarySerializer<Any>?
+
+        private companion object {
+            /** marks a class without serializer */
+            val NONE = Any()
+        }
     }
 
     companion object {
@@ -52,8 +131,15 @@ interface Serializer<T>{
     }
 }
 
+/**
+ * Reads a user object. [classes] is the dictionary of the session the object
+ * was received from, needed for [ObjectCode.SERIALIZED] objects and class
+ * references. Without one, only references that don't refer to earlier
+ * messages can be read.
+ */
+@JvmOverloads
 @Throws(ClassNotFoundException::class)
-fun SerializerSet.readUserObject(input: IoBuffer): Any? {
+fun SerializerSet.readUserObject(input: IoBuffer, classes: ClassDictionary? = null): Any? {
 
     val type = input.getEnum(ObjectCode::class.java)!!
 
@@ -73,41 +159,85 @@ fun SerializerSet.readUserObject(input: IoBuffer): Any? {
         DOUBLE -> input.getDouble()
 
         CHAR -> input.getChar()
-        STRING -> input.getPrefixedString(4, FromUTF8)
+        STRING -> StringCodec.getPrefixedString(input, 4)
+
+        BOOL_ARRAY -> BooleanArray(input.getLength(1)) { input.getBoolean() }
+        BYTE_ARRAY -> ByteArray(input.getLength(1)).also { input.get(it) }
+        SHORT_ARRAY -> input.getArray(2, { ShortArray(it) }) { buf, array -> buf.asShortBuffer().get(array) }
+        INT_ARRAY -> input.getArray(4, { IntArray(it) }) { buf, array -> buf.asIntBuffer().get(array) }
+        LONG_ARRAY -> input.getArray(8, { LongArray(it) }) { buf, array -> buf.asLongBuffer().get(array) }
+        FLOAT_ARRAY -> input.getArray(4, { FloatArray(it) }) { buf, array -> buf.asFloatBuffer().get(array) }
+        DOUBLE_ARRAY -> input.getArray(8, { DoubleArray(it) }) { buf, array -> buf.asDoubleBuffer().get(array) }
+        CHAR_ARRAY -> input.getArray(2, { CharArray(it) }) { buf, array -> buf.asCharBuffer().get(array) }
+
+        ENUM -> enumsByName.get((classes ?: ClassDictionary()).readType(input))[StringCodec.getPrefixedString(input)]
+                ?: throw BufferDataException("unknown enum constant")
+        ObjectCode.UUID -> java.util.UUID(input.getLong(), input.getLong())
+        BIG_INTEGER -> input.getBigInteger()
+        BIG_DECIMAL -> input.getInt().let { scale -> BigDecimal(input.getBigInteger(), scale) }
+
+        INSTANT -> Instant.ofEpochSecond(input.getLong(), input.getInt().toLong())
+        DURATION -> Duration.ofSeconds(input.getLong(), input.getInt().toLong())
+        LOCAL_DATE -> LocalDate.ofEpochDay(input.getLong())
+        LOCAL_TIME -> LocalTime.ofNanoOfDay(input.getLong())
+        LOCAL_DATE_TIME -> input.getLocalDateTime()
+        ZONED_DATE_TIME -> {
+            val dateTime = input.getLocalDateTime()
+            val offset = ZoneOffset.ofTotalSeconds(input.getInt())
+            ZonedDateTime.ofLocal(dateTime, ZoneId.of(StringCodec.getPrefixedString(input)), offset)
+        }
+
+        SERIALIZED -> (classes ?: ClassDictionary()).readObject(input)
+
+        CUSTOM -> {
+            val clazz = (classes ?: ClassDictionary()).readType(input)
+            // the serializers are meant to be referentially transparent, a missing one is a configuration error
+            val userDecoder = serializerFor(clazz)
+                    ?: throw BufferDataException("${clazz.name} was written by a serializer, but there is none registered for it")
+
+            readLengthPrefixed(input) {
+                if (userDecoder is SchemaSerializer<*>) userDecoder.readFields(it, classes) else userDecoder.read(it)
+            }
+        }
 
         UNKNOWN -> {
-            val name = input.getPrefixedString(FromUTF8)
-            val clazz = Class.forName(name)
+            val clazz = Class.forName(StringCodec.getPrefixedString(input))
             val usedCustomEncoder = input.getBoolean()
             val value = input.getObject()
 
-            val userDecoder = this.UserDecoders.closestForType(clazz)
-
-            if(usedCustomEncoder && userDecoder == null){
-                TODO("used custom encoder but no custom decoder found, and these encoders/decoders are setup to be pretty ref transparent...")
-                //warning vs exception:
-                // IMHO, if we cant demonstrate a use-case for a non-referentially transparent encoder,
-                //       IE, one that has some static mutable state which _might_ explain why you would want one,
-                //       then this should be an exception,
-                //       but, if there is such a use case, then this should probably just be a warning or even info.
-
-                // how about logging?
-                //       if a user wanted a quick-and-dirty way to see stuff going across the wire,
-                //       he could install a Any serializer that simply logs things...
-                //       but only out-going things? concievably he doesnt have access to the encoding side?
-                //       consider a dev-client using simon to get into a staging-server?
+            if( ! usedCustomEncoder){
+                return value
             }
 
-            return userDecoder?.invoke(value as String) ?: value
+            val userDecoder = serializerFor(clazz) as? StringSerializerAdapter<*>
+                    ?: throw BufferDataException("${clazz.name} was encoded to a String, but there is no String based serializer registered for it")
+            userDecoder.decode(value as String)
         }
     }
 
     return result
 }
 
-fun SerializerSet.writeUserObject(obj: Any?, output: IoBuffer){
-
-    val type = ObjectCode[obj]
+/**
+ * Writes a user object, see [readUserObject]. [classes] is the dictionary of
+ * the session, if the peer announced it, and [features] are the
+ * `FEATURE_*` bits of [SimonMessageConstants] both sides announced.
+ */
+@JvmOverloads
+fun SerializerSet.writeUserObject(obj: Any?, output: IoBuffer, classes: ClassDictionary? = null, features: Int = 0){
+
+    var type = ObjectCode[obj]
+    val serializer = if (type >= UNKNOWN) serializerFor(obj!!.javaClass) else null
+    if (serializer != null && (features and SimonMessageConstants.FEATURE_BINARY_SERIALIZERS) != 0) {
+        // a serializer registered for the type wins over the built in encoding
+        type = CUSTOM
+    } else if (serializer is StringSerializerAdapter<*>) {
+        // the encoded String, as in version 1
+        type = UNKNOWN
+    } else if (type == UNKNOWN || (type > UNKNOWN && (features and SimonMessageConstants.FEATURE_VALUE_CODES) == 0)) {
+        // Java serialization, also for the built in encodings the peer doesn't know
+        type = if (classes != null) SERIALIZED else UNKNOWN
+    }
 
     output.putEnum(type)
 
@@ -125,22 +255,155 @@ fun SerializerSet.writeUserObject(obj: Any?, output: IoBuffer){
         DOUBLE -> output.putDouble(obj as Double)
 
         CHAR -> output.putChar(obj as Char)
-        STRING -> output.putPrefixedString(obj as String, 4, ToUTF8)
+        STRING -> StringCodec.putPrefixedString(output, obj as String, 4)
+
+        BOOL_ARRAY -> (obj as BooleanArray).let { array -> output.putInt(array.size); array.forEach { output.putBoolean(it) } }
+        BYTE_ARRAY -> (obj as ByteArray).let { array -> output.putInt(array.size); output.put(array) }
+        SHORT_ARRAY -> (obj as ShortArray).let { array -> output.putArray(array.size, 2) { it.asShortBuffer().put(array) } }
+        INT_ARRAY -> (obj as IntArray).let { array -> output.putArray(array.size, 4) { it.asIntBuffer().put(array) } }
+        LONG_ARRAY -> (obj as LongArray).let { array -> output.putArray(array.size, 8) { it.asLongBuffer().put(array) } }
+        FLOAT_ARRAY -> (obj as FloatArray).let { array -> output.putArray(array.size, 4) { it.asFloatBuffer().put(array) } }
+        DOUBLE_ARRAY -> (obj as DoubleArray).let { array -> output.putArray(array.size, 8) { it.asDoubleBuffer().put(array) } }
+        CHAR_ARRAY -> (obj as CharArray).let { array -> output.putArray(array.size, 2) { it.asCharBuffer().put(array) } }
+
+        ENUM -> (obj as Enum<*>).let { constant ->
+            // constants with a body are instances of an anonymous subclass
+            val clazz = constant.javaClass.let { if (it.isEnum) it else it.superclass }
+            writeClass(clazz, output, classes)
+            StringCodec.putPrefixedString(output, constant.name)
+        }
+        ObjectCode.UUID -> (obj as java.util.UUID).let { output.putLong(it.mostSignificantBits); output.putLong(it.leastSignificantBits) }
+        BIG_INTEGER -> output.putBigInteger(obj as BigInteger)
+        BIG_DECIMAL -> (obj as BigDecimal).let { output.putInt(it.scale()); output.putBigInteger(it.unscaledValue()) }
+
+        INSTANT -> (obj as Instant).let { output.putLong(it.epochSecond); output.putInt(it.nano) }
+        DURATION -> (obj as Duration).let { output.putLong(it.seconds); output.putInt(it.nano) }
+        LOCAL_DATE -> output.putLong((obj as LocalDate).toEpochDay())
+        LOCAL_TIME -> output.putLong((obj as LocalTime).toNanoOfDay())
+        LOCAL_DATE_TIME -> output.putLocalDateTime(obj as LocalDateTime)
+        ZONED_DATE_TIME -> (obj as ZonedDateTime).let {
+            output.putLocalDateTime(it.toLocalDateTime())
+            output.putInt(it.offset.totalSeconds)
+            StringCodec.putPrefixedString(output, it.zone.id)
+        }
+
+        SERIALIZED -> classes!!.writeObject(obj, output)
+
+        CUSTOM -> {
+            writeClass(obj!!.javaClass, output, classes)
+            writeLengthPrefixed(output) {
+                if (serializer is SchemaSerializer<*>) serializer.writeFields(obj, it, classes, features) else serializer!!.write(obj, it)
+            }
+        }
 
         UNKNOWN -> {
-            val clazz = obj!!.javaClass
-            output.putPrefixedString(clazz.name, ToUTF8)
+            StringCodec.putPrefixedString(output, obj!!.javaClass.name)
 
-            val userEncoder = UserEncoders.closestForType(clazz)
+            // other serializers are left to Java serialization
+            @Suppress("UNCHECKED_CAST")
+            val userEncoder = serializer as? StringSerializerAdapter<Any>
 
             output.putBoolean(userEncoder != null)
+            output.putObject(userEncoder?.encode(obj) ?: obj)
+        }
+    }
 
-            val value: Any = userEncoder?.invoke(obj) ?: obj
+}
 
-            output.putObject(value)
-        }
+/**
+ * Writes a class reference, by id if the session has a dictionary, otherwise
+ * by name. Read by [ClassDictionary.readType] in either case.
+ */
+private fun writeClass(clazz: Class<*>, output: IoBuffer, classes: ClassDictionary?) {
+    if (classes != null) classes.writeType(clazz, output) else ClassDictionary.writeUnstoredType(clazz, output)
+}
+
+/** the constants of the enums read so far, by name */
+private val enumsByName = object : ClassValue<Map<String, Any>>() {
+    override fun computeValue(type: Class<*>): Map<String, Any> =
+            (type.enumConstants ?: throw BufferDataException("${type.name} is not an enum")).associateBy { (it as Enum<*>).name }
+}
+
+/**
+ * Reads the length of an array and checks it against the remaining bytes, so
+ * that a corrupt length can't allocate arbitrary memory.
+ */
+private fun IoBuffer.getLength(elementSize: Int): Int {
+    val length = getInt()
+    if (length < 0 || length.toLong() * elementSize > remaining()) {
+        throw BufferDataException("invalid length: $length")
     }
+    return length
+}
+
+/**
+ * Writes the length of a primitive array and lets [copy] bulk copy it into a
+ * view of the buffer
+ */
+private inline fun IoBuffer.putArray(length: Int, elementSize: Int, copy: (ByteBuffer) -> Unit) {
+    putInt(length)
+    val bytes = length * elementSize
+    expand(bytes)
+    copy(buf())
+    position(position() + bytes)
+}
 
+/**
+ * Reads the length of a primitive array and lets [copy] bulk copy it from a
+ * view of the buffer
+ */
+private inline fun <T> IoBuffer.getArray(elementSize: Int, create: (Int) -> T, copy: (ByteBuffer, T) -> Unit): T {
+    val length = getLength(elementSize)
+    val array = create(length)
+    copy(buf(), array)
+    position(position() + length * elementSize)
+    return array
+}
+
+private fun IoBuffer.putBigInteger(value: BigInteger) {
+    val bytes = value.toByteArray()
+    putInt(bytes.size)
+    put(bytes)
+}
+
+private fun IoBuffer.getBigInteger(): BigInteger = BigInteger(ByteArray(getLength(1)).also { get(it) })
+
+private fun IoBuffer.putLocalDateTime(value: LocalDateTime) {
+    putLong(value.toLocalDate().toEpochDay())
+    putLong(value.toLocalTime().toNanoOfDay())
+}
+
+private fun IoBuffer.getLocalDateTime(): LocalDateTime =
+        LocalDateTime.of(LocalDate.ofEpochDay(getLong()), LocalTime.ofNanoOfDay(getLong()))
+
+/**
+ * Writes whatever [write] puts into the buffer behind an int length prefix
+ */
+private inline fun writeLengthPrefixed(output: IoBuffer, write: (IoBuffer) -> Unit) {
+    val start = output.position()
+    output.skip(4) // room for the length
+    write(output)
+    output.putInt(start, output.position() - start - 4)
+}
+
+/**
+ * Hands the bytes written by [writeLengthPrefixed] to [read], limited to exactly
+ * those bytes, and continues behind them.
+ */
+private inline fun <T> readLengthPrefixed(input: IoBuffer, read: (IoBuffer) -> T): T {
+    val length = input.getInt()
+    if (length < 0 || length > input.remaining()) {
+        throw BufferDataException("invalid user object length: $length")
+    }
+    val end = input.position() + length
+    val limit = input.limit()
+    input.limit(end)
+    try {
+        return read(input)
+    } finally {
+        input.limit(limit)
+        input.position(end)
+    }
 }
 
 
@@ -165,6 +428,35 @@ enum class ObjectCode {
     //
 
     UNKNOWN,
+
+    // the codes below are used towards peers with FEATURE_VALUE_CODES, unless a serializer is registered for the type,
+    // see writeUserObject. Collections are left to Java serialization, which keeps shared references and cycles.
+
+    BOOL_ARRAY,
+    BYTE_ARRAY,
+    SHORT_ARRAY,
+    INT_ARRAY,
+    LONG_ARRAY,
+    FLOAT_ARRAY,
+    DOUBLE_ARRAY,
+    CHAR_ARRAY,
+
+    ENUM,
+    UUID,
+    BIG_INTEGER,
+    BIG_DECIMAL,
+
+    INSTANT,
+    DURATION,
+    LOCAL_DATE,
+    LOCAL_TIME,
+    LOCAL_DATE_TIME,
+    ZONED_DATE_TIME,
+
+    // an object without serializer, Java serialized with its classes referred to by the ClassDictionary of the session
+    SERIALIZED,
+    // an object written by the BinarySerializer registered for its type
+    CUSTOM,
     ;
 
     companion object {
@@ -184,6 +476,27 @@ enum class ObjectCode {
             is Char -> CHAR
             is String -> STRING
 
+            is BooleanArray -> BOOL_ARRAY
+            is ByteArray -> BYTE_ARRAY
+            is ShortArray -> SHORT_ARRAY
+            is IntArray -> INT_ARRAY
+            is LongArray -> LONG_ARRAY
+            is FloatArray -> FLOAT_ARRAY
+            is DoubleArray -> DOUBLE_ARRAY
+            is CharArray -> CHAR_ARRAY
+
+            is Enum<*> -> ENUM
+            is java.util.UUID -> ObjectCode.UUID
+            is BigInteger -> if (obj.javaClass == BigInteger::class.java) BIG_INTEGER else UNKNOWN
+            is BigDecimal -> if (obj.javaClass == BigDecimal::class.java) BIG_DECIMAL else UNKNOWN
+
+            is Instant -> INSTANT
+            is Duration -> DURATION
+            is LocalDate -> LOCAL_DATE
+            is LocalTime -> LOCAL_TIME
+            is LocalDateTime -> LOCAL_DATE_TIME
+            is ZonedDateTime -> ZONED_DATE_TIME
+
             else -> UNKNOWN
         }
     }
@@ -217,7 +530,7 @@ val FALSE_BYTE = 0.toByte()
 val TRUE_BYTE = 1.toByte()
 
 fun IoBuffer.getBoolean(): Boolean = get().let {
-    when(it){ TRUE_BYTE -> true; FALSE_BYTE -> false; else -> TODO() }
+    when(it){ TRUE_BYTE -> true; FALSE_BYTE -> false; else -> throw BufferDataException("invalid boolean: $it") }
 }
 fun IoBuffer.putBoolean(value: Boolean) = put(if(value) TRUE_BYTE else FALSE_BYTE)
 
@@ -225,6 +538,3 @@ fun <T> Map<Class<*>, T>.closestForType(type: Class<*>): T? {
     val searchSequence = superClassSequence(type) + superInterfaceSequence(type) + Any::class.java
     return searchSequence.firstOrNull { it in keys }?.let { getValue(it) }
 }
-
-val FromUTF8 = Charsets.UTF_8.newDecoder()
-val ToUTF8 = Charsets.UTF_8.newEncoder()
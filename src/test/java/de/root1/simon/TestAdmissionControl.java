@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Test;
+
+/**
+ * Tests the in-flight limits of the {@link AdmissionControl}
+ *
+ * @author achristian
+ */
+public class TestAdmissionControl {
+
+    @Test
+    public void testDisabledByDefault() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        assertFalse(admissionControl.isEnabled());
+        assertEquals(OverloadPolicy.SUSPEND_READ, admissionControl.getOverloadPolicy());
+    }
+
+    @Test
+    public void testRejectAboveGlobalLimit() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(2);
+        admissionControl.setOverloadPolicy(OverloadPolicy.REJECT);
+        IoSession session1 = new DummySession();
+        IoSession session2 = new DummySession();
+
+        AdmissionControl.Ticket first = admissionControl.admit(session1, true);
+        AdmissionControl.Ticket second = admissionControl.admit(session2, true);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull("third request must be rejected", admissionControl.admit(session1, true));
+        assertEquals("a rejected request is not in flight", 2, admissionControl.getInFlight());
+
+        first.release();
+        assertEquals(1, admissionControl.getInFlight());
+        assertNotNull("released ticket frees room", admissionControl.admit(session2, true));
+    }
+
+    @Test
+    public void testRejectAbovePerSessionLimit() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlightPerSession(1);
+        admissionControl.setOverloadPolicy(OverloadPolicy.REJECT);
+        IoSession session1 = new DummySession();
+        IoSession session2 = new DummySession();
+
+        assertNotNull(admissionControl.admit(session1, true));
+        assertNull(admissionControl.admit(session1, true));
+        assertNotNull("other sessions are not affected", admissionControl.admit(session2, true));
+    }
+
+    @Test
+    public void testNonRejectableRequestsAreAlwaysAdmitted() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(1);
+        admissionControl.setOverloadPolicy(OverloadPolicy.REJECT);
+        IoSession session = new DummySession();
+
+        assertNotNull(admissionControl.admit(session, true));
+        assertNotNull(admissionControl.admit(session, false));
+        assertEquals(2, admissionControl.getInFlight());
+    }
+
+    @Test
+    public void testReleaseIsIdempotent() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(10);
+        AdmissionControl.Ticket ticket = admissionControl.admit(new DummySession(), true);
+
+        ticket.release();
+        ticket.release();
+        assertEquals(0, admissionControl.getInFlight());
+    }
+
+    @Test
+    public void testWrappedTaskReleasesTicket() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(10);
+        final AdmissionControl.Ticket ticket = admissionControl.admit(new DummySession(), true);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        ticket.wrap(new Runnable() {
+
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }).run();
+
+        assertTrue(ran.get());
+        assertEquals(0, admissionControl.getInFlight());
+    }
+
+    @Test
+    public void testCurrentTicketIsReleasedBeforeBlocking() {
+        final AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(10);
+        AdmissionControl.Ticket ticket = admissionControl.admit(new DummySession(), true);
+
+        ticket.wrap(new Runnable() {
+
+            @Override
+            public void run() {
+                assertEquals(1, admissionControl.getInFlight());
+                // like a task about to wait for a remote result
+                AdmissionControl.releaseCurrentTicket();
+                assertEquals(0, admissionControl.getInFlight());
+            }
+        }).run();
+
+        assertEquals(0, admissionControl.getInFlight());
+    }
+
+    @Test
+    public void testSuspendAndResumeRead() {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setMaxInFlight(4);
+        IoSession session = new DummySession();
+
+        AdmissionControl.Ticket[] tickets = new AdmissionControl.Ticket[4];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = admissionControl.admit(session, true);
+            assertNotNull("suspending never rejects", tickets[i]);
+        }
+        assertTrue("limit reached, read must be suspended", session.isReadSuspended());
+
+        tickets[0].release();
+        assertTrue("still above the low-water mark", session.isReadSuspended());
+        tickets[1].release();
+        assertFalse("at the low-water mark, read must be resumed", session.isReadSuspended());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullPolicy() {
+        new AdmissionControl().setOverloadPolicy(null);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.root1.simon.codec.messages.MsgInvoke;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests when the {@link InvokeHandles} bind a handle and when they use it
+ *
+ * @author achristian
+ */
+public class TestInvokeHandles {
+
+    /** handle and bind flag of each written invoke, -1 for the full form */
+    private final List<int[]> written = new ArrayList<int[]>();
+    private DummySession session;
+    private InvokeHandles invokeHandles;
+    private Method toString;
+    private Method hashCode;
+
+    @Before
+    public void setUp() throws NoSuchMethodException {
+        session = new DummySession();
+        session.getFilterChain().addLast("recorder", new IoFilterAdapter() {
+
+            @Override
+            public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+                MsgInvoke msgInvoke = (MsgInvoke) writeRequest.getMessage();
+                written.add(new int[]{msgInvoke.getHandle(), msgInvoke.isBindHandle() ? 1 : 0});
+                nextFilter.filterWrite(session, writeRequest);
+            }
+        });
+        invokeHandles = InvokeHandles.of(session);
+        toString = Object.class.getMethod("toString");
+        hashCode = Object.class.getMethod("hashCode");
+    }
+
+    @Test
+    public void testHandleIsUsedAfterAcknowledge() {
+        write(1, "server", toString);
+        assertWritten(0, true);
+
+        write(2, "server", toString);
+        assertFullForm("binding not acknowledged yet");
+
+        InvokeHandles.acknowledged(session, 1);
+        write(3, "server", toString);
+        assertWritten(0, false);
+    }
+
+    @Test
+    public void testOneWayRequestsDontBind() {
+        write(Statics.ONE_WAY_SEQUENCE, "server", toString);
+        assertFullForm("a one-way request can't be acknowledged");
+
+        write(1, "server", toString);
+        assertWritten(0, true);
+        InvokeHandles.acknowledged(session, 1);
+
+        write(Statics.ONE_WAY_SEQUENCE, "server", toString);
+        assertWritten(0, false);
+    }
+
+    @Test
+    public void testUnansweredBindingIsSentAgain() {
+        write(1, "server", toString);
+        assertWritten(0, true);
+
+        InvokeHandles.unanswered(session, 1);
+        write(2, "server", toString);
+        assertWritten(0, true);
+
+        // the late answer to the first binding doesn't count
+        InvokeHandles.acknowledged(session, 1);
+        write(3, "server", toString);
+        assertFullForm("second binding not acknowledged yet");
+
+        InvokeHandles.acknowledged(session, 2);
+        write(4, "server", toString);
+        assertWritten(0, false);
+    }
+
+    @Test
+    public void testHandlesPerTarget() {
+        write(1, "server", toString);
+        write(2, "server", hashCode);
+        write(3, "other", toString);
+        assertEquals(0, written.get(0)[0]);
+        assertEquals(1, written.get(1)[0]);
+        assertEquals(2, written.get(2)[0]);
+    }
+
+    @Test
+    public void testUnrelatedResultsAreIgnored() {
+        InvokeHandles.acknowledged(new DummySession(), 1);
+        write(1, "server", toString);
+        InvokeHandles.acknowledged(session, 99);
+        write(2, "server", toString);
+        assertFullForm("only the answer to the binding request counts");
+    }
+
+    @Test
+    public void testFullFormOnceHandlesAreExhausted() {
+        for (int i = 0; i < SimonMessageConstants.MAX_INVOKE_HANDLES; i++) {
+            write(i + 1, "server" + i, toString);
+        }
+        assertWritten(SimonMessageConstants.MAX_INVOKE_HANDLES - 1, true);
+
+        write(0, "one too many", toString);
+        assertFullForm("no handle left");
+    }
+
+    private void write(int sequence, String remoteObjectName, Method method) {
+        MsgInvoke msgInvoke = new MsgInvoke();
+        msgInvoke.setSequence(sequence);
+        msgInvoke.setRemoteObjectName(remoteObjectName);
+        msgInvoke.setMethod(method);
+        invokeHandles.write(session, msgInvoke);
+    }
+
+    private void assertWritten(int handle, boolean bind) {
+        int[] last = written.get(written.size() - 1);
+        assertEquals("handle", handle, last[0]);
+        assertEquals("bind", bind, last[1] == 1);
+    }
+
+    private void assertFullForm(String message) {
+        assertTrue(message, written.get(written.size() - 1)[0] < 0);
+    }
+}
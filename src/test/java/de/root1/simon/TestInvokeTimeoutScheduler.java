@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests the hashed-wheel timer firing the invoke timeouts
+ *
+ * @author achristian
+ */
+public class TestInvokeTimeoutScheduler {
+
+    private static final int TICK = 10;
+
+    @Test
+    public void testTimeoutFiresAfterDelay() throws InterruptedException {
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(TICK);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicLong firedAt = new AtomicLong();
+
+        long start = System.nanoTime();
+        InvokeTimeoutScheduler.Timeout timeout = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                firedAt.set(System.nanoTime());
+                fired.countDown();
+            }
+        }, 100);
+
+        assertTrue("timeout did not fire", fired.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(firedAt.get() - start);
+        assertTrue("timeout fired too early: " + elapsed + "ms", elapsed >= 100);
+        assertTrue(timeout.isExpired());
+        assertFalse("an expired timeout can't be cancelled", timeout.cancel());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotFire() throws InterruptedException {
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(TICK);
+        final AtomicInteger fired = new AtomicInteger();
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                fired.incrementAndGet();
+            }
+        };
+
+        InvokeTimeoutScheduler.Timeout cancelledBeforeTransfer = scheduler.schedule(task, 50);
+        assertTrue(cancelledBeforeTransfer.cancel());
+        assertFalse("a timeout can only be cancelled once", cancelledBeforeTransfer.cancel());
+
+        InvokeTimeoutScheduler.Timeout cancelledInWheel = scheduler.schedule(task, 100);
+        Thread.sleep(3 * TICK);
+        assertTrue(cancelledInWheel.cancel());
+
+        Thread.sleep(300);
+        assertEquals(0, fired.get());
+        assertTrue(cancelledBeforeTransfer.isCancelled());
+        assertTrue(cancelledInWheel.isCancelled());
+        assertFalse(cancelledInWheel.isExpired());
+    }
+
+    @Test
+    public void testManyTimeoutsFireOnce() throws InterruptedException {
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(TICK);
+        int count = 2000;
+        final CountDownLatch fired = new CountDownLatch(count / 2);
+        final AtomicInteger firedCount = new AtomicInteger();
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                firedCount.incrementAndGet();
+                fired.countDown();
+            }
+        };
+
+        InvokeTimeoutScheduler.Timeout[] timeouts = new InvokeTimeoutScheduler.Timeout[count];
+        for (int i = 0; i < count; i++) {
+            timeouts[i] = scheduler.schedule(task, i % 200);
+        }
+        // cancel every second one, some of them may have fired already
+        int cancelled = 0;
+        for (int i = 0; i < count; i += 2) {
+            if (timeouts[i].cancel()) {
+                cancelled++;
+            }
+        }
+
+        assertTrue("not all timeouts fired", fired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(count - cancelled, firedCount.get());
+    }
+
+    @Test
+    public void testTimeoutBeyondOneWheelRound() throws InterruptedException {
+        // 512 buckets with 1ms ticks: 700ms needs a second round
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(1);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicLong firedAt = new AtomicLong();
+
+        long start = System.nanoTime();
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                firedAt.set(System.nanoTime());
+                fired.countDown();
+            }
+        }, 700);
+
+        assertTrue("timeout did not fire", fired.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(firedAt.get() - start);
+        assertTrue("timeout fired a round too early: " + elapsed + "ms", elapsed >= 700);
+    }
+
+    @Test
+    public void testSchedulerResumesAfterIdle() throws InterruptedException {
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(TICK);
+        for (int i = 0; i < 2; i++) {
+            final CountDownLatch fired = new CountDownLatch(1);
+            scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    fired.countDown();
+                }
+            }, 20);
+            assertTrue("timeout " + i + " did not fire", fired.await(5, TimeUnit.SECONDS));
+            // let the worker park without any outstanding timeout
+            Thread.sleep(5 * TICK);
+        }
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopScheduler() throws InterruptedException {
+        InvokeTimeoutScheduler scheduler = new InvokeTimeoutScheduler(TICK);
+        final CountDownLatch fired = new CountDownLatch(1);
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected by test");
+            }
+        }, 10);
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 50);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTickDuration() {
+        new InvokeTimeoutScheduler(0);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests registering, completing and closing the {@link PendingCallTable} of
+ * a session
+ *
+ * @author achristian
+ */
+public class TestPendingCallTable {
+
+    private static final Object CLOSED = "session closed";
+
+    @Test
+    public void testResultCompletesRegisteredCall() throws Exception {
+        PendingCallTable table = new PendingCallTable();
+        PendingCall call = table.register(1);
+        PendingCall other = table.register(2);
+        assertEquals(2, table.size());
+        assertFalse(call.isDone());
+
+        assertTrue(table.complete(1, "result"));
+        assertEquals("result", call.awaitResult());
+        assertFalse("only the call with the sequence is completed", other.isDone());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testLateResultIsRejected() {
+        PendingCallTable table = new PendingCallTable();
+        assertFalse("no call with this sequence", table.complete(7, "result"));
+
+        PendingCall call = table.register(1);
+        assertTrue(table.complete(1, "result"));
+        assertFalse("the call already got its result", table.complete(1, "again"));
+        assertEquals("result", call.awaitResult());
+
+        table.register(2);
+        assertNotNull(table.remove(2));
+        assertFalse("a removed call doesn't take results", table.complete(2, "result"));
+    }
+
+    @Test
+    public void testCloseHandsBackOutstandingCalls() {
+        PendingCallTable table = new PendingCallTable();
+        PendingCall first = table.register(1);
+        PendingCall second = table.register(2);
+        PendingCall answered = table.register(3);
+        table.complete(3, "result");
+
+        List<PendingCall> outstanding = table.close(CLOSED);
+        assertEquals(new HashSet<PendingCall>(Arrays.asList(first, second)), new HashSet<PendingCall>(outstanding));
+        assertEquals(0, table.size());
+        assertFalse("the caller completes the outstanding calls", first.isDone());
+        assertEquals("result", answered.awaitResult());
+
+        PendingCall late = table.register(4);
+        assertTrue("registered after close", late.isDone());
+        assertSame(CLOSED, late.awaitResult());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testRegisterRacingClose() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final PendingCallTable table = new PendingCallTable();
+            final CyclicBarrier start = new CyclicBarrier(2);
+            final AtomicReference<PendingCall> registered = new AtomicReference<PendingCall>();
+            Thread registering = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    registered.set(table.register(1));
+                }
+            });
+            registering.start();
+
+            start.await();
+            Set<PendingCall> outstanding = new HashSet<PendingCall>(table.close(CLOSED));
+            // like the dispatcher does
+            for (PendingCall call : outstanding) {
+                call.complete(CLOSED);
+            }
+            registering.join();
+
+            PendingCall call = registered.get();
+            assertSame("round " + i, CLOSED, call.getFuture().get(5, TimeUnit.SECONDS));
+            assertEquals("round " + i, 0, table.size());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgHello;
+import de.root1.simon.codec.messages.MsgPing;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the {@link ProtocolHandshake} between two version 2 peers and with a
+ * version 1 peer
+ *
+ * @author achristian
+ */
+public class TestProtocolHandshake {
+
+    private final boolean invokeHandles = Statics.DEFAULT_INVOKE_HANDLES;
+
+    @After
+    public void tearDown() {
+        Statics.DEFAULT_INVOKE_HANDLES = invokeHandles;
+    }
+
+    @Test
+    public void testVersion2Peers() {
+        List<AbstractMessage> clientWrites = new ArrayList<AbstractMessage>();
+        List<AbstractMessage> serverWrites = new ArrayList<AbstractMessage>();
+        IoSession client = session(clientWrites);
+        IoSession server = session(serverWrites);
+
+        ProtocolHandshake.start(client, 1);
+        MsgPing ping = (MsgPing) clientWrites.remove(0);
+        assertEquals(SimonMessageConstants.PROTOCOL_VERSION, ping.getProtocolVersion());
+
+        ProtocolHandshake.pingReceived(server, ping);
+        MsgHello serverHello = (MsgHello) serverWrites.remove(0);
+        assertEquals("the hello answers the ping", 1, serverHello.getSequence());
+        assertEquals(ProtocolHandshake.getLocalFeatures(), serverHello.getFeatures());
+        assertFalse("the server waits for the client's hello", ProtocolHandshake.isEnabled(server, SimonMessageConstants.FEATURE_COMPACT_FRAMING));
+
+        ProtocolHandshake.helloReceived(client, serverHello);
+        assertTrue(ProtocolHandshake.isEnabled(client, SimonMessageConstants.FEATURE_COMPACT_FRAMING));
+        MsgHello clientHello = (MsgHello) clientWrites.remove(0);
+        assertFalse("the pong of the watchdog is no longer part of the handshake", ProtocolHandshake.pongReceived(client));
+
+        ProtocolHandshake.helloReceived(server, clientHello);
+        assertTrue(ProtocolHandshake.isEnabled(server, SimonMessageConstants.FEATURE_COMPACT_FRAMING));
+        assertTrue("the server doesn't answer a hello", serverWrites.isEmpty());
+        assertEquals(client.getAttribute(Statics.SESSION_ATTRIBUTE_FEATURES), server.getAttribute(Statics.SESSION_ATTRIBUTE_FEATURES));
+    }
+
+    @Test
+    public void testVersion1Peer() {
+        List<AbstractMessage> clientWrites = new ArrayList<AbstractMessage>();
+        IoSession client = session(clientWrites);
+
+        ProtocolHandshake.start(client, 1);
+        assertTrue("a plain pong ends the handshake", ProtocolHandshake.pongReceived(client));
+        assertFalse("later pongs belong to the watchdog", ProtocolHandshake.pongReceived(client));
+        for (int feature = 1; feature != 0 && feature <= 0x80; feature <<= 1) {
+            assertFalse("feature " + feature, ProtocolHandshake.isEnabled(client, feature));
+        }
+    }
+
+    @Test
+    public void testOnlyCommonFeaturesAreEnabled() {
+        IoSession client = session(new ArrayList<AbstractMessage>());
+        ProtocolHandshake.start(client, 1);
+
+        MsgHello hello = new MsgHello();
+        hello.setSequence(1);
+        hello.setProtocolVersion((byte) (SimonMessageConstants.PROTOCOL_VERSION + 1));
+        hello.setFeatures(SimonMessageConstants.FEATURE_FRAGMENTS | 0x40000000);
+        ProtocolHandshake.helloReceived(client, hello);
+
+        assertTrue(ProtocolHandshake.isEnabled(client, SimonMessageConstants.FEATURE_FRAGMENTS));
+        assertFalse(ProtocolHandshake.isEnabled(client, SimonMessageConstants.FEATURE_COMPACT_FRAMING));
+        assertFalse("unknown to this side", ProtocolHandshake.isEnabled(client, 0x40000000));
+    }
+
+    @Test
+    public void testHelloIsWrittenBeforeFeaturesAreEnabled() {
+        final List<Object> featuresOnWrite = new ArrayList<Object>();
+        DummySession client = new DummySession();
+        client.getFilterChain().addLast("recorder", new IoFilterAdapter() {
+
+            @Override
+            public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+                if (writeRequest.getMessage() instanceof MsgHello) {
+                    featuresOnWrite.add(session.getAttribute(Statics.SESSION_ATTRIBUTE_FEATURES));
+                }
+                nextFilter.filterWrite(session, writeRequest);
+            }
+        });
+        ProtocolHandshake.start(client, 1);
+
+        MsgHello hello = new MsgHello();
+        hello.setSequence(1);
+        hello.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+        hello.setFeatures(ProtocolHandshake.getLocalFeatures());
+        ProtocolHandshake.helloReceived(client, hello);
+
+        assertEquals(1, featuresOnWrite.size());
+        assertNull("the own hello must not be encoded with the features", featuresOnWrite.get(0));
+        assertTrue(ProtocolHandshake.isEnabled(client, SimonMessageConstants.FEATURE_CLASS_DICTIONARY));
+    }
+
+    @Test
+    public void testInvokeHandlesCanBeDisabled() {
+        Statics.DEFAULT_INVOKE_HANDLES = false;
+        assertEquals(0, ProtocolHandshake.getLocalFeatures() & SimonMessageConstants.FEATURE_INVOKE_HANDLES);
+        Statics.DEFAULT_INVOKE_HANDLES = true;
+        assertTrue((ProtocolHandshake.getLocalFeatures() & SimonMessageConstants.FEATURE_INVOKE_HANDLES) != 0);
+    }
+
+    private static IoSession session(final List<AbstractMessage> writes) {
+        DummySession session = new DummySession();
+        session.getFilterChain().addLast("recorder", new IoFilterAdapter() {
+
+            @Override
+            public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+                writes.add((AbstractMessage) writeRequest.getMessage());
+                nextFilter.filterWrite(session, writeRequest);
+            }
+        });
+        return session;
+    }
+}
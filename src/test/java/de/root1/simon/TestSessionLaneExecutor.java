@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ordering, the bound of active lanes and the handling of rejected
+ * tasks of the {@link SessionLaneExecutor}
+ *
+ * @author achristian
+ */
+public class TestSessionLaneExecutor {
+
+    private ExecutorService pool;
+    private final List<Runnable> rejected = Collections.synchronizedList(new ArrayList<Runnable>());
+    private final SessionLaneExecutor.RejectionHandler rejectionHandler = new SessionLaneExecutor.RejectionHandler() {
+
+        @Override
+        public void rejected(IoSession session, Runnable task, RejectedExecutionException cause) {
+            rejected.add(task);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOfSessionRunInOrder() throws InterruptedException {
+        SessionLaneExecutor lanes = new SessionLaneExecutor(pool, 4, rejectionHandler);
+        IoSession session = new DummySession();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        int count = 10 * SessionLaneExecutor.LANE_BATCH_SIZE;
+        final CountDownLatch done = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            lanes.execute(session, new Runnable() {
+
+                @Override
+                public void run() {
+                    order.add(n);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testActiveLanesAreBounded() throws InterruptedException {
+        int maxActiveLanes = 2;
+        int sessions = 6;
+        SessionLaneExecutor lanes = new SessionLaneExecutor(pool, maxActiveLanes, rejectionHandler);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(sessions);
+
+        for (int i = 0; i < sessions; i++) {
+            lanes.execute(new DummySession(), new Runnable() {
+
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    int max;
+                    while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now)) {
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue("waiting lanes were not started", done.await(5, TimeUnit.SECONDS));
+        assertEquals(maxActiveLanes, maxRunning.get());
+        Thread.sleep(50);
+        assertEquals(0, lanes.getActiveLanes());
+    }
+
+    @Test
+    public void testReleasedLaneFreesItsSlot() throws InterruptedException {
+        SessionLaneExecutor lanes = new SessionLaneExecutor(pool, 1, rejectionHandler);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch otherSessionDone = new CountDownLatch(1);
+
+        lanes.execute(new DummySession(), new Runnable() {
+
+            @Override
+            public void run() {
+                // like a task waiting for a remote result
+                SessionLaneExecutor.releaseCurrentLane();
+                try {
+                    blocking.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        lanes.execute(new DummySession(), new Runnable() {
+
+            @Override
+            public void run() {
+                otherSessionDone.countDown();
+            }
+        });
+
+        assertTrue("blocked task kept its slot", otherSessionDone.await(5, TimeUnit.SECONDS));
+        blocking.countDown();
+    }
+
+    @Test
+    public void testRejectedTasksAreHandedToHandler() {
+        pool.shutdown();
+        SessionLaneExecutor lanes = new SessionLaneExecutor(pool, 4, rejectionHandler);
+        IoSession session = new DummySession();
+        Runnable ordered = new Runnable() {
+
+            @Override
+            public void run() {
+                fail("rejected task must not run");
+            }
+        };
+        Runnable unordered = new Runnable() {
+
+            @Override
+            public void run() {
+                fail("rejected task must not run");
+            }
+        };
+
+        lanes.execute(session, ordered);
+        lanes.executeUnordered(session, unordered);
+
+        assertEquals(2, rejected.size());
+        assertSame(ordered, rejected.get(0));
+        assertSame(unordered, rejected.get(1));
+        assertEquals(0, lanes.getActiveLanes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBound() {
+        new SessionLaneExecutor(pool, 0, rejectionHandler);
+    }
+}
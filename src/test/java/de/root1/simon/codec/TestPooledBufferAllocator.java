@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.SimpleBufferAllocator;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests reuse and release of the buffers of the {@link PooledBufferAllocator}
+ *
+ * @author achristian
+ */
+public class TestPooledBufferAllocator {
+
+    private final PooledBufferAllocator allocator = new PooledBufferAllocator();
+
+    @After
+    public void tearDown() {
+        // MINA 2.0 makes an allocator the JVM wide one when it creates a buffer
+        IoBuffer.setAllocator(new SimpleBufferAllocator());
+    }
+
+    @Test
+    public void testFreedBufferIsReused() {
+        IoBuffer first = allocator.allocate(100, false);
+        ByteBuffer memory = first.buf();
+        first.put((byte) 42);
+        first.free();
+        assertEquals(1, allocator.getReleased());
+
+        IoBuffer second = allocator.allocate(120, false);
+        assertSame("same size class, must be served from the pool", memory, second.buf());
+        assertEquals(1, allocator.getHits());
+        assertEquals(1, allocator.getMisses());
+        assertEquals("reused buffer must be reset", 0, second.position());
+        assertEquals(120, second.limit());
+    }
+
+    @Test
+    public void testDirectAndHeapArePooledSeparately() {
+        IoBuffer direct = allocator.allocate(100, true);
+        IoBuffer heap = allocator.allocate(100, false);
+        assertTrue(direct.isDirect());
+        assertFalse(heap.isDirect());
+
+        direct.free();
+        IoBuffer otherHeap = allocator.allocate(100, false);
+        assertFalse("a direct buffer must not be handed out for a heap request", otherHeap.isDirect());
+        IoBuffer otherDirect = allocator.allocate(100, true);
+        assertTrue(otherDirect.isDirect());
+        assertEquals(1, allocator.getHits());
+    }
+
+    @Test
+    public void testExpandingHonorsDirectFlag() {
+        IoBuffer.setAllocator(allocator);
+        IoBuffer buffer = allocator.allocate(PooledBufferAllocator.MIN_POOLED_SIZE, true).setAutoExpand(true);
+        for (int i = 0; i <= PooledBufferAllocator.MIN_POOLED_SIZE; i++) {
+            buffer.put((byte) i);
+        }
+        assertTrue(buffer.isDirect());
+        assertEquals("the old buffer goes back to the pool", 1, allocator.getReleased());
+    }
+
+    @Test
+    public void testSharedBufferIsNotReleased() {
+        IoBuffer buffer = allocator.allocate(100, false);
+        IoBuffer view = buffer.duplicate();
+        buffer.free();
+        assertEquals("a view may still be in use", 0, allocator.getReleased());
+        assertNotSame(buffer.buf(), allocator.allocate(100, false).buf());
+        assertNotNull(view);
+    }
+
+    @Test
+    public void testFreeIsIdempotent() {
+        IoBuffer buffer = allocator.allocate(100, false);
+        buffer.free();
+        buffer.free();
+        assertEquals(1, allocator.getReleased());
+        assertNotSame("a buffer must be pooled only once", allocator.allocate(100, false).buf(), allocator.allocate(100, false).buf());
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        IoBuffer buffer = allocator.allocate(PooledBufferAllocator.MAX_POOLED_SIZE + 1, false);
+        buffer.free();
+        assertEquals(1, allocator.getUnpooled());
+        assertEquals(0, allocator.getReleased());
+    }
+
+    @Test
+    public void testBufferFreedByOtherThreadIsShared() throws InterruptedException {
+        final IoBuffer buffer = allocator.allocate(1000, false);
+        ByteBuffer memory = buffer.buf();
+        Thread releaser = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                buffer.free();
+            }
+        });
+        releaser.start();
+        releaser.join();
+
+        final AtomicReference<ByteBuffer> reused = new AtomicReference<ByteBuffer>();
+        Thread allocating = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                reused.set(allocator.allocate(1000, false).buf());
+            }
+        });
+        allocating.start();
+        allocating.join();
+        assertSame(memory, reused.get());
+    }
+}
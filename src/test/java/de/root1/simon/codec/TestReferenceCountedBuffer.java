@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.SimpleBufferAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests when a {@link ReferenceCountedBuffer} frees its buffer
+ *
+ * @author achristian
+ */
+public class TestReferenceCountedBuffer {
+
+    private final PooledBufferAllocator allocator = new PooledBufferAllocator();
+    private IoBuffer buffer;
+    private ReferenceCountedBuffer counted;
+
+    @Before
+    public void setUp() {
+        buffer = allocator.allocate(100, false);
+        for (int i = 0; i < 100; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        counted = new ReferenceCountedBuffer(buffer);
+    }
+
+    @After
+    public void tearDown() {
+        // MINA 2.0 makes an allocator the JVM wide one when it creates a buffer
+        IoBuffer.setAllocator(new SimpleBufferAllocator());
+    }
+
+    @Test
+    public void testUnsharedBufferIsFreedByDecoder() {
+        assertFalse(counted.isShared());
+        assertTrue(counted.release());
+        assertEquals(1, allocator.getReleased());
+    }
+
+    @Test
+    public void testLastSliceFreesBuffer() {
+        ByteBuffer first = counted.slice(10, 5);
+        ByteBuffer second = counted.slice(20, 5);
+        assertTrue(counted.isShared());
+
+        assertFalse("the decoder's reference", counted.release());
+        assertFalse(counted.release());
+        assertEquals("a slice is still in use", 0, allocator.getReleased());
+        assertEquals(20, second.get(0));
+        assertTrue(counted.release());
+        assertEquals(1, allocator.getReleased());
+        assertNotNull(first);
+    }
+
+    @Test
+    public void testSliceIsReadOnlyView() {
+        ByteBuffer slice = counted.slice(10, 5);
+        assertEquals(0, slice.position());
+        assertEquals(5, slice.limit());
+        assertEquals(10, slice.get(0));
+        assertEquals(14, slice.get(4));
+        try {
+            slice.put(0, (byte) 0);
+            fail("slices are read-only");
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+        assertEquals("the buffer's position is untouched", 0, buffer.position());
+        assertEquals(100, buffer.limit());
+    }
+
+    @Test
+    public void testEmptySliceAtEnd() {
+        ByteBuffer slice = counted.slice(100, 0);
+        assertFalse(slice.hasRemaining());
+        assertTrue(counted.isShared());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSliceAfterRelease() {
+        counted.release();
+        counted.slice(0, 1);
+    }
+
+    @Test
+    public void testReleasedTooOften() {
+        counted.release();
+        try {
+            counted.release();
+            fail("one reference, released twice");
+        } catch (IllegalStateException e) {
+            assertEquals("freed only once", 1, allocator.getReleased());
+        }
+    }
+
+    @Test
+    public void testConcurrentRetainAndRelease() throws InterruptedException {
+        final int perThread = 10000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        counted.retain();
+                        counted.release();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(counted.isShared());
+        assertEquals(0, allocator.getReleased());
+        assertTrue(counted.release());
+    }
+}
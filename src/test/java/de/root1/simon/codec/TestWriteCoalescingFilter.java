@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests when the {@link WriteCoalescingFilter} writes its batches
+ *
+ * @author achristian
+ */
+public class TestWriteCoalescingFilter {
+
+    private static final int WINDOW_MICROS = 200000;
+    private static final int MAX_BYTES = 16;
+
+    private DummySession session;
+    private final List<IoBuffer> written = Collections.synchronizedList(new ArrayList<IoBuffer>());
+
+    @Before
+    public void setUp() {
+        session = new DummySession();
+        // filterWrite passes the chain from the tail to the head
+        session.getFilterChain().addLast("recorder", new IoFilterAdapter() {
+
+            @Override
+            public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+                written.add(((IoBuffer) writeRequest.getMessage()).duplicate());
+                nextFilter.filterWrite(session, writeRequest);
+            }
+        });
+        session.getFilterChain().addLast(WriteCoalescingFilter.FILTER_NAME, new WriteCoalescingFilter(WINDOW_MICROS, MAX_BYTES));
+    }
+
+    @After
+    public void tearDown() {
+        if (!session.isClosing()) {
+            session.closeNow();
+        }
+    }
+
+    @Test
+    public void testFlushOnSize() {
+        WriteFuture first = session.write(buffer(8, (byte) 1));
+        assertTrue("below maxBytes the batch must wait", written.isEmpty());
+        assertFalse(first.isWritten());
+
+        WriteFuture second = session.write(buffer(8, (byte) 2));
+        assertEquals("reaching maxBytes writes one buffer", 1, written.size());
+        IoBuffer batch = written.get(0);
+        assertEquals(16, batch.remaining());
+        assertEquals(1, batch.get(0));
+        assertEquals(2, batch.get(15));
+        assertTrue(first.isWritten());
+        assertTrue(second.isWritten());
+    }
+
+    @Test
+    public void testFlushOnTimer() throws InterruptedException {
+        long start = System.nanoTime();
+        WriteFuture first = session.write(buffer(4, (byte) 1));
+        WriteFuture second = session.write(buffer(4, (byte) 2));
+        assertTrue(written.isEmpty());
+
+        assertTrue("window elapsed without a write", second.await(5, TimeUnit.SECONDS));
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        assertTrue("written before the window elapsed", elapsedMicros >= WINDOW_MICROS);
+        assertTrue(first.isWritten());
+        assertEquals(1, written.size());
+        assertEquals(8, written.get(0).remaining());
+    }
+
+    @Test
+    public void testExplicitFlush() {
+        WriteFuture future = session.write(buffer(4, (byte) 1));
+        assertTrue(written.isEmpty());
+
+        WriteCoalescingFilter.flush(session);
+        assertEquals("a single message is written as it is", 1, written.size());
+        assertEquals(4, written.get(0).remaining());
+        assertTrue(future.isWritten());
+    }
+
+    @Test
+    public void testSchedulerIsReleasedWithLastSession() {
+        session.write(buffer(4, (byte) 1));
+        assertTrue(WriteCoalescingFilter.isFlushSchedulerRunning());
+
+        session.closeNow();
+        assertFalse("the last session is closed", WriteCoalescingFilter.isFlushSchedulerRunning());
+    }
+
+    private static IoBuffer buffer(int size, byte value) {
+        IoBuffer buffer = IoBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.util.Date;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.MsgInvokeReturn;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests user objects written by a {@link BinarySerializer}, and by the String
+ * based serializers on top of it, towards peers with and without
+ * {@link SimonMessageConstants#FEATURE_BINARY_SERIALIZERS}
+ *
+ * @author achristian
+ */
+public class TestBinarySerializer {
+
+    private static final int BINARY = SimonMessageConstants.FEATURE_BINARY_SERIALIZERS;
+
+    static {
+        // SerializerSet.Default is the only set, the types are private to this test
+        SerializerSet.Default.plusSerializer(Point.class, new PointSerializer());
+        SerializerSet.Default.plusSerializer(Label.class, new Serializer<Label>() {
+
+            @Override
+            public String serialize(Label instance) {
+                return instance.text;
+            }
+
+            @Override
+            public Label deserialize(String stream) {
+                return new Label(stream);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ClassDictionary.discard();
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        Point point = new Point(3, -4);
+        IoBuffer buf = write(point, null, BINARY);
+
+        assertEquals(ObjectCode.CUSTOM.ordinal(), buf.get());
+        assertEquals("unstored type", 1, VarInt.get(buf));
+        assertEquals(Point.class.getName(), StringCodec.getPrefixedString(buf));
+        assertEquals("length prefix", 8, buf.getInt());
+        assertEquals(3, buf.getInt());
+        assertEquals(-4, buf.getInt());
+        assertFalse(buf.hasRemaining());
+
+        assertEquals(point, read(write(point, null, BINARY)));
+    }
+
+    @Test
+    public void testBinaryRoundTripWithDictionary() throws Exception {
+        ClassDictionary writer = new ClassDictionary();
+        ClassDictionary reader = new ClassDictionary();
+        for (int i = 0; i < 3; i++) {
+            Point point = new Point(i, i);
+            IoBuffer buf = write(point, writer, BINARY);
+            ClassDictionary.commit();
+            assertEquals(point, UserObjectSerializer.readUserObject(SerializerSet.Default, buf, reader));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testStringSerializerAsVersion1() throws Exception {
+        Label label = new Label("encoded");
+        // a dictionary doesn't change that
+        IoBuffer buf = write(label, new ClassDictionary(), 0);
+
+        assertEquals(ObjectCode.UNKNOWN.ordinal(), buf.get());
+        assertEquals(Label.class.getName(), StringCodec.getPrefixedString(buf));
+        assertEquals("custom encoder", 1, buf.get());
+        assertEquals("the encoded String, Java serialized", "encoded", buf.getObject());
+        assertFalse(buf.hasRemaining());
+
+        assertEquals(label, read(write(label, null, 0)));
+    }
+
+    @Test
+    public void testStringSerializerWithFeature() throws Exception {
+        Label label = new Label("grüße");
+        IoBuffer buf = write(label, null, BINARY);
+        assertEquals(ObjectCode.CUSTOM.ordinal(), buf.get(0));
+        assertEquals(label, read(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testBinarySerializerFallsBackToJavaSerialization() throws Exception {
+        Point point = new Point(1, 2);
+        IoBuffer buf = write(point, null, 0);
+
+        assertEquals(ObjectCode.UNKNOWN.ordinal(), buf.get());
+        assertEquals(Point.class.getName(), StringCodec.getPrefixedString(buf));
+        assertEquals("no custom encoder", 0, buf.get());
+        assertEquals(point, buf.getObject());
+        assertFalse(buf.hasRemaining());
+
+        IoBuffer serialized = write(point, new ClassDictionary(), 0);
+        assertEquals(ObjectCode.SERIALIZED.ordinal(), serialized.get(0));
+        assertEquals(point, UserObjectSerializer.readUserObject(SerializerSet.Default, serialized, new ClassDictionary()));
+    }
+
+    @Test
+    public void testUnreadBodyIsSkipped() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.CUSTOM.ordinal());
+        ClassDictionary.writeUnstoredType(Point.class, buf);
+        buf.putInt(12).putInt(5).putInt(6).putInt(99);
+        UserObjectSerializer.writeUserObject(SerializerSet.Default, "next", buf);
+        buf.flip();
+
+        assertEquals(new Point(5, 6), read(buf));
+        assertEquals("next", read(buf));
+    }
+
+    @Test
+    public void testBodyBeyondBuffer() throws Exception {
+        IoBuffer buf = write(new Point(1, 2), null, BINARY);
+        buf.limit(buf.limit() - 1);
+        try {
+            read(buf);
+            fail("the body is truncated");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("invalid user object length"));
+        }
+    }
+
+    @Test
+    public void testSerializerReadingTooMuch() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.CUSTOM.ordinal());
+        ClassDictionary.writeUnstoredType(Point.class, buf);
+        buf.putInt(4).putInt(5).putInt(6);
+        buf.flip();
+        try {
+            read(buf);
+            fail("the serializer must not read beyond its body");
+        } catch (BufferUnderflowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoSerializerForCustomBody() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.CUSTOM.ordinal());
+        ClassDictionary.writeUnstoredType(Date.class, buf);
+        buf.putInt(0);
+        buf.flip();
+        try {
+            read(buf);
+            fail("there is no serializer for Date");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(Date.class.getName()));
+        }
+    }
+
+    @Test
+    public void testNoStringSerializerForVersion1Body() throws Exception {
+        for (Class<?> type : new Class<?>[]{Date.class, Point.class}) {
+            IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+            buf.put((byte) ObjectCode.UNKNOWN.ordinal());
+            StringCodec.putPrefixedString(buf, type.getName());
+            buf.put((byte) 1).putObject("encoded");
+            buf.flip();
+            try {
+                read(buf);
+                fail("there is no String based serializer for " + type.getName());
+            } catch (BufferDataException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(type.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidBoolean() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(8);
+        buf.put((byte) ObjectCode.BOOL.ordinal()).put((byte) 2).flip();
+        try {
+            read(buf);
+            fail("2 is no boolean");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("invalid boolean"));
+        }
+    }
+
+    @Test
+    public void testMixedPeersSplitIntoSingleBytes() throws Exception {
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        ProtocolDecoder decoder = serverCodec.getDecoder(server);
+        for (int features : new int[]{0, BINARY, BINARY | SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_CLASS_DICTIONARY}) {
+            ProtocolCodecSession client = new ProtocolCodecSession();
+            client.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+            for (Object value : new Object[]{new Point(7, 8), new Label("label")}) {
+                MsgInvokeReturn result = new MsgInvokeReturn();
+                result.setSequence(1);
+                result.setReturnValue(value);
+                clientCodec.getEncoder(client).encode(client, result, client.getEncoderOutput());
+            }
+
+            for (Object buffer : client.getEncoderOutputQueue()) {
+                IoBuffer frame = (IoBuffer) buffer;
+                while (frame.hasRemaining()) {
+                    decoder.decode(server, IoBuffer.wrap(new byte[]{frame.get()}), server.getDecoderOutput());
+                }
+            }
+            assertEquals("features " + features, new Point(7, 8), ((MsgInvokeReturn) server.getDecoderOutputQueue().poll()).getReturnValue());
+            assertEquals("features " + features, new Label("label"), ((MsgInvokeReturn) server.getDecoderOutputQueue().poll()).getReturnValue());
+            assertNull(server.getDecoderOutputQueue().poll());
+        }
+    }
+
+    private static IoBuffer write(Object value, ClassDictionary classes, int features) {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        UserObjectSerializer.writeUserObject(SerializerSet.Default, value, buf, classes, features);
+        return buf.flip();
+    }
+
+    private static Object read(IoBuffer buf) throws ClassNotFoundException {
+        return UserObjectSerializer.readUserObject(SerializerSet.Default, buf);
+    }
+
+    private static final class Point implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final int x;
+        private final int y;
+
+        private Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Point && ((Point) obj).x == x && ((Point) obj).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+
+        @Override
+        public String toString() {
+            return "Point[" + x + "," + y + "]";
+        }
+    }
+
+    private static final class PointSerializer implements BinarySerializer<Point> {
+
+        @Override
+        public void write(Point instance, IoBuffer output) {
+            output.putInt(instance.x).putInt(instance.y);
+        }
+
+        @Override
+        public Point read(IoBuffer input) {
+            return new Point(input.getInt(), input.getInt());
+        }
+    }
+
+    /**
+     * Not serializable, only its String encoding goes over the wire
+     */
+    private static final class Label {
+
+        private final String text;
+
+        private Label(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Label && ((Label) obj).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.SimonProtocolCodecFilter;
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgHello;
+import de.root1.simon.codec.messages.MsgInvokeReturn;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the {@link ClassDictionary} and the user objects written with it,
+ * also towards peers that don't use it
+ *
+ * @author achristian
+ */
+public class TestClassDictionary {
+
+    private static final int FEATURES = SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_CLASS_DICTIONARY;
+    private static final Object[] VALUES = {new Date(1000), Locale.GERMANY, URI.create("simon://localhost"), new File("simon")};
+
+    private final int fragmentSize = MessageFragments.getFragmentSize();
+
+    @After
+    public void tearDown() {
+        ClassDictionary.discard();
+        MessageFragments.setFragmentSize(fragmentSize);
+    }
+
+    @Test
+    public void testOnlyUsedWithTheFeature() {
+        DummySession session = new DummySession();
+        assertNull(ClassDictionary.of(session));
+        assertNotNull("a peer may use it before this side knows about the feature", ClassDictionary.forReading(session));
+
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, FEATURES);
+        assertSame(ClassDictionary.forReading(session), ClassDictionary.of(session));
+    }
+
+    @Test
+    public void testSerializedObjectsRoundTrip() throws ClassNotFoundException {
+        ClassDictionary writer = writer();
+        Date first = new Date(1000);
+        Date second = new Date(2000);
+
+        IoBuffer defining = write(first, writer);
+        ClassDictionary.commit();
+        IoBuffer referring = write(second, writer);
+        assertEquals(ObjectCode.SERIALIZED.ordinal(), defining.get(0));
+        assertTrue("the second object refers to its class by id", referring.remaining() < defining.remaining());
+
+        // the reader has not processed the hello yet
+        ClassDictionary reader = ClassDictionary.forReading(new DummySession());
+        assertEquals(first, UserObjectSerializer.readUserObject(SerializerSet.Default, defining, reader));
+        assertEquals(second, UserObjectSerializer.readUserObject(SerializerSet.Default, referring, reader));
+        assertFalse(defining.hasRemaining());
+        assertFalse(referring.hasRemaining());
+    }
+
+    @Test
+    public void testVersion1EncodingWithoutDictionary() throws Exception {
+        Date date = new Date(1000);
+        IoBuffer buf = write(date, null);
+
+        assertEquals(ObjectCode.UNKNOWN.ordinal(), buf.get());
+        assertEquals(Date.class.getName(), StringCodec.getPrefixedString(buf));
+        assertEquals("no custom encoder", 0, buf.get());
+        assertEquals(date, buf.getObject());
+        assertFalse(buf.hasRemaining());
+
+        assertEquals(date, UserObjectSerializer.readUserObject(SerializerSet.Default, write(date, null)));
+    }
+
+    @Test
+    public void testHelloAndDictionaryMessageInOneRead() throws Exception {
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+
+        // the client enables its features right after writing its hello
+        ProtocolCodecSession client = new ProtocolCodecSession();
+        MsgHello hello = new MsgHello();
+        hello.setSequence(1);
+        hello.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+        hello.setFeatures(FEATURES);
+        clientCodec.getEncoder(client).encode(client, hello, client.getEncoderOutput());
+        client.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, FEATURES);
+        for (int sequence = 2; sequence <= 3; sequence++) {
+            MsgInvokeReturn result = new MsgInvokeReturn();
+            result.setSequence(sequence);
+            result.setReturnValue(new Date(sequence));
+            clientCodec.getEncoder(client).encode(client, result, client.getEncoderOutput());
+        }
+        IoBuffer read = IoBuffer.allocate(64).setAutoExpand(true);
+        for (Object buffer : client.getEncoderOutputQueue()) {
+            read.put(((IoBuffer) buffer).duplicate());
+        }
+        read.flip();
+
+        // the server decodes the whole read before its handler sees the hello
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        serverCodec.getDecoder(server).decode(server, read, server.getDecoderOutput());
+        assertEquals(FEATURES, ((MsgHello) server.getDecoderOutputQueue().poll()).getFeatures());
+        for (int sequence = 2; sequence <= 3; sequence++) {
+            AbstractMessage msg = (AbstractMessage) server.getDecoderOutputQueue().poll();
+            assertTrue(String.valueOf(msg), msg instanceof MsgInvokeReturn);
+            assertEquals(new Date(sequence), ((MsgInvokeReturn) msg).getReturnValue());
+        }
+        assertNull(server.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void testConcurrentWritersSendDefinitionsFirst() throws Exception {
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+        MessageFragments.setFragmentSize(1024);
+        final int writers = 4;
+
+        for (int round = 0; round < 50; round++) {
+            // writes pass the codec first, the recorder sees the frames in the order they go on the wire
+            final DummySession client = new DummySession();
+            client.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, FEATURES | SimonMessageConstants.FEATURE_FRAGMENTS);
+            final List<IoBuffer> frames = new ArrayList<IoBuffer>();
+            client.getFilterChain().addLast("recorder", new IoFilterAdapter() {
+
+                @Override
+                public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+                    IoBuffer frame = (IoBuffer) writeRequest.getMessage();
+                    synchronized (frames) {
+                        frames.add(frame.duplicate());
+                    }
+                    nextFilter.filterWrite(session, writeRequest);
+                }
+            });
+            client.getFilterChain().addLast("codec", new SimonProtocolCodecFilter(clientCodec));
+
+            final CyclicBarrier start = new CyclicBarrier(writers);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                Thread thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        for (int i = 0; i < VALUES.length; i++) {
+                            MsgInvokeReturn result = new MsgInvokeReturn();
+                            result.setSequence(writer * VALUES.length + i + 1);
+                            Object value = VALUES[(i + writer) % VALUES.length];
+                            // a large message is written in many fragments, other writers run meanwhile
+                            result.setReturnValue(i == writer ? new Object[]{value, new byte[64 * 1024]} : value);
+                            client.write(result);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            ProtocolCodecSession server = new ProtocolCodecSession();
+            IoBuffer read = IoBuffer.allocate(1024).setAutoExpand(true);
+            for (IoBuffer frame : frames) {
+                read.put(frame);
+            }
+            read.flip();
+            serverCodec.getDecoder(server).decode(server, read, server.getDecoderOutput());
+            for (int i = 0; i < writers * VALUES.length; i++) {
+                AbstractMessage msg = (AbstractMessage) server.getDecoderOutputQueue().poll();
+                assertTrue("round " + round + ": " + msg, msg instanceof MsgInvokeReturn);
+            }
+            assertNull(server.getDecoderOutputQueue().poll());
+        }
+    }
+
+    @Test
+    public void testUnloadableTypeFailsEveryReference() throws ClassNotFoundException {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        define(buf, 5, "de.root1.simon.NoSuchClass");
+        VarInt.put(buf, 5 << 1);
+        define(buf, 6, String.class.getName());
+        VarInt.put(buf, 6 << 1);
+        buf.flip();
+
+        ClassDictionary reader = new ClassDictionary();
+        for (int i = 0; i < 2; i++) {
+            try {
+                reader.readType(buf);
+                fail("the class can't be loaded");
+            } catch (ClassNotFoundException e) {
+                assertEquals("de.root1.simon.NoSuchClass", e.getMessage());
+            }
+        }
+        assertEquals("later definitions are not affected", String.class, reader.readType(buf));
+        assertEquals(String.class, reader.readType(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testUnstoredType() throws ClassNotFoundException {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        ClassDictionary.writeUnstoredType(String.class, buf);
+        VarInt.put(buf, 0);
+        buf.flip();
+
+        ClassDictionary reader = new ClassDictionary();
+        assertEquals(String.class, reader.readType(buf));
+        try {
+            reader.readType(buf);
+            fail("id 0 is never stored");
+        } catch (BufferDataException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUndefinedId() throws ClassNotFoundException {
+        IoBuffer buf = IoBuffer.allocate(8);
+        VarInt.put(buf, 3 << 1);
+        buf.flip();
+        try {
+            new ClassDictionary().readType(buf);
+            fail("id 3 was never defined");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("undefined class id 3"));
+        }
+    }
+
+    @Test(expected = BufferDataException.class)
+    public void testIdBeyondTable() throws ClassNotFoundException {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        define(buf, ClassDictionary.MAX_CLASSES, String.class.getName());
+        buf.flip();
+        new ClassDictionary().readType(buf);
+    }
+
+    @Test
+    public void testDiscardedDefinitionIsSentAgain() throws ClassNotFoundException {
+        ClassDictionary writer = writer();
+        IoBuffer first = IoBuffer.allocate(64).setAutoExpand(true);
+        writer.writeType(String.class, first);
+        assertTrue(ClassDictionary.hasPending());
+        ClassDictionary.discard();
+
+        IoBuffer second = IoBuffer.allocate(64).setAutoExpand(true);
+        writer.writeType(String.class, second);
+        assertEquals("defined again", first.flip(), second.flip());
+        ClassDictionary.commit();
+        assertFalse(ClassDictionary.hasPending());
+
+        IoBuffer third = IoBuffer.allocate(64).setAutoExpand(true);
+        writer.writeType(String.class, third);
+        third.flip();
+        assertEquals("only the id", 1, third.remaining());
+
+        ClassDictionary reader = new ClassDictionary();
+        assertEquals(String.class, reader.readType(second));
+        assertEquals(String.class, reader.readType(third));
+    }
+
+    @Test
+    public void testTruncatedObject() throws ClassNotFoundException {
+        IoBuffer buf = write(new Date(1000), writer());
+        buf.limit(buf.limit() - 1);
+        try {
+            UserObjectSerializer.readUserObject(SerializerSet.Default, buf, new ClassDictionary());
+            fail("the object is truncated");
+        } catch (BufferDataException e) {
+            // expected
+        }
+    }
+
+    private static ClassDictionary writer() {
+        DummySession session = new DummySession();
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, FEATURES);
+        return ClassDictionary.of(session);
+    }
+
+    private static IoBuffer write(Object value, ClassDictionary classes) {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        UserObjectSerializer.writeUserObject(SerializerSet.Default, value, buf, classes);
+        return buf.flip();
+    }
+
+    private static void define(IoBuffer buf, int id, String name) {
+        VarInt.put(buf, id << 1 | 1);
+        try {
+            StringCodec.putPrefixedString(buf, name);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests both forms of the {@link FrameHeader}
+ *
+ * @author achristian
+ */
+public class TestFrameHeader {
+
+    private static final int[] SEQUENCES = {0, 1, -1, 63, -64, 64, 8191, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    private static final int[] BODY_SIZES = {0, 127, 128, 16384, Integer.MAX_VALUE};
+
+    @Test
+    public void testRoundTrip() {
+        for (boolean compact : new boolean[]{false, true}) {
+            for (int sequence : SEQUENCES) {
+                for (int bodySize : BODY_SIZES) {
+                    IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN);
+                    buf.position(FrameHeader.MAX_LEN);
+                    int start = FrameHeader.put(buf, FrameHeader.MAX_LEN, SimonMessageConstants.MSG_INVOKE, sequence, bodySize, compact);
+                    assertEquals("position untouched", FrameHeader.MAX_LEN, buf.position());
+
+                    buf.position(start);
+                    int[] header = new int[3];
+                    String form = (compact ? "compact" : "fixed") + " sequence=" + sequence + " bodySize=" + bodySize;
+                    assertEquals(form, FrameHeader.MAX_LEN - start, FrameHeader.peek(buf, header));
+                    assertEquals(form, start, buf.position());
+                    assertEquals(form, SimonMessageConstants.MSG_INVOKE, header[0]);
+                    assertEquals(form, sequence, header[1]);
+                    assertEquals(form, bodySize, header[2]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFixedHeaderIsVersion1() {
+        IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN);
+        int start = FrameHeader.put(buf, FrameHeader.MAX_LEN, SimonMessageConstants.MSG_PING, 42, 3, false);
+        assertEquals(FrameHeader.MAX_LEN - SimonMessageConstants.HEADER_LEN, start);
+        assertEquals(SimonMessageConstants.MSG_PING, buf.get(start));
+        assertEquals(42, buf.getInt(start + 1));
+        assertEquals(3, buf.getInt(start + 5));
+    }
+
+    @Test
+    public void testSmallCompactHeader() {
+        IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN);
+        int start = FrameHeader.put(buf, FrameHeader.MAX_LEN, SimonMessageConstants.MSG_PING, 1, 5, true);
+        assertEquals("type, sequence and size in one byte each", 3, FrameHeader.MAX_LEN - start);
+    }
+
+    @Test
+    public void testIncompleteHeader() {
+        for (boolean compact : new boolean[]{false, true}) {
+            IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN);
+            int start = FrameHeader.put(buf, FrameHeader.MAX_LEN, SimonMessageConstants.MSG_INVOKE, 1000000, 1000000, compact);
+            for (int limit = start; limit < FrameHeader.MAX_LEN; limit++) {
+                buf.limit(limit).position(start);
+                assertEquals("incomplete at " + (limit - start), 0, FrameHeader.peek(buf, new int[3]));
+                assertEquals(start, buf.position());
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedCompactHeader() {
+        IoBuffer buf = IoBuffer.allocate(FrameHeader.MAX_LEN + 1);
+        buf.put((byte) (SimonMessageConstants.MSG_PING | 0x80));
+        for (int i = 0; i < FrameHeader.MAX_LEN; i++) {
+            buf.put((byte) 0xFF);
+        }
+        buf.flip();
+        try {
+            FrameHeader.peek(buf, new int[3]);
+            fail("sequence exceeds a varint");
+        } catch (BufferDataException e) {
+            assertEquals("position restored", 0, buf.position());
+        }
+    }
+
+    @Test
+    public void testFeatures() {
+        DummySession session = new DummySession();
+        assertFalse("no handshake yet", FrameHeader.isCompact(session));
+
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, SimonMessageConstants.FEATURE_FRAGMENTS);
+        assertFalse(FrameHeader.isCompact(session));
+        assertTrue(FrameHeader.hasFeature(session, SimonMessageConstants.FEATURE_FRAGMENTS));
+
+        session.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, SimonMessageConstants.FEATURE_COMPACT_FRAMING);
+        assertTrue(FrameHeader.isCompact(session));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.OverloadPolicy;
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.MsgNameLookup;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the limits of the {@link InboundBudget}, for plain and for fragmented
+ * messages
+ *
+ * @author achristian
+ */
+public class TestInboundBudget {
+
+    private final int fragmentSize = MessageFragments.getFragmentSize();
+    private final InboundBudget budget = new InboundBudget();
+
+    @After
+    public void tearDown() {
+        MessageFragments.setFragmentSize(fragmentSize);
+    }
+
+    @Test
+    public void testUnlimitedByDefault() {
+        DummySession session = new DummySession();
+        assertFalse(budget.isTooLarge(Integer.MAX_VALUE));
+        assertEquals(InboundBudget.Reservation.GRANTED, budget.reserve(session, Integer.MAX_VALUE));
+        budget.release(session, Integer.MAX_VALUE);
+        assertEquals(0, budget.getBytes());
+    }
+
+    @Test
+    public void testLimits() {
+        budget.setMaxFrameSize(1000);
+        budget.setMaxBytesPerSession(500);
+        assertFalse(budget.isTooLarge(500));
+        assertTrue("can never fit into the session's budget", budget.isTooLarge(501));
+        assertFalse(budget.exceedsMaxFrameSize(1000));
+        assertTrue(budget.exceedsMaxFrameSize(1001));
+    }
+
+    @Test
+    public void testSessionBudget() {
+        budget.setMaxBytesPerSession(100);
+        DummySession session = new DummySession();
+        assertTrue(budget.tryReserve(session, 60));
+        assertFalse("a fragmented body beyond the session's budget is spilled", budget.tryReserve(session, 60));
+        assertTrue("other sessions have their own budget", budget.tryReserve(new DummySession(), 60));
+        budget.release(session, 60);
+        assertTrue(budget.tryReserve(session, 60));
+    }
+
+    @Test
+    public void testRejectPolicy() {
+        budget.setMaxBytes(100);
+        budget.setOverloadPolicy(OverloadPolicy.REJECT);
+        DummySession first = new DummySession();
+        DummySession second = new DummySession();
+        assertEquals(InboundBudget.Reservation.GRANTED, budget.reserve(first, 80));
+        assertEquals(InboundBudget.Reservation.REJECTED, budget.reserve(second, 80));
+        assertEquals(80, budget.getBytes());
+    }
+
+    @Test
+    public void testSuspendUntilLowWater() {
+        budget.setMaxBytes(100);
+        DummySession first = new DummySession();
+        DummySession second = new DummySession();
+        assertEquals(InboundBudget.Reservation.GRANTED, budget.reserve(first, 80));
+        assertEquals(InboundBudget.Reservation.SUSPENDED, budget.reserve(second, 80));
+        assertTrue(second.isReadSuspended());
+
+        assertEquals("a session holding budget goes on", InboundBudget.Reservation.GRANTED, budget.reserve(first, 80));
+        budget.release(first, 80);
+        assertTrue("still above the low-water mark", second.isReadSuspended());
+        budget.release(first, 80);
+        assertFalse(second.isReadSuspended());
+    }
+
+    @Test
+    public void testDisposeGivesBackEverything() {
+        DummySession session = new DummySession();
+        budget.reserve(session, 10);
+        budget.tryReserve(session, 20);
+        budget.dispose(session);
+        assertEquals(0, budget.getBytes());
+    }
+
+    @Test
+    public void testFragmentedBodyBeyondSessionBudgetIsSpilled() throws Exception {
+        budget.setMaxBytesPerSession(2048);
+        budget.setMaxBytes(4096);
+        MsgNameLookup received = (MsgNameLookup) sendFragmented(name(10000));
+        assertEquals(name(10000), received.getRemoteObjectName());
+        assertEquals(0, budget.getBytes());
+    }
+
+    @Test
+    public void testFragmentedBodyBeyondMaxFrameSizeIsRejected() throws Exception {
+        budget.setMaxFrameSize(5000);
+        assertTrue(sendFragmented(name(10000)) instanceof MsgError);
+    }
+
+    /**
+     * Sends a name lookup in fragments of 1024 bytes to a decoder using the
+     * budget
+     *
+     * @return the first decoded message
+     */
+    private Object sendFragmented(String name) throws Exception {
+        MessageFragments.setFragmentSize(1024);
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setInboundBudget(budget);
+        serverCodec.setup(SerializerSet.Default, true);
+
+        ProtocolCodecSession clientSession = new ProtocolCodecSession();
+        clientSession.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, SimonMessageConstants.FEATURE_FRAGMENTS);
+        MsgNameLookup msg = new MsgNameLookup();
+        msg.setSequence(1);
+        msg.setRemoteObjectName(name);
+        clientCodec.getEncoder(clientSession).encode(clientSession, msg, clientSession.getEncoderOutput());
+        assertTrue("sent in fragments", clientSession.getEncoderOutputQueue().size() > 2);
+
+        ProtocolCodecSession serverSession = new ProtocolCodecSession();
+        ProtocolDecoder decoder = serverCodec.getDecoder(serverSession);
+        for (Object buffer : clientSession.getEncoderOutputQueue()) {
+            decoder.decode(serverSession, (IoBuffer) buffer, serverSession.getDecoderOutput());
+        }
+        Object decoded = serverSession.getDecoderOutputQueue().poll();
+        assertNotNull(decoded);
+        return decoded;
+    }
+
+    private static String name(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.MsgNameLookup;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests collecting fragmented bodies on the heap and in temporary files
+ *
+ * @author achristian
+ */
+public class TestMsgFragmentDecoder {
+
+    private static final int FRAGMENTS = SimonMessageConstants.FEATURE_FRAGMENTS;
+    private static final int COMPACT_FRAGMENTS = SimonMessageConstants.FEATURE_FRAGMENTS | SimonMessageConstants.FEATURE_COMPACT_FRAMING;
+
+    private final int fragmentSize = MessageFragments.getFragmentSize();
+    private final int spillThreshold = MessageFragments.getSpillThreshold();
+    private SimonProtocolCodecFactory clientCodec;
+    private SimonProtocolCodecFactory serverCodec;
+    private ProtocolCodecSession serverSession;
+    private ProtocolDecoder decoder;
+    private List<String> tempFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        MessageFragments.setFragmentSize(1024);
+        clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+        serverSession = new ProtocolCodecSession();
+        decoder = serverCodec.getDecoder(serverSession);
+        tempFiles = listTempFiles();
+    }
+
+    @After
+    public void tearDown() {
+        MessageFragments.setFragmentSize(fragmentSize);
+        MessageFragments.setSpillThreshold(spillThreshold);
+    }
+
+    @Test
+    public void testCollectedOnHeap() throws Exception {
+        for (int features : new int[]{FRAGMENTS, COMPACT_FRAGMENTS}) {
+            List<IoBuffer> frames = encode(lookup(1, name(3000)), features);
+            assertEquals("3000 bytes in fragments of 1024 bytes", 3, frames.size());
+            decode(concat(frames));
+            assertEquals(name(3000), ((MsgNameLookup) poll()).getRemoteObjectName());
+            assertEquals("budget given back", 0, serverCodec.getInboundBudget().getBytes());
+        }
+    }
+
+    @Test
+    public void testSpilledToFile() throws Exception {
+        MessageFragments.setSpillThreshold(0);
+        for (int features : new int[]{FRAGMENTS, COMPACT_FRAGMENTS}) {
+            decode(concat(encode(lookup(1, name(5000)), features)));
+            assertEquals(name(5000), ((MsgNameLookup) poll()).getRemoteObjectName());
+        }
+        assertEquals("temporary files deleted right after decoding", tempFiles, listTempFiles());
+    }
+
+    @Test
+    public void testSplitAndCoalescedReads() throws Exception {
+        for (int threshold : new int[]{Integer.MAX_VALUE, 0}) {
+            MessageFragments.setSpillThreshold(threshold);
+            IoBuffer stream = concat(Arrays.asList(
+                    concat(encode(lookup(1, name(2500)), COMPACT_FRAGMENTS)),
+                    concat(encode(lookup(2, "small"), COMPACT_FRAGMENTS)),
+                    concat(encode(lookup(3, name(4000)), FRAGMENTS))));
+            while (stream.hasRemaining()) {
+                decode(stream.getSlice(Math.min(97, stream.remaining())));
+            }
+            assertEquals(name(2500), ((MsgNameLookup) poll()).getRemoteObjectName());
+            assertEquals("small", ((MsgNameLookup) poll()).getRemoteObjectName());
+            assertEquals(name(4000), ((MsgNameLookup) poll()).getRemoteObjectName());
+        }
+        assertEquals(tempFiles, listTempFiles());
+    }
+
+    @Test
+    public void testInterleavedMessages() throws Exception {
+        List<IoBuffer> first = encode(lookup(1, name(2500)), FRAGMENTS);
+        List<IoBuffer> second = encode(lookup(2, name(3000)), COMPACT_FRAGMENTS);
+        List<IoBuffer> interleaved = new ArrayList<IoBuffer>();
+        for (int i = 0; i < 3; i++) {
+            interleaved.add(first.get(i));
+            interleaved.add(second.get(i));
+        }
+        decode(concat(interleaved));
+        assertEquals(name(2500), ((MsgNameLookup) poll()).getRemoteObjectName());
+        assertEquals(name(3000), ((MsgNameLookup) poll()).getRemoteObjectName());
+    }
+
+    @Test
+    public void testVersion1PeerGetsOneFrame() throws Exception {
+        List<IoBuffer> frames = encode(lookup(1, name(3000)), SimonMessageConstants.FEATURE_COMPACT_FRAMING);
+        assertEquals(1, frames.size());
+        IoBuffer frame = frames.get(0);
+        assertEquals(SimonMessageConstants.MSG_NAME_LOOKUP | 0x80, frame.get(frame.position()) & 0xFF);
+        decode(frames.get(0));
+        assertEquals(name(3000), ((MsgNameLookup) poll()).getRemoteObjectName());
+    }
+
+    @Test
+    public void testFragmentWithoutFirst() throws Exception {
+        List<IoBuffer> frames = encode(lookup(1, name(3000)), FRAGMENTS);
+        decode(frames.get(1));
+        assertTrue(poll() instanceof MsgError);
+    }
+
+    @Test
+    public void testFragmentsExceedAnnouncedSize() throws Exception {
+        for (int threshold : new int[]{Integer.MAX_VALUE, 0}) {
+            MessageFragments.setSpillThreshold(threshold);
+            decode(fragment(1, SimonMessageConstants.MSG_NAME_LOOKUP, MessageFragments.FLAG_FIRST, 2, new byte[3]));
+            assertTrue(poll() instanceof MsgError);
+        }
+        assertEquals(0, serverCodec.getInboundBudget().getBytes());
+        assertEquals(tempFiles, listTempFiles());
+    }
+
+    @Test
+    public void testLastFragmentTooEarly() throws Exception {
+        decode(fragment(1, SimonMessageConstants.MSG_NAME_LOOKUP, MessageFragments.FLAG_FIRST | MessageFragments.FLAG_LAST, 10, new byte[3]));
+        assertTrue(poll() instanceof MsgError);
+        assertEquals(0, serverCodec.getInboundBudget().getBytes());
+    }
+
+    @Test
+    public void testFragmentOfFragment() throws Exception {
+        decode(fragment(1, SimonMessageConstants.MSG_FRAGMENT, MessageFragments.FLAG_FIRST, 3, new byte[3]));
+        assertTrue(poll() instanceof MsgError);
+    }
+
+    @Test
+    public void testDisposeDeletesIncompleteBodies() throws Exception {
+        MessageFragments.setSpillThreshold(0);
+        decode(encode(lookup(1, name(3000)), FRAGMENTS).get(0));
+        assertNull(serverSession.getDecoderOutputQueue().peek());
+        assertEquals("spilled", tempFiles.size() + 1, listTempFiles().size());
+
+        decoder.dispose(serverSession);
+        assertEquals(tempFiles, listTempFiles());
+    }
+
+    private static String name(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    private static MsgNameLookup lookup(int sequence, String name) {
+        MsgNameLookup msg = new MsgNameLookup();
+        msg.setSequence(sequence);
+        msg.setRemoteObjectName(name);
+        return msg;
+    }
+
+    /**
+     * Creates a fragment frame with a fixed header
+     */
+    private static IoBuffer fragment(int sequence, byte msgType, int flags, int totalSize, byte[] data) {
+        IoBuffer body = IoBuffer.allocate(16).setAutoExpand(true);
+        body.put(msgType).put((byte) flags);
+        if ((flags & MessageFragments.FLAG_FIRST) != 0) {
+            VarInt.put(body, totalSize);
+        }
+        body.put(data).flip();
+        IoBuffer frame = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN + body.remaining());
+        frame.put(SimonMessageConstants.MSG_FRAGMENT).putInt(sequence).putInt(body.remaining()).put(body);
+        return frame.flip();
+    }
+
+    /**
+     * Encodes a message as a client whose session negotiated the given
+     * features
+     *
+     * @return the frames
+     */
+    private List<IoBuffer> encode(AbstractMessage msg, int features) throws Exception {
+        ProtocolCodecSession clientSession = new ProtocolCodecSession();
+        clientSession.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+        clientCodec.getEncoder(clientSession).encode(clientSession, msg, clientSession.getEncoderOutput());
+        List<IoBuffer> buffers = new ArrayList<IoBuffer>();
+        for (Object buffer : clientSession.getEncoderOutputQueue()) {
+            buffers.add((IoBuffer) buffer);
+        }
+        if (buffers.size() == 1) {
+            return buffers;
+        }
+        // fragments are written as header and data
+        List<IoBuffer> frames = new ArrayList<IoBuffer>();
+        for (int i = 0; i < buffers.size(); i += 2) {
+            frames.add(concat(buffers.subList(i, i + 2)));
+        }
+        return frames;
+    }
+
+    private void decode(IoBuffer in) throws Exception {
+        decoder.decode(serverSession, in, serverSession.getDecoderOutput());
+    }
+
+    private AbstractMessage poll() {
+        AbstractMessage msg = (AbstractMessage) serverSession.getDecoderOutputQueue().poll();
+        assertNotNull("no message decoded", msg);
+        return msg;
+    }
+
+    private static IoBuffer concat(List<IoBuffer> buffers) {
+        IoBuffer all = IoBuffer.allocate(64).setAutoExpand(true);
+        for (IoBuffer buffer : buffers) {
+            all.put(buffer.duplicate());
+        }
+        return all.flip();
+    }
+
+    private static List<String> listTempFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("simon-") && name.endsWith(".fragments");
+            }
+        });
+        List<String> list = names == null ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(names));
+        Collections.sort(list);
+        return list;
+    }
+}
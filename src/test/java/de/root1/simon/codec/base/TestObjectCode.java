@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.MsgInvokeReturn;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the built in encodings of {@link ObjectCode}, towards peers with and
+ * without {@link SimonMessageConstants#FEATURE_VALUE_CODES}
+ *
+ * @author achristian
+ */
+public class TestObjectCode {
+
+    private static final int VALUE_CODES = SimonMessageConstants.FEATURE_VALUE_CODES;
+
+    private enum Color {
+        RED,
+        GREEN {
+            @Override
+            public String toString() {
+                return "a constant with a body";
+            }
+        }
+    }
+
+    private static final Object[] VALUES = {
+        new boolean[]{true, false},
+        new byte[]{-1, 0, 1},
+        new short[]{Short.MIN_VALUE, Short.MAX_VALUE},
+        new int[]{Integer.MIN_VALUE, 0, Integer.MAX_VALUE},
+        new long[]{Long.MIN_VALUE, Long.MAX_VALUE},
+        new float[]{Float.NaN, -0f, Float.MAX_VALUE},
+        new double[]{Double.NEGATIVE_INFINITY, Math.PI},
+        new char[]{'a', 'ß', '￿'},
+        new double[0],
+        Color.RED,
+        Color.GREEN,
+        UUID.randomUUID(),
+        new BigInteger("-123456789012345678901234567890"),
+        new BigDecimal("-1234567890.0987654321"),
+        Instant.ofEpochSecond(-1, 999999999),
+        Duration.ofSeconds(90061, 5),
+        LocalDate.of(1970, 1, 1).minusDays(1),
+        LocalTime.of(23, 59, 59, 999999999),
+        LocalDateTime.of(2013, 3, 31, 2, 30),
+        ZonedDateTime.of(LocalDateTime.of(2013, 10, 27, 2, 30), ZoneId.of("Europe/Berlin")).withLaterOffsetAtOverlap()
+    };
+
+    @After
+    public void tearDown() {
+        ClassDictionary.discard();
+    }
+
+    @Test
+    public void testRoundTripWithFeature() throws Exception {
+        for (Object value : VALUES) {
+            IoBuffer buf = write(value, null, VALUE_CODES);
+            int code = buf.get(0);
+            assertTrue(describe(value) + " has a built in encoding", code > ObjectCode.UNKNOWN.ordinal() && code < ObjectCode.SERIALIZED.ordinal());
+            assertValueEquals(value, read(buf, null));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testJavaSerializedWithoutFeature() throws Exception {
+        for (Object value : VALUES) {
+            IoBuffer buf = write(value, null, 0);
+            assertEquals(describe(value), ObjectCode.UNKNOWN.ordinal(), buf.get(0));
+            assertValueEquals(value, read(buf, null));
+
+            IoBuffer serialized = write(value, new ClassDictionary(), SimonMessageConstants.FEATURE_CLASS_DICTIONARY);
+            assertEquals(describe(value), ObjectCode.SERIALIZED.ordinal(), serialized.get(0));
+            assertValueEquals(value, read(serialized, new ClassDictionary()));
+        }
+    }
+
+    @Test
+    public void testLargeArrayIsBulkCopied() throws Exception {
+        double[] values = new double[1000000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.5;
+        }
+        IoBuffer buf = write(values, null, VALUE_CODES);
+        assertEquals("code, length and the elements", 1 + 4 + values.length * 8, buf.remaining());
+        assertArrayEquals(values, (double[]) read(buf, null), 0);
+    }
+
+    @Test
+    public void testCollectionsKeepSharedReferences() throws Exception {
+        List<Object> shared = new ArrayList<Object>(Arrays.asList("shared"));
+        List<Object> list = new ArrayList<Object>();
+        list.add(shared);
+        list.add(shared);
+        list.add(list);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", list);
+        map.put("again", shared);
+
+        for (ClassDictionary classes : new ClassDictionary[]{null, new ClassDictionary()}) {
+            IoBuffer buf = write(map, classes, -1);
+            assertEquals("collections are Java serialized", classes == null ? ObjectCode.UNKNOWN.ordinal() : ObjectCode.SERIALIZED.ordinal(), buf.get(0));
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> read = (Map<String, Object>) read(buf, new ClassDictionary());
+            List<?> readList = (List<?>) read.get("list");
+            assertSame(readList.get(0), readList.get(1));
+            assertSame(readList.get(0), read.get("again"));
+            assertSame("a list containing itself", readList, readList.get(2));
+        }
+    }
+
+    @Test
+    public void testSubclassesAreJavaSerialized() throws Exception {
+        BigInteger subclass = new BigInteger("42") {
+            private static final long serialVersionUID = 1L;
+        };
+        assertEquals(ObjectCode.UNKNOWN, ObjectCode.get(subclass));
+        assertEquals(ObjectCode.BIG_INTEGER, ObjectCode.get(BigInteger.TEN));
+    }
+
+    @Test
+    public void testMalformedLengths() throws Exception {
+        for (int length : new int[]{-1, 3, Integer.MAX_VALUE}) {
+            IoBuffer buf = IoBuffer.allocate(16);
+            buf.put((byte) ObjectCode.LONG_ARRAY.ordinal()).putInt(length).putLong(1).flip();
+            try {
+                read(buf, null);
+                fail("length " + length);
+            } catch (BufferDataException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("invalid length"));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedValue() throws Exception {
+        IoBuffer buf = write(UUID.randomUUID(), null, VALUE_CODES);
+        buf.limit(buf.limit() - 1);
+        try {
+            read(buf, null);
+            fail("the UUID is truncated");
+        } catch (BufferUnderflowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnknownEnumConstant() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.ENUM.ordinal());
+        ClassDictionary.writeUnstoredType(Color.class, buf);
+        StringCodec.putPrefixedString(buf, "BLUE");
+        buf.flip();
+        try {
+            read(buf, null);
+            fail("there is no BLUE");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unknown enum constant"));
+        }
+    }
+
+    @Test(expected = BufferDataException.class)
+    public void testEnumOfNonEnumType() throws Exception {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.ENUM.ordinal());
+        ClassDictionary.writeUnstoredType(String.class, buf);
+        StringCodec.putPrefixedString(buf, "RED");
+        buf.flip();
+        read(buf, null);
+    }
+
+    @Test
+    public void testMixedPeersSplitIntoSingleBytes() throws Exception {
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        ProtocolDecoder decoder = serverCodec.getDecoder(server);
+        for (int features : new int[]{0, VALUE_CODES | SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_CLASS_DICTIONARY}) {
+            ProtocolCodecSession client = new ProtocolCodecSession();
+            client.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+            for (Object value : VALUES) {
+                MsgInvokeReturn result = new MsgInvokeReturn();
+                result.setSequence(1);
+                result.setReturnValue(value);
+                clientCodec.getEncoder(client).encode(client, result, client.getEncoderOutput());
+            }
+
+            for (Object buffer : client.getEncoderOutputQueue()) {
+                IoBuffer frame = (IoBuffer) buffer;
+                while (frame.hasRemaining()) {
+                    decoder.decode(server, IoBuffer.wrap(new byte[]{frame.get()}), server.getDecoderOutput());
+                }
+            }
+            for (Object value : VALUES) {
+                assertValueEquals(value, ((MsgInvokeReturn) server.getDecoderOutputQueue().poll()).getReturnValue());
+            }
+            assertNull(server.getDecoderOutputQueue().poll());
+        }
+    }
+
+    private static IoBuffer write(Object value, ClassDictionary classes, int features) {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        UserObjectSerializer.writeUserObject(SerializerSet.Default, value, buf, classes, features);
+        return buf.flip();
+    }
+
+    private static Object read(IoBuffer buf, ClassDictionary classes) throws ClassNotFoundException {
+        return UserObjectSerializer.readUserObject(SerializerSet.Default, buf, classes);
+    }
+
+    private static void assertValueEquals(Object expected, Object actual) {
+        assertTrue(describe(expected) + " but was " + describe(actual), Arrays.deepEquals(new Object[]{expected}, new Object[]{actual}));
+        if (expected instanceof ZonedDateTime) {
+            assertEquals("the offset within the overlap", ((ZonedDateTime) expected).getOffset(), ((ZonedDateTime) actual).getOffset());
+        }
+    }
+
+    private static String describe(Object value) {
+        return Arrays.deepToString(new Object[]{value});
+    }
+}
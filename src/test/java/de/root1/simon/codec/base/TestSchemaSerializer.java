@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.MsgInvokeReturn;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the {@link SchemaSerializer} with classes shaped like Kotlin data
+ * classes, as the tests run on Java 8 and records need Java 16
+ *
+ * @author achristian
+ */
+public class TestSchemaSerializer {
+
+    private static final int FEATURES = SimonMessageConstants.FEATURE_BINARY_SERIALIZERS | SimonMessageConstants.FEATURE_VALUE_CODES;
+
+    static {
+        // SerializerSet.Default is the only set, Reading is private to this test
+        SerializerSet.Default.plusSchemaSerializer(Reading.class);
+    }
+
+    @After
+    public void tearDown() {
+        ClassDictionary.discard();
+    }
+
+    @Test
+    public void testLayout() {
+        SchemaSerializer<Reading> serializer = SchemaSerializer.forClass(Reading.class, SerializerSet.Default);
+        assertEquals(Reading.class, serializer.getType());
+        assertTrue(serializer.toString(), serializer.toString().contains("components=4"));
+    }
+
+    @Test
+    public void testStandaloneRoundTrip() {
+        SchemaSerializer<Reading> serializer = SchemaSerializer.forClass(Reading.class, SerializerSet.Default);
+        Reading reading = reading();
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        serializer.write(reading, buf);
+        buf.flip();
+        assertEquals(reading, serializer.read(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testComponentsArePositional() throws Exception {
+        Reading reading = new Reading("s", new int[]{1}, null, null);
+        IoBuffer buf = write(reading, null, FEATURES);
+
+        assertEquals(ObjectCode.CUSTOM.ordinal(), buf.get());
+        assertEquals(Reading.class, new ClassDictionary().readType(buf));
+        assertEquals("length prefix", buf.remaining() - 4, buf.getInt());
+        assertEquals("s", read(buf, null));
+        assertArrayEquals(new int[]{1}, (int[]) read(buf, null));
+        assertNull(read(buf, null));
+        assertNull(read(buf, null));
+        assertFalse("nothing describing the class", buf.hasRemaining());
+    }
+
+    @Test
+    public void testRoundTripWithDictionary() throws Exception {
+        ClassDictionary writer = new ClassDictionary();
+        ClassDictionary reader = new ClassDictionary();
+        int defining = 0;
+        for (int i = 0; i < 3; i++) {
+            Reading reading = reading();
+            IoBuffer buf = write(reading, writer, FEATURES);
+            ClassDictionary.commit();
+            if (i == 0) {
+                defining = buf.remaining();
+            } else {
+                assertTrue("classes are referred to by id", buf.remaining() < defining);
+            }
+            assertEquals(reading, read(buf, reader));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testJavaSerializedWithoutFeature() throws Exception {
+        Reading reading = reading();
+        IoBuffer buf = write(reading, null, 0);
+        assertEquals(ObjectCode.UNKNOWN.ordinal(), buf.get(0));
+        assertEquals(reading, read(buf, null));
+    }
+
+    @Test
+    public void testNotADataClass() {
+        for (Class<?> type : new Class<?>[]{String.class, NoConstructor.class}) {
+            try {
+                SchemaSerializer.forClass(type, SerializerSet.Default);
+                fail(type.getName());
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(type.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void testMismatchingComponents() throws Exception {
+        IoBuffer buf = custom(5, null, null, null);
+        try {
+            read(buf, null);
+            fail("the first component is no String");
+        } catch (BufferDataException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("can't create " + Reading.class.getName()));
+        }
+    }
+
+    @Test
+    public void testMissingComponents() throws Exception {
+        IoBuffer buf = custom("only one");
+        try {
+            read(buf, null);
+            fail("the body ends after the first component");
+        } catch (BufferUnderflowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMixedPeersSplitIntoSingleBytes() throws Exception {
+        SimonProtocolCodecFactory clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        ProtocolDecoder decoder = serverCodec.getDecoder(server);
+        Reading reading = reading();
+        for (int features : new int[]{0, FEATURES | SimonMessageConstants.FEATURE_COMPACT_FRAMING | SimonMessageConstants.FEATURE_CLASS_DICTIONARY}) {
+            ProtocolCodecSession client = new ProtocolCodecSession();
+            client.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+            for (int sequence = 1; sequence <= 2; sequence++) {
+                MsgInvokeReturn result = new MsgInvokeReturn();
+                result.setSequence(sequence);
+                result.setReturnValue(reading);
+                clientCodec.getEncoder(client).encode(client, result, client.getEncoderOutput());
+            }
+
+            for (Object buffer : client.getEncoderOutputQueue()) {
+                IoBuffer frame = (IoBuffer) buffer;
+                while (frame.hasRemaining()) {
+                    decoder.decode(server, IoBuffer.wrap(new byte[]{frame.get()}), server.getDecoderOutput());
+                }
+            }
+            assertEquals("features " + features, reading, ((MsgInvokeReturn) server.getDecoderOutputQueue().poll()).getReturnValue());
+            assertEquals("features " + features, reading, ((MsgInvokeReturn) server.getDecoderOutputQueue().poll()).getReturnValue());
+            assertNull(server.getDecoderOutputQueue().poll());
+        }
+    }
+
+    private static Reading reading() {
+        // Position has no serializer of its own, it is Java serialized within the body
+        return new Reading("sensor", new int[]{1, 2, 3}, UUID.randomUUID(), new Position(52.5, 13.4));
+    }
+
+    /**
+     * @return a body of a Reading with the given components
+     */
+    private static IoBuffer custom(Object... components) {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        buf.put((byte) ObjectCode.CUSTOM.ordinal());
+        ClassDictionary.writeUnstoredType(Reading.class, buf);
+        int start = buf.position();
+        buf.skip(4);
+        for (Object component : components) {
+            UserObjectSerializer.writeUserObject(SerializerSet.Default, component, buf, null, FEATURES);
+        }
+        buf.putInt(start, buf.position() - start - 4);
+        return buf.flip();
+    }
+
+    private static IoBuffer write(Object value, ClassDictionary classes, int features) {
+        IoBuffer buf = IoBuffer.allocate(64).setAutoExpand(true);
+        UserObjectSerializer.writeUserObject(SerializerSet.Default, value, buf, classes, features);
+        return buf.flip();
+    }
+
+    private static Object read(IoBuffer buf, ClassDictionary classes) throws ClassNotFoundException {
+        return UserObjectSerializer.readUserObject(SerializerSet.Default, buf, classes);
+    }
+
+    /**
+     * Shaped like <code>data class Reading(val sensor: String?, val samples:
+     * IntArray?, val id: UUID?, val position: Position?)</code>
+     */
+    private static final class Reading implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final String sensor;
+        private final int[] samples;
+        private final UUID id;
+        private final Position position;
+
+        private Reading(String sensor, int[] samples, UUID id, Position position) {
+            this.sensor = sensor;
+            this.samples = samples;
+            this.id = id;
+            this.position = position;
+        }
+
+        public String component1() {
+            return sensor;
+        }
+
+        public int[] component2() {
+            return samples;
+        }
+
+        public UUID component3() {
+            return id;
+        }
+
+        public Position component4() {
+            return position;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Reading)) {
+                return false;
+            }
+            Reading other = (Reading) obj;
+            return Arrays.deepEquals(new Object[]{sensor, samples, id, position}, new Object[]{other.sensor, other.samples, other.id, other.position});
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(new Object[]{sensor, samples, id, position});
+        }
+
+        @Override
+        public String toString() {
+            return "Reading" + Arrays.deepToString(new Object[]{sensor, samples, id, position});
+        }
+    }
+
+    private static final class Position implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final double latitude;
+        private final double longitude;
+
+        private Position(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Position && ((Position) obj).latitude == latitude && ((Position) obj).longitude == longitude;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.valueOf(latitude).hashCode() * 31 + Double.valueOf(longitude).hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Position[" + latitude + "," + longitude + "]";
+        }
+    }
+
+    /**
+     * Has components, but no constructor taking them
+     */
+    private static final class NoConstructor {
+
+        public int component1() {
+            return 0;
+        }
+    }
+}
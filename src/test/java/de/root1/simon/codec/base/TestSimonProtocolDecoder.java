@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.root1.simon.Statics;
+import de.root1.simon.codec.messages.AbstractMessage;
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.MsgNameLookup;
+import de.root1.simon.codec.messages.MsgPing;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests framing, splitting and malformed input of the
+ * {@link SimonProtocolDecoder}
+ *
+ * @author achristian
+ */
+public class TestSimonProtocolDecoder {
+
+    private SimonProtocolCodecFactory clientCodec;
+    private SimonProtocolCodecFactory serverCodec;
+    private ProtocolCodecSession serverSession;
+    private ProtocolDecoder decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        clientCodec = new SimonProtocolCodecFactory();
+        clientCodec.setup(SerializerSet.Default, false);
+        serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+        serverSession = new ProtocolCodecSession();
+        decoder = serverCodec.getDecoder(serverSession);
+    }
+
+    @Test
+    public void testVersion1Frame() throws Exception {
+        IoBuffer frame = encode(lookup(7, "server"), 0);
+        assertEquals("fixed header", SimonMessageConstants.MSG_NAME_LOOKUP, frame.get(0));
+        assertEquals(7, frame.getInt(1));
+
+        decode(frame);
+        MsgNameLookup msg = (MsgNameLookup) poll();
+        assertEquals(7, msg.getSequence());
+        assertEquals("server", msg.getRemoteObjectName());
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    public void testCompactFrame() throws Exception {
+        IoBuffer v1 = encode(lookup(-3, "server"), 0);
+        IoBuffer compact = encode(lookup(-3, "server"), SimonMessageConstants.FEATURE_COMPACT_FRAMING);
+        assertEquals("compact flag", SimonMessageConstants.MSG_NAME_LOOKUP | 0x80, compact.get(0) & 0xFF);
+        assertTrue(compact.remaining() < v1.remaining());
+
+        decode(compact);
+        MsgNameLookup msg = (MsgNameLookup) poll();
+        assertEquals("negative sequences survive zigzag encoding", -3, msg.getSequence());
+        assertEquals("server", msg.getRemoteObjectName());
+    }
+
+    @Test
+    public void testMixedFramesInOneStream() throws Exception {
+        // a peer switches to compact frames once the handshake is done
+        IoBuffer stream = concat(
+                encode(ping(1), 0),
+                encode(lookup(2, "a"), 0),
+                encode(lookup(3, "b"), SimonMessageConstants.FEATURE_COMPACT_FRAMING),
+                encode(ping(4), SimonMessageConstants.FEATURE_COMPACT_FRAMING));
+
+        decode(stream);
+        assertEquals(1, poll().getSequence());
+        assertEquals("a", ((MsgNameLookup) poll()).getRemoteObjectName());
+        assertEquals("b", ((MsgNameLookup) poll()).getRemoteObjectName());
+        assertEquals(4, poll().getSequence());
+        assertNull(serverSession.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void testSplitIntoSingleBytes() throws Exception {
+        for (int features : new int[]{0, SimonMessageConstants.FEATURE_COMPACT_FRAMING}) {
+            IoBuffer frame = encode(lookup(9, "split across reads"), features);
+            int length = frame.remaining();
+            for (int i = 0; i < length; i++) {
+                assertNull("decoded before the last byte", serverSession.getDecoderOutputQueue().peek());
+                decode(IoBuffer.wrap(new byte[]{frame.get()}));
+            }
+            assertEquals("split across reads", ((MsgNameLookup) poll()).getRemoteObjectName());
+        }
+    }
+
+    @Test
+    public void testFrameEndingWithNextHeader() throws Exception {
+        IoBuffer first = encode(lookup(1, "first"), 0);
+        IoBuffer second = encode(lookup(2, "second"), 0);
+        IoBuffer stream = concat(first, second);
+
+        // the first read holds the first frame and half of the second header
+        int split = first.remaining() + SimonMessageConstants.HEADER_LEN / 2;
+        IoBuffer read = stream.getSlice(0, split);
+        decode(read);
+        assertEquals("first", ((MsgNameLookup) poll()).getRemoteObjectName());
+        assertNull(serverSession.getDecoderOutputQueue().peek());
+
+        decode(stream.getSlice(split, stream.limit() - split));
+        assertEquals("second", ((MsgNameLookup) poll()).getRemoteObjectName());
+    }
+
+    @Test
+    public void testUnreadBodyBytesAreSkipped() throws Exception {
+        // a newer peer may append fields the decoder doesn't know about
+        IoBuffer ping = IoBuffer.allocate(32);
+        ping.put(SimonMessageConstants.MSG_PING).putInt(5).putInt(4);
+        ping.put(SimonMessageConstants.PROTOCOL_VERSION).put(new byte[]{1, 2, 3});
+        ping.flip();
+
+        decode(concat(ping, encode(lookup(6, "next"), 0)));
+        assertEquals(5, poll().getSequence());
+        assertEquals("next", ((MsgNameLookup) poll()).getRemoteObjectName());
+    }
+
+    @Test
+    public void testEmptyRead() throws Exception {
+        decode(IoBuffer.allocate(0));
+        assertNull(serverSession.getDecoderOutputQueue().peek());
+    }
+
+    @Test(expected = ProtocolDecoderException.class)
+    public void testUnknownMessageType() throws Exception {
+        IoBuffer frame = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN);
+        frame.put((byte) 0x7F).putInt(1).putInt(0).flip();
+        decode(frame);
+    }
+
+    @Test(expected = ProtocolDecoderException.class)
+    public void testNegativeBodySize() throws Exception {
+        IoBuffer frame = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN);
+        frame.put(SimonMessageConstants.MSG_PING).putInt(1).putInt(-1).flip();
+        decode(frame);
+    }
+
+    @Test
+    public void testOversizedFrameIsRejected() throws Exception {
+        InboundBudget budget = new InboundBudget();
+        budget.setMaxFrameSize(16);
+        serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setInboundBudget(budget);
+        serverCodec.setup(SerializerSet.Default, true);
+        decoder = serverCodec.getDecoder(serverSession);
+
+        decode(concat(encode(lookup(1, "a name that is longer than the max. frame size"), 0), encode(ping(2), 0)));
+        MsgError error = (MsgError) poll();
+        assertTrue(error.getErrorMessage().contains("sequence=1"));
+        assertTrue(error.getThrowable() instanceof ProtocolDecoderException);
+        assertNull("data after a rejected frame is dropped", serverSession.getDecoderOutputQueue().poll());
+
+        decode(encode(ping(3), 0));
+        assertNull("the session is about to be closed", serverSession.getDecoderOutputQueue().poll());
+    }
+
+    private static MsgNameLookup lookup(int sequence, String name) {
+        MsgNameLookup msg = new MsgNameLookup();
+        msg.setSequence(sequence);
+        msg.setRemoteObjectName(name);
+        return msg;
+    }
+
+    private static MsgPing ping(int sequence) {
+        MsgPing msg = new MsgPing();
+        msg.setSequence(sequence);
+        msg.setProtocolVersion(SimonMessageConstants.PROTOCOL_VERSION);
+        return msg;
+    }
+
+    /**
+     * Encodes a message as a client whose session negotiated the given
+     * features
+     */
+    private IoBuffer encode(AbstractMessage msg, int features) throws Exception {
+        ProtocolCodecSession clientSession = new ProtocolCodecSession();
+        clientSession.setAttribute(Statics.SESSION_ATTRIBUTE_FEATURES, features);
+        clientCodec.getEncoder(clientSession).encode(clientSession, msg, clientSession.getEncoderOutput());
+        IoBuffer[] buffers = clientSession.getEncoderOutputQueue().toArray(new IoBuffer[0]);
+        return concat(buffers);
+    }
+
+    private void decode(IoBuffer in) throws Exception {
+        decoder.decode(serverSession, in, serverSession.getDecoderOutput());
+    }
+
+    private AbstractMessage poll() {
+        AbstractMessage msg = (AbstractMessage) serverSession.getDecoderOutputQueue().poll();
+        assertNotNull("no message decoded", msg);
+        return msg;
+    }
+
+    private static IoBuffer concat(IoBuffer... buffers) {
+        IoBuffer all = IoBuffer.allocate(64).setAutoExpand(true);
+        for (IoBuffer buffer : buffers) {
+            all.put(buffer.duplicate());
+        }
+        return all.flip();
+    }
+}
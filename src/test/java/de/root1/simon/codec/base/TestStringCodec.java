@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StringCodec}, which has to stay wire compatible with
+ * MINA's prefixed strings used by version 1 peers
+ *
+ * @author achristian
+ */
+public class TestStringCodec {
+
+    private static final String[] SAMPLES = {
+        "",
+        "plain ascii",
+        "Grüße",
+        "日本語",
+        "emoji 😀 and more",
+        "\u0000\u007f\u0080߿ࠀ￿"
+    };
+
+    @Test
+    public void testEncodesLikeMina() throws CharacterCodingException {
+        for (int prefixLength : new int[]{1, 2, 4}) {
+            for (String sample : SAMPLES) {
+                IoBuffer ours = IoBuffer.allocate(16).setAutoExpand(true);
+                StringCodec.putPrefixedString(ours, sample, prefixLength);
+                IoBuffer mina = IoBuffer.allocate(16).setAutoExpand(true);
+                mina.putPrefixedString(sample, prefixLength, StandardCharsets.UTF_8.newEncoder());
+                assertEquals(sample + " with prefix " + prefixLength, mina.flip(), ours.flip());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodesMinaStrings() throws CharacterCodingException {
+        for (int prefixLength : new int[]{1, 2, 4}) {
+            IoBuffer buf = IoBuffer.allocate(16).setAutoExpand(true);
+            for (String sample : SAMPLES) {
+                buf.putPrefixedString(sample, prefixLength, StandardCharsets.UTF_8.newEncoder());
+            }
+            buf.flip();
+            for (String sample : SAMPLES) {
+                assertEquals(sample, StringCodec.getPrefixedString(buf, prefixLength));
+            }
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testDefaultPrefixLength() throws CharacterCodingException {
+        IoBuffer buf = IoBuffer.allocate(16).setAutoExpand(true);
+        StringCodec.putPrefixedString(buf, "name");
+        buf.flip();
+        assertEquals(4, buf.getShort(0));
+        assertEquals("name", StringCodec.getPrefixedString(buf));
+    }
+
+    @Test
+    public void testWritesIntoBufferWithoutAutoExpand() throws CharacterCodingException {
+        IoBuffer buf = IoBuffer.allocate(2);
+        StringCodec.putPrefixedString(buf, "日本語");
+        buf.flip();
+        assertEquals("日本語", StringCodec.getPrefixedString(buf));
+    }
+
+    @Test
+    public void testMaxLengthOfPrefix() throws CharacterCodingException {
+        char[] chars = new char[255];
+        Arrays.fill(chars, 'x');
+        IoBuffer buf = IoBuffer.allocate(256);
+        StringCodec.putPrefixedString(buf, new String(chars), 1);
+        buf.flip();
+        assertEquals(255, StringCodec.getPrefixedString(buf, 1).length());
+
+        try {
+            // 128 chars, 256 bytes
+            StringCodec.putPrefixedString(IoBuffer.allocate(300), repeat('ä', 128), 1);
+            fail("the UTF-8 length exceeds the prefix");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStringsLargerThanScratch() throws CharacterCodingException {
+        String large = repeat('ä', 50000);
+        IoBuffer buf = IoBuffer.allocate(16).setAutoExpand(true);
+        StringCodec.putPrefixedString(buf, large, 4);
+        StringCodec.putPrefixedString(buf, large, 4);
+        StringCodec.putPrefixedString(buf, "small", 4);
+        buf.flip();
+        assertEquals(large, StringCodec.getPrefixedString(buf, 4));
+        assertEquals(large, StringCodec.getPrefixedString(buf, 4));
+        assertEquals("small", StringCodec.getPrefixedString(buf, 4));
+    }
+
+    @Test
+    public void testUnpairedSurrogates() {
+        for (String malformed : new String[]{"\ud83d", "a\ud83db", "\ude00", "\ude00\ud83d"}) {
+            IoBuffer buf = IoBuffer.allocate(16);
+            try {
+                StringCodec.putPrefixedString(buf, malformed);
+                fail("unpaired surrogate in " + Arrays.toString(malformed.toCharArray()));
+            } catch (CharacterCodingException e) {
+                assertEquals("nothing written", 0, buf.position());
+            }
+        }
+    }
+
+    @Test(expected = CharacterCodingException.class)
+    public void testMalformedUtf8() throws CharacterCodingException {
+        IoBuffer buf = IoBuffer.allocate(8);
+        // a continuation byte without a lead byte
+        buf.putShort((short) 2).put((byte) 'a').put((byte) 0x80).flip();
+        StringCodec.getPrefixedString(buf);
+    }
+
+    @Test
+    public void testLengthBeyondBuffer() throws CharacterCodingException {
+        IoBuffer buf = IoBuffer.allocate(8);
+        buf.putShort((short) 10).put("abc".getBytes(StandardCharsets.US_ASCII)).flip();
+        try {
+            StringCodec.getPrefixedString(buf);
+            fail("length exceeds the data");
+        } catch (BufferUnderflowException e) {
+            assertEquals("string bytes not consumed", 3, buf.remaining());
+        }
+    }
+
+    @Test(expected = BufferDataException.class)
+    public void testNegativeLength() throws CharacterCodingException {
+        IoBuffer buf = IoBuffer.allocate(8);
+        buf.putInt(-1).flip();
+        StringCodec.getPrefixedString(buf, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrefixLength() throws CharacterCodingException {
+        StringCodec.putPrefixedString(IoBuffer.allocate(8), "x", 3);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
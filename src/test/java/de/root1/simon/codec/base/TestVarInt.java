@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.codec.base;
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferUnderflowException;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.junit.Test;
+
+import de.root1.simon.codec.messages.MsgError;
+import de.root1.simon.codec.messages.SimonMessageConstants;
+
+/**
+ * Tests the {@link VarInt} encoding used by invoke handles and compact frames
+ *
+ * @author achristian
+ */
+public class TestVarInt {
+
+    private static final int[] VALUES = {
+        0, 1, 127, 128, 255, 16383, 16384, 2097151, 2097152,
+        268435455, 268435456, Integer.MAX_VALUE, -1, Integer.MIN_VALUE
+    };
+
+    @Test
+    public void testRoundTrip() {
+        IoBuffer buf = IoBuffer.allocate(4).setAutoExpand(true);
+        for (int value : VALUES) {
+            VarInt.put(buf, value);
+        }
+        buf.flip();
+        for (int value : VALUES) {
+            assertEquals(value, VarInt.get(buf));
+        }
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testSizeMatchesWrittenBytes() {
+        for (int value : VALUES) {
+            IoBuffer buf = IoBuffer.allocate(VarInt.MAX_BYTES);
+            VarInt.put(buf, value);
+            assertEquals("size of " + value, buf.position(), VarInt.size(value));
+        }
+    }
+
+    @Test
+    public void testBoundaries() {
+        assertEquals(1, VarInt.size(0));
+        assertEquals(1, VarInt.size(127));
+        assertEquals(2, VarInt.size(128));
+        assertEquals(2, VarInt.size(16383));
+        assertEquals(3, VarInt.size(16384));
+        assertEquals(5, VarInt.size(Integer.MAX_VALUE));
+        assertEquals("negative values are unsigned", 5, VarInt.size(-1));
+
+        IoBuffer buf = IoBuffer.allocate(2);
+        VarInt.put(buf, 128);
+        assertEquals((byte) 0x80, buf.get(0));
+        assertEquals((byte) 0x01, buf.get(1));
+    }
+
+    @Test(expected = BufferDataException.class)
+    public void testTooManyBytes() {
+        IoBuffer buf = IoBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00});
+        VarInt.get(buf);
+    }
+
+    @Test(expected = BufferDataException.class)
+    public void testFifthByteExceedsInt() {
+        IoBuffer buf = IoBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1F});
+        VarInt.get(buf);
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void testTruncated() {
+        IoBuffer buf = IoBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80});
+        VarInt.get(buf);
+    }
+
+    @Test
+    public void testUnboundHandleIsReportedForTheMessage() throws Exception {
+        SimonProtocolCodecFactory serverCodec = new SimonProtocolCodecFactory();
+        serverCodec.setup(SerializerSet.Default, true);
+        ProtocolCodecSession session = new ProtocolCodecSession();
+        ProtocolDecoder decoder = serverCodec.getDecoder(session);
+
+        // handle 5 without the bind bit, never bound in this session
+        IoBuffer frame = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN + 1);
+        frame.put(SimonMessageConstants.MSG_INVOKE_HANDLE).putInt(1).putInt(1);
+        VarInt.put(frame, 5 << 1);
+        decoder.decode(session, frame.flip(), session.getDecoderOutput());
+
+        MsgError error = (MsgError) session.getDecoderOutputQueue().poll();
+        assertNotNull(error);
+        assertTrue(error.getThrowable().getMessage().contains("not bound"));
+    }
+}
@@ -16,35 +16,26 @@
  *   You should have received a copy of the GNU General Public License
  *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
  */
-package de.root1.simon;
+package de.root1.simon.test.executor;
 
-/**
- * A simple monitor class whose instance can have a sequence id.
- * @author achr
- *
- */
-public class SequenceMonitor extends Monitor {
+import de.root1.simon.ProcessMessageThread;
+import de.root1.simon.Simon;
+import de.root1.simon.annotation.SimonRemote;
 
-    /**
-     * the associated sequence id
-     */
-    private final int sequenceId;
+@SimonRemote
+public class RemoteObjectImpl implements RemoteObject {
+
+    public String getThreadName() {
+        return Thread.currentThread().getName();
+    }
 
-    /**
-     * Creates a monitor object
-     * @param sequenceId the associated sequence id
-     */
-    protected SequenceMonitor(int sequenceId) {
-        super();
-        this.sequenceId = sequenceId;
+    @SuppressWarnings("deprecation")
+    public boolean isProcessMessageThread() {
+        return Thread.currentThread() instanceof ProcessMessageThread;
     }
 
-    /**
-     * Returns the associated sequence id
-     * @return the id
-     */
-    protected int getSequenceId() {
-        return sequenceId;
+    public long getCallerSessionId() {
+        return Simon.getSessionId();
     }
 
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ * 
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.simon.test.executor;
+
+import de.root1.simon.Lookup;
+import de.root1.simon.Registry;
+import de.root1.simon.Simon;
+import de.root1.simon.test.PortNumberGenerator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests processing remote calls on the default worker pool and on an
+ * executor supplied by the application
+ *
+ * @author achristian
+ */
+public class TestCustomExecutor {
+
+    private static final String THREAD_NAME = "TestCustomExecutor.worker";
+
+    private int PORT = 0;
+    private ExecutorService executor;
+    private final AtomicInteger executed = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        PORT = PortNumberGenerator.getNextPort();
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, THREAD_NAME);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDefaultPoolUsesProcessMessageThreads() throws Exception {
+        Registry registry = Simon.createRegistry(PORT);
+        registry.start();
+        registry.bind("roi", new RemoteObjectImpl());
+        Lookup lookup = Simon.createNameLookup("127.0.0.1", PORT);
+        try {
+            RemoteObject roiRemote = (RemoteObject) lookup.lookup("roi");
+
+            assertTrue("calls on the default pool must run on a ProcessMessageThread", roiRemote.isProcessMessageThread());
+            assertTrue(roiRemote.getCallerSessionId() != 0);
+
+            lookup.release(roiRemote);
+        } finally {
+            registry.unbind("roi");
+            registry.stop();
+        }
+    }
+
+    @Test
+    public void testCustomExecutor() throws Exception {
+        Registry registry = Simon.createRegistry(PORT);
+        registry.setExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                executor.execute(command);
+            }
+        });
+        registry.start();
+        registry.bind("roi", new RemoteObjectImpl());
+        Lookup lookup = Simon.createNameLookup("127.0.0.1", PORT);
+        try {
+            RemoteObject roiRemote = (RemoteObject) lookup.lookup("roi");
+
+            assertEquals(THREAD_NAME, roiRemote.getThreadName());
+            assertFalse(roiRemote.isProcessMessageThread());
+            assertTrue("session id must be available on any executor", roiRemote.getCallerSessionId() != 0);
+            assertTrue(executed.get() > 0);
+
+            lookup.release(roiRemote);
+        } finally {
+            registry.unbind("roi");
+            registry.stop();
+        }
+        assertFalse("an executor of the application must not be shut down", executor.isShutdown());
+    }
+
+}
@@ -4,6 +4,7 @@ import com.thoughtworks.xstream.XStream
 import de.root1.simon.Lookup
 import de.root1.simon.Registry
 import de.root1.simon.Simon
+import de.root1.simon.annotation.OneWay
 import de.root1.simon.annotation.SimonRemote
 import de.root1.simon.codec.base.Serializer
 import de.root1.simon.codec.base.SerializerSet
@@ -15,6 +16,8 @@ import org.junit.BeforeClass
 import org.junit.Test
 import java.util.*
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
 import kotlin.coroutines.experimental.buildSequence
 import kotlin.reflect.KClass
 
@@ -22,12 +25,15 @@ interface Service {
 
     fun executeRun(data: Int): CompletableFuture<Double>
     fun executeExceptionRun(data: Int): CompletableFuture<Double>
+    fun executeCompletedRun(data: Int): CompletableFuture<Double>
 
     // starting to look like our actual code!
     fun executeDependentRuns(dag: Node): CompletableFuture<String>
 
     fun <T> identity(input: T): T
 
+    @OneWay fun postTelemetry(value: Int)
+
     fun executeComplexDependentRuns(dag: Node, @SimonRemote visitorFactory: ExecutionVisitorFactory): CompletableFuture<Double>
 }
 
@@ -49,12 +55,19 @@ class ServiceImpl: Service {
 
     override fun executeRun(data: Int) = future<Double> { 42.0 + data }
     override fun executeExceptionRun(data: Int) = future<Double> { throw BlamException(data) }
+    override fun executeCompletedRun(data: Int) = CompletableFuture.completedFuture(42.0 + data)
 
     override fun executeDependentRuns(dag: Node) = future<String> {
         dag.bfs().mapIndexed { idx, v -> v.value + idx }.joinToString("-")
     }
 
     override fun <T> identity(input: T): T = input
+
+    override fun postTelemetry(value: Int) { telemetry.put(value) }
+
+    companion object {
+        val telemetry = LinkedBlockingQueue<Int>()
+    }
 }
 
 interface ExecutionVisitorFactory {
@@ -180,6 +193,25 @@ class ThingyEmpoweropsTest {
         assert(result == 84.0)
     }
 
+    @Test fun `when returning an already completed future should properly send and recieve values`() = runBlocking {
+        val service = lookup.lookup("service") as Service
+        val futureResult = service.executeCompletedRun(1)
+
+        val result: Double = futureResult.await()
+
+        assert(result == 43.0)
+    }
+
+    @Test fun `when calling one-way method should deliver in order without waiting for return`() {
+        val service = lookup.lookup("service") as Service
+
+        (1..20).forEach { service.postTelemetry(it) }
+
+        val received = (1..20).map { ServiceImpl.telemetry.poll(10, TimeUnit.SECONDS) }
+
+        assert(received == (1..20).toList())
+    }
+
     @Test fun `when using exceptional future should properly send and recieve values`() = runBlocking {
 
         val service = lookup.lookup("service") as Service